@@ -42,7 +42,7 @@ import android.os.SystemClock;
 /**
  * Send automatic server pings with the help of {@link AlarmManager}.
  * <p>
- * Smack's {@link PingManager} uses a <code>ScheduledThreadPoolExecutor</code> to schedule the
+ * Smack's {@link PingManager} uses Smack's shared <code>HashedWheelTimer</code> to schedule the
  * automatic server pings, but on Android, those scheduled pings are not reliable. This is because
  * the Android device may go into deep sleep where the system will not continue to run this causes
  * <ul>
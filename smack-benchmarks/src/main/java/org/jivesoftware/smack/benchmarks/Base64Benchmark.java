@@ -0,0 +1,74 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.util.stringencoder.Base64;
+import org.jivesoftware.smack.util.stringencoder.java7.Java7Base64Encoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures encoding and decoding 'size' bytes with {@link Base64}, as done for e.g. SASL, avatars and In-Band
+ * Bytestreams, using the Java 7 encoder.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Base64Benchmark {
+
+    @Param({ "64", "4096", "65536" })
+    public int size;
+
+    private byte[] bytes;
+
+    private String encoded;
+
+    @Setup
+    public void setup() {
+        Base64.setEncoder(Java7Base64Encoder.getInstance());
+        bytes = new byte[size];
+        // Use a fixed seed, so that every run uses the same data.
+        new Random(42).nextBytes(bytes);
+        encoded = Base64.encodeToString(bytes);
+    }
+
+    @Benchmark
+    public String encode() {
+        return Base64.encodeToString(bytes);
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return Base64.decode(encoded);
+    }
+}
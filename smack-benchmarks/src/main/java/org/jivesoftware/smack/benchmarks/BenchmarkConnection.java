@@ -0,0 +1,173 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.util.concurrent.Executor;
+
+import org.jivesoftware.smack.AbstractXMPPConnection;
+import org.jivesoftware.smack.ConnectionConfiguration;
+import org.jivesoftware.smack.SmackConfiguration;
+import org.jivesoftware.smack.SmackExecutionModel;
+import org.jivesoftware.smack.packet.Nonza;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.util.stringencoder.Base64;
+import org.jivesoftware.smack.util.stringencoder.java7.Java7Base64Encoder;
+
+import org.jxmpp.jid.impl.JidCreate;
+import org.jxmpp.jid.parts.Resourcepart;
+import org.jxmpp.stringprep.XmppStringprepException;
+
+/**
+ * A connection without a server for the benchmarks. Sent stanzas are discarded and received stanzas are injected via
+ * {@link #dispatch(Stanza)}.
+ * <p>
+ * Use {@link #newSynchronousConnection()} to obtain a connection which invokes the stanza listeners on the calling
+ * thread. Otherwise the benchmark would only measure how fast the listeners are queued on the executor, and the queue
+ * would grow without bound. Call {@link #restoreExecutionModel()} once the benchmark is done with such a connection.
+ * </p>
+ */
+public class BenchmarkConnection extends AbstractXMPPConnection {
+
+    static {
+        // Managers created together with the connection, e.g. the EntityCapsManager, require a Base64 encoder.
+        Base64.setEncoder(Java7Base64Encoder.getInstance());
+    }
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * The global execution model before {@link #newSynchronousConnection()} replaced it, or <code>null</code>.
+     */
+    private SmackExecutionModel previousExecutionModel;
+
+    public BenchmarkConnection() throws XmppStringprepException {
+        super(BenchmarkConnectionConfiguration.builder()
+                        .setXmppDomain("example.org")
+                        .setUsernameAndPassword("juliet", "benchmark")
+                        .build());
+        user = JidCreate.entityFullFrom("juliet@example.org/balcony");
+        connected = true;
+    }
+
+    /**
+     * Create a new connection which processes the injected stanzas and invokes the listeners on the calling thread.
+     * Note that this configures a direct execution model as Smack's global execution model, so that the managers
+     * created for the connection also use it, until {@link #restoreExecutionModel()} is called.
+     *
+     * @return a new connection.
+     * @throws XmppStringprepException if the JID of the connection's user is invalid.
+     */
+    public static BenchmarkConnection newSynchronousConnection() throws XmppStringprepException {
+        SmackExecutionModel previousExecutionModel = SmackConfiguration.getExecutionModel();
+        SmackConfiguration.setExecutionModel(new SmackExecutionModel(DIRECT_EXECUTOR));
+        BenchmarkConnection connection;
+        try {
+            connection = new BenchmarkConnection();
+        }
+        catch (XmppStringprepException | RuntimeException e) {
+            SmackConfiguration.setExecutionModel(previousExecutionModel);
+            throw e;
+        }
+        connection.previousExecutionModel = previousExecutionModel;
+        return connection;
+    }
+
+    /**
+     * Restore the global execution model replaced by {@link #newSynchronousConnection()}. Does nothing if this
+     * connection was not created by that method.
+     */
+    public void restoreExecutionModel() {
+        if (previousExecutionModel == null) {
+            return;
+        }
+        SmackConfiguration.setExecutionModel(previousExecutionModel);
+        previousExecutionModel = null;
+    }
+
+    /**
+     * Process the given stanza as if it was received from the server, i.e. notify the matching stanza collectors and
+     * listeners.
+     *
+     * @param stanza the received stanza.
+     */
+    public void dispatch(Stanza stanza) {
+        invokeStanzaCollectorsAndNotifyRecvListeners(stanza);
+    }
+
+    @Override
+    public boolean isSecureConnection() {
+        return false;
+    }
+
+    @Override
+    public boolean isUsingCompression() {
+        return false;
+    }
+
+    @Override
+    protected void sendStanzaInternal(Stanza packet) {
+    }
+
+    @Override
+    public void sendNonza(Nonza element) {
+    }
+
+    @Override
+    protected void connectInternal() {
+        connected = true;
+    }
+
+    @Override
+    protected void loginInternal(String username, String password, Resourcepart resource) {
+        authenticated = true;
+    }
+
+    @Override
+    protected void shutdown() {
+        connected = false;
+        authenticated = false;
+    }
+
+    private static final class BenchmarkConnectionConfiguration extends ConnectionConfiguration {
+
+        private BenchmarkConnectionConfiguration(Builder builder) {
+            super(builder);
+        }
+
+        private static Builder builder() {
+            return new Builder();
+        }
+
+        private static final class Builder extends ConnectionConfiguration.Builder<Builder, BenchmarkConnectionConfiguration> {
+
+            @Override
+            public BenchmarkConnectionConfiguration build() {
+                return new BenchmarkConnectionConfiguration(this);
+            }
+
+            @Override
+            protected Builder getThis() {
+                return this;
+            }
+        }
+    }
+}
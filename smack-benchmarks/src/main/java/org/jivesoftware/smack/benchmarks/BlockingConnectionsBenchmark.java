@@ -0,0 +1,184 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.SmackConfiguration;
+import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.SmackExecutionModel;
+import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.util.HashedWheelTimer;
+import org.jivesoftware.smackx.ping.packet.Ping;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.jxmpp.stringprep.XmppStringprepException;
+
+/**
+ * Simulates many connections whose users perform blocking IQ requests with Smack's synchronous API, i.e.
+ * {@link org.jivesoftware.smack.XMPPConnection#createStanzaCollectorAndSend(IQ)} and
+ * {@link org.jivesoftware.smack.StanzaCollector#nextResultOrThrow()}, against an in-process stand-in of a server. The
+ * connections are real {@link org.jivesoftware.smack.AbstractXMPPConnection}s: requests pass through
+ * {@code sendStanza()}, and the server injects every response after a simulated round trip time via
+ * {@code processStanza()}, like the reader thread of a connection does. The response is then processed by the
+ * connection's incoming stanza processor and delivered to the stanza collector the user thread blocks on.
+ * <p>
+ * Every simulated user has a dedicated thread created by the execution model, which are virtual threads with the
+ * 'virtual' parameter. The 'virtual' parameter requires a Java runtime supporting virtual threads, on older runtimes
+ * select the platform threads with '-p threads=platform'.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BlockingConnectionsBenchmark {
+
+    @Param({ "platform", "virtual" })
+    public String threads;
+
+    @Param({ "10000" })
+    public int connections;
+
+    @Param({ "10" })
+    public int requestsPerConnection;
+
+    @Param({ "5" })
+    public int roundTripMillis;
+
+    private SmackExecutionModel executionModel;
+
+    private InProcessServer server;
+
+    private List<ServerBackedConnection> serverBackedConnections;
+
+    @Setup
+    public void setup() throws XmppStringprepException {
+        switch (threads) {
+        case "platform":
+            executionModel = new SmackExecutionModel(64, 100000);
+            break;
+        case "virtual":
+            executionModel = SmackExecutionModel.newVirtualThreadExecutionModel();
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown threads parameter: " + threads);
+        }
+        // The connections use the execution model which is set when they are created.
+        SmackConfiguration.setExecutionModel(executionModel);
+        server = new InProcessServer(roundTripMillis);
+        serverBackedConnections = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            serverBackedConnections.add(new ServerBackedConnection(server));
+        }
+    }
+
+    @Benchmark
+    public int blockingRequests() throws InterruptedException {
+        List<Thread> userThreads = new ArrayList<>(connections);
+        for (final ServerBackedConnection connection : serverBackedConnections) {
+            Thread userThread = executionModel.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < requestsPerConnection; j++) {
+                        try {
+                            connection.createStanzaCollectorAndSend(new Ping()).nextResultOrThrow();
+                        }
+                        catch (SmackException | XMPPException | InterruptedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                }
+            });
+            userThread.start();
+            userThreads.add(userThread);
+        }
+        for (Thread userThread : userThreads) {
+            userThread.join();
+        }
+        return userThreads.size();
+    }
+
+    /**
+     * Stand-in for a XMPP server, which answers every IQ request with an empty result after a round trip time.
+     */
+    private static final class InProcessServer {
+        // Smack's shared timer ticks every 100ms, use a finer grained timer to simulate the round trip time.
+        private final HashedWheelTimer timer = new HashedWheelTimer("In-Process Server", 1, TimeUnit.MILLISECONDS, 512);
+
+        private final long roundTripMillis;
+
+        private InProcessServer(long roundTripMillis) {
+            this.roundTripMillis = roundTripMillis;
+        }
+
+        @SuppressWarnings("FutureReturnValueIgnored")
+        private void handleRequest(final ServerBackedConnection connection, IQ request) {
+            final IQ response = IQ.createResultIQ(request);
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    connection.receive(response);
+                }
+            }, roundTripMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * A connection which sends its IQ requests to the in-process server and receives the responses via the regular
+     * incoming stanza processing of the connection.
+     */
+    private static final class ServerBackedConnection extends BenchmarkConnection {
+        private final InProcessServer server;
+
+        private ServerBackedConnection(InProcessServer server) throws XmppStringprepException {
+            this.server = server;
+        }
+
+        @Override
+        protected void sendStanzaInternal(Stanza stanza) {
+            if (stanza instanceof IQ) {
+                server.handleRequest(this, (IQ) stanza);
+            }
+        }
+
+        private void receive(Stanza stanza) {
+            try {
+                processStanza(stanza);
+            }
+            catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
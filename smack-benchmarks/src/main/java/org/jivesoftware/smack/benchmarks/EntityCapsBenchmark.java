@@ -0,0 +1,97 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.util.stringencoder.Base64;
+import org.jivesoftware.smack.util.stringencoder.java7.Java7Base64Encoder;
+import org.jivesoftware.smackx.caps.EntityCapsManager;
+import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
+import org.jivesoftware.smackx.xdata.FormField;
+import org.jivesoftware.smackx.xdata.packet.DataForm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the verification of an entity capabilities 'ver' attribute with
+ * {@link EntityCapsManager#verifyDiscoverInfoVersion(String, String, DiscoverInfo)}, which generates the verification
+ * string and hashes it. Uses the complex generation example of XEP-0115 § 5.3.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityCapsBenchmark {
+
+    private static final String VER = "q07IKJEyjvHSyhy//CH0CxmKi8w=";
+
+    private DiscoverInfo discoverInfo;
+
+    @Setup
+    public void setup() {
+        Base64.setEncoder(Java7Base64Encoder.getInstance());
+
+        discoverInfo = new DiscoverInfo();
+        discoverInfo.setType(DiscoverInfo.Type.result);
+        discoverInfo.addIdentity(new DiscoverInfo.Identity("client", "pc", "Psi 0.11", "en"));
+        discoverInfo.addIdentity(new DiscoverInfo.Identity("client", "pc", "Ψ 0.11", "el"));
+        discoverInfo.addFeature("http://jabber.org/protocol/disco#items");
+        discoverInfo.addFeature(EntityCapsManager.NAMESPACE);
+        discoverInfo.addFeature("http://jabber.org/protocol/muc");
+        discoverInfo.addFeature("http://jabber.org/protocol/disco#info");
+
+        DataForm dataForm = new DataForm(DataForm.Type.result);
+        dataForm.addField(formField("os", "Mac"));
+        FormField formType = formField("FORM_TYPE", "urn:xmpp:dataforms:softwareinfo");
+        formType.setType(FormField.Type.hidden);
+        dataForm.addField(formType);
+        dataForm.addField(formField("ip_version", "ipv4", "ipv6"));
+        dataForm.addField(formField("os_version", "10.5.1"));
+        dataForm.addField(formField("software", "Psi"));
+        dataForm.addField(formField("software_version", "0.11"));
+        discoverInfo.addExtension(dataForm);
+
+        if (!verify()) {
+            throw new IllegalStateException("The verification string does not match");
+        }
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return EntityCapsManager.verifyDiscoverInfoVersion(VER, "sha-1", discoverInfo);
+    }
+
+    private static FormField formField(String variable, String... values) {
+        FormField formField = new FormField(variable);
+        for (String value : values) {
+            formField.addValue(value);
+        }
+        return formField;
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smackx.filetransfer.FileTransferEngine;
+import org.jivesoftware.smackx.filetransfer.FileTransferEngine.ProgressMonitor;
+import org.jivesoftware.smackx.filetransfer.FileTransferEngine.SocketChannelInputStream;
+import org.jivesoftware.smackx.filetransfer.FileTransferEngine.SocketChannelOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures transferring a 1 GiB file over a loopback connection with {@link FileTransferEngine}, as done by SOCKS5
+ * file transfers. The 'streams' variant copies between the file and the socket streams using a buffer, the 'channels'
+ * variant lets the file channel transfer the data. One operation is one MiB, so the reported throughput is in MiB/s.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FileTransferBenchmark {
+
+    private static final int MIB = 1024 * 1024;
+
+    private static final int FILE_SIZE_MIB = 1024;
+
+    private static final ProgressMonitor NO_PROGRESS = new ProgressMonitor() {
+        @Override
+        public void progress(long transferred) {
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    };
+
+    @Param({ "streams", "channels" })
+    public String mode;
+
+    private File source;
+
+    private File target;
+
+    private ServerSocketChannel serverChannel;
+
+    private ExecutorService receiver;
+
+    @Setup
+    public void setup() throws IOException {
+        source = File.createTempFile("smack-benchmark", ".source");
+        target = File.createTempFile("smack-benchmark", ".target");
+        byte[] block = new byte[MIB];
+        // Use a fixed seed, so that every run uses the same data.
+        new Random(42).nextBytes(block);
+        OutputStream out = new FileOutputStream(source);
+        try {
+            for (int i = 0; i < FILE_SIZE_MIB; i++) {
+                out.write(block);
+            }
+        }
+        finally {
+            out.close();
+        }
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        receiver = Executors.newSingleThreadExecutor();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        receiver.shutdownNow();
+        serverChannel.close();
+        source.delete();
+        target.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILE_SIZE_MIB)
+    public long transfer() throws Exception {
+        SocketChannel sendingChannel = SocketChannel.open(serverChannel.socket().getLocalSocketAddress());
+        final SocketChannel receivingChannel = serverChannel.accept();
+        final boolean channels = mode.equals("channels");
+
+        Future<Long> received = receiver.submit(new Callable<Long>() {
+            @Override
+            public Long call() throws IOException {
+                InputStream in = channels ? new SocketChannelInputStream(receivingChannel)
+                                : receivingChannel.socket().getInputStream();
+                OutputStream out = new FileOutputStream(target);
+                try {
+                    return FileTransferEngine.copy(in, out, NO_PROGRESS);
+                }
+                finally {
+                    out.close();
+                    in.close();
+                }
+            }
+        });
+
+        InputStream in = new FileInputStream(source);
+        OutputStream out = channels ? new SocketChannelOutputStream(sendingChannel)
+                        : sendingChannel.socket().getOutputStream();
+        try {
+            FileTransferEngine.copy(in, out, NO_PROGRESS);
+        }
+        finally {
+            in.close();
+            out.close();
+        }
+        return received.get();
+    }
+}
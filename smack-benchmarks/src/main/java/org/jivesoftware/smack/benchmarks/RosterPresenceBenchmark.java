@@ -0,0 +1,100 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.roster.Roster;
+
+import org.jxmpp.jid.impl.JidCreate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how fast the {@link Roster} processes received presences, including the dispatch by the connection. Every
+ * operation processes the next presence of a fixed sequence, which cycles through 'contacts' contacts with two resources
+ * each, alternating between available and unavailable presences, like a presence flood after login.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RosterPresenceBenchmark {
+
+    @Param({ "100", "10000" })
+    public int contacts;
+
+    /**
+     * Whether the roster retains the full presence stanzas, or only stores the compact presence information.
+     */
+    @Param({ "true", "false" })
+    public boolean retainPresenceStanzas;
+
+    private BenchmarkConnection connection;
+
+    private Roster roster;
+
+    private Presence[] presences;
+
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        connection = BenchmarkConnection.newSynchronousConnection();
+        roster = Roster.getInstanceFor(connection);
+        roster.setRosterLoadedAtLogin(false);
+        roster.setRetainPresenceStanzas(retainPresenceStanzas);
+
+        presences = new Presence[contacts * 4];
+        int i = 0;
+        for (int contact = 0; contact < contacts; contact++) {
+            for (String resource : new String[] { "phone", "desktop" }) {
+                Presence available = new Presence(Presence.Type.available, "Available", 0, Presence.Mode.available);
+                available.setFrom(JidCreate.from("contact" + contact + "@example.net/" + resource));
+                presences[i++] = available;
+
+                Presence unavailable = new Presence(Presence.Type.unavailable);
+                unavailable.setFrom(available.getFrom());
+                presences[i++] = unavailable;
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        connection.restoreExecutionModel();
+    }
+
+    @Benchmark
+    public void processPresence() {
+        connection.dispatch(presences[next]);
+        next = (next + 1) % presences.length;
+    }
+}
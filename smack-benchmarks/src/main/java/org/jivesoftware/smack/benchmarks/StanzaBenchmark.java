@@ -0,0 +1,110 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smack.util.XmlStringBuilder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing a single stanza with {@link PacketParserUtils#parseStanza(String)} and serializing it with
+ * {@link Stanza#toXML()}. The 'toXmlString' variant also flattens the {@link XmlStringBuilder} into a String, which is
+ * what e.g. the debuggers and the stream management resend queue do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StanzaBenchmark {
+
+    static final String MESSAGE = "<message xmlns='jabber:client' from='romeo@example.net/orchard'"
+                    + " to='juliet@example.org/balcony' id='ktx72v49' type='chat' xml:lang='en'>"
+                    + "<body>Art thou not Romeo, and a Montague? – Grüße 😀</body>"
+                    + "<thread>e0ffe42b28561960c6b12b944a092794b9683a38</thread>"
+                    + "<active xmlns='http://jabber.org/protocol/chatstates'/>"
+                    + "<request xmlns='urn:xmpp:receipts'/></message>";
+
+    static final String PRESENCE = "<presence xmlns='jabber:client' from='romeo@example.net/orchard'"
+                    + " to='juliet@example.org' id='pres1'>"
+                    + "<show>away</show><status>I shall return!</status><priority>5</priority>"
+                    + "<c xmlns='http://jabber.org/protocol/caps' hash='sha-1' node='https://igniterealtime.org/projects/smack'"
+                    + " ver='QgayPKawpkPSDYmwT/WM94uAlu0='/></presence>";
+
+    static final String IQ = "<iq xmlns='jabber:client' from='juliet@example.org' to='juliet@example.org/balcony'"
+                    + " id='rs1' type='result'>"
+                    + "<query xmlns='jabber:iq:roster' ver='ver11'>"
+                    + "<item jid='romeo@example.net' name='Romeo' subscription='both'><group>Friends</group></item>"
+                    + "<item jid='mercutio@example.com' name='Mercutio' subscription='from'/>"
+                    + "<item jid='benvolio@example.net' name='Benvolio' subscription='both'/>"
+                    + "</query></iq>";
+
+    @Param({ "message", "presence", "iq" })
+    public String stanzaType;
+
+    private String xml;
+
+    private Stanza stanza;
+
+    @Setup
+    public void setup() throws Exception {
+        switch (stanzaType) {
+        case "message":
+            xml = MESSAGE;
+            break;
+        case "presence":
+            xml = PRESENCE;
+            break;
+        case "iq":
+            xml = IQ;
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown stanza type: " + stanzaType);
+        }
+        stanza = PacketParserUtils.parseStanza(xml);
+    }
+
+    @Benchmark
+    public Stanza parse() throws Exception {
+        return PacketParserUtils.parseStanza(xml);
+    }
+
+    @Benchmark
+    public CharSequence toXml() {
+        return stanza.toXML();
+    }
+
+    @Benchmark
+    public String toXmlString() {
+        return stanza.toXML().toString();
+    }
+}
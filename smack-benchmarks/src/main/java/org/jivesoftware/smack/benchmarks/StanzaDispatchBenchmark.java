@@ -0,0 +1,99 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.StanzaListener;
+import org.jivesoftware.smack.filter.FromMatchesFilter;
+import org.jivesoftware.smack.filter.NotFilter;
+import org.jivesoftware.smack.filter.StanzaFilter;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Stanza;
+
+import org.jxmpp.jid.impl.JidCreate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the dispatch of a received message to the stanza listeners of a connection, i.e.
+ * {@code invokeStanzaCollectorsAndNotifyRecvListeners()}, with 'listeners' registered synchronous listeners of which one
+ * matches the message. With the 'indexed' filters every listener filters for a different sender with a
+ * {@link FromMatchesFilter}, the 'fallback' filters wrap the same filter in a way the connection can not index, so
+ * that every filter is evaluated.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StanzaDispatchBenchmark {
+
+    @Param({ "1", "10", "100", "1000" })
+    public int listeners;
+
+    @Param({ "indexed", "fallback" })
+    public String filters;
+
+    private BenchmarkConnection connection;
+
+    private Message message;
+
+    @Setup
+    public void setup(final Blackhole blackhole) throws Exception {
+        connection = BenchmarkConnection.newSynchronousConnection();
+
+        StanzaListener listener = new StanzaListener() {
+            @Override
+            public void processStanza(Stanza packet) {
+                blackhole.consume(packet);
+            }
+        };
+        for (int i = 0; i < listeners; i++) {
+            StanzaFilter filter = FromMatchesFilter.create(JidCreate.entityBareFrom("contact" + i + "@example.net"));
+            if (filters.equals("fallback")) {
+                filter = new NotFilter(new NotFilter(filter));
+            }
+            connection.addSyncStanzaListener(listener, filter);
+        }
+
+        message = new Message(JidCreate.from("juliet@example.org/balcony"), "Hi");
+        message.setFrom(JidCreate.from("contact" + (listeners / 2) + "@example.net/resource"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        connection.restoreExecutionModel();
+    }
+
+    @Benchmark
+    public void dispatch() {
+        connection.dispatch(message);
+    }
+}
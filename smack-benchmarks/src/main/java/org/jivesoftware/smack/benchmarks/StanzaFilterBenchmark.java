@@ -0,0 +1,122 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.filter.AndFilter;
+import org.jivesoftware.smack.filter.FromMatchesFilter;
+import org.jivesoftware.smack.filter.FromTypeFilter;
+import org.jivesoftware.smack.filter.MessageTypeFilter;
+import org.jivesoftware.smack.filter.MessageWithBodiesFilter;
+import org.jivesoftware.smack.filter.NotFilter;
+import org.jivesoftware.smack.filter.OrFilter;
+import org.jivesoftware.smack.filter.StanzaExtensionFilter;
+import org.jivesoftware.smack.filter.StanzaFilter;
+import org.jivesoftware.smack.filter.StanzaTypeFilter;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.util.PacketParserUtils;
+
+import org.jxmpp.jid.impl.JidCreate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the evaluation of {@link StanzaFilter} chains as they are typically built by Smack's managers against a
+ * received message. The 'fromChain' benchmark evaluates an {@link OrFilter} of 'chainLength' {@link FromMatchesFilter}s
+ * of which only the last one matches, i.e. the worst case of a linear filter evaluation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StanzaFilterBenchmark {
+
+    private Message message;
+
+    private StanzaFilter chatFilter;
+
+    private StanzaFilter groupchatFilter;
+
+    private StanzaFilter extensionFilter;
+
+    @Setup
+    public void setup() throws Exception {
+        message = (Message) PacketParserUtils.parseStanza(StanzaBenchmark.MESSAGE);
+
+        // Like the filter of ChatManager.
+        chatFilter = new AndFilter(MessageTypeFilter.NORMAL_OR_CHAT, FromTypeFilter.ENTITY_FULL_JID,
+                        MessageWithBodiesFilter.INSTANCE);
+        // Like the filter of MultiUserChat, which does not match the message.
+        groupchatFilter = new AndFilter(FromMatchesFilter.create(JidCreate.entityBareFrom("coven@chat.example.net")),
+                        MessageTypeFilter.GROUPCHAT);
+        // Like the filter of the chat state and delivery receipt managers.
+        extensionFilter = new AndFilter(StanzaTypeFilter.MESSAGE, new NotFilter(MessageTypeFilter.ERROR),
+                        new StanzaExtensionFilter("request", "urn:xmpp:receipts"));
+    }
+
+    @Benchmark
+    public boolean chatFilter() {
+        return chatFilter.accept(message);
+    }
+
+    @Benchmark
+    public boolean groupchatFilter() {
+        return groupchatFilter.accept(message);
+    }
+
+    @Benchmark
+    public boolean extensionFilter() {
+        return extensionFilter.accept(message);
+    }
+
+    @Benchmark
+    public boolean fromChain(FromChain fromChain) {
+        return fromChain.filter.accept(message);
+    }
+
+    @State(Scope.Thread)
+    public static class FromChain {
+
+        @Param({ "1", "10", "100" })
+        public int chainLength;
+
+        private StanzaFilter filter;
+
+        @Setup
+        public void setup() throws Exception {
+            OrFilter orFilter = new OrFilter();
+            for (int i = 1; i < chainLength; i++) {
+                orFilter.addFilter(FromMatchesFilter.create(JidCreate.entityBareFrom("contact" + i + "@example.net")));
+            }
+            Message message = (Message) PacketParserUtils.parseStanza(StanzaBenchmark.MESSAGE);
+            orFilter.addFilter(FromMatchesFilter.create(message.getFrom().asBareJid()));
+            filter = orFilter;
+        }
+    }
+}
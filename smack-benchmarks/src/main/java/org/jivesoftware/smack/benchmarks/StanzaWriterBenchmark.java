@@ -0,0 +1,111 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.StandardExtensionElement;
+import org.jivesoftware.smack.util.ByteBufferPool;
+import org.jivesoftware.smack.util.StringUtils;
+import org.jivesoftware.smack.util.Utf8ByteBufferWriter;
+import org.jivesoftware.smack.util.XmlStringBuilder;
+
+import org.jxmpp.stringprep.XmppStringprepException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares writing a serialized stanza via {@link OutputStreamWriter}, as the PacketWriter of XMPPTCPConnection used
+ * to, with writing it via {@link Utf8ByteBufferWriter}. Run with '-prof gc' to see the allocations per operation
+ * (gc.alloc.rate.norm). The 'toXml' variants include the serialization of the stanza into a {@link XmlStringBuilder}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StanzaWriterBenchmark {
+
+    private static final OutputStream NULL_OUTPUT_STREAM = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private Message message;
+
+    private XmlStringBuilder messageXml;
+
+    private OutputStreamWriter outputStreamWriter;
+
+    private Utf8ByteBufferWriter utf8ByteBufferWriter;
+
+    @Setup
+    public void setup() throws UnsupportedEncodingException, XmppStringprepException {
+        message = new Message("juliet@example.org/balcony", "Art thou not Romeo, and a Montague? – Grüße 😀");
+        message.setStanzaId("ktx72v49");
+        message.setThread("e0ffe42b28561960c6b12b944a092794b9683a38");
+        message.addExtension(StandardExtensionElement.builder("active", "http://jabber.org/protocol/chatstates")
+                        .build());
+        messageXml = message.toXML();
+
+        outputStreamWriter = new OutputStreamWriter(NULL_OUTPUT_STREAM, StringUtils.UTF8);
+        utf8ByteBufferWriter = new Utf8ByteBufferWriter(NULL_OUTPUT_STREAM, new ByteBufferPool(8 * 1024, 32, false));
+    }
+
+    @Benchmark
+    public void outputStreamWriter() throws IOException {
+        messageXml.write(outputStreamWriter);
+        outputStreamWriter.flush();
+    }
+
+    @Benchmark
+    public void utf8ByteBufferWriter() throws IOException {
+        messageXml.write(utf8ByteBufferWriter);
+        utf8ByteBufferWriter.flush();
+    }
+
+    @Benchmark
+    public void toXmlOutputStreamWriter() throws IOException {
+        message.toXML().write(outputStreamWriter);
+        outputStreamWriter.flush();
+    }
+
+    @Benchmark
+    public void toXmlUtf8ByteBufferWriter() throws IOException {
+        message.toXML().write(utf8ByteBufferWriter);
+        utf8ByteBufferWriter.flush();
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smack.util.StringUtils;
+import org.jivesoftware.smack.util.Utf8ByteXmppXmlSplitter;
+import org.jivesoftware.smack.util.XmppXmlSplitter.XmppElementCallback;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * Compares the blocking pull-parser path, as used by the PacketReader of XMPPTCPConnection, with the push-style
+ * {@link Utf8ByteXmppXmlSplitter} which is fed with byte chunks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XmppStreamParsingBenchmark {
+
+    private static final String STREAM_OPEN = "<stream:stream xmlns='jabber:client'"
+                    + " xmlns:stream='http://etherx.jabber.org/streams' id='c2s_123' from='example.org' version='1.0'>";
+
+    private static final String[] STANZAS = new String[] {
+        "<message from='juliet@example.org/balcony' to='romeo@example.net' id='ktx72v49' type='chat' xml:lang='en'>"
+                        + "<body>Art thou not Romeo, and a Montague?</body>"
+                        + "<thread>e0ffe42b28561960c6b12b944a092794b9683a38</thread></message>",
+        "<presence from='romeo@example.net/orchard' to='juliet@example.org' id='pres1'>"
+                        + "<show>away</show><status>I shall return!</status><priority>5</priority></presence>",
+        "<iq from='juliet@example.org' to='juliet@example.org/balcony' id='rs1' type='result'>"
+                        + "<query xmlns='jabber:iq:roster' ver='ver11'>"
+                        + "<item jid='romeo@example.net' name='Romeo' subscription='both'><group>Friends</group></item>"
+                        + "<item jid='mercutio@example.com' name='Mercutio' subscription='from'/>"
+                        + "<item jid='benvolio@example.net' name='Benvolio' subscription='both'/>"
+                        + "</query></iq>",
+    };
+
+    /**
+     * The number of stanzas in the benchmarked stream.
+     */
+    @Param({ "1000" })
+    public int stanzaCount;
+
+    /**
+     * The size of the chunks the splitter is fed with, i.e. the size of a read from the socket.
+     */
+    @Param({ "1024", "8192" })
+    public int chunkSize;
+
+    private byte[] stream;
+
+    @Setup
+    public void setup() throws UnsupportedEncodingException {
+        StringBuilder sb = new StringBuilder(STREAM_OPEN);
+        for (int i = 0; i < stanzaCount; i++) {
+            sb.append(STANZAS[i % STANZAS.length]);
+        }
+        sb.append("</stream:stream>");
+        stream = sb.toString().getBytes(StringUtils.UTF8);
+    }
+
+    @Benchmark
+    public void pullParser(Blackhole blackhole) throws Exception {
+        XmlPullParser parser = PacketParserUtils.newXmppParser(
+                        new InputStreamReader(new ByteArrayInputStream(stream), StringUtils.UTF8));
+        int eventType = parser.getEventType();
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            if (eventType == XmlPullParser.START_TAG && parser.getDepth() == 2) {
+                blackhole.consume(PacketParserUtils.parseStanza(parser));
+            }
+            eventType = parser.next();
+        }
+    }
+
+    @Benchmark
+    public void splitterAndParser(final Blackhole blackhole) throws Exception {
+        // Like AbstractXMPPConnection.parseAndProcessStanza(String), re-use a single parser for all elements.
+        final XmlPullParser parser = PacketParserUtils.newXmppParser();
+        splitStream(new BenchmarkCallback() {
+            @Override
+            public void onCompleteElement(String completeElement) {
+                Stanza stanza;
+                try {
+                    stanza = PacketParserUtils.parseStanza(PacketParserUtils.getParserFor(parser, completeElement));
+                }
+                catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                blackhole.consume(stanza);
+            }
+        });
+    }
+
+    @Benchmark
+    public void splitterOnly(final Blackhole blackhole) throws Exception {
+        splitStream(new BenchmarkCallback() {
+            @Override
+            public void onCompleteElement(String completeElement) {
+                blackhole.consume(completeElement);
+            }
+        });
+    }
+
+    private void splitStream(BenchmarkCallback callback) throws Exception {
+        Utf8ByteXmppXmlSplitter splitter = new Utf8ByteXmppXmlSplitter(callback);
+        ByteBuffer chunk = ByteBuffer.wrap(stream);
+        for (int position = 0; position < stream.length; position += chunkSize) {
+            chunk.limit(Math.min(position + chunkSize, stream.length));
+            chunk.position(position);
+            splitter.write(chunk);
+        }
+    }
+
+    private abstract static class BenchmarkCallback implements XmppElementCallback {
+        @Override
+        public void onStreamOpen(String prefix, Map<String, String> attributes) {
+        }
+
+        @Override
+        public void onStreamClosed() {
+        }
+    }
+}
@@ -20,18 +20,15 @@ import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -48,6 +45,8 @@ import org.jivesoftware.smack.SmackException.NotConnectedException;
 import org.jivesoftware.smack.SmackException.ResourceBindingNotOfferedException;
 import org.jivesoftware.smack.SmackException.SecurityRequiredByClientException;
 import org.jivesoftware.smack.SmackException.SecurityRequiredException;
+import org.jivesoftware.smack.SmackExecutionModel.SerialExecutor;
+import org.jivesoftware.smack.SmackFuture.InternalSmackFuture;
 import org.jivesoftware.smack.XMPPException.StreamErrorException;
 import org.jivesoftware.smack.XMPPException.XMPPErrorException;
 import org.jivesoftware.smack.compress.packet.Compress;
@@ -55,6 +54,7 @@ import org.jivesoftware.smack.compression.XMPPInputOutputStream;
 import org.jivesoftware.smack.debugger.SmackDebugger;
 import org.jivesoftware.smack.filter.IQReplyFilter;
 import org.jivesoftware.smack.filter.StanzaFilter;
+import org.jivesoftware.smack.filter.StanzaFilterIndex;
 import org.jivesoftware.smack.filter.StanzaIdFilter;
 import org.jivesoftware.smack.iqrequest.IQRequestHandler;
 import org.jivesoftware.smack.packet.Bind;
@@ -74,12 +74,11 @@ import org.jivesoftware.smack.parsing.ParsingExceptionCallback;
 import org.jivesoftware.smack.provider.ExtensionElementProvider;
 import org.jivesoftware.smack.provider.ProviderManager;
 import org.jivesoftware.smack.sasl.core.SASLAnonymous;
-import org.jivesoftware.smack.util.BoundedThreadPoolExecutor;
 import org.jivesoftware.smack.util.DNSUtil;
+import org.jivesoftware.smack.util.HashedWheelTimer;
 import org.jivesoftware.smack.util.Objects;
 import org.jivesoftware.smack.util.PacketParserUtils;
 import org.jivesoftware.smack.util.ParserUtils;
-import org.jivesoftware.smack.util.SmackExecutorThreadFactory;
 import org.jivesoftware.smack.util.StringUtils;
 import org.jivesoftware.smack.util.dns.HostAddress;
 import org.jxmpp.jid.DomainBareJid;
@@ -114,24 +113,28 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
      * A collection of StanzaCollectors which collects packets for a specified filter
      * and perform blocking and polling operations on the result queue.
      * <p>
-     * We use a ConcurrentLinkedQueue here, because its Iterator is weakly
-     * consistent and we want {@link #invokeStanzaCollectorsAndNotifyRecvListeners(Stanza)} for-each
-     * loop to be lock free. As drawback, removing a StanzaCollector is O(n).
-     * The alternative would be a synchronized HashSet, but this would mean a
-     * synchronized block around every usage of <code>collectors</code>.
+     * The collectors are indexed by their filter, so that
+     * {@link #invokeStanzaCollectorsAndNotifyRecvListeners(Stanza)} only needs to look at the collectors which
+     * could match the stanza, e.g. the one collector waiting for the IQ response with the stanza's ID. Every usage
+     * must be synchronized on the index. The collectors are notified after the lock was released.
      * </p>
      */
-    private final Collection<StanzaCollector> collectors = new ConcurrentLinkedQueue<>();
+    private final StanzaFilterIndex<StanzaCollector, StanzaCollector> collectors = new StanzaFilterIndex<>();
 
     /**
      * List of PacketListeners that will be notified synchronously when a new stanza(/packet) was received.
      */
-    private final Map<StanzaListener, ListenerWrapper> syncRecvListeners = new LinkedHashMap<>();
+    private final StanzaFilterIndex<StanzaListener, ListenerWrapper> syncRecvListeners = new StanzaFilterIndex<>();
 
     /**
      * List of PacketListeners that will be notified asynchronously when a new stanza(/packet) was received.
      */
-    private final Map<StanzaListener, ListenerWrapper> asyncRecvListeners = new LinkedHashMap<>();
+    private final StanzaFilterIndex<StanzaListener, ListenerWrapper> asyncRecvListeners = new StanzaFilterIndex<>();
+
+    /**
+     * The pending IQ requests send with {@link #sendIqRequestAsync(IQ, long)}, keyed by their stanza ID.
+     */
+    private final ConcurrentMap<String, PendingIqRequest> pendingIqRequests = new ConcurrentHashMap<>();
 
     /**
      * List of PacketListeners that will be notified when a new stanza(/packet) was sent.
@@ -231,41 +234,38 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
     private ParsingExceptionCallback parsingExceptionCallback = SmackConfiguration.getDefaultParsingExceptionCallback();
 
     /**
-     * ExecutorService used to invoke the PacketListeners on newly arrived and parsed stanzas. It is
-     * important that we use a <b>single threaded ExecutorService</b> in order to guarantee that the
-     * PacketListeners are invoked in the same order the stanzas arrived.
+     * The parser re-used by {@link #parseAndProcessStanza(String)}, guarded by {@link #completeElementParserLock}.
+     */
+    private XmlPullParser completeElementParser;
+
+    private final Object completeElementParserLock = new Object();
+
+    /**
+     * The execution model used to process incoming stanzas and to invoke listeners. It is shared by all connections.
      */
-    private final BoundedThreadPoolExecutor executorService = new BoundedThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
-                    100, new SmackExecutorThreadFactory(this, "Incoming Processor"));
+    private final SmackExecutionModel executionModel = SmackConfiguration.getExecutionModel();
 
     /**
-     * This scheduled thread pool executor is used to remove pending callbacks.
+     * Serial executor used to invoke the PacketListeners on newly arrived and parsed stanzas. It is
+     * important that we use a <b>serial executor</b> in order to guarantee that the
+     * PacketListeners are invoked in the same order the stanzas arrived. It runs on the processing threads of the
+     * execution model, so that responses are still processed when blocking listeners occupy the shared executor.
      */
-    private final ScheduledExecutorService removeCallbacksService = Executors.newSingleThreadScheduledExecutor(
-                    new SmackExecutorThreadFactory(this, "Remove Callbacks"));
+    private final SerialExecutor incomingStanzaProcessor = executionModel.newProcessingSerialExecutor(100);
 
     /**
-     * A cached thread pool executor service with custom thread factory to set meaningful names on the threads and set
-     * them 'daemon'.
+     * The timer used to remove pending callbacks. It is shared by all connections.
      */
-    private final ExecutorService cachedExecutorService = Executors.newCachedThreadPool(
-                    // @formatter:off
-                    // CHECKSTYLE:OFF
-                    new SmackExecutorThreadFactory(    // threadFactory
-                                    this,
-                                    "Cached Executor"
-                                    )
-                    // @formatter:on
-                    // CHECKSTYLE:ON
-                    );
+    private final HashedWheelTimer removeCallbacksTimer = HashedWheelTimer.getInstance();
 
     /**
-     * A executor service used to invoke the callbacks of synchronous stanza(/packet) listeners. We use a executor service to
+     * A serial executor used to invoke the callbacks of synchronous stanza(/packet) listeners. We use a executor to
      * decouple incoming stanza processing from callback invocation. It is important that order of callback invocation
-     * is the same as the order of the incoming stanzas. Therefore we use a <i>single</i> threaded executor service.
+     * is the same as the order of the incoming stanzas. Therefore we use a <i>serial</i> executor.
      */
-    private final ExecutorService singleThreadedExecutorService = Executors.newSingleThreadExecutor(new SmackExecutorThreadFactory(
-                    this, "Single Threaded Executor"));
+    private final SerialExecutor syncListenerExecutor = executionModel.newSerialExecutor();
+
+    private final ConnectionMetrics metrics = new ConnectionMetrics(this);
 
     /**
      * The used host to establish the connection to
@@ -682,6 +682,8 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         // Invoke interceptors for the new stanza that is about to be sent. Interceptors may modify
         // the content of the stanza.
         firePacketInterceptors(stanza);
+        // Record the stanza before sending it, so that the response to an IQ request can not overtake it.
+        metrics.stanzaSent(stanza);
         sendStanzaInternal(stanza);
     }
 
@@ -785,13 +787,17 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
     public StanzaCollector createStanzaCollector(StanzaCollector.Configuration configuration) {
         StanzaCollector collector = new StanzaCollector(this, configuration);
         // Add the collector to the list of active collectors.
-        collectors.add(collector);
+        synchronized (collectors) {
+            collectors.put(collector, collector, collector.getStanzaFilter());
+        }
         return collector;
     }
 
     @Override
     public void removeStanzaCollector(StanzaCollector collector) {
-        collectors.remove(collector);
+        synchronized (collectors) {
+            collectors.remove(collector);
+        }
     }
 
     @Override
@@ -813,7 +819,7 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         }
         ListenerWrapper wrapper = new ListenerWrapper(packetListener, packetFilter);
         synchronized (syncRecvListeners) {
-            syncRecvListeners.put(packetListener, wrapper);
+            syncRecvListeners.put(packetListener, wrapper, packetFilter);
         }
     }
 
@@ -831,7 +837,7 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         }
         ListenerWrapper wrapper = new ListenerWrapper(packetListener, packetFilter);
         synchronized (asyncRecvListeners) {
-            asyncRecvListeners.put(packetListener, wrapper);
+            asyncRecvListeners.put(packetListener, wrapper, packetFilter);
         }
     }
 
@@ -1021,8 +1027,10 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         ParserUtils.assertAtStartTag(parser);
         int parserDepth = parser.getDepth();
         Stanza stanza = null;
+        final long parseStart = System.nanoTime();
         try {
             stanza = PacketParserUtils.parseStanza(parser);
+            metrics.stanzaParsed(parseStart);
         }
         catch (Exception e) {
             CharSequence content = PacketParserUtils.parseContentDepth(parser,
@@ -1039,6 +1047,24 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         }
     }
 
+    /**
+     * Parse and process the given complete top-level stream element, like the ones emitted by a
+     * {@link org.jivesoftware.smack.util.XmppXmlSplitter}. This allows to drive the parsing of incoming stanzas from
+     * an incremental, non-blocking source instead of a parser pulling from a blocking reader.
+     *
+     * @param stanza the XML of the stanza.
+     * @throws Exception
+     */
+    protected void parseAndProcessStanza(String stanza) throws Exception {
+        synchronized (completeElementParserLock) {
+            if (completeElementParser == null) {
+                completeElementParser = PacketParserUtils.newXmppParser();
+            }
+            XmlPullParser parser = PacketParserUtils.getParserFor(completeElementParser, stanza);
+            parseAndProcessStanza(parser);
+        }
+    }
+
     /**
      * Processes a stanza(/packet) after it's been fully parsed by looping through the installed
      * stanza(/packet) collectors and listeners and letting them examine the stanza(/packet) to see if
@@ -1050,8 +1076,9 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
     protected void processStanza(final Stanza stanza) throws InterruptedException {
         assert(stanza != null);
         lastStanzaReceived = System.currentTimeMillis();
+        metrics.stanzaReceived(stanza);
         // Deliver the incoming packet to listeners.
-        executorService.executeBlocking(new Runnable() {
+        incomingStanzaProcessor.executeBlocking(new Runnable() {
             @Override
             public void run() {
                 invokeStanzaCollectorsAndNotifyRecvListeners(stanza);
@@ -1103,20 +1130,22 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
                         LOGGER.log(Level.WARNING, "Exception while sending error IQ to unkown IQ request", e);
                     }
                 } else {
-                    ExecutorService executorService = null;
+                    Executor executor = null;
                     switch (iqRequestHandler.getMode()) {
                     case sync:
-                        executorService = singleThreadedExecutorService;
+                        executor = syncListenerExecutor;
                         break;
                     case async:
-                        executorService = cachedExecutorService;
+                        executor = executionModel;
                         break;
                     }
                     final IQRequestHandler finalIqRequestHandler = iqRequestHandler;
-                    executorService.execute(new Runnable() {
+                    executor.execute(new Runnable() {
                         @Override
                         public void run() {
+                            final long handlerStart = System.nanoTime();
                             IQ response = finalIqRequestHandler.handleIQRequest(iq);
+                            metrics.listenerExecuted(handlerStart);
                             if (response == null) {
                                 // It is not ideal if the IQ request handler does not return an IQ response, because RFC
                                 // 6120 § 8.1.2 does specify that a response is mandatory. But some APIs, mostly the
@@ -1139,6 +1168,10 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
                     return;
                 }
                 break;
+            case result:
+            case error:
+                completePendingIqRequest(iq);
+                break;
             default:
                 break;
             }
@@ -1146,13 +1179,16 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
 
         // First handle the async recv listeners. Note that this code is very similar to what follows a few lines below,
         // the only difference is that asyncRecvListeners is used here and that the packet listeners are started in
-        // their own thread.
-        final Collection<StanzaListener> listenersToNotify = new LinkedList<StanzaListener>();
+        // their own thread. The indexes only return the candidates whose filter could match, the filters are evaluated
+        // after the lock was released.
+        final List<ListenerWrapper> candidateListeners = new ArrayList<>();
         synchronized (asyncRecvListeners) {
-            for (ListenerWrapper listenerWrapper : asyncRecvListeners.values()) {
-                if (listenerWrapper.filterMatches(packet)) {
-                    listenersToNotify.add(listenerWrapper.getListener());
-                }
+            asyncRecvListeners.findCandidates(packet, candidateListeners);
+        }
+        final List<StanzaListener> listenersToNotify = new ArrayList<>(candidateListeners.size());
+        for (ListenerWrapper listenerWrapper : candidateListeners) {
+            if (listenerWrapper.filterMatches(packet)) {
+                listenersToNotify.add(listenerWrapper.getListener());
             }
         }
 
@@ -1160,36 +1196,45 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
             asyncGo(new Runnable() {
                 @Override
                 public void run() {
+                    final long listenerStart = System.nanoTime();
                     try {
                         listener.processStanza(packet);
                     } catch (Exception e) {
                         LOGGER.log(Level.SEVERE, "Exception in async packet listener", e);
                     }
+                    metrics.listenerExecuted(listenerStart);
                 }
             });
         }
 
-        // Loop through all collectors and notify the appropriate ones.
-        for (StanzaCollector collector: collectors) {
+        // Notify the collectors which could be interested in the packet, they evaluate their filter themselves.
+        final List<StanzaCollector> candidateCollectors = new ArrayList<>();
+        synchronized (collectors) {
+            collectors.findCandidates(packet, candidateCollectors);
+        }
+        for (StanzaCollector collector : candidateCollectors) {
             collector.processStanza(packet);
         }
 
         // Notify the receive listeners interested in the packet
         listenersToNotify.clear();
+        candidateListeners.clear();
         synchronized (syncRecvListeners) {
-            for (ListenerWrapper listenerWrapper : syncRecvListeners.values()) {
-                if (listenerWrapper.filterMatches(packet)) {
-                    listenersToNotify.add(listenerWrapper.getListener());
-                }
+            syncRecvListeners.findCandidates(packet, candidateListeners);
+        }
+        for (ListenerWrapper listenerWrapper : candidateListeners) {
+            if (listenerWrapper.filterMatches(packet)) {
+                listenersToNotify.add(listenerWrapper.getListener());
             }
         }
 
-        // Decouple incoming stanza processing from listener invocation. Unlike async listeners, this uses a single
-        // threaded executor service and therefore keeps the order.
-        singleThreadedExecutorService.execute(new Runnable() {
+        // Decouple incoming stanza processing from listener invocation. Unlike async listeners, this uses a serial
+        // executor and therefore keeps the order.
+        syncListenerExecutor.execute(new Runnable() {
             @Override
             public void run() {
                 for (StanzaListener listener : listenersToNotify) {
+                    final long listenerStart = System.nanoTime();
                     try {
                         listener.processStanza(packet);
                     } catch(NotConnectedException e) {
@@ -1198,6 +1243,7 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
                     } catch (Exception e) {
                         LOGGER.log(Level.SEVERE, "Exception in packet listener", e);
                     }
+                    metrics.listenerExecuted(listenerStart);
                 }
             }
         });
@@ -1361,27 +1407,6 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         return this.fromMode;
     }
 
-    @Override
-    protected void finalize() throws Throwable {
-        LOGGER.fine("finalizing " + this + ": Shutting down executor services");
-        try {
-            // It's usually not a good idea to rely on finalize. But this is the easiest way to
-            // avoid the "Smack Listener Processor" leaking. The thread(s) of the executor have a
-            // reference to their ExecutorService which prevents the ExecutorService from being
-            // gc'ed. It is possible that the XMPPConnection instance is gc'ed while the
-            // listenerExecutor ExecutorService call not be gc'ed until it got shut down.
-            executorService.shutdownNow();
-            cachedExecutorService.shutdown();
-            removeCallbacksService.shutdownNow();
-            singleThreadedExecutorService.shutdownNow();
-        } catch (Throwable t) {
-            LOGGER.log(Level.WARNING, "finalize() threw trhowable", t);
-        }
-        finally {
-            super.finalize();
-        }
-    }
-
     protected final void parseFeatures(XmlPullParser parser) throws Exception {
         streamFeatures.clear();
         final int initialDepth = parser.getDepth();
@@ -1512,21 +1537,27 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
                 }
             }
         };
-        removeCallbacksService.schedule(new Runnable() {
+        removeCallbacksTimer.schedule(new Runnable() {
             @Override
             public void run() {
                 boolean removed = removeAsyncStanzaListener(packetListener);
                 // If the packetListener got removed, then it was never run and
                 // we never received a response, inform the exception callback
                 if (removed && exceptionCallback != null) {
-                    Exception exception;
+                    final Exception exception;
                     if (!isConnected()) {
                         // If the connection is no longer connected, throw a not connected exception.
                         exception = new NotConnectedException(AbstractXMPPConnection.this, replyFilter);
                     } else {
                         exception = NoResponseException.newWith(AbstractXMPPConnection.this, replyFilter);
                     }
-                    exceptionCallback.processException(exception);
+                    // Do not invoke the user provided callback on the timer thread.
+                    asyncGo(new Runnable() {
+                        @Override
+                        public void run() {
+                            exceptionCallback.processException(exception);
+                        }
+                    });
                 }
             }
         }, timeout, TimeUnit.MILLISECONDS);
@@ -1534,6 +1565,112 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         sendStanza(stanza);
     }
 
+    @Override
+    public SmackFuture<IQ> sendIqRequestAsync(IQ request) {
+        return sendIqRequestAsync(request, getReplyTimeout());
+    }
+
+    @Override
+    public SmackFuture<IQ> sendIqRequestAsync(IQ request, long timeout) {
+        final String stanzaId = request.getStanzaId();
+        final PendingIqRequest pendingIqRequest = new PendingIqRequest(stanzaId, new IQReplyFilter(request, this));
+        final InternalSmackFuture<IQ> future = pendingIqRequest.future;
+
+        if (pendingIqRequests.putIfAbsent(stanzaId, pendingIqRequest) != null) {
+            future.setException(new IllegalStateException("There is already a pending IQ request with the ID " + stanzaId));
+            return future;
+        }
+
+        pendingIqRequest.timeoutFuture = removeCallbacksTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!pendingIqRequests.remove(stanzaId, pendingIqRequest)) {
+                    // The response arrived in the meantime.
+                    return;
+                }
+                Exception exception;
+                if (!isConnected()) {
+                    exception = new NotConnectedException(AbstractXMPPConnection.this, pendingIqRequest.replyFilter);
+                } else {
+                    exception = NoResponseException.newWith(AbstractXMPPConnection.this, pendingIqRequest.replyFilter);
+                }
+                future.setException(exception);
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+
+        try {
+            sendStanza(request);
+        }
+        catch (NotConnectedException | InterruptedException e) {
+            if (pendingIqRequests.remove(stanzaId, pendingIqRequest)) {
+                pendingIqRequest.timeoutFuture.cancel(false);
+                future.setException(e);
+            }
+            if (e instanceof InterruptedException) {
+                // Restore the interrupted status, as this method does not throw InterruptedException.
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        return future;
+    }
+
+    /**
+     * Complete the pending IQ request the given response belongs to, if any. This is invoked directly from the
+     * stanza processing path.
+     *
+     * @param response the IQ response, i.e. an IQ of type 'result' or 'error'.
+     */
+    private void completePendingIqRequest(IQ response) {
+        final String stanzaId = response.getStanzaId();
+        if (stanzaId == null) {
+            return;
+        }
+        final PendingIqRequest pendingIqRequest = pendingIqRequests.get(stanzaId);
+        if (pendingIqRequest == null || !pendingIqRequest.replyFilter.accept(response)) {
+            return;
+        }
+        if (!pendingIqRequests.remove(stanzaId, pendingIqRequest)) {
+            // We lost a race against the timeout.
+            return;
+        }
+        ScheduledFuture<?> timeoutFuture = pendingIqRequest.timeoutFuture;
+        if (timeoutFuture != null) {
+            timeoutFuture.cancel(false);
+        }
+        try {
+            XMPPErrorException.ifHasErrorThenThrow(response);
+        }
+        catch (XMPPErrorException e) {
+            pendingIqRequest.future.setException(e);
+            return;
+        }
+        pendingIqRequest.future.setResult(response);
+    }
+
+    private final class PendingIqRequest {
+        private final String stanzaId;
+        private final StanzaFilter replyFilter;
+        private final InternalSmackFuture<IQ> future = new InternalSmackFuture<IQ>(executionModel) {
+            @Override
+            protected void onCancelled() {
+                if (!pendingIqRequests.remove(stanzaId, PendingIqRequest.this)) {
+                    return;
+                }
+                ScheduledFuture<?> timeoutFuture = PendingIqRequest.this.timeoutFuture;
+                if (timeoutFuture != null) {
+                    timeoutFuture.cancel(false);
+                }
+            }
+        };
+        private volatile ScheduledFuture<?> timeoutFuture;
+
+        private PendingIqRequest(String stanzaId, StanzaFilter replyFilter) {
+            this.stanzaId = stanzaId;
+            this.replyFilter = replyFilter;
+        }
+    }
+
     @Override
     public void sendIqWithResponseCallback(IQ iqRequest, StanzaListener callback)
                     throws NotConnectedException, InterruptedException {
@@ -1568,7 +1705,7 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
             }
         };
         addSyncStanzaListener(packetListener, packetFilter);
-        removeCallbacksService.schedule(new Runnable() {
+        removeCallbacksTimer.schedule(new Runnable() {
             @Override
             public void run() {
                 removeSyncStanzaListener(packetListener);
@@ -1649,11 +1786,53 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         return getClass().getSimpleName() + '[' + localEndpointString + "] (" + getConnectionCounter() + ')';
     }
 
+    /**
+     * Get the metrics of this connection.
+     *
+     * @return the metrics of this connection.
+     */
+    public final ConnectionMetrics getMetrics() {
+        return metrics;
+    }
+
+    int getIncomingQueueSize() {
+        return incomingStanzaProcessor.getQueueDepth();
+    }
+
+    /**
+     * Get the number of outgoing elements waiting to be written. Connection implementations with a writer queue should
+     * override this method.
+     *
+     * @return the number of outgoing elements waiting to be written.
+     */
+    protected int getWriterQueueSize() {
+        return 0;
+    }
+
+    /**
+     * Get the number of sent stanzas not yet acknowledged by the server. Connection implementations supporting Stream
+     * Management should override this method.
+     *
+     * @return the number of unacknowledged stanzas.
+     */
+    protected int getUnacknowledgedStanzaCount() {
+        return 0;
+    }
+
     protected final void asyncGo(Runnable runnable) {
-        cachedExecutorService.execute(runnable);
+        executionModel.execute(runnable);
     }
 
+    /**
+     * Schedule the given runnable with Smack's shared {@link HashedWheelTimer}. The runnable is run by the timer thread
+     * and must therefore not block.
+     *
+     * @param runnable the runnable to run.
+     * @param delay the delay.
+     * @param unit the time unit of the delay.
+     * @return the scheduled future of the runnable.
+     */
     protected final ScheduledFuture<?> schedule(Runnable runnable, long delay, TimeUnit unit) {
-        return removeCallbacksService.schedule(runnable, delay, unit);
+        return removeCallbacksTimer.schedule(runnable, delay, unit);
     }
 }
@@ -0,0 +1,40 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+
+/**
+ * Callback invoked by the {@link SmackReactor} once a registered channel is ready for one of its interest operations.
+ * <p>
+ * The callback is invoked on a reactor thread, which is shared with many other channels. Implementations must
+ * therefore never block, but instead perform non-blocking reads and writes and return as soon as no further progress
+ * can be made.
+ * </p>
+ */
+public interface ChannelSelectedCallback {
+
+    /**
+     * Invoked once the channel got selected.
+     *
+     * @param channel the selected channel.
+     * @param selectionKey the selection key of the channel.
+     */
+    void onChannelSelected(SelectableChannel channel, SelectionKey selectionKey);
+
+}
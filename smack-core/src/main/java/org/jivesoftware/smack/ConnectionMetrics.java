@@ -0,0 +1,490 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.util.Histogram;
+
+/**
+ * Metrics of a connection, obtained via {@link AbstractXMPPConnection#getMetrics()}. The metrics are always recorded,
+ * recording uses lock-free counters and {@link Histogram}s and does not allocate, except for tracking outgoing IQ
+ * requests. All durations are in nanoseconds.
+ * <p>
+ * The metrics include
+ * </p>
+ * <ul>
+ * <li>the number of received and sent stanzas by type,</li>
+ * <li>the number of received and sent bytes, if supported by the connection,</li>
+ * <li>the time required to parse incoming stanzas,</li>
+ * <li>the time outgoing elements waited in the queue of the writer, if the connection has one,</li>
+ * <li>the round trip time of IQ requests by the namespace of the request,</li>
+ * <li>the execution time of stanza listeners and IQ request handlers,</li>
+ * <li>the time between requesting and receiving a Stream Management acknowledgement and</li>
+ * <li>the current size of the incoming and outgoing queues.</li>
+ * </ul>
+ * <p>
+ * The methods recording metrics are invoked by the connection implementations and are not meant to be invoked by
+ * users.
+ * </p>
+ */
+public final class ConnectionMetrics {
+
+    /**
+     * The maximum number of namespaces for which IQ round trip times are recorded separately.
+     */
+    private static final int MAX_IQ_NAMESPACES = 256;
+
+    /**
+     * The maximum number of outgoing IQ requests tracked to measure their round trip time. Once reached, the oldest
+     * pending request is no longer tracked.
+     */
+    private static final int MAX_PENDING_IQ_REQUESTS = 1000;
+
+    /**
+     * IQ requests pending for longer than this are assumed to never get a response.
+     */
+    private static final long PENDING_IQ_REQUEST_EXPIRY_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    /**
+     * The kinds of stanzas counted separately.
+     */
+    public enum StanzaType {
+        message,
+        presence,
+        iq,
+        ;
+
+        static StanzaType from(Stanza stanza) {
+            if (stanza instanceof Message) {
+                return message;
+            }
+            if (stanza instanceof Presence) {
+                return presence;
+            }
+            if (stanza instanceof IQ) {
+                return iq;
+            }
+            return null;
+        }
+    }
+
+    private final AbstractXMPPConnection connection;
+
+    private final AtomicLongArray stanzasReceived = new AtomicLongArray(StanzaType.values().length);
+
+    private final AtomicLongArray stanzasSent = new AtomicLongArray(StanzaType.values().length);
+
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    private final Histogram parseTime = new Histogram();
+
+    private final Histogram writerQueueWaitTime = new Histogram();
+
+    private final Histogram listenerExecutionTime = new Histogram();
+
+    private final Histogram streamManagementAckLag = new Histogram();
+
+    private final Histogram otherIqRoundTripTime = new Histogram();
+
+    private final ConcurrentMap<String, Histogram> iqRoundTripTimes = new ConcurrentHashMap<>();
+
+    /**
+     * The pending IQ requests in the order they have been sent, which allows to expire them from the head of the map.
+     * Guarded by itself.
+     */
+    private final Map<String, PendingIqRequest> pendingIqRequests = new LinkedHashMap<String, PendingIqRequest>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PendingIqRequest> eldest) {
+            return size() > MAX_PENDING_IQ_REQUESTS;
+        }
+    };
+
+    ConnectionMetrics(AbstractXMPPConnection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Get the number of received stanzas of the given type.
+     *
+     * @param type the stanza type.
+     * @return the number of received stanzas.
+     */
+    public long getStanzasReceived(StanzaType type) {
+        return stanzasReceived.get(type.ordinal());
+    }
+
+    /**
+     * Get the number of sent stanzas of the given type.
+     *
+     * @param type the stanza type.
+     * @return the number of sent stanzas.
+     */
+    public long getStanzasSent(StanzaType type) {
+        return stanzasSent.get(type.ordinal());
+    }
+
+    /**
+     * Get the number of bytes received from the network. The bytes are counted as they are read from the socket, i.e.
+     * after TLS decryption, but before decompression.
+     *
+     * @return the number of received bytes.
+     */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * Get the number of bytes sent to the network. The bytes are counted as they are written to the socket, i.e. before
+     * TLS encryption, but after compression.
+     *
+     * @return the number of sent bytes.
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * Get the histogram of the time required to parse incoming stanzas.
+     *
+     * @return the parse time histogram.
+     */
+    public Histogram getParseTime() {
+        return parseTime;
+    }
+
+    /**
+     * Get the histogram of the time outgoing elements waited in the queue of the writer before being written.
+     *
+     * @return the writer queue wait time histogram.
+     */
+    public Histogram getWriterQueueWaitTime() {
+        return writerQueueWaitTime;
+    }
+
+    /**
+     * Get the histogram of the execution time of stanza listeners and IQ request handlers.
+     *
+     * @return the listener execution time histogram.
+     */
+    public Histogram getListenerExecutionTime() {
+        return listenerExecutionTime;
+    }
+
+    /**
+     * Get the histogram of the time between requesting a Stream Management acknowledgement and receiving it.
+     *
+     * @return the Stream Management acknowledgement lag histogram.
+     */
+    public Histogram getStreamManagementAckLag() {
+        return streamManagementAckLag;
+    }
+
+    /**
+     * Get the histogram of the round trip time of IQ requests whose child element has the given namespace.
+     *
+     * @param namespace the namespace of the IQ request's child element.
+     * @return the round trip time histogram or <code>null</code> if no round trip time was recorded for the namespace.
+     */
+    public Histogram getIqRoundTripTime(String namespace) {
+        return iqRoundTripTimes.get(namespace);
+    }
+
+    /**
+     * Get the histograms of the round trip time of IQ requests, keyed by the namespace of the request's child element.
+     * If there are IQ requests with more than {@value #MAX_IQ_NAMESPACES} namespaces, then the round trip times of the
+     * remaining namespaces are recorded under the empty string.
+     *
+     * @return the round trip time histograms.
+     */
+    public Map<String, Histogram> getIqRoundTripTimes() {
+        Map<String, Histogram> result = new HashMap<>(iqRoundTripTimes);
+        if (otherIqRoundTripTime.getCount() > 0) {
+            result.put("", otherIqRoundTripTime);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Get the number of incoming stanzas waiting to be processed.
+     *
+     * @return the number of incoming stanzas waiting to be processed.
+     */
+    public int getIncomingQueueSize() {
+        return connection.getIncomingQueueSize();
+    }
+
+    /**
+     * Get the number of outgoing elements waiting in the queue of the writer.
+     *
+     * @return the number of outgoing elements waiting to be written.
+     */
+    public int getWriterQueueSize() {
+        return connection.getWriterQueueSize();
+    }
+
+    /**
+     * Get the number of sent stanzas not yet acknowledged by the server. Zero if Stream Management is not enabled.
+     *
+     * @return the number of unacknowledged stanzas.
+     */
+    public int getUnacknowledgedStanzaCount() {
+        return connection.getUnacknowledgedStanzaCount();
+    }
+
+    /**
+     * Wrap the given input stream, so that the bytes read from it are counted as received bytes.
+     *
+     * @param inputStream the input stream.
+     * @return the wrapped input stream.
+     */
+    public InputStream countBytesReceived(InputStream inputStream) {
+        return new FilterInputStream(inputStream) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    bytesReceived.incrementAndGet();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                if (read > 0) {
+                    bytesReceived.addAndGet(read);
+                }
+                return read;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(n);
+                bytesReceived.addAndGet(skipped);
+                return skipped;
+            }
+        };
+    }
+
+    /**
+     * Wrap the given output stream, so that the bytes written to it are counted as sent bytes.
+     *
+     * @param outputStream the output stream.
+     * @return the wrapped output stream.
+     */
+    public OutputStream countBytesSent(OutputStream outputStream) {
+        return new FilterOutputStream(outputStream) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytesSent.incrementAndGet();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                // Do not use FilterOutputStream's implementation, which writes byte by byte.
+                out.write(b, off, len);
+                bytesSent.addAndGet(len);
+            }
+        };
+    }
+
+    /**
+     * Count the given number of bytes as received bytes. Used by transports which do not read from an input stream.
+     *
+     * @param count the number of received bytes.
+     * @since 4.3
+     */
+    public void countBytesReceived(int count) {
+        bytesReceived.addAndGet(count);
+    }
+
+    /**
+     * Count the given number of bytes as sent bytes. Used by transports which do not write to an output stream.
+     *
+     * @param count the number of sent bytes.
+     * @since 4.3
+     */
+    public void countBytesSent(int count) {
+        bytesSent.addAndGet(count);
+    }
+
+    /**
+     * Record the received stanza.
+     *
+     * @param stanza the received stanza.
+     */
+    void stanzaReceived(Stanza stanza) {
+        StanzaType type = StanzaType.from(stanza);
+        if (type != null) {
+            stanzasReceived.incrementAndGet(type.ordinal());
+        }
+        if (type == StanzaType.iq) {
+            IQ iq = (IQ) stanza;
+            switch (iq.getType()) {
+            case result:
+            case error:
+                iqResponseReceived(iq);
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    /**
+     * Record the sent stanza.
+     *
+     * @param stanza the sent stanza.
+     */
+    void stanzaSent(Stanza stanza) {
+        StanzaType type = StanzaType.from(stanza);
+        if (type != null) {
+            stanzasSent.incrementAndGet(type.ordinal());
+        }
+        if (type == StanzaType.iq) {
+            IQ iq = (IQ) stanza;
+            switch (iq.getType()) {
+            case get:
+            case set:
+                iqRequestSent(iq);
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    /**
+     * Record the time an outgoing element waited in the queue of the writer.
+     *
+     * @param enqueuedNanos the time, as returned by {@link System#nanoTime()}, the element was put into the queue.
+     */
+    public void writerQueueWaited(long enqueuedNanos) {
+        writerQueueWaitTime.recordNanosSince(enqueuedNanos);
+    }
+
+    /**
+     * Record the time between requesting a Stream Management acknowledgement and receiving it.
+     *
+     * @param requestedNanos the time, as returned by {@link System#nanoTime()}, the acknowledgement was requested.
+     */
+    public void streamManagementAckReceived(long requestedNanos) {
+        streamManagementAckLag.recordNanosSince(requestedNanos);
+    }
+
+    void stanzaParsed(long parseStartNanos) {
+        parseTime.recordNanosSince(parseStartNanos);
+    }
+
+    void listenerExecuted(long executionStartNanos) {
+        listenerExecutionTime.recordNanosSince(executionStartNanos);
+    }
+
+    private void iqRequestSent(IQ iq) {
+        String stanzaId = iq.getStanzaId();
+        if (stanzaId == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        PendingIqRequest pendingIqRequest = new PendingIqRequest(iq.getChildElementNamespace(), now);
+        synchronized (pendingIqRequests) {
+            removeExpiredPendingIqRequests(now);
+            // Re-insert a reused stanza ID, so that the map stays ordered by the time the requests have been sent.
+            pendingIqRequests.remove(stanzaId);
+            pendingIqRequests.put(stanzaId, pendingIqRequest);
+        }
+    }
+
+    private void iqResponseReceived(IQ iq) {
+        String stanzaId = iq.getStanzaId();
+        if (stanzaId == null) {
+            return;
+        }
+        PendingIqRequest pendingIqRequest;
+        synchronized (pendingIqRequests) {
+            pendingIqRequest = pendingIqRequests.remove(stanzaId);
+        }
+        if (pendingIqRequest == null) {
+            return;
+        }
+        getIqRoundTripTimeHistogramFor(pendingIqRequest.namespace).recordNanosSince(pendingIqRequest.sentNanos);
+    }
+
+    private Histogram getIqRoundTripTimeHistogramFor(String namespace) {
+        if (namespace == null) {
+            return otherIqRoundTripTime;
+        }
+        Histogram histogram = iqRoundTripTimes.get(namespace);
+        if (histogram != null) {
+            return histogram;
+        }
+        if (iqRoundTripTimes.size() >= MAX_IQ_NAMESPACES) {
+            return otherIqRoundTripTime;
+        }
+        histogram = new Histogram();
+        Histogram previous = iqRoundTripTimes.putIfAbsent(namespace, histogram);
+        return previous != null ? previous : histogram;
+    }
+
+    /**
+     * Remove the expired pending IQ requests. As the requests are ordered by the time they have been sent, only the
+     * expired ones and the first unexpired one are visited. Must be called with the lock of the map held.
+     */
+    private void removeExpiredPendingIqRequests(long now) {
+        Iterator<PendingIqRequest> iterator = pendingIqRequests.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().sentNanos <= PENDING_IQ_REQUEST_EXPIRY_NANOS) {
+                return;
+            }
+            iterator.remove();
+        }
+    }
+
+    private static final class PendingIqRequest {
+        private final String namespace;
+        private final long sentNanos;
+
+        private PendingIqRequest(String namespace, long sentNanos) {
+            this.namespace = namespace;
+            this.sentNanos = sentNanos;
+        }
+    }
+}
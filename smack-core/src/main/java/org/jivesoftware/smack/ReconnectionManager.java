@@ -16,15 +16,17 @@
  */
 package org.jivesoftware.smack;
 
+import org.jivesoftware.smack.SmackExecutionModel.SerialExecutor;
 import org.jivesoftware.smack.XMPPException.StreamErrorException;
 import org.jivesoftware.smack.packet.StreamError;
-import org.jivesoftware.smack.util.Async;
+import org.jivesoftware.smack.util.HashedWheelTimer;
 
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.Map;
 import java.util.Random;
 import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -103,7 +105,6 @@ public final class ReconnectionManager {
     // Holds the connection to the server
     private final WeakReference<AbstractXMPPConnection> weakRefConnection;
     private final int randomBase = new Random().nextInt(13) + 2; // between 2 and 15 seconds
-    private final Runnable reconnectionRunnable;
 
     private static int defaultFixedDelay = 15;
     private static ReconnectionPolicy defaultReconnectionPolicy = ReconnectionPolicy.RANDOM_INCREASING_DELAY;
@@ -111,6 +112,12 @@ public final class ReconnectionManager {
     private volatile int fixedDelay = defaultFixedDelay;
     private volatile ReconnectionPolicy reconnectionPolicy = defaultReconnectionPolicy;
 
+    /**
+     * Runs the countdown notifications and the reconnection attempts, so that the listeners are notified in order and
+     * {@link ConnectionListener#reconnectingIn(int)} never overlaps with the outcome of an attempt.
+     */
+    private final SerialExecutor reconnectionExecutor = SmackConfiguration.getExecutionModel().newSerialExecutor();
+
     /**
      * Set the default fixed delay in seconds between the reconnection attempts. Also set the
      * default connection policy to {@link ReconnectionPolicy#FIXED_DELAY}
@@ -158,119 +165,24 @@ public final class ReconnectionManager {
 
     boolean done = false;
 
-    private Thread reconnectionThread;
-
-    private ReconnectionManager(AbstractXMPPConnection connection) {
-        weakRefConnection = new WeakReference<AbstractXMPPConnection>(connection);
-
-        reconnectionRunnable = new Thread() {
-
-            /**
-             * Holds the current number of reconnection attempts
-             */
-            private int attempts = 0;
-
-            /**
-             * Returns the number of seconds until the next reconnection attempt.
-             *
-             * @return the number of seconds until the next reconnection attempt.
-             */
-            private int timeDelay() {
-                attempts++;
-
-                // Delay variable to be assigned
-                int delay;
-                switch (reconnectionPolicy) {
-                case FIXED_DELAY:
-                    delay = fixedDelay;
-                    break;
-                case RANDOM_INCREASING_DELAY:
-                    if (attempts > 13) {
-                        delay = randomBase * 6 * 5; // between 2.5 and 7.5 minutes (~5 minutes)
-                    }
-                    else if (attempts > 7) {
-                        delay = randomBase * 6; // between 30 and 90 seconds (~1 minutes)
-                    }
-                    else {
-                        delay = randomBase; // 10 seconds
-                    }
-                    break;
-                default:
-                    throw new AssertionError("Unknown reconnection policy " + reconnectionPolicy);
-                }
-
-                return delay;
-            }
+    /**
+     * Flag that indicates if a reconnection is in progress, i.e. if the delay until the next reconnection attempt is
+     * counted down or if a reconnection attempt is made. Guarded by 'this'.
+     */
+    private boolean reconnectionInProgress;
 
-            /**
-             * The process will try the reconnection until the connection succeed or the user cancel it
-             */
-            @Override
-            public void run() {
-                final AbstractXMPPConnection connection = weakRefConnection.get();
-                if (connection == null) {
-                    return;
-                }
-                // The process will try to reconnect until the connection is established or
-                // the user cancel the reconnection process AbstractXMPPConnection.disconnect().
-                while (isReconnectionPossible(connection)) {
-                    // Find how much time we should wait until the next reconnection
-                    int remainingSeconds = timeDelay();
-                    // Sleep until we're ready for the next reconnection attempt. Notify
-                    // listeners once per second about how much time remains before the next
-                    // reconnection attempt.
-                    while (isReconnectionPossible(connection) && remainingSeconds > 0) {
-                        try {
-                            Thread.sleep(1000);
-                            remainingSeconds--;
-                            for (ConnectionListener listener : connection.connectionListeners) {
-                                listener.reconnectingIn(remainingSeconds);
-                            }
-                        }
-                        catch (InterruptedException e) {
-                            LOGGER.log(Level.FINE, "waiting for reconnection interrupted", e);
-                            break;
-                        }
-                    }
+    /**
+     * Holds the current number of reconnection attempts
+     */
+    private int attempts = 0;
 
-                    for (ConnectionListener listener : connection.connectionListeners) {
-                        listener.reconnectingIn(0);
-                    }
+    /**
+     * Holds the number of seconds until the next reconnection attempt. Guarded by 'this'.
+     */
+    private int remainingSeconds;
 
-                    // Makes a reconnection attempt
-                    try {
-                        if (isReconnectionPossible(connection)) {
-                            try {
-                                connection.connect();
-                            } catch (SmackException.AlreadyConnectedException e) {
-                                LOGGER.log(Level.FINER, "Connection was already connected on reconnection attempt", e);
-                            }
-                        }
-                        // TODO Starting with Smack 4.2, connect() will no
-                        // longer login automatically. So change this and the
-                        // previous lines to connection.connect().login() in the
-                        // 4.2, or any later, branch.
-                        if (!connection.isAuthenticated()) {
-                            connection.login();
-                        }
-                        // Successfully reconnected.
-                        attempts = 0;
-                    }
-                    catch (SmackException.AlreadyLoggedInException e) {
-                        // This can happen if another thread concurrently triggers a reconnection
-                        // and/or login. Obviously it should not be handled as a reconnection
-                        // failure. See also SMACK-725.
-                        LOGGER.log(Level.FINER, "Reconnection not required, was already logged in", e);
-                    }
-                    catch (SmackException | IOException | XMPPException | InterruptedException e) {
-                        // Fires the failed reconnection notification
-                        for (ConnectionListener listener : connection.connectionListeners) {
-                            listener.reconnectionFailed(e);
-                        }
-                    }
-                }
-            }
-        };
+    private ReconnectionManager(AbstractXMPPConnection connection) {
+        weakRefConnection = new WeakReference<AbstractXMPPConnection>(connection);
 
         // If the reconnection mechanism is enable per default, enable it for this ReconnectionManager instance
         if (getEnabledPerDefault()) {
@@ -338,16 +250,162 @@ public final class ReconnectionManager {
             LOGGER.fine("Connection is null, will not reconnect");
             return;
         }
-        // Since there is no thread running, creates a new one to attempt
-        // the reconnection.
-        // avoid to run duplicated reconnectionThread -- fd: 16/09/2010
-        if (reconnectionThread != null && reconnectionThread.isAlive())
+        // avoid to run duplicated reconnections -- fd: 16/09/2010
+        if (reconnectionInProgress) {
             return;
+        }
+        reconnectionInProgress = true;
+        scheduleReconnectionAttempt();
+    }
+
+    private synchronized void reconnectionFinished() {
+        reconnectionInProgress = false;
+    }
+
+    /**
+     * Schedules the next reconnection attempt according to the reconnection policy. The delay until the attempt is
+     * counted down by Smack's shared {@link HashedWheelTimer}, so there is no thread waiting for the attempt.
+     */
+    @SuppressWarnings("FutureReturnValueIgnored")
+    private synchronized void scheduleReconnectionAttempt() {
+        // Find how much time we should wait until the next reconnection
+        remainingSeconds = timeDelay();
+        HashedWheelTimer.getInstance().schedule(countdownRunnable, remainingSeconds > 0 ? 1 : 0, TimeUnit.SECONDS);
+    }
 
-        reconnectionThread = Async.go(reconnectionRunnable,
-                        "Smack Reconnection Manager (" + connection.getConnectionCounter() + ')');
+    /**
+     * Returns the number of seconds until the next reconnection attempt.
+     *
+     * @return the number of seconds until the next reconnection attempt.
+     */
+    private synchronized int timeDelay() {
+        attempts++;
+
+        // Delay variable to be assigned
+        int delay;
+        switch (reconnectionPolicy) {
+        case FIXED_DELAY:
+            delay = fixedDelay;
+            break;
+        case RANDOM_INCREASING_DELAY:
+            if (attempts > 13) {
+                delay = randomBase * 6 * 5; // between 2.5 and 7.5 minutes (~5 minutes)
+            }
+            else if (attempts > 7) {
+                delay = randomBase * 6; // between 30 and 90 seconds (~1 minutes)
+            }
+            else {
+                delay = randomBase; // 10 seconds
+            }
+            break;
+        default:
+            throw new AssertionError("Unknown reconnection policy " + reconnectionPolicy);
+        }
+
+        return delay;
     }
 
+    /**
+     * Run by the timer once per second until the next reconnection attempt is due. Notifies the listeners about how
+     * much time remains before the next reconnection attempt.
+     */
+    private final Runnable countdownRunnable = new Runnable() {
+        @SuppressWarnings("FutureReturnValueIgnored")
+        @Override
+        public void run() {
+            final AbstractXMPPConnection connection = weakRefConnection.get();
+            if (connection == null) {
+                reconnectionFinished();
+                return;
+            }
+            final int remaining;
+            synchronized (ReconnectionManager.this) {
+                if (remainingSeconds > 0) {
+                    remainingSeconds--;
+                }
+                remaining = remainingSeconds;
+            }
+            if (remaining > 0 && isReconnectionPossible(connection)) {
+                // The timer thread must not invoke the listeners, as they may block.
+                reconnectionExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (ConnectionListener listener : connection.connectionListeners) {
+                            listener.reconnectingIn(remaining);
+                        }
+                    }
+                });
+                HashedWheelTimer.getInstance().schedule(this, 1, TimeUnit.SECONDS);
+                return;
+            }
+            // Reconnecting blocks, so do not attempt to reconnect from the timer thread.
+            reconnectionExecutor.execute(reconnectionAttemptRunnable);
+        }
+    };
+
+    /**
+     * Makes a reconnection attempt and schedules the next one, if the attempt failed. The process will try the
+     * reconnection until the connection succeed or the user cancel it.
+     */
+    private final Runnable reconnectionAttemptRunnable = new Runnable() {
+        @Override
+        public void run() {
+            final AbstractXMPPConnection connection = weakRefConnection.get();
+            if (connection == null) {
+                reconnectionFinished();
+                return;
+            }
+
+            for (ConnectionListener listener : connection.connectionListeners) {
+                listener.reconnectingIn(0);
+            }
+
+            // Makes a reconnection attempt
+            try {
+                if (isReconnectionPossible(connection)) {
+                    try {
+                        connection.connect();
+                    } catch (SmackException.AlreadyConnectedException e) {
+                        LOGGER.log(Level.FINER, "Connection was already connected on reconnection attempt", e);
+                    }
+                }
+                // TODO Starting with Smack 4.2, connect() will no
+                // longer login automatically. So change this and the
+                // previous lines to connection.connect().login() in the
+                // 4.2, or any later, branch.
+                if (!connection.isAuthenticated()) {
+                    connection.login();
+                }
+                // Successfully reconnected.
+                synchronized (ReconnectionManager.this) {
+                    attempts = 0;
+                }
+            }
+            catch (SmackException.AlreadyLoggedInException e) {
+                // This can happen if another thread concurrently triggers a reconnection
+                // and/or login. Obviously it should not be handled as a reconnection
+                // failure. See also SMACK-725.
+                LOGGER.log(Level.FINER, "Reconnection not required, was already logged in", e);
+            }
+            catch (SmackException | IOException | XMPPException | InterruptedException e) {
+                // Fires the failed reconnection notification
+                for (ConnectionListener listener : connection.connectionListeners) {
+                    listener.reconnectionFailed(e);
+                }
+            }
+
+            // The process will try to reconnect until the connection is established or
+            // the user cancel the reconnection process AbstractXMPPConnection.disconnect().
+            synchronized (ReconnectionManager.this) {
+                if (isReconnectionPossible(connection)) {
+                    scheduleReconnectionAttempt();
+                } else {
+                    reconnectionFinished();
+                }
+            }
+        }
+    };
+
     private final ConnectionListener connectionListener = new AbstractConnectionListener() {
 
         @Override
@@ -34,6 +34,7 @@ import org.jivesoftware.smack.debugger.SmackDebugger;
 import org.jivesoftware.smack.debugger.SmackDebuggerFactory;
 import org.jivesoftware.smack.parsing.ExceptionThrowingCallback;
 import org.jivesoftware.smack.parsing.ParsingExceptionCallback;
+import org.jivesoftware.smack.util.Objects;
 
 /**
  * Represents the configuration of Smack. The configuration is used for:
@@ -87,6 +88,8 @@ public final class SmackConfiguration {
 
     private static HostnameVerifier defaultHostnameVerififer;
 
+    private static SmackExecutionModel executionModel;
+
     /**
      * Returns the Smack version information, eg "1.3.0".
      * 
@@ -289,6 +292,29 @@ public final class SmackConfiguration {
         return res;
     }
 
+    /**
+     * Set the execution model used by connections to process incoming stanzas and to invoke listeners. Connections use
+     * the execution model set when they got created.
+     *
+     * @param executionModel the execution model.
+     */
+    public static synchronized void setExecutionModel(SmackExecutionModel executionModel) {
+        SmackConfiguration.executionModel = Objects.requireNonNull(executionModel, "Execution model must not be null");
+    }
+
+    /**
+     * Get the execution model used by connections to process incoming stanzas and to invoke listeners. If no execution
+     * model was set, then a execution model with a bounded thread pool shared by all connections is used.
+     *
+     * @return the execution model.
+     */
+    public static synchronized SmackExecutionModel getExecutionModel() {
+        if (executionModel == null) {
+            executionModel = SmackExecutionModel.createDefault();
+        }
+        return executionModel;
+    }
+
     /**
      * Set the default HostnameVerifier that will be used by XMPP connections to verify the hostname
      * of a TLS certificate. XMPP connections are able to overwrite this settings by supplying a
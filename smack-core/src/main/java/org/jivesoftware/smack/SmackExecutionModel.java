@@ -0,0 +1,473 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.util.Async;
+
+/**
+ * The execution model used by Smack's connections to process incoming stanzas and to invoke listeners and IQ request
+ * handlers. All connections share the executor of the execution model, so that the number of threads does not grow
+ * with the number of connections or with the number of stanzas arriving at once.
+ * <p>
+ * Tasks which must run in order, like the processing of incoming stanzas or the invocation of synchronous listeners,
+ * are queued in {@link SerialExecutor}s. A serial executor submits its tasks one after another to the shared executor,
+ * hence it keeps the order without occupying a thread while it has no tasks.
+ * </p>
+ * <p>
+ * The processing of incoming stanzas must never wait for a thread of the shared executor, as those threads may all be
+ * blocked by listeners waiting for a response, which in turn needs to be processed. Therefore the serial executors
+ * created by {@link #newProcessingSerialExecutor(int)} use a separate processing executor, whose threads are reserved
+ * for short, non-blocking tasks.
+ * </p>
+ * <p>
+ * The default execution model, see {@link SmackConfiguration#getExecutionModel()}, uses a bounded thread pool. On
+ * platforms providing one, it is possible to use another executor, for example a {@code ForkJoinPool}, with
+ * {@link #SmackExecutionModel(Executor)} and {@link SmackConfiguration#setExecutionModel(SmackExecutionModel)}. Note
+ * that listeners are allowed to block, for example while waiting for the response to an IQ request, so the executor
+ * should provide enough threads.
+ * </p>
+ * <p>
+ * If the executor rejects a task, then the task is run by a newly created thread, so that no stanza is lost. The
+ * number of rejected tasks is available via {@link #getRejectedExecutionCount()}.
+ * </p>
+ * <p>
+ * The execution model also creates the dedicated threads used by Smack, e.g. the reader and writer thread of a
+ * connection and the threads of file transfers. On Java runtimes which support virtual threads, the execution model
+ * created by {@link #newVirtualThreadExecutionModel()} runs every task, and every dedicated thread, in a virtual thread.
+ * This fits Smack's blocking API well, as a thread blocking on a IQ response does no longer occupy a platform thread.
+ * </p>
+ */
+public class SmackExecutionModel implements Executor {
+
+    private static final Logger LOGGER = Logger.getLogger(SmackExecutionModel.class.getName());
+
+    /**
+     * The number of tasks a serial executor runs before it gives other serial executors the chance to run their tasks.
+     */
+    private static final int SERIAL_EXECUTOR_BATCH_SIZE = 64;
+
+    private final Executor executor;
+
+    private final Executor processingExecutor;
+
+    private final ThreadFactory threadFactory;
+
+    private final AtomicInteger queuedSerialTasks = new AtomicInteger();
+
+    private final AtomicLong rejectedExecutionCount = new AtomicLong();
+
+    /**
+     * Create a new execution model with a bounded thread pool. Threads are created on demand, up to the given maximum,
+     * and terminate after being idle for a minute. Once all threads are busy, tasks are queued, up to the given
+     * capacity.
+     *
+     * @param maximumPoolSize the maximum number of threads.
+     * @param queueCapacity the maximum number of tasks waiting for a thread.
+     */
+    public SmackExecutionModel(int maximumPoolSize, int queueCapacity) {
+        this(createThreadPoolExecutor(maximumPoolSize, queueCapacity));
+    }
+
+    /**
+     * Create a new execution model using the given executor.
+     *
+     * @param executor the executor shared by all connections using this execution model.
+     */
+    public SmackExecutionModel(Executor executor) {
+        this(executor, PlatformThreadFactory.INSTANCE);
+    }
+
+    /**
+     * Create a new execution model using the given executor and thread factory.
+     *
+     * @param executor the executor shared by all connections using this execution model.
+     * @param threadFactory the thread factory used to create the dedicated threads, like reader and writer threads.
+     */
+    public SmackExecutionModel(Executor executor, ThreadFactory threadFactory) {
+        this(executor, createProcessingThreadPoolExecutor(), threadFactory);
+    }
+
+    /**
+     * Create a new execution model using the given executors and thread factory.
+     *
+     * @param executor the executor shared by all connections using this execution model.
+     * @param processingExecutor the executor used by the serial executors processing incoming stanzas, see
+     *        {@link #newProcessingSerialExecutor(int)}.
+     * @param threadFactory the thread factory used to create the dedicated threads, like reader and writer threads.
+     */
+    public SmackExecutionModel(Executor executor, Executor processingExecutor, ThreadFactory threadFactory) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor must not be null");
+        }
+        if (processingExecutor == null) {
+            throw new IllegalArgumentException("processingExecutor must not be null");
+        }
+        if (threadFactory == null) {
+            throw new IllegalArgumentException("threadFactory must not be null");
+        }
+        this.executor = executor;
+        this.processingExecutor = processingExecutor;
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * Create a new execution model which runs every task in a new virtual thread and also creates the dedicated
+     * threads, like reader and writer threads, as virtual threads.
+     *
+     * @return a new execution model using virtual threads.
+     * @throws UnsupportedOperationException if the Java runtime does not support virtual threads.
+     * @see #isVirtualThreadSupported()
+     */
+    public static SmackExecutionModel newVirtualThreadExecutionModel() {
+        final ThreadFactory virtualThreadFactory = createVirtualThreadFactory();
+        Executor threadPerTaskExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                virtualThreadFactory.newThread(command).start();
+            }
+        };
+        return new SmackExecutionModel(threadPerTaskExecutor, threadPerTaskExecutor, virtualThreadFactory);
+    }
+
+    /**
+     * Check if the Java runtime supports virtual threads.
+     *
+     * @return true if virtual threads are supported.
+     */
+    public static boolean isVirtualThreadSupported() {
+        try {
+            createVirtualThreadFactory();
+            return true;
+        }
+        catch (UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    private static ThreadFactory createVirtualThreadFactory() {
+        // Virtual threads are only available on newer Java runtimes, hence use reflection to create them.
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "Smack-Virtual ", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        }
+        catch (NoSuchMethodException | ClassNotFoundException | IllegalAccessException | InvocationTargetException
+                        | RuntimeException e) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this Java runtime", e);
+        }
+    }
+
+    /**
+     * Get the executor shared by all connections using this execution model.
+     *
+     * @return the executor.
+     */
+    public final Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Run the given task with the shared executor. This method never throws a {@link RejectedExecutionException}.
+     *
+     * @param task the task to run.
+     */
+    @Override
+    public final void execute(Runnable task) {
+        execute(executor, task);
+    }
+
+    private void execute(Executor executor, Runnable task) {
+        try {
+            executor.execute(task);
+        }
+        catch (RejectedExecutionException e) {
+            long rejected = rejectedExecutionCount.incrementAndGet();
+            LOGGER.log(Level.FINE, "Executor rejected task, running it in a new thread (rejected tasks: " + rejected
+                            + ')', e);
+            Async.go(task, "Smack Rejected Task Runner");
+        }
+    }
+
+    /**
+     * Create a new, not yet started, thread using the thread factory of this execution model. Smack uses this method
+     * to create its dedicated threads, like the reader and writer thread of a connection.
+     *
+     * @param runnable the runnable the thread runs.
+     * @return a new thread.
+     */
+    public final Thread newThread(Runnable runnable) {
+        return threadFactory.newThread(runnable);
+    }
+
+    /**
+     * Create a new serial executor with an unbounded queue.
+     *
+     * @return a new serial executor.
+     */
+    public final SerialExecutor newSerialExecutor() {
+        return new SerialExecutor(executor, 0);
+    }
+
+    /**
+     * Create a new serial executor whose queue is bounded. Once the queue is full, {@link SerialExecutor#executeBlocking(Runnable)}
+     * blocks until there is room again.
+     *
+     * @param bound the maximum number of queued tasks.
+     * @return a new serial executor.
+     */
+    public final SerialExecutor newSerialExecutor(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be greater than zero");
+        }
+        return new SerialExecutor(executor, bound);
+    }
+
+    /**
+     * Create a new bounded serial executor for short, non-blocking tasks, like the processing of incoming stanzas. Its
+     * tasks are run by the processing executor, so they do not compete with blocking tasks for the threads of the
+     * shared executor.
+     *
+     * @param bound the maximum number of queued tasks.
+     * @return a new serial executor.
+     */
+    public final SerialExecutor newProcessingSerialExecutor(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be greater than zero");
+        }
+        return new SerialExecutor(processingExecutor, bound);
+    }
+
+    /**
+     * Get the number of tasks waiting to be run. This includes the tasks queued in serial executors and, if the
+     * executors are {@link ThreadPoolExecutor}s, the tasks queued in the executors.
+     *
+     * @return the number of waiting tasks.
+     */
+    public int getQueueDepth() {
+        int queueDepth = queuedSerialTasks.get();
+        if (executor instanceof ThreadPoolExecutor) {
+            queueDepth += ((ThreadPoolExecutor) executor).getQueue().size();
+        }
+        if (processingExecutor != executor && processingExecutor instanceof ThreadPoolExecutor) {
+            queueDepth += ((ThreadPoolExecutor) processingExecutor).getQueue().size();
+        }
+        return queueDepth;
+    }
+
+    /**
+     * Get the number of tasks rejected by the executor. Those tasks have been run by a newly created thread instead.
+     *
+     * @return the number of rejected tasks.
+     */
+    public long getRejectedExecutionCount() {
+        return rejectedExecutionCount.get();
+    }
+
+    /**
+     * Create the execution model used by Smack if no other one was set.
+     *
+     * @return the default execution model.
+     */
+    static SmackExecutionModel createDefault() {
+        int maximumPoolSize = Math.max(32, 8 * Runtime.getRuntime().availableProcessors());
+        return new SmackExecutionModel(maximumPoolSize, 8192);
+    }
+
+    private static ThreadPoolExecutor createThreadPoolExecutor(int maximumPoolSize, int queueCapacity) {
+        // A ThreadPoolExecutor only creates threads beyond the core pool size once the queue is full. Use the maximum
+        // as core pool size, and let the core threads time out, so that threads are created before tasks are queued.
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(maximumPoolSize, maximumPoolSize, 60,
+                        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(queueCapacity),
+                        new SharedThreadFactory("Smack-Executor "));
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        return threadPoolExecutor;
+    }
+
+    private static ThreadPoolExecutor createProcessingThreadPoolExecutor() {
+        // Processing serial executors only have a single drain task queued at a time, so the queue is bounded by the
+        // number of connections, and there is no need to bound it here.
+        int poolSize = Math.max(2, Runtime.getRuntime().availableProcessors());
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(), new SharedThreadFactory("Smack-Processor "));
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        return threadPoolExecutor;
+    }
+
+    /**
+     * Creates platform threads which are daemon threads if the creating thread is one.
+     */
+    private static final class PlatformThreadFactory implements ThreadFactory {
+        private static final PlatformThreadFactory INSTANCE = new PlatformThreadFactory();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable);
+        }
+    }
+
+    private static final class SharedThreadFactory implements ThreadFactory {
+        private final String namePrefix;
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        private SharedThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable);
+            thread.setName(namePrefix + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * An executor running its tasks one after another, in the order they have been submitted, using the shared
+     * executor, or the processing executor, of the execution model.
+     */
+    public final class SerialExecutor implements Executor {
+
+        private final Executor executor;
+
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+        private final Semaphore semaphore;
+
+        /**
+         * If a drain task is submitted to the shared executor. Guarded by 'tasks'.
+         */
+        private boolean draining;
+
+        private final Runnable drainTask = new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+
+        private SerialExecutor(Executor executor, int bound) {
+            this.executor = executor;
+            semaphore = bound > 0 ? new Semaphore(bound) : null;
+        }
+
+        /**
+         * Queue the given task. If this serial executor is bounded and its queue is full, then this method blocks
+         * uninterruptibly until there is room again. Use {@link #executeBlocking(Runnable)} to wait interruptibly.
+         *
+         * @param task the task to run.
+         */
+        @Override
+        public void execute(Runnable task) {
+            if (semaphore != null) {
+                semaphore.acquireUninterruptibly();
+            }
+            enqueue(task);
+        }
+
+        /**
+         * Queue the given task. If this serial executor is bounded and its queue is full, then this method blocks
+         * until there is room again.
+         *
+         * @param task the task to run.
+         * @throws InterruptedException if the thread was interrupted while waiting for room in the queue.
+         */
+        public void executeBlocking(Runnable task) throws InterruptedException {
+            if (semaphore != null) {
+                semaphore.acquire();
+            }
+            enqueue(task);
+        }
+
+        /**
+         * Get the number of queued tasks.
+         *
+         * @return the number of queued tasks.
+         */
+        public int getQueueDepth() {
+            synchronized (tasks) {
+                return tasks.size();
+            }
+        }
+
+        private void enqueue(Runnable task) {
+            synchronized (tasks) {
+                tasks.add(task);
+                queuedSerialTasks.incrementAndGet();
+                if (draining) {
+                    return;
+                }
+                draining = true;
+            }
+            SmackExecutionModel.this.execute(executor, drainTask);
+        }
+
+        private void drain() {
+            try {
+                for (int i = 0; i < SERIAL_EXECUTOR_BATCH_SIZE; i++) {
+                    Runnable task;
+                    synchronized (tasks) {
+                        task = tasks.poll();
+                    }
+                    if (task == null) {
+                        break;
+                    }
+                    queuedSerialTasks.decrementAndGet();
+                    if (semaphore != null) {
+                        semaphore.release();
+                    }
+                    try {
+                        task.run();
+                    }
+                    catch (RuntimeException e) {
+                        LOGGER.log(Level.SEVERE, "Exception in serial task", e);
+                    }
+                }
+            }
+            finally {
+                // Leave the draining state if there are no more tasks. Otherwise, because the batch is done or because
+                // a task threw an Error, continue with another drain task, which gives the tasks of other serial
+                // executors a chance to run. The order is kept, as this serial executor remains in the draining state.
+                boolean moreTasks;
+                synchronized (tasks) {
+                    moreTasks = !tasks.isEmpty();
+                    draining = moreTasks;
+                }
+                if (moreTasks) {
+                    SmackExecutionModel.this.execute(executor, drainTask);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The result of an asynchronous operation, like the response to an IQ request send with
+ * {@link XMPPConnection#sendIqRequestAsync(org.jivesoftware.smack.packet.IQ)}. Besides the methods of {@link Future},
+ * which block the calling thread, callbacks can be registered which are invoked once the operation completed.
+ * <p>
+ * The callbacks are invoked at most once. They are never invoked by the thread which completed the future, e.g. the
+ * thread reading from the connection, but by the executor given to the future.
+ * </p>
+ *
+ * @param <V> the type of the result.
+ */
+public abstract class SmackFuture<V> implements Future<V> {
+
+    private final Executor callbackExecutor;
+
+    // A Lock is used instead of a monitor, so that threads blocking in get() do not pin the carrier thread if they are
+    // virtual threads.
+    private final Lock lock = new ReentrantLock();
+
+    private final Condition doneCondition = lock.newCondition();
+
+    private boolean cancelled;
+
+    private boolean done;
+
+    private V result;
+
+    private Exception exception;
+
+    private SuccessCallback<V> successCallback;
+
+    private ExceptionCallback exceptionCallback;
+
+    private boolean callbacksInvoked;
+
+    protected SmackFuture(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    @Override
+    public final boolean cancel(boolean mayInterruptIfRunning) {
+        lock.lock();
+        try {
+            if (done) {
+                return false;
+            }
+            cancelled = true;
+            done = true;
+            doneCondition.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+        onCancelled();
+        return true;
+    }
+
+    /**
+     * Invoked once after this future was cancelled. Subclasses may override this method to release the resources held
+     * for the operation, e.g. to forget about a pending request.
+     */
+    protected void onCancelled() {
+    }
+
+    @Override
+    public final boolean isCancelled() {
+        lock.lock();
+        try {
+            return cancelled;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public final boolean isDone() {
+        lock.lock();
+        try {
+            return done;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Register a callback which is invoked with the result once this future completed successfully.
+     *
+     * @param successCallback the callback.
+     * @return a reference to this future.
+     */
+    public SmackFuture<V> onSuccess(SuccessCallback<V> successCallback) {
+        lock.lock();
+        try {
+            this.successCallback = successCallback;
+        }
+        finally {
+            lock.unlock();
+        }
+        maybeInvokeCallbacks();
+        return this;
+    }
+
+    /**
+     * Register a callback which is invoked with the exception once this future completed exceptionally.
+     *
+     * @param exceptionCallback the callback.
+     * @return a reference to this future.
+     */
+    public SmackFuture<V> onError(ExceptionCallback exceptionCallback) {
+        lock.lock();
+        try {
+            this.exceptionCallback = exceptionCallback;
+        }
+        finally {
+            lock.unlock();
+        }
+        maybeInvokeCallbacks();
+        return this;
+    }
+
+    @Override
+    public final V get() throws InterruptedException, ExecutionException {
+        lock.lock();
+        try {
+            while (!done) {
+                doneCondition.await();
+            }
+            return getResultOrThrow();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public final V get(long timeout, TimeUnit unit)
+                    throws InterruptedException, ExecutionException, TimeoutException {
+        long remaining = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (!done) {
+                if (remaining <= 0) {
+                    throw new TimeoutException();
+                }
+                remaining = doneCondition.awaitNanos(remaining);
+            }
+            return getResultOrThrow();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private V getResultOrThrow() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        if (exception != null) {
+            throw new ExecutionException(exception);
+        }
+        return result;
+    }
+
+    /**
+     * Complete this future with the given result or exception, and invoke the matching callback, if it is set.
+     *
+     * @param result the result, or <code>null</code> if the future completes exceptionally.
+     * @param exception the exception, or <code>null</code> if the future completes successfully.
+     * @return <code>true</code> if this future was completed, <code>false</code> if it was already done.
+     */
+    protected final boolean complete(V result, Exception exception) {
+        lock.lock();
+        try {
+            if (done) {
+                return false;
+            }
+            this.result = result;
+            this.exception = exception;
+            done = true;
+            doneCondition.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+        maybeInvokeCallbacks();
+        return true;
+    }
+
+    private void maybeInvokeCallbacks() {
+        final V result;
+        final Exception exception;
+        final SuccessCallback<V> successCallback;
+        final ExceptionCallback exceptionCallback;
+        lock.lock();
+        try {
+            if (!done || cancelled || callbacksInvoked) {
+                return;
+            }
+            if (this.exception != null) {
+                if (this.exceptionCallback == null) {
+                    return;
+                }
+            }
+            else if (this.successCallback == null) {
+                return;
+            }
+            callbacksInvoked = true;
+            result = this.result;
+            exception = this.exception;
+            successCallback = this.successCallback;
+            exceptionCallback = this.exceptionCallback;
+        }
+        finally {
+            lock.unlock();
+        }
+
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (exception != null) {
+                    exceptionCallback.processException(exception);
+                }
+                else {
+                    successCallback.onSuccess(result);
+                }
+            }
+        });
+    }
+
+    /**
+     * A {@link SmackFuture} which is completed by Smack.
+     *
+     * @param <V> the type of the result.
+     */
+    public static class InternalSmackFuture<V> extends SmackFuture<V> {
+
+        public InternalSmackFuture(Executor callbackExecutor) {
+            super(callbackExecutor);
+        }
+
+        /**
+         * Complete this future with the given result.
+         *
+         * @param result the result.
+         * @return <code>true</code> if this future was completed, <code>false</code> if it was already done.
+         */
+        public boolean setResult(V result) {
+            return complete(result, null);
+        }
+
+        /**
+         * Complete this future with the given exception.
+         *
+         * @param exception the exception.
+         * @return <code>true</code> if this future was completed, <code>false</code> if it was already done.
+         */
+        public boolean setException(Exception exception) {
+            return complete(null, exception);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A reactor which multiplexes many non-blocking channels on a small, fixed number of threads.
+ * <p>
+ * Every reactor thread owns its own {@link Selector}. Channels are assigned to the reactor threads in a round-robin
+ * fashion once they get registered via {@link #registerWithSelector(SelectableChannel, int, ChannelSelectedCallback)}.
+ * Once a channel becomes ready for one of its interest operations, the {@link ChannelSelectedCallback} of the channel is
+ * invoked on the reactor thread owning the channel. This means that all callbacks of a single channel are invoked
+ * sequentially, and that the number of threads used does not depend on the number of registered channels. If a
+ * callback throws, then the channel is closed.
+ * </p>
+ * <p>
+ * Use {@link #getInstance()} to obtain the JVM-wide instance, which is what Smack's non-blocking components use.
+ * </p>
+ */
+public final class SmackReactor {
+
+    private static final Logger LOGGER = Logger.getLogger(SmackReactor.class.getName());
+
+    /**
+     * The number of reactor threads the JVM-wide instance starts with.
+     */
+    public static final int DEFAULT_REACTOR_THREAD_COUNT = 2;
+
+    private static SmackReactor INSTANCE;
+
+    /**
+     * Get the JVM-wide SmackReactor instance.
+     *
+     * @return the SmackReactor instance.
+     */
+    public static synchronized SmackReactor getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new SmackReactor("Smack Reactor", DEFAULT_REACTOR_THREAD_COUNT);
+        }
+        return INSTANCE;
+    }
+
+    private final String name;
+
+    private final List<ReactorThread> reactorThreads = new CopyOnWriteArrayList<>();
+
+    private final AtomicInteger nextReactorThread = new AtomicInteger();
+
+    SmackReactor(String name, int reactorThreadCount) {
+        this.name = name;
+        setReactorThreadCount(reactorThreadCount);
+    }
+
+    /**
+     * Register the given channel with this reactor. The channel must be in non-blocking mode.
+     *
+     * @param channel the channel to register.
+     * @param ops the initial interest operations, see {@link SelectionKey}.
+     * @param callback the callback which is invoked once the channel got selected.
+     * @return the selection key of the registered channel.
+     * @throws ClosedChannelException if the channel is closed.
+     */
+    public SelectionKey registerWithSelector(SelectableChannel channel, int ops, ChannelSelectedCallback callback)
+                    throws ClosedChannelException {
+        int index = (nextReactorThread.getAndIncrement() & Integer.MAX_VALUE) % reactorThreads.size();
+        ReactorThread reactorThread = reactorThreads.get(index);
+        return reactorThread.register(channel, ops, callback);
+    }
+
+    /**
+     * Set the interest operations of the given selection key. The change is queued and applied by the reactor thread
+     * owning the key before its next selection operation, as changing the interest set of a key while its selector
+     * selects may block, or may not be picked up until the selection operation returns. Changes are applied in the
+     * order this method was invoked.
+     *
+     * @param selectionKey the selection key.
+     * @param interestOps the new interest operations.
+     */
+    public void setInterestOps(SelectionKey selectionKey, int interestOps) {
+        Selector selector = selectionKey.selector();
+        for (ReactorThread reactorThread : reactorThreads) {
+            if (reactorThread.selector == selector) {
+                reactorThread.setInterestOps(selectionKey, interestOps);
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Selection key " + selectionKey + " is not registered with " + name);
+    }
+
+    /**
+     * Set the number of reactor threads. The number of threads can only be increased, an attempt to decrease it will
+     * be ignored, as channels are bound to the reactor thread they where registered with.
+     *
+     * @param reactorThreadCount the new number of reactor threads.
+     */
+    public synchronized void setReactorThreadCount(int reactorThreadCount) {
+        if (reactorThreadCount < 1) {
+            throw new IllegalArgumentException("Must have at least one reactor thread");
+        }
+        while (reactorThreads.size() < reactorThreadCount) {
+            ReactorThread reactorThread;
+            try {
+                reactorThread = new ReactorThread(reactorThreads.size());
+            }
+            catch (IOException e) {
+                throw new IllegalStateException("Could not open selector", e);
+            }
+            reactorThreads.add(reactorThread);
+            reactorThread.start();
+        }
+    }
+
+    /**
+     * Get the number of reactor threads of this reactor.
+     *
+     * @return the number of reactor threads.
+     */
+    public int getReactorThreadCount() {
+        return reactorThreads.size();
+    }
+
+    /**
+     * Get the number of channels currently registered with this reactor.
+     *
+     * @return the number of registered channels.
+     */
+    public int getRegisteredChannelCount() {
+        int count = 0;
+        for (ReactorThread reactorThread : reactorThreads) {
+            count += reactorThread.selector.keys().size();
+        }
+        return count;
+    }
+
+    private final class ReactorThread extends Thread {
+
+        private final Selector selector;
+
+        /**
+         * Guards the registration of new channels. {@link SelectableChannel#register(Selector, int, Object)} may block
+         * while the selector is in a selection operation, therefore the registering thread acquires this lock before
+         * waking up the selector. The reactor thread acquires (and releases) the lock before every selection
+         * operation, which ensures that it does not re-enter select() while a registration is in progress.
+         */
+        private final Lock registrationLock = new ReentrantLock();
+
+        private final Queue<SetInterestOps> pendingSetInterestOps = new ConcurrentLinkedQueue<>();
+
+        private ReactorThread(int number) throws IOException {
+            super(name + " Thread #" + number);
+            setDaemon(true);
+            selector = Selector.open();
+        }
+
+        private SelectionKey register(SelectableChannel channel, int ops, ChannelSelectedCallback callback)
+                        throws ClosedChannelException {
+            registrationLock.lock();
+            try {
+                selector.wakeup();
+                return channel.register(selector, ops, callback);
+            }
+            finally {
+                registrationLock.unlock();
+            }
+        }
+
+        private void setInterestOps(SelectionKey selectionKey, int interestOps) {
+            pendingSetInterestOps.add(new SetInterestOps(selectionKey, interestOps));
+            if (Thread.currentThread() != this) {
+                // The reactor thread itself applies the change before its next selection operation anyway.
+                selector.wakeup();
+            }
+        }
+
+        private void applyPendingSetInterestOps() {
+            SetInterestOps setInterestOps;
+            while ((setInterestOps = pendingSetInterestOps.poll()) != null) {
+                if (setInterestOps.selectionKey.isValid()) {
+                    setInterestOps.selectionKey.interestOps(setInterestOps.interestOps);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                registrationLock.lock();
+                registrationLock.unlock();
+
+                applyPendingSetInterestOps();
+
+                try {
+                    selector.select();
+                }
+                catch (ClosedSelectorException e) {
+                    LOGGER.log(Level.SEVERE, "Selector of " + getName() + " was closed", e);
+                    return;
+                }
+                catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "IOException while selecting in " + getName(), e);
+                    continue;
+                }
+
+                Set<SelectionKey> selectedKeys = selector.selectedKeys();
+                Iterator<SelectionKey> it = selectedKeys.iterator();
+                while (it.hasNext()) {
+                    SelectionKey selectionKey = it.next();
+                    it.remove();
+                    if (!selectionKey.isValid()) {
+                        continue;
+                    }
+                    ChannelSelectedCallback callback = (ChannelSelectedCallback) selectionKey.attachment();
+                    try {
+                        callback.onChannelSelected(selectionKey.channel(), selectionKey);
+                    }
+                    catch (Exception e) {
+                        LOGGER.log(Level.WARNING, "Channel selected callback " + callback
+                                        + " threw exception, closing its channel", e);
+                        selectionKey.cancel();
+                        try {
+                            selectionKey.channel().close();
+                        }
+                        catch (IOException closeException) {
+                            LOGGER.log(Level.FINE, "IOException while closing channel", closeException);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class SetInterestOps {
+        private final SelectionKey selectionKey;
+        private final int interestOps;
+
+        private SetInterestOps(SelectionKey selectionKey, int interestOps) {
+            this.selectionKey = selectionKey;
+            this.interestOps = interestOps;
+        }
+    }
+}
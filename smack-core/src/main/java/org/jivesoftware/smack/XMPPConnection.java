@@ -604,6 +604,34 @@ public interface XMPPConnection {
                     final ExceptionCallback exceptionCallback, long timeout)
                     throws NotConnectedException, InterruptedException;
 
+    /**
+     * Send an IQ request and return a future which is completed with the response. Unlike
+     * {@link #createStanzaCollectorAndSend(IQ)}, this neither blocks the calling thread nor creates a
+     * {@link StanzaCollector}: the future is completed once the response arrives, by looking up the request's stanza ID.
+     * <p>
+     * The future is completed with the result IQ, or exceptionally with a
+     * {@link XMPPException.XMPPErrorException} if the response is an IQ of type 'error', with a
+     * {@link SmackException.NoResponseException} if there was no response within the connection's reply timeout, or
+     * with a {@link SmackException.NotConnectedException}.
+     * </p>
+     *
+     * @param request the IQ request, i.e. an IQ of type 'get' or 'set'.
+     * @return a future for the response.
+     * @since 4.3
+     */
+    public SmackFuture<IQ> sendIqRequestAsync(IQ request);
+
+    /**
+     * Send an IQ request and return a future which is completed with the response.
+     *
+     * @param request the IQ request, i.e. an IQ of type 'get' or 'set'.
+     * @param timeout the timeout in milliseconds to wait for a response.
+     * @return a future for the response.
+     * @see #sendIqRequestAsync(IQ)
+     * @since 4.3
+     */
+    public SmackFuture<IQ> sendIqRequestAsync(IQ request, long timeout);
+
     /**
      * Add a callback that is called exactly once and synchronously with the incoming stanza that matches the given
      * stanza(/packet) filter.
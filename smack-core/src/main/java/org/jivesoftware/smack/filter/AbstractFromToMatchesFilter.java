@@ -64,6 +64,10 @@ public abstract class AbstractFromToMatchesFilter implements StanzaFilter {
 
     protected abstract Jid getAddressToCompare(Stanza stanza);
 
+    final Jid getAddress() {
+        return address;
+    }
+
     @Override
     public final String toString() {
         String matchMode = ignoreResourcepart ? "ignoreResourcepart" : "full";
@@ -126,6 +126,10 @@ public class IQReplyFilter implements StanzaFilter {
         }
     }
 
+    String getStanzaId() {
+        return packetId;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -70,6 +70,10 @@ public class StanzaExtensionFilter implements StanzaFilter {
         return packet.hasExtension(elementName, namespace);
     }
 
+    String getNamespace() {
+        return namespace;
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + ": element=" + elementName + " namespace=" + namespace;
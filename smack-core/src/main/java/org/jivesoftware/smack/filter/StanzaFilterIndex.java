@@ -0,0 +1,383 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.filter;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.packet.Stanza;
+
+import org.jxmpp.jid.Jid;
+
+/**
+ * An index of values, typically stanza listeners or collectors, with an associated {@link StanzaFilter}. Instead of
+ * evaluating every filter for every stanza, the index decomposes the filters and puts the values into hash indexes.
+ * The indexes are keyed by stanza ID, 'from' address, extension namespace and stanza type.
+ * {@link #findCandidates(Stanza, List)} only returns the values whose filter can possibly match the given stanza.
+ * <p>
+ * The following filters are indexed, possibly as part of an {@link AndFilter}: {@link StanzaIdFilter},
+ * {@link IQReplyFilter}, {@link FromMatchesFilter}, {@link StanzaExtensionFilter}, {@link StanzaTypeFilter} and
+ * {@link FlexibleStanzaTypeFilter}. Subclasses of those filters are only indexed if they do not override
+ * {@link StanzaFilter#accept(Stanza)}. Stanza type filters are only indexed if the type is a final class, like
+ * {@link org.jivesoftware.smack.packet.Message}, as the index only matches the exact class of a stanza. Values with a different filter, or with no filter, are put into a fallback list
+ * and are always candidates.
+ * </p>
+ * <p>
+ * The candidates are returned in the order the keys were first put into the index, just like a
+ * {@link java.util.LinkedHashMap} would return them. This class is not thread-safe.
+ * </p>
+ *
+ * @param <K> the type of the keys, e.g. the listener.
+ * @param <V> the type of the values.
+ */
+public final class StanzaFilterIndex<K, V> {
+
+    private static final Map<Class<?>, Boolean> INHERITS_ACCEPT_CACHE = new WeakHashMap<>();
+
+    private final Map<K, Entry<V>> entries = new HashMap<>();
+
+    private final Map<String, List<Entry<V>>> byStanzaId = new HashMap<>();
+
+    /**
+     * Indexed by the bare JID of the from address. The null key is used for filters matching stanzas without from.
+     */
+    private final Map<Jid, List<Entry<V>>> byFrom = new HashMap<>();
+
+    private final Map<String, List<Entry<V>>> byExtensionNamespace = new HashMap<>();
+
+    private final Map<Class<?>, List<Entry<V>>> byStanzaType = new HashMap<>();
+
+    private final List<Entry<V>> unindexed = new ArrayList<>();
+
+    private long nextSequenceNumber;
+
+    /**
+     * Put the given value with its filter into the index. If the key is already in the index, then the previous value
+     * is replaced but the position of the key in the order of the candidates is kept.
+     *
+     * @param key the key.
+     * @param value the value.
+     * @param filter the filter of the value, may be <code>null</code> to match all stanzas.
+     * @return the previous value of the key, or <code>null</code>.
+     */
+    public V put(K key, V value, StanzaFilter filter) {
+        Entry<V> previous = entries.remove(key);
+        long sequenceNumber;
+        if (previous != null) {
+            removeFromIndex(previous);
+            sequenceNumber = previous.sequenceNumber;
+        }
+        else {
+            sequenceNumber = nextSequenceNumber++;
+        }
+
+        Entry<V> entry = new Entry<>(value, filter, sequenceNumber);
+        entries.put(key, entry);
+        addToIndex(entry);
+
+        return previous != null ? previous.value : null;
+    }
+
+    /**
+     * Remove the given key from the index.
+     *
+     * @param key the key.
+     * @return the value of the key, or <code>null</code> if the key was not in the index.
+     */
+    public V remove(K key) {
+        Entry<V> entry = entries.remove(key);
+        if (entry == null) {
+            return null;
+        }
+        removeFromIndex(entry);
+        return entry.value;
+    }
+
+    /**
+     * Get the number of keys in the index.
+     *
+     * @return the number of keys.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Check if the index is empty.
+     *
+     * @return <code>true</code> if the index is empty.
+     */
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Add all values whose filter could match the given stanza to the result list. The filters are not evaluated,
+     * callers still need to invoke {@link StanzaFilter#accept(Stanza)}, which allows to do so without holding a lock
+     * guarding this index.
+     *
+     * @param stanza the stanza.
+     * @param result the list the candidate values are added to.
+     */
+    public void findCandidates(Stanza stanza, List<? super V> result) {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        List<Entry<V>> candidates = new ArrayList<>();
+        int bucketCount = 0;
+
+        bucketCount += addBucket(byStanzaId.get(stanza.getStanzaId()), candidates);
+
+        if (!byFrom.isEmpty()) {
+            Jid from = stanza.getFrom();
+            bucketCount += addBucket(byFrom.get(from != null ? from.asBareJid() : null), candidates);
+        }
+
+        if (!byExtensionNamespace.isEmpty()) {
+            List<ExtensionElement> extensions = stanza.getExtensions();
+            for (int i = 0; i < extensions.size(); i++) {
+                String namespace = extensions.get(i).getNamespace();
+                if (isNamespaceOfPreviousExtension(namespace, extensions, i)) {
+                    continue;
+                }
+                bucketCount += addBucket(byExtensionNamespace.get(namespace), candidates);
+            }
+        }
+
+        if (!byStanzaType.isEmpty()) {
+            bucketCount += addBucket(byStanzaType.get(stanza.getClass()), candidates);
+        }
+
+        bucketCount += addBucket(unindexed, candidates);
+
+        if (bucketCount > 1) {
+            // Every bucket is sorted, but the combined candidates are not.
+            Collections.sort(candidates, ENTRY_COMPARATOR);
+        }
+        for (Entry<V> candidate : candidates) {
+            result.add(candidate.value);
+        }
+    }
+
+    private static boolean isNamespaceOfPreviousExtension(String namespace, List<ExtensionElement> extensions,
+                    int index) {
+        for (int i = 0; i < index; i++) {
+            if (namespace.equals(extensions.get(i).getNamespace())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static <V> int addBucket(List<Entry<V>> bucket, List<Entry<V>> candidates) {
+        if (bucket == null || bucket.isEmpty()) {
+            return 0;
+        }
+        candidates.addAll(bucket);
+        return 1;
+    }
+
+    private void addToIndex(Entry<V> entry) {
+        List<Entry<V>> bucket = getBucket(entry.indexKey, true);
+        // Keep the bucket sorted. Usually the entry is appended, only replaced entries keep their old sequence number.
+        int position = bucket.size();
+        while (position > 0 && bucket.get(position - 1).sequenceNumber > entry.sequenceNumber) {
+            position--;
+        }
+        bucket.add(position, entry);
+    }
+
+    private void removeFromIndex(Entry<V> entry) {
+        List<Entry<V>> bucket = getBucket(entry.indexKey, false);
+        if (bucket == null) {
+            return;
+        }
+        bucket.remove(entry);
+        if (bucket.isEmpty()) {
+            // Remove the empty buckets, stanza IDs for example are rarely used twice.
+            removeBucket(entry.indexKey);
+        }
+    }
+
+    private List<Entry<V>> getBucket(IndexKey indexKey, boolean create) {
+        if (indexKey == null) {
+            return unindexed;
+        }
+        Map<Object, List<Entry<V>>> index = getIndex(indexKey.type);
+        List<Entry<V>> bucket = index.get(indexKey.key);
+        if (bucket == null && create) {
+            bucket = new ArrayList<>(2);
+            index.put(indexKey.key, bucket);
+        }
+        return bucket;
+    }
+
+    private void removeBucket(IndexKey indexKey) {
+        if (indexKey == null) {
+            return;
+        }
+        getIndex(indexKey.type).remove(indexKey.key);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Map<Object, List<Entry<V>>> getIndex(IndexType indexType) {
+        Map index;
+        switch (indexType) {
+        case stanzaId:
+            index = byStanzaId;
+            break;
+        case from:
+            index = byFrom;
+            break;
+        case extensionNamespace:
+            index = byExtensionNamespace;
+            break;
+        case stanzaType:
+            index = byStanzaType;
+            break;
+        default:
+            throw new AssertionError();
+        }
+        return index;
+    }
+
+    /**
+     * Determine the index key of the given filter, i.e. the most selective condition which must be true for the
+     * filter to match.
+     *
+     * @param filter the filter.
+     * @return the index key or <code>null</code> if the filter can not be indexed.
+     */
+    static IndexKey getIndexKey(StanzaFilter filter) {
+        if (filter instanceof StanzaIdFilter && inheritsAccept(filter, StanzaIdFilter.class)) {
+            return new IndexKey(IndexType.stanzaId, ((StanzaIdFilter) filter).getStanzaId());
+        }
+        // IQResultReplyFilter only narrows the stanzas accepted by IQReplyFilter.
+        if (filter instanceof IQReplyFilter && (inheritsAccept(filter, IQReplyFilter.class)
+                        || inheritsAccept(filter, IQResultReplyFilter.class))) {
+            String stanzaId = ((IQReplyFilter) filter).getStanzaId();
+            return stanzaId != null ? new IndexKey(IndexType.stanzaId, stanzaId) : null;
+        }
+        if (filter instanceof FromMatchesFilter) {
+            Jid address = ((FromMatchesFilter) filter).getAddress();
+            return new IndexKey(IndexType.from, address != null ? address.asBareJid() : null);
+        }
+        if (filter instanceof StanzaExtensionFilter && inheritsAccept(filter, StanzaExtensionFilter.class)) {
+            return new IndexKey(IndexType.extensionNamespace, ((StanzaExtensionFilter) filter).getNamespace());
+        }
+        if (filter instanceof StanzaTypeFilter) {
+            return getStanzaTypeIndexKey(((StanzaTypeFilter) filter).getStanzaType());
+        }
+        if (filter instanceof FlexibleStanzaTypeFilter) {
+            return getStanzaTypeIndexKey(((FlexibleStanzaTypeFilter<?>) filter).stanzaType);
+        }
+        if (filter instanceof AndFilter && inheritsAccept(filter, AndFilter.class)) {
+            // All filters must match, hence the index key of any of them will do. Use the most selective one.
+            IndexKey best = null;
+            for (StanzaFilter andedFilter : ((AndFilter) filter).filters) {
+                IndexKey indexKey = getIndexKey(andedFilter);
+                if (indexKey != null && (best == null || indexKey.type.ordinal() < best.type.ordinal())) {
+                    best = indexKey;
+                }
+            }
+            return best;
+        }
+        return null;
+    }
+
+    /**
+     * Stanza type filters match instances of the type, including instances of subclasses and implementations. Only
+     * final classes can be indexed by the exact class of the stanza, filters with other types are not indexed.
+     */
+    private static IndexKey getStanzaTypeIndexKey(Class<?> stanzaType) {
+        if (stanzaType.isInterface() || !Modifier.isFinal(stanzaType.getModifiers())) {
+            return null;
+        }
+        return new IndexKey(IndexType.stanzaType, stanzaType);
+    }
+
+    /**
+     * Check if the class of the given filter inherits {@link StanzaFilter#accept(Stanza)} from the given base class. If
+     * a subclass overrides the method, then the index key derived from the base class may not be valid for it.
+     */
+    private static boolean inheritsAccept(StanzaFilter filter, Class<? extends StanzaFilter> baseClass) {
+        final Class<?> filterClass = filter.getClass();
+        if (filterClass == baseClass) {
+            return true;
+        }
+        synchronized (INHERITS_ACCEPT_CACHE) {
+            Boolean inheritsAccept = INHERITS_ACCEPT_CACHE.get(filterClass);
+            if (inheritsAccept == null) {
+                try {
+                    inheritsAccept = filterClass.getMethod("accept", Stanza.class).getDeclaringClass() == baseClass;
+                }
+                catch (NoSuchMethodException e) {
+                    throw new AssertionError(e);
+                }
+                INHERITS_ACCEPT_CACHE.put(filterClass, inheritsAccept);
+            }
+            return inheritsAccept;
+        }
+    }
+
+    /**
+     * The types of index, ordered from the most selective to the least selective.
+     */
+    enum IndexType {
+        stanzaId,
+        from,
+        extensionNamespace,
+        stanzaType,
+    }
+
+    static final class IndexKey {
+        final IndexType type;
+        final Object key;
+
+        private IndexKey(IndexType type, Object key) {
+            this.type = type;
+            this.key = key;
+        }
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final IndexKey indexKey;
+        private final long sequenceNumber;
+
+        private Entry(V value, StanzaFilter filter, long sequenceNumber) {
+            this.value = value;
+            this.indexKey = filter != null ? getIndexKey(filter) : null;
+            this.sequenceNumber = sequenceNumber;
+        }
+    }
+
+    private static final Comparator<Entry<?>> ENTRY_COMPARATOR = new Comparator<Entry<?>>() {
+        @Override
+        public int compare(Entry<?> e1, Entry<?> e2) {
+            return e1.sequenceNumber < e2.sequenceNumber ? -1 : (e1.sequenceNumber == e2.sequenceNumber ? 0 : 1);
+        }
+    };
+}
@@ -56,6 +56,10 @@ public final class StanzaTypeFilter implements StanzaFilter {
         return packetType.isInstance(packet);
     }
 
+    Class<? extends Stanza> getStanzaType() {
+        return packetType;
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + ": " + packetType.getSimpleName();
@@ -19,6 +19,9 @@ package org.jivesoftware.smack.util;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.jivesoftware.smack.SmackConfiguration;
+import org.jivesoftware.smack.SmackExecutionModel;
+
 public class Async {
 
     /**
@@ -48,9 +51,19 @@ public class Async {
         return thread;
     }
 
+    /**
+     * Creates a new daemon thread with the given Runnable. The thread is created by the
+     * {@link SmackExecutionModel#newThread(Runnable) execution model} and may therefore be a virtual thread.
+     *
+     * @param runnable
+     * @return the new thread, which is not started.
+     */
     public static Thread daemonThreadFrom(Runnable runnable) {
-        Thread thread = new Thread(runnable);
-        thread.setDaemon(true);
+        Thread thread = SmackConfiguration.getExecutionModel().newThread(runnable);
+        if (!thread.isDaemon()) {
+            // Virtual threads are always daemon threads.
+            thread.setDaemon(true);
+        }
         return thread;
     }
 
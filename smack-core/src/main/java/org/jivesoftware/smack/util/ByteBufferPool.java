@@ -0,0 +1,110 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A bounded pool of equally sized {@link ByteBuffer}s. Acquiring and releasing a buffer does not allocate, once the
+ * pool is warmed up. Buffers which are released while the pool is full are left to the garbage collector.
+ * <p>
+ * Direct buffers are best suited if the buffers are written to a {@link java.nio.channels.WritableByteChannel}, heap
+ * buffers if the bytes are written to a {@link java.io.OutputStream}, as the latter requires a byte array.
+ * </p>
+ */
+public final class ByteBufferPool {
+
+    private final ArrayDeque<ByteBuffer> pool;
+
+    private final int bufferSize;
+
+    private final int maxPooledBuffers;
+
+    private final boolean direct;
+
+    /**
+     * Create a new pool.
+     *
+     * @param bufferSize the size of the buffers in bytes.
+     * @param maxPooledBuffers the maximum number of buffers kept in this pool.
+     * @param direct if the pool should hand out direct buffers.
+     */
+    public ByteBufferPool(int bufferSize, int maxPooledBuffers, boolean direct) {
+        if (bufferSize < 4) {
+            // A buffer must be able to hold every UTF-8 sequence.
+            throw new IllegalArgumentException("bufferSize must be at least 4");
+        }
+        this.bufferSize = bufferSize;
+        this.maxPooledBuffers = maxPooledBuffers;
+        this.direct = direct;
+        pool = new ArrayDeque<>(maxPooledBuffers);
+    }
+
+    /**
+     * Acquire a cleared buffer from the pool. If the pool is empty, a new buffer is allocated.
+     *
+     * @return a cleared buffer.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer;
+        synchronized (pool) {
+            buffer = pool.pollFirst();
+        }
+        if (buffer == null) {
+            buffer = direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        }
+        return buffer;
+    }
+
+    /**
+     * Release the given buffer to the pool. The caller must not use the buffer afterwards.
+     *
+     * @param buffer the buffer to release.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || buffer.isDirect() != direct || buffer.isReadOnly()) {
+            throw new IllegalArgumentException("The buffer was not acquired from this pool");
+        }
+        buffer.clear();
+        synchronized (pool) {
+            if (pool.size() < maxPooledBuffers) {
+                pool.offerFirst(buffer);
+            }
+        }
+    }
+
+    /**
+     * Get the size of the buffers handed out by this pool.
+     *
+     * @return the size of the buffers in bytes.
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Get the number of buffers currently available in the pool.
+     *
+     * @return the number of pooled buffers.
+     */
+    public int getPooledBufferCount() {
+        synchronized (pool) {
+            return pool.size();
+        }
+    }
+}
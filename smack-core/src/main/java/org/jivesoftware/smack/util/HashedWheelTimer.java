@@ -0,0 +1,428 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A timer based on a hashed timing wheel. Scheduling and cancelling a task is O(1), and all tasks of a timer are run
+ * by a single daemon thread, no matter how many tasks are scheduled. The price for this is a reduced precision: tasks
+ * are run on the first tick after their delay expired.
+ * <p>
+ * Smack uses a single, JVM-wide, instance, obtainable via {@link #getInstance()}, for tasks like reply timeouts,
+ * automatic server pings and the reconnection backoff. Hence there is no timer thread per connection.
+ * </p>
+ * <p>
+ * The tasks are run by the timer thread itself. Tasks must therefore be short and must not block. Tasks which do block,
+ * or which invoke user provided callbacks, should hand off their work to another thread.
+ * </p>
+ * <p>
+ * The timer thread is only started once the first task is scheduled and is idle, i.e. it does not tick, while there
+ * are no scheduled tasks.
+ * </p>
+ */
+public final class HashedWheelTimer {
+
+    private static final Logger LOGGER = Logger.getLogger(HashedWheelTimer.class.getName());
+
+    private static HashedWheelTimer INSTANCE;
+
+    /**
+     * Get the JVM-wide timer instance used by Smack. It ticks every 100 milliseconds.
+     *
+     * @return the timer instance.
+     */
+    public static synchronized HashedWheelTimer getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new HashedWheelTimer("Smack Timer", 100, TimeUnit.MILLISECONDS, 512);
+        }
+        return INSTANCE;
+    }
+
+    private final String threadName;
+
+    private final long tickNanos;
+
+    private final Bucket[] wheel;
+
+    private final int mask;
+
+    /**
+     * Timeouts which got scheduled but are not yet placed into a bucket of the wheel. Only the timer thread places
+     * timeouts into buckets, so that the wheel itself does not require any synchronization.
+     */
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger scheduledTimeoutCount = new AtomicInteger();
+
+    private final long startTime = System.nanoTime();
+
+    /**
+     * The current tick, only accessed by the timer thread.
+     */
+    private long tick;
+
+    private Thread timerThread;
+
+    /**
+     * Create a new timer.
+     *
+     * @param threadName the name of the timer thread.
+     * @param tickDuration the duration of a tick.
+     * @param unit the time unit of the tick duration.
+     * @param ticksPerWheel the number of ticks per wheel round, will be rounded up to the next power of two.
+     */
+    public HashedWheelTimer(String threadName, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration must be greater than zero");
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+            throw new IllegalArgumentException("ticksPerWheel must be between 1 and 2^30");
+        }
+        this.threadName = threadName;
+        this.tickNanos = unit.toNanos(tickDuration);
+
+        int wheelSize = 1;
+        while (wheelSize < ticksPerWheel) {
+            wheelSize <<= 1;
+        }
+        wheel = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            wheel[i] = new Bucket();
+        }
+        mask = wheelSize - 1;
+    }
+
+    /**
+     * Schedule the given task to be run by the timer thread once the given delay expired.
+     *
+     * @param task the task to run.
+     * @param delay the delay.
+     * @param unit the time unit of the delay.
+     * @return the timeout, which can be used to cancel the task.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (task == null) {
+            throw new IllegalArgumentException("task must not be null");
+        }
+        long deadline = System.nanoTime() - startTime + unit.toNanos(Math.max(0, delay));
+        Timeout timeout = new Timeout(task, deadline);
+
+        scheduledTimeoutCount.incrementAndGet();
+        newTimeouts.add(timeout);
+        synchronized (this) {
+            if (timerThread == null) {
+                timerThread = Async.daemonThreadFrom(new Worker());
+                timerThread.setName(threadName);
+                timerThread.start();
+            } else {
+                // Wake up the timer thread in case it is idle.
+                notify();
+            }
+        }
+        return timeout;
+    }
+
+    /**
+     * Get the number of scheduled tasks which did neither run nor got cancelled yet.
+     *
+     * @return the number of scheduled tasks.
+     */
+    public int getScheduledTimeoutCount() {
+        return scheduledTimeoutCount.get();
+    }
+
+    private void placeNewTimeouts() {
+        // Limit the number of timeouts placed per tick, so that a flood of new timeouts can not stall the wheel.
+        for (int i = 0; i < 100000; i++) {
+            Timeout timeout = newTimeouts.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.state.get() != Timeout.STATE_SCHEDULED) {
+                continue;
+            }
+            long calculatedTick = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (calculatedTick - tick) / wheel.length;
+            // Do not place timeouts whose deadline already passed into a past bucket.
+            long ticks = Math.max(calculatedTick, tick);
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    private void removeCancelledTimeouts() {
+        Timeout timeout;
+        while ((timeout = cancelledTimeouts.poll()) != null) {
+            Bucket bucket = timeout.bucket;
+            if (bucket != null) {
+                bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void expire(Bucket bucket, long deadline) {
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.remainingRounds <= 0) {
+                bucket.remove(timeout);
+                if (timeout.deadline <= deadline) {
+                    timeout.expire();
+                } else {
+                    // Should not happen, as the timeout was placed into the wrong bucket. Place it again.
+                    LOGGER.warning("Timeout with deadline " + timeout.deadline + " found in bucket for " + deadline);
+                    newTimeouts.add(timeout);
+                }
+            } else if (timeout.isCancelled()) {
+                bucket.remove(timeout);
+            } else {
+                timeout.remainingRounds--;
+            }
+            timeout = next;
+        }
+    }
+
+    private final class Worker implements Runnable {
+        @Override
+        public void run() {
+            while (true) {
+                synchronized (HashedWheelTimer.this) {
+                    if (scheduledTimeoutCount.get() == 0) {
+                        while (scheduledTimeoutCount.get() == 0) {
+                            try {
+                                HashedWheelTimer.this.wait();
+                            }
+                            catch (InterruptedException e) {
+                                LOGGER.log(Level.FINE, "Timer thread interrupted while idle", e);
+                            }
+                        }
+                        // The wheel is empty, except for cancelled timeouts, so skip the ticks we have been idle.
+                        tick = Math.max(tick, (System.nanoTime() - startTime) / tickNanos);
+                    }
+                }
+
+                long deadline = waitForNextTick();
+                removeCancelledTimeouts();
+                placeNewTimeouts();
+                expire(wheel[(int) (tick & mask)], deadline);
+                tick++;
+            }
+        }
+
+        /**
+         * Wait until the current tick is over.
+         *
+         * @return the deadline of the current tick, relative to the start time of the timer.
+         */
+        private long waitForNextTick() {
+            final long deadline = tickNanos * (tick + 1);
+            while (true) {
+                long sleepNanos = deadline - (System.nanoTime() - startTime);
+                if (sleepNanos <= 0) {
+                    return deadline;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                }
+                catch (InterruptedException e) {
+                    LOGGER.log(Level.FINE, "Timer thread interrupted while waiting for the next tick", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * The doubly linked list of the timeouts in one slot of the wheel. Only accessed by the timer thread.
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        private void remove(Timeout timeout) {
+            if (timeout.bucket != this) {
+                return;
+            }
+            Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (next != null) {
+                next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+
+    /**
+     * A task scheduled with a {@link HashedWheelTimer}.
+     */
+    public final class Timeout implements ScheduledFuture<Void> {
+
+        private static final int STATE_SCHEDULED = 0;
+        private static final int STATE_CANCELLED = 1;
+        private static final int STATE_RUNNING = 2;
+        private static final int STATE_DONE = 3;
+
+        private final Runnable task;
+
+        /**
+         * The deadline in nanoseconds, relative to the start time of the timer.
+         */
+        private final long deadline;
+
+        private final AtomicInteger state = new AtomicInteger(STATE_SCHEDULED);
+
+        // The following fields are only accessed by the timer thread.
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        private void expire() {
+            if (!state.compareAndSet(STATE_SCHEDULED, STATE_RUNNING)) {
+                return;
+            }
+            scheduledTimeoutCount.decrementAndGet();
+            try {
+                task.run();
+            }
+            catch (Throwable t) {
+                LOGGER.log(Level.WARNING, "Timer task " + task + " threw", t);
+            }
+            finally {
+                synchronized (this) {
+                    state.set(STATE_DONE);
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Cancel this timeout. The task will not be run if it is not already running. Note that a running task is never
+         * interrupted.
+         *
+         * @param mayInterruptIfRunning ignored.
+         * @return true if the task got cancelled, false if it already run or got cancelled before.
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!state.compareAndSet(STATE_SCHEDULED, STATE_CANCELLED)) {
+                return false;
+            }
+            scheduledTimeoutCount.decrementAndGet();
+            cancelledTimeouts.add(this);
+            synchronized (this) {
+                notifyAll();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state.get() == STATE_CANCELLED;
+        }
+
+        @Override
+        public boolean isDone() {
+            int currentState = state.get();
+            return currentState == STATE_CANCELLED || currentState == STATE_DONE;
+        }
+
+        @Override
+        public Void get() throws InterruptedException, ExecutionException {
+            synchronized (this) {
+                while (!isDone()) {
+                    wait();
+                }
+            }
+            return getResult();
+        }
+
+        @Override
+        public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+                        TimeoutException {
+            final long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+            synchronized (this) {
+                while (!isDone()) {
+                    long waitTime = deadline - System.currentTimeMillis();
+                    if (waitTime <= 0) {
+                        throw new TimeoutException();
+                    }
+                    wait(waitTime);
+                }
+            }
+            return getResult();
+        }
+
+        private Void getResult() {
+            if (isCancelled()) {
+                throw new CancellationException();
+            }
+            return null;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - (System.nanoTime() - startTime), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            if (other == this) {
+                return 0;
+            }
+            long diff = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+            return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative long values, e.g. durations in nanoseconds. Like a HDR histogram, the values are
+ * counted in buckets whose width grows with the magnitude of the value: Every power of two is divided into 16 equally
+ * wide buckets. Hence the relative error of a reported value is at most 1/16 (6.25%), while the histogram only requires
+ * a fixed amount of memory and recording a value is O(1) without allocations.
+ * <p>
+ * The histogram may be updated and read concurrently. Statistics read while values are recorded are not necessarily
+ * consistent with each other.
+ * </p>
+ */
+public final class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+
+    /**
+     * The number of buckets required for values up to {@link Long#MAX_VALUE}.
+     */
+    private static final int BUCKET_COUNT = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong sum = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record the given value. Negative values are recorded as zero.
+     *
+     * @param value the value.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(bucketIndexOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long currentMax = max.get();
+        while (value > currentMax) {
+            if (max.compareAndSet(currentMax, value)) {
+                break;
+            }
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Record the time elapsed since the given start time, as returned by {@link System#nanoTime()}, in nanoseconds.
+     *
+     * @param startNanos the start time.
+     */
+    public void recordNanosSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Get the number of recorded values.
+     *
+     * @return the number of recorded values.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Get the largest recorded value.
+     *
+     * @return the largest recorded value or zero if no value was recorded.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Get the arithmetic mean of the recorded values.
+     *
+     * @return the mean or zero if no value was recorded.
+     */
+    public double getMean() {
+        long currentCount = count.get();
+        if (currentCount == 0) {
+            return 0;
+        }
+        return (double) sum.get() / currentCount;
+    }
+
+    /**
+     * Get the value at the given percentile, i.e. a value such that the given percentage of the recorded values is
+     * smaller or equal to it. The returned value is the upper bound of the bucket containing the percentile, but never
+     * larger than the largest recorded value.
+     *
+     * @param percentile the percentile, between 0 and 100.
+     * @return the value at the given percentile or zero if no value was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        long currentCount = count.get();
+        if (currentCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * currentCount));
+        long cumulativeCount = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulativeCount += buckets.get(i);
+            if (cumulativeCount >= rank) {
+                return Math.min(highestValueOfBucket(i), max.get());
+            }
+        }
+        // Values have been recorded concurrently.
+        return max.get();
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + " mean=" + (long) getMean() + " p50=" + getValueAtPercentile(50) + " p99="
+                        + getValueAtPercentile(99) + " max=" + getMax();
+    }
+
+    static int bucketIndexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & SUB_BUCKET_MASK;
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long lowestValueOfBucket(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        long subBucket = index & SUB_BUCKET_MASK;
+        return (SUB_BUCKET_COUNT + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    static long highestValueOfBucket(int index) {
+        if (index == BUCKET_COUNT - 1) {
+            return Long.MAX_VALUE;
+        }
+        return lowestValueOfBucket(index + 1) - 1;
+    }
+}
@@ -22,6 +22,18 @@ import java.util.List;
 
 public class LazyStringBuilder implements Appendable, CharSequence {
 
+    /**
+     * Strings for the ASCII characters, so that appending a single char, which is common when building XML, does not
+     * allocate a new String every time.
+     */
+    private static final String[] ASCII_STRINGS = new String[128];
+
+    static {
+        for (char c = 0; c < ASCII_STRINGS.length; c++) {
+            ASCII_STRINGS[c] = Character.toString(c);
+        }
+    }
+
     private final List<CharSequence> list;
 
     private String cache;
@@ -58,7 +70,7 @@ public class LazyStringBuilder implements Appendable, CharSequence {
 
     @Override
     public LazyStringBuilder append(char c) {
-        list.add(Character.toString(c));
+        list.add(c < ASCII_STRINGS.length ? ASCII_STRINGS[c] : Character.toString(c));
         invalidateCache();
         return this;
     }
@@ -97,6 +97,27 @@ public class PacketParserUtils {
 
     public static XmlPullParser getParserFor(Reader reader) throws XmlPullParserException, IOException {
         XmlPullParser parser = newXmppParser(reader);
+        return windToStartTag(parser);
+    }
+
+    /**
+     * Reset the given parser, which must have been created by {@link #newXmppParser()}, to the given stanza and wind it
+     * forward to the first start tag. Re-using a parser avoids the costly lookup of the parser implementation
+     * performed by {@link XmlPullParserFactory#newInstance()} when many small elements are parsed one after another.
+     *
+     * @param parser the parser to re-use.
+     * @param stanza the stanza to parse.
+     * @return the given parser, positioned at the first start tag.
+     * @throws XmlPullParserException
+     * @throws IOException
+     */
+    public static XmlPullParser getParserFor(XmlPullParser parser, String stanza)
+                    throws XmlPullParserException, IOException {
+        parser.setInput(new StringReader(stanza));
+        return windToStartTag(parser);
+    }
+
+    private static XmlPullParser windToStartTag(XmlPullParser parser) throws XmlPullParserException, IOException {
         // Wind the parser forward to the first start tag
         int event = parser.getEventType();
         while (event != XmlPullParser.START_TAG) {
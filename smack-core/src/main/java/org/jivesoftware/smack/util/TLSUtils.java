@@ -28,6 +28,7 @@ import java.util.Set;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLPeerUnverifiedException;
 import javax.net.ssl.SSLSession;
 import javax.net.ssl.SSLSocket;
@@ -131,45 +132,52 @@ public class TLSUtils {
                     String[] enabledProtocols, String[] enabledCiphers)
                     throws SecurityNotPossibleException {
         if (enabledProtocols != null) {
-            Set<String> enabledProtocolsSet = new HashSet<String>(Arrays.asList(enabledProtocols));
-            Set<String> supportedProtocolsSet = new HashSet<String>(
-                            Arrays.asList(sslSocket.getSupportedProtocols()));
-            Set<String> protocolsIntersection = new HashSet<String>(supportedProtocolsSet);
-            protocolsIntersection.retainAll(enabledProtocolsSet);
-            if (protocolsIntersection.isEmpty()) {
-                throw new SecurityNotPossibleException("Request to enable SSL/TLS protocols '"
-                                + StringUtils.collectionToString(enabledProtocolsSet)
-                                + "', but only '"
-                                + StringUtils.collectionToString(supportedProtocolsSet)
-                                + "' are supported.");
-            }
-
-            // Set the enabled protocols
-            enabledProtocols = new String[protocolsIntersection.size()];
-            enabledProtocols = protocolsIntersection.toArray(enabledProtocols);
-            sslSocket.setEnabledProtocols(enabledProtocols);
+            sslSocket.setEnabledProtocols(intersect("protocols", enabledProtocols, sslSocket.getSupportedProtocols()));
         }
 
         if (enabledCiphers != null) {
-            Set<String> enabledCiphersSet = new HashSet<String>(Arrays.asList(enabledCiphers));
-            Set<String> supportedCiphersSet = new HashSet<String>(
-                            Arrays.asList(sslSocket.getEnabledCipherSuites()));
-            Set<String> ciphersIntersection = new HashSet<String>(supportedCiphersSet);
-            ciphersIntersection.retainAll(enabledCiphersSet);
-            if (ciphersIntersection.isEmpty()) {
-                throw new SecurityNotPossibleException("Request to enable SSL/TLS ciphers '"
-                                + StringUtils.collectionToString(enabledCiphersSet)
-                                + "', but only '"
-                                + StringUtils.collectionToString(supportedCiphersSet)
-                                + "' are supported.");
-            }
-
-            enabledCiphers = new String[ciphersIntersection.size()];
-            enabledCiphers = ciphersIntersection.toArray(enabledCiphers);
-            sslSocket.setEnabledCipherSuites(enabledCiphers);
+            sslSocket.setEnabledCipherSuites(intersect("ciphers", enabledCiphers, sslSocket.getEnabledCipherSuites()));
         }
     }
 
+    /**
+     * Set the enabled protocols and ciphers of the given SSLEngine, like
+     * {@link #setEnabledProtocolsAndCiphers(SSLSocket, String[], String[])} does for a SSLSocket.
+     *
+     * @param sslEngine the SSLEngine.
+     * @param enabledProtocols the protocols to enable, or null to keep the default ones.
+     * @param enabledCiphers the ciphers to enable, or null to keep the default ones.
+     * @throws SecurityNotPossibleException if none of the requested protocols or ciphers is supported.
+     * @since 4.3
+     */
+    public static void setEnabledProtocolsAndCiphers(final SSLEngine sslEngine,
+                    String[] enabledProtocols, String[] enabledCiphers)
+                    throws SecurityNotPossibleException {
+        if (enabledProtocols != null) {
+            sslEngine.setEnabledProtocols(intersect("protocols", enabledProtocols, sslEngine.getSupportedProtocols()));
+        }
+
+        if (enabledCiphers != null) {
+            sslEngine.setEnabledCipherSuites(intersect("ciphers", enabledCiphers, sslEngine.getEnabledCipherSuites()));
+        }
+    }
+
+    private static String[] intersect(String what, String[] enabled, String[] supported)
+                    throws SecurityNotPossibleException {
+        Set<String> enabledSet = new HashSet<String>(Arrays.asList(enabled));
+        Set<String> supportedSet = new HashSet<String>(Arrays.asList(supported));
+        Set<String> intersection = new HashSet<String>(supportedSet);
+        intersection.retainAll(enabledSet);
+        if (intersection.isEmpty()) {
+            throw new SecurityNotPossibleException("Request to enable SSL/TLS " + what + " '"
+                            + StringUtils.collectionToString(enabledSet)
+                            + "', but only '"
+                            + StringUtils.collectionToString(supportedSet)
+                            + "' are supported.");
+        }
+        return intersection.toArray(new String[intersection.size()]);
+    }
+
     /**
      * Get the channel binding data for the 'tls-server-end-point' channel binding type. This channel binding type is
      * defined in RFC 5929 § 4.
@@ -0,0 +1,338 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A {@link Writer} which encodes the characters as UTF-8 straight into {@link ByteBuffer}s acquired from a
+ * {@link ByteBufferPool}. Unlike {@link java.io.OutputStreamWriter}, writing a String or CharSequence does not copy
+ * it into an intermediate char array or CharBuffer, hence writing the fragments of an {@link XmlStringBuilder} via
+ * {@link XmlStringBuilder#write(Writer)} does not allocate.
+ * <p>
+ * The encoded bytes are written out on {@link #flush()}, or once the writer holds the maximum number of buffers. If
+ * the target is a {@link GatheringByteChannel}, all buffers are written with a single gathering write. The channel
+ * must be in blocking mode.
+ * </p>
+ * <p>
+ * The writer always keeps one buffer for itself, further buffers are returned to the pool after they have been
+ * written out. Unpaired surrogate characters are encoded as '?', like {@link java.io.OutputStreamWriter} does.
+ * </p>
+ */
+public class Utf8ByteBufferWriter extends Writer {
+
+    private static final int DEFAULT_MAX_BUFFERS = 8;
+
+    private final ByteBufferPool pool;
+
+    private final OutputStream outputStream;
+
+    private final WritableByteChannel channel;
+
+    private final ByteBuffer[] buffers;
+
+    private int bufferCount;
+
+    private ByteBuffer current;
+
+    /**
+     * Used to copy the bytes of direct buffers if the target is a {@link OutputStream}.
+     */
+    private byte[] copyBuffer;
+
+    /**
+     * The high surrogate of a surrogate pair waiting for its low surrogate, or 0.
+     */
+    private char pendingHighSurrogate;
+
+    private boolean closed;
+
+    public Utf8ByteBufferWriter(OutputStream outputStream, ByteBufferPool pool) {
+        this(outputStream, null, pool, DEFAULT_MAX_BUFFERS);
+    }
+
+    public Utf8ByteBufferWriter(WritableByteChannel channel, ByteBufferPool pool) {
+        this(null, channel, pool, DEFAULT_MAX_BUFFERS);
+    }
+
+    public Utf8ByteBufferWriter(WritableByteChannel channel, ByteBufferPool pool, int maxBuffers) {
+        this(null, channel, pool, maxBuffers);
+    }
+
+    public Utf8ByteBufferWriter(OutputStream outputStream, ByteBufferPool pool, int maxBuffers) {
+        this(outputStream, null, pool, maxBuffers);
+    }
+
+    private Utf8ByteBufferWriter(OutputStream outputStream, WritableByteChannel channel, ByteBufferPool pool,
+                    int maxBuffers) {
+        if (maxBuffers < 1) {
+            throw new IllegalArgumentException("maxBuffers must be at least 1");
+        }
+        this.outputStream = outputStream;
+        this.channel = channel;
+        this.pool = pool;
+        this.buffers = new ByteBuffer[maxBuffers];
+        current = pool.acquire();
+        buffers[0] = current;
+        bufferCount = 1;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            encode((char) c);
+        }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            final int end = off + len;
+            for (int i = off; i < end; i++) {
+                encode(cbuf[i]);
+            }
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            final int end = off + len;
+            for (int i = off; i < end; i++) {
+                encode(str.charAt(i));
+            }
+        }
+    }
+
+    @Override
+    public Utf8ByteBufferWriter append(CharSequence csq) throws IOException {
+        if (csq == null) {
+            csq = "null";
+        }
+        return append(csq, 0, csq.length());
+    }
+
+    @Override
+    public Utf8ByteBufferWriter append(CharSequence csq, int start, int end) throws IOException {
+        if (csq == null) {
+            csq = "null";
+        }
+        synchronized (lock) {
+            ensureOpen();
+            for (int i = start; i < end; i++) {
+                encode(csq.charAt(i));
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public Utf8ByteBufferWriter append(char c) throws IOException {
+        write(c);
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            writeOutBuffers();
+            if (outputStream != null) {
+                outputStream.flush();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            try {
+                if (pendingHighSurrogate != 0) {
+                    pendingHighSurrogate = 0;
+                    putByte('?');
+                }
+                flush();
+            }
+            finally {
+                closed = true;
+                for (int i = 0; i < bufferCount; i++) {
+                    pool.release(buffers[i]);
+                    buffers[i] = null;
+                }
+                bufferCount = 0;
+                current = null;
+                if (outputStream != null) {
+                    outputStream.close();
+                }
+                else {
+                    channel.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the pooled buffers of this writer to the pool, without writing out pending bytes and without closing
+     * the underlying stream or channel. The writer is closed afterwards. Use this if the underlying stream is
+     * going to be used by a different writer, or if it has already been closed.
+     */
+    public void release() {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pendingHighSurrogate = 0;
+            for (int i = 0; i < bufferCount; i++) {
+                pool.release(buffers[i]);
+                buffers[i] = null;
+            }
+            bufferCount = 0;
+            current = null;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Writer closed");
+        }
+    }
+
+    private void encode(char c) throws IOException {
+        if (pendingHighSurrogate != 0) {
+            final char highSurrogate = pendingHighSurrogate;
+            pendingHighSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                final int codePoint = Character.toCodePoint(highSurrogate, c);
+                ensureRemaining(4);
+                current.put((byte) (0xf0 | (codePoint >> 18)));
+                current.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+                current.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+                current.put((byte) (0x80 | (codePoint & 0x3f)));
+                return;
+            }
+            putByte('?');
+        }
+
+        if (c < 0x80) {
+            putByte(c);
+        }
+        else if (c < 0x800) {
+            ensureRemaining(2);
+            current.put((byte) (0xc0 | (c >> 6)));
+            current.put((byte) (0x80 | (c & 0x3f)));
+        }
+        else if (Character.isHighSurrogate(c)) {
+            pendingHighSurrogate = c;
+        }
+        else if (Character.isLowSurrogate(c)) {
+            putByte('?');
+        }
+        else {
+            ensureRemaining(3);
+            current.put((byte) (0xe0 | (c >> 12)));
+            current.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+            current.put((byte) (0x80 | (c & 0x3f)));
+        }
+    }
+
+    private void putByte(int b) throws IOException {
+        ensureRemaining(1);
+        current.put((byte) b);
+    }
+
+    private void ensureRemaining(int byteCount) throws IOException {
+        if (current.remaining() >= byteCount) {
+            return;
+        }
+        if (bufferCount == buffers.length) {
+            writeOutBuffers();
+            if (current.remaining() >= byteCount) {
+                return;
+            }
+        }
+        current = pool.acquire();
+        buffers[bufferCount++] = current;
+    }
+
+    /**
+     * Write out all buffers, keep the first buffer and return the others to the pool.
+     */
+    private void writeOutBuffers() throws IOException {
+        for (int i = 0; i < bufferCount; i++) {
+            buffers[i].flip();
+        }
+
+        if (channel instanceof GatheringByteChannel) {
+            GatheringByteChannel gatheringByteChannel = (GatheringByteChannel) channel;
+            long remaining = 0;
+            for (int i = 0; i < bufferCount; i++) {
+                remaining += buffers[i].remaining();
+            }
+            while (remaining > 0) {
+                remaining -= gatheringByteChannel.write(buffers, 0, bufferCount);
+            }
+        }
+        else if (channel != null) {
+            for (int i = 0; i < bufferCount; i++) {
+                while (buffers[i].hasRemaining()) {
+                    channel.write(buffers[i]);
+                }
+            }
+        }
+        else {
+            for (int i = 0; i < bufferCount; i++) {
+                writeToOutputStream(buffers[i]);
+            }
+        }
+
+        buffers[0].clear();
+        for (int i = 1; i < bufferCount; i++) {
+            pool.release(buffers[i]);
+            buffers[i] = null;
+        }
+        bufferCount = 1;
+        current = buffers[0];
+    }
+
+    private void writeToOutputStream(ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            outputStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+        if (copyBuffer == null) {
+            copyBuffer = new byte[pool.getBufferSize()];
+        }
+        while (buffer.hasRemaining()) {
+            int length = Math.min(buffer.remaining(), copyBuffer.length);
+            buffer.get(copyBuffer, 0, length);
+            outputStream.write(copyBuffer, 0, length);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+
+import org.jivesoftware.smack.util.XmppXmlSplitter.XmppElementCallback;
+
+/**
+ * A XMPP stream splitter which is fed with UTF-8 encoded bytes, typically read from a non-blocking channel. The bytes
+ * are decoded incrementally, a multi-byte sequence split over two chunks is kept until the next chunk arrives. Hence
+ * the caller is free to re-use its {@link ByteBuffer} after {@link #write(ByteBuffer)} returned.
+ */
+public class Utf8ByteXmppXmlSplitter {
+
+    private final XmppXmlSplitter xmppXmlSplitter;
+
+    private final CharsetDecoder decoder = Charset.forName(StringUtils.UTF8).newDecoder();
+
+    private final CharBuffer charBuffer;
+
+    /**
+     * Holds the bytes of an incomplete multi-byte sequence at the end of the last chunk. UTF-8 sequences are at most
+     * four bytes long.
+     */
+    private final ByteBuffer pendingBytes = ByteBuffer.allocate(4);
+
+    public Utf8ByteXmppXmlSplitter(XmppElementCallback xmppElementCallback) {
+        this(new XmppXmlSplitter(xmppElementCallback));
+    }
+
+    public Utf8ByteXmppXmlSplitter(XmppXmlSplitter xmppXmlSplitter) {
+        this(xmppXmlSplitter, 4096);
+    }
+
+    public Utf8ByteXmppXmlSplitter(XmppXmlSplitter xmppXmlSplitter, int charBufferSize) {
+        this.xmppXmlSplitter = xmppXmlSplitter;
+        this.charBuffer = CharBuffer.allocate(charBufferSize);
+    }
+
+    /**
+     * Get the underlying XMPP XML splitter.
+     *
+     * @return the XMPP XML splitter.
+     */
+    public XmppXmlSplitter getXmppXmlSplitter() {
+        return xmppXmlSplitter;
+    }
+
+    /**
+     * Write the given bytes to the splitter.
+     *
+     * @param bytes the bytes.
+     * @param off the offset where to start.
+     * @param len the number of bytes to write.
+     * @throws IOException if the bytes are no valid UTF-8 or if the splitter throws.
+     */
+    public void write(byte[] bytes, int off, int len) throws IOException {
+        write(ByteBuffer.wrap(bytes, off, len));
+    }
+
+    /**
+     * Write the remaining bytes of the given buffer to the splitter. After this method returns, the buffer has no
+     * remaining bytes.
+     *
+     * @param bytes the buffer with the bytes to write.
+     * @throws IOException if the bytes are no valid UTF-8 or if the splitter throws.
+     */
+    public void write(ByteBuffer bytes) throws IOException {
+        // First complete a multi-byte sequence which may be left over from the previous chunk.
+        while (pendingBytes.position() > 0 && bytes.hasRemaining()) {
+            pendingBytes.put(bytes.get());
+            pendingBytes.flip();
+            decode(pendingBytes);
+            pendingBytes.compact();
+        }
+
+        decode(bytes);
+
+        if (bytes.hasRemaining()) {
+            // An incomplete multi-byte sequence, keep it until the next chunk arrives.
+            pendingBytes.put(bytes);
+        }
+    }
+
+    private void decode(ByteBuffer bytes) throws IOException {
+        while (true) {
+            CoderResult coderResult = decoder.decode(bytes, charBuffer, false);
+            if (coderResult.isError()) {
+                coderResult.throwException();
+            }
+            charBuffer.flip();
+            xmppXmlSplitter.write(charBuffer.array(), charBuffer.arrayOffset() + charBuffer.position(),
+                            charBuffer.remaining());
+            charBuffer.clear();
+            if (coderResult.isUnderflow()) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,474 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A push-style, resumable splitter for XML streams. Characters are written to the splitter in arbitrary chunks, and
+ * every time a top-level element is complete, it is handed to the {@link CompleteElementCallback}. The splitter keeps
+ * its state between the invocations of {@link #write(char[], int, int)}, hence it can be fed from a non-blocking
+ * source, like a channel driven by the {@link org.jivesoftware.smack.SmackReactor}, without requiring a dedicated
+ * thread.
+ * <p>
+ * The splitter only tokenizes as much as required to find the element boundaries, it does not check the
+ * well-formedness of the XML. This is left to the parser which processes the complete elements. Comments, processing
+ * instructions and CDATA sections are skipped over correctly.
+ * </p>
+ */
+public class XmlSplitter extends Writer {
+
+    private enum State {
+        START,
+        AFTER_TAG_RIGHT_ANGLE_BRACKET,
+        AFTER_TAG_LEFT_ANGLE_BRACKET,
+        IN_TAG_NAME,
+        IN_END_TAG,
+        IN_TAG,
+        IN_ATTRIBUTE_NAME,
+        AFTER_ATTRIBUTE_NAME,
+        AFTER_ATTRIBUTE_EQUALS,
+        IN_ATTRIBUTE_VALUE,
+        IN_EMPTY_TAG,
+        IN_PROCESSING_INSTRUCTION_OR_DECLARATION,
+        AFTER_BANG,
+        IN_COMMENT,
+        IN_CDATA,
+    }
+
+    private static final String COMMENT_START = "--";
+    private static final String CDATA_START = "[CDATA[";
+
+    private final CompleteElementCallback completeElementCallback;
+
+    private final StringBuilder splittedPartBuffer;
+
+    private final StringBuilder tokenBuffer = new StringBuilder(32);
+
+    private final StringBuilder attributeValueBuffer = new StringBuilder(32);
+
+    private State state = State.START;
+
+    private int depth;
+
+    private int maxElementSize = Integer.MAX_VALUE;
+
+    private String topLevelQName;
+
+    private Map<String, String> topLevelAttributes;
+
+    private String attributeName;
+
+    private char attributeValueQuote;
+
+    private char previousChar;
+
+    private char previousPreviousChar;
+
+    /**
+     * Construct a new XML splitter.
+     *
+     * @param bufferSize the initial size of the buffer used to accumulate the splitted parts.
+     * @param completeElementCallback the callback invoked once a top-level element is complete.
+     */
+    public XmlSplitter(int bufferSize, CompleteElementCallback completeElementCallback) {
+        this.splittedPartBuffer = new StringBuilder(bufferSize);
+        this.completeElementCallback = completeElementCallback;
+    }
+
+    /**
+     * Set the maximum size of a single top-level element in characters. If an element exceeds this size, then
+     * {@link #write(char[], int, int)} will throw an {@link IOException}. The default is unlimited.
+     *
+     * @param maxElementSize the maximum element size in characters.
+     */
+    public void setMaxElementSize(int maxElementSize) {
+        if (maxElementSize <= 0) {
+            throw new IllegalArgumentException("maxElementSize must be positive");
+        }
+        this.maxElementSize = maxElementSize;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        final int end = off + len;
+        for (int i = off; i < end; i++) {
+            processChar(cbuf[i]);
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Get the current depth, that is the number of currently open elements within the current splitted part.
+     *
+     * @return the current depth.
+     */
+    public final int getCurrentDepth() {
+        return depth;
+    }
+
+    /**
+     * Get the size in characters of the currently accumulated, but not yet complete, part.
+     *
+     * @return the size of the current splitted part.
+     */
+    public final int getCurrentSplittedPartSize() {
+        return splittedPartBuffer.length();
+    }
+
+    /**
+     * Invoked once the start tag of a top-level element was processed. Subclasses may use this to react on the opening
+     * of a top-level element. The attributes map must not be retained by the callee, as it may be reused.
+     *
+     * @param prefix the prefix of the element or <code>null</code>.
+     * @param localpart the local part of the element name.
+     * @param attributes the attributes of the element.
+     */
+    protected void onTopLevelStartTag(String prefix, String localpart, Map<String, String> attributes) {
+    }
+
+    /**
+     * Invoked if an end tag without a corresponding start tag in the current part is found. This is the case for the
+     * closing tag of the (unbalanced) root element if {@link #newSplittedPart()} was invoked after its start tag.
+     *
+     * @param prefix the prefix of the element or <code>null</code>.
+     * @param localpart the local part of the element name.
+     */
+    protected void onTopLevelEndTag(String prefix, String localpart) {
+    }
+
+    /**
+     * Invoked once a top-level element is complete. The default implementation hands the element to the
+     * {@link CompleteElementCallback}. Subclasses may modify the contents of the buffer before delegating to the super
+     * implementation.
+     *
+     * @param completeElement the buffer holding the complete element.
+     * @param qName the qualified name of the complete element.
+     * @param attributes the attributes of the complete element.
+     */
+    protected void onCompleteElement(StringBuilder completeElement, String qName, Map<String, String> attributes) {
+        completeElementCallback.onCompleteElement(completeElement.toString());
+    }
+
+    /**
+     * Start a new splitted part. This resets the depth and discards what was accumulated so far. Subclasses invoke
+     * this from {@link #onTopLevelStartTag(String, String, Map)} in order to treat the children of a top-level element
+     * as top-level elements, like it is the case for XMPP streams.
+     */
+    protected final void newSplittedPart() {
+        depth = 0;
+        splittedPartBuffer.setLength(0);
+    }
+
+    private void processChar(char c) throws IOException {
+        if (state == State.START) {
+            // Discard everything outside of top-level elements, e.g. whitespace keep-alives.
+            if (c == '<') {
+                splittedPartBuffer.setLength(0);
+                splittedPartBuffer.append(c);
+                state = State.AFTER_TAG_LEFT_ANGLE_BRACKET;
+            }
+            return;
+        }
+
+        splittedPartBuffer.append(c);
+        if (splittedPartBuffer.length() > maxElementSize) {
+            throw new IOException("Element exceeds the maximum element size of " + maxElementSize + " characters");
+        }
+
+        switch (state) {
+        case AFTER_TAG_RIGHT_ANGLE_BRACKET:
+            if (c == '<') {
+                state = State.AFTER_TAG_LEFT_ANGLE_BRACKET;
+            }
+            break;
+        case AFTER_TAG_LEFT_ANGLE_BRACKET:
+            tokenBuffer.setLength(0);
+            switch (c) {
+            case '/':
+                state = State.IN_END_TAG;
+                break;
+            case '?':
+                resetPreviousChars();
+                state = State.IN_PROCESSING_INSTRUCTION_OR_DECLARATION;
+                break;
+            case '!':
+                state = State.AFTER_BANG;
+                break;
+            default:
+                if (depth == 0) {
+                    topLevelAttributes = new HashMap<>();
+                }
+                appendToTokenIfTopLevel(c);
+                state = State.IN_TAG_NAME;
+                break;
+            }
+            break;
+        case IN_TAG_NAME:
+            switch (c) {
+            case '/':
+                onTagNameFinished();
+                state = State.IN_EMPTY_TAG;
+                break;
+            case '>':
+                onStartTagFinished();
+                break;
+            default:
+                if (isWhitespace(c)) {
+                    onTagNameFinished();
+                    state = State.IN_TAG;
+                } else {
+                    appendToTokenIfTopLevel(c);
+                }
+                break;
+            }
+            break;
+        case IN_TAG:
+            switch (c) {
+            case '/':
+                state = State.IN_EMPTY_TAG;
+                break;
+            case '>':
+                onStartTagFinished();
+                break;
+            default:
+                if (!isWhitespace(c)) {
+                    tokenBuffer.setLength(0);
+                    appendToTokenIfTopLevel(c);
+                    state = State.IN_ATTRIBUTE_NAME;
+                }
+                break;
+            }
+            break;
+        case IN_ATTRIBUTE_NAME:
+            if (c == '=') {
+                onAttributeNameFinished();
+                state = State.AFTER_ATTRIBUTE_EQUALS;
+            } else if (isWhitespace(c)) {
+                onAttributeNameFinished();
+                state = State.AFTER_ATTRIBUTE_NAME;
+            } else {
+                appendToTokenIfTopLevel(c);
+            }
+            break;
+        case AFTER_ATTRIBUTE_NAME:
+            if (c == '=') {
+                state = State.AFTER_ATTRIBUTE_EQUALS;
+            } else if (!isWhitespace(c)) {
+                throw new IOException("Expected '=' after attribute name, but got '" + c + '\'');
+            }
+            break;
+        case AFTER_ATTRIBUTE_EQUALS:
+            if (c == '\'' || c == '"') {
+                attributeValueQuote = c;
+                attributeValueBuffer.setLength(0);
+                state = State.IN_ATTRIBUTE_VALUE;
+            } else if (!isWhitespace(c)) {
+                throw new IOException("Expected quote after '=', but got '" + c + '\'');
+            }
+            break;
+        case IN_ATTRIBUTE_VALUE:
+            if (c == attributeValueQuote) {
+                if (depth == 0) {
+                    topLevelAttributes.put(attributeName, attributeValueBuffer.toString());
+                }
+                state = State.IN_TAG;
+            } else if (depth == 0) {
+                attributeValueBuffer.append(c);
+            }
+            break;
+        case IN_EMPTY_TAG:
+            if (c != '>') {
+                throw new IOException("Expected '>' after '/' in tag, but got '" + c + '\'');
+            }
+            onEmptyTagFinished();
+            break;
+        case IN_END_TAG:
+            if (c == '>') {
+                onEndTagFinished();
+            } else if (!isWhitespace(c)) {
+                appendToTokenIfTopLevel(c);
+            }
+            break;
+        case IN_PROCESSING_INSTRUCTION_OR_DECLARATION:
+            if (c == '>' && previousChar == '?') {
+                returnToContent();
+            } else {
+                shiftPreviousChars(c);
+            }
+            break;
+        case AFTER_BANG:
+            tokenBuffer.append(c);
+            if (tokenBuffer.length() == COMMENT_START.length() && COMMENT_START.contentEquals(tokenBuffer)) {
+                resetPreviousChars();
+                state = State.IN_COMMENT;
+            } else if (tokenBuffer.length() == CDATA_START.length() && CDATA_START.contentEquals(tokenBuffer)) {
+                if (depth == 0) {
+                    throw new IOException("CDATA section outside of element");
+                }
+                resetPreviousChars();
+                state = State.IN_CDATA;
+            } else if (!COMMENT_START.startsWith(tokenBuffer.toString())
+                            && !CDATA_START.startsWith(tokenBuffer.toString())) {
+                throw new IOException("Unsupported markup declaration: <!" + tokenBuffer);
+            }
+            break;
+        case IN_COMMENT:
+            if (c == '>' && previousChar == '-' && previousPreviousChar == '-') {
+                returnToContent();
+            } else {
+                shiftPreviousChars(c);
+            }
+            break;
+        case IN_CDATA:
+            if (c == '>' && previousChar == ']' && previousPreviousChar == ']') {
+                state = State.AFTER_TAG_RIGHT_ANGLE_BRACKET;
+            } else {
+                shiftPreviousChars(c);
+            }
+            break;
+        default:
+            throw new AssertionError("Unknown state " + state);
+        }
+    }
+
+    private void appendToTokenIfTopLevel(char c) {
+        if (depth == 0) {
+            tokenBuffer.append(c);
+        }
+    }
+
+    private void onTagNameFinished() {
+        if (depth == 0) {
+            topLevelQName = tokenBuffer.toString();
+        }
+    }
+
+    private void onAttributeNameFinished() {
+        if (depth == 0) {
+            attributeName = tokenBuffer.toString();
+        }
+    }
+
+    private void onStartTagFinished() {
+        if (state == State.IN_TAG_NAME) {
+            onTagNameFinished();
+        }
+        state = State.AFTER_TAG_RIGHT_ANGLE_BRACKET;
+        depth++;
+        if (depth == 1) {
+            String prefix = getPrefix(topLevelQName);
+            String localpart = getLocalpart(topLevelQName);
+            // Note that this may invoke newSplittedPart() and hence reset the depth to zero.
+            onTopLevelStartTag(prefix, localpart, topLevelAttributes);
+            if (depth == 0) {
+                state = State.START;
+            }
+        }
+    }
+
+    private void onEmptyTagFinished() {
+        onStartTagFinished();
+        if (depth > 0) {
+            depth--;
+            elementFinished();
+        }
+    }
+
+    private void onEndTagFinished() {
+        if (depth == 0) {
+            String qName = tokenBuffer.toString();
+            onTopLevelEndTag(getPrefix(qName), getLocalpart(qName));
+            splittedPartBuffer.setLength(0);
+            state = State.START;
+            return;
+        }
+        depth--;
+        elementFinished();
+    }
+
+    private void elementFinished() {
+        if (depth == 0) {
+            onCompleteElement(splittedPartBuffer, topLevelQName, topLevelAttributes);
+            splittedPartBuffer.setLength(0);
+            state = State.START;
+        } else {
+            state = State.AFTER_TAG_RIGHT_ANGLE_BRACKET;
+        }
+    }
+
+    private void returnToContent() {
+        if (depth == 0) {
+            state = State.START;
+        } else {
+            state = State.AFTER_TAG_RIGHT_ANGLE_BRACKET;
+        }
+    }
+
+    private void resetPreviousChars() {
+        previousChar = 0;
+        previousPreviousChar = 0;
+    }
+
+    private void shiftPreviousChars(char c) {
+        previousPreviousChar = previousChar;
+        previousChar = c;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private static String getPrefix(String qName) {
+        int colonIndex = qName.indexOf(':');
+        if (colonIndex < 0) {
+            return null;
+        }
+        return qName.substring(0, colonIndex);
+    }
+
+    private static String getLocalpart(String qName) {
+        int colonIndex = qName.indexOf(':');
+        if (colonIndex < 0) {
+            return qName;
+        }
+        return qName.substring(colonIndex + 1);
+    }
+
+    /**
+     * Callback for complete top-level elements found by a {@link XmlSplitter}.
+     */
+    public interface CompleteElementCallback {
+
+        /**
+         * Invoked with every complete top-level element.
+         *
+         * @param completeElement the complete element.
+         */
+        void onCompleteElement(String completeElement);
+    }
+}
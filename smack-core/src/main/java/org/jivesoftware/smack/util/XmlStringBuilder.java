@@ -499,7 +499,8 @@ public class XmlStringBuilder implements Appendable, CharSequence {
     /**
      * Write the contents of this <code>XmlStringBuilder</code> to a {@link Writer}. This will write
      * the single parts one-by-one, avoiding allocation of a big continuous memory block holding the
-     * XmlStringBuilder contents.
+     * XmlStringBuilder contents. The parts are appended as CharSequence, so that writers like
+     * {@link Utf8ByteBufferWriter} can encode them without creating a String first.
      *
      * @param writer
      * @throws IOException
@@ -510,7 +511,7 @@ public class XmlStringBuilder implements Appendable, CharSequence {
                 ((XmlStringBuilder) csq).write(writer);
             }
             else {
-                writer.write(csq.toString());
+                writer.append(csq);
             }
         }
     }
@@ -0,0 +1,132 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link XmlSplitter} for XMPP streams. The opening stream element is reported via
+ * {@link XmppElementCallback#onStreamOpen(String, Map)} and every child of the stream element, i.e. every top-level
+ * stream element like stanzas, stream features and SASL elements, is reported as complete element.
+ * <p>
+ * The namespace declarations of the stream element, i.e. the default namespace and the prefix used by elements like
+ * {@code <stream:features/>}, are added to the complete top-level elements if they do not declare them themselves. This
+ * allows the complete elements to be parsed on their own, with the same result as if they had been parsed as part of
+ * the whole stream.
+ * </p>
+ */
+public class XmppXmlSplitter extends XmlSplitter {
+
+    public static final String STREAM_NAMESPACE = "http://etherx.jabber.org/streams";
+
+    private static final String XMLNS = "xmlns";
+
+    private static final String XMLNS_PREFIX = XMLNS + ':';
+
+    private final XmppElementCallback xmppElementCallback;
+
+    private final Map<String, String> streamPrefixDeclarations = new HashMap<>();
+
+    private String streamPrefix;
+
+    private String streamDefaultNamespace;
+
+    public XmppXmlSplitter(XmppElementCallback xmppElementCallback) {
+        this(10000, xmppElementCallback);
+    }
+
+    public XmppXmlSplitter(int bufferSize, XmppElementCallback xmppElementCallback) {
+        super(bufferSize, xmppElementCallback);
+        this.xmppElementCallback = xmppElementCallback;
+    }
+
+    @Override
+    protected void onTopLevelStartTag(String prefix, String localpart, Map<String, String> attributes) {
+        if (!"stream".equals(localpart)) {
+            return;
+        }
+        String namespace = attributes.get(prefix == null ? XMLNS : XMLNS_PREFIX + prefix);
+        if (!STREAM_NAMESPACE.equals(namespace)) {
+            return;
+        }
+
+        streamPrefix = prefix;
+        streamDefaultNamespace = attributes.get(XMLNS);
+        streamPrefixDeclarations.clear();
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            String attributeName = attribute.getKey();
+            if (attributeName.startsWith(XMLNS_PREFIX)) {
+                streamPrefixDeclarations.put(attributeName.substring(XMLNS_PREFIX.length()), attribute.getValue());
+            }
+        }
+
+        // The stream element is never closed until the end of the stream, treat its children as top-level elements.
+        newSplittedPart();
+        xmppElementCallback.onStreamOpen(prefix, Collections.unmodifiableMap(new HashMap<>(attributes)));
+    }
+
+    @Override
+    protected void onTopLevelEndTag(String prefix, String localpart) {
+        if (!"stream".equals(localpart)) {
+            return;
+        }
+        if (prefix == null ? streamPrefix == null : prefix.equals(streamPrefix)) {
+            xmppElementCallback.onStreamClosed();
+        }
+    }
+
+    @Override
+    protected void onCompleteElement(StringBuilder completeElement, String qName, Map<String, String> attributes) {
+        // The complete element starts with '<' followed by the qualified name.
+        final int declarationIndex = 1 + qName.length();
+        int colonIndex = qName.indexOf(':');
+        if (colonIndex > 0) {
+            String prefix = qName.substring(0, colonIndex);
+            String namespace = streamPrefixDeclarations.get(prefix);
+            if (namespace != null && !attributes.containsKey(XMLNS_PREFIX + prefix)) {
+                completeElement.insert(declarationIndex, " " + XMLNS_PREFIX + prefix + "='" + namespace + '\'');
+            }
+        }
+        if (streamDefaultNamespace != null && !attributes.containsKey(XMLNS)) {
+            // Make the element and its children inherit the default namespace of the stream, e.g. 'jabber:client',
+            // just like they would if they were parsed as part of the whole stream.
+            completeElement.insert(declarationIndex, " " + XMLNS + "='" + streamDefaultNamespace + '\'');
+        }
+        super.onCompleteElement(completeElement, qName, attributes);
+    }
+
+    /**
+     * Callback for the elements of a XMPP stream found by a {@link XmppXmlSplitter}.
+     */
+    public interface XmppElementCallback extends CompleteElementCallback {
+
+        /**
+         * Invoked once the opening stream element was found.
+         *
+         * @param prefix the prefix of the stream element, usually 'stream'.
+         * @param attributes the attributes of the stream element.
+         */
+        void onStreamOpen(String prefix, Map<String, String> attributes);
+
+        /**
+         * Invoked once the closing stream element was found.
+         */
+        void onStreamClosed();
+    }
+}
@@ -0,0 +1,367 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util.stringencoder;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+/**
+ * A streaming Base64 codec (RFC 4648 Section 4, with padding) working on {@link ByteBuffer}s and {@link CharBuffer}s.
+ * <p>
+ * Unlike the {@link Base64} facade, the codec does not create intermediate Strings or arrays. {@link Encoder} and
+ * {@link Decoder} instances keep the state of an incomplete group between invocations, so that the input and output
+ * may be processed in chunks, and can be reused after {@link Encoder#reset()} or {@link Decoder#reset()}. They are not
+ * thread-safe. {@link #encode(byte[], int, int)} returns a {@link CharSequence} view which encodes the bytes on demand,
+ * so that a writer can serialize the encoded form without it ever being materialized.
+ * </p>
+ *
+ * @since 4.3
+ */
+public final class Base64Codec {
+
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+                    .toCharArray();
+
+    private static final byte[] DECODE_TABLE = new byte[128];
+
+    private static final byte WHITESPACE = -2;
+
+    private static final byte INVALID = -1;
+
+    static {
+        for (int i = 0; i < DECODE_TABLE.length; i++) {
+            DECODE_TABLE[i] = INVALID;
+        }
+        for (int i = 0; i < ALPHABET.length; i++) {
+            DECODE_TABLE[ALPHABET[i]] = (byte) i;
+        }
+        DECODE_TABLE[' '] = WHITESPACE;
+        DECODE_TABLE['\t'] = WHITESPACE;
+        DECODE_TABLE['\r'] = WHITESPACE;
+        DECODE_TABLE['\n'] = WHITESPACE;
+    }
+
+    private Base64Codec() {
+    }
+
+    /**
+     * Returns the number of characters of the Base64 encoding of the given number of bytes.
+     *
+     * @param byteCount the number of bytes.
+     * @return the length of the encoded form, including padding.
+     */
+    public static int encodedLength(int byteCount) {
+        return (byteCount + 2) / 3 * 4;
+    }
+
+    /**
+     * Returns the number of bytes the given Base64 text decodes to, or <code>-1</code> if the text is not valid Base64.
+     * Whitespace is ignored. Valid text consists of complete groups of four characters, padding characters ('=') may
+     * only appear at the end of the last group.
+     *
+     * @param text the Base64 encoded text.
+     * @return the length of the decoded data or <code>-1</code>.
+     */
+    public static int decodedLength(CharSequence text) {
+        int sextets = 0;
+        int padding = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '=') {
+                padding++;
+                continue;
+            }
+            int value = c < DECODE_TABLE.length ? DECODE_TABLE[c] : INVALID;
+            if (value == WHITESPACE) {
+                continue;
+            }
+            if (value == INVALID || padding > 0) {
+                return -1;
+            }
+            sextets++;
+        }
+        int remainder = sextets % 4;
+        if (padding > 2 || (remainder == 0 && padding != 0) || (remainder != 0 && remainder + padding != 4)
+                        || remainder == 1) {
+            return -1;
+        }
+        return sextets / 4 * 3 + (remainder == 0 ? 0 : remainder - 1);
+    }
+
+    /**
+     * Returns a view of the Base64 encoding of the given bytes. The characters are computed on demand, the array is
+     * not copied and must not be modified while the view is in use.
+     *
+     * @param data the bytes to encode.
+     * @param offset the offset of the first byte.
+     * @param length the number of bytes.
+     * @return a CharSequence with the Base64 encoding of the bytes.
+     */
+    public static CharSequence encode(byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        return new EncodedCharSequence(data, offset, length);
+    }
+
+    private static char encodedCharAt(byte[] data, int offset, int length, int index) {
+        int group = index / 4;
+        int position = index % 4;
+        int start = group * 3;
+        int available = length - start;
+        // A group with n bytes is encoded into n + 1 characters followed by padding.
+        if (position > available) {
+            return '=';
+        }
+        int bits = (data[offset + start] & 0xff) << 16;
+        if (available > 1) {
+            bits |= (data[offset + start + 1] & 0xff) << 8;
+        }
+        if (available > 2) {
+            bits |= data[offset + start + 2] & 0xff;
+        }
+        return ALPHABET[(bits >>> (18 - 6 * position)) & 0x3f];
+    }
+
+    private static final class EncodedCharSequence implements CharSequence {
+
+        private final byte[] data;
+
+        private final int offset;
+
+        private final int length;
+
+        private EncodedCharSequence(byte[] data, int offset, int length) {
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return encodedLength(length);
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length()) {
+                throw new IndexOutOfBoundsException();
+            }
+            return encodedCharAt(data, offset, length, index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            CharBuffer chars = CharBuffer.allocate(length());
+            new Encoder().encode(ByteBuffer.wrap(data, offset, length), chars, true);
+            return new String(chars.array());
+        }
+    }
+
+    /**
+     * A stateful Base64 encoder.
+     */
+    public static final class Encoder {
+
+        private int bits;
+
+        private int pendingBytes;
+
+        /**
+         * Encodes the remaining bytes of <code>in</code> into <code>out</code>. Bytes which do not yet form a complete
+         * group are kept until the next invocation, or encoded with padding if <code>endOfInput</code> is true.
+         *
+         * @param in the bytes to encode.
+         * @param out the buffer for the encoded characters.
+         * @param endOfInput true if there is no further input.
+         * @return true if all input was processed, false if <code>out</code> has not enough room.
+         */
+        public boolean encode(ByteBuffer in, CharBuffer out, boolean endOfInput) {
+            while (true) {
+                if (pendingBytes == 3) {
+                    if (out.remaining() < 4) {
+                        return false;
+                    }
+                    out.put(ALPHABET[(bits >>> 18) & 0x3f]);
+                    out.put(ALPHABET[(bits >>> 12) & 0x3f]);
+                    out.put(ALPHABET[(bits >>> 6) & 0x3f]);
+                    out.put(ALPHABET[bits & 0x3f]);
+                    reset();
+                }
+                if (!in.hasRemaining()) {
+                    break;
+                }
+                bits = (bits << 8) | (in.get() & 0xff);
+                pendingBytes++;
+            }
+            if (endOfInput && pendingBytes > 0) {
+                if (out.remaining() < 4) {
+                    return false;
+                }
+                int aligned = bits << (8 * (3 - pendingBytes));
+                out.put(ALPHABET[(aligned >>> 18) & 0x3f]);
+                out.put(ALPHABET[(aligned >>> 12) & 0x3f]);
+                out.put(pendingBytes == 2 ? ALPHABET[(aligned >>> 6) & 0x3f] : '=');
+                out.put('=');
+                reset();
+            }
+            return true;
+        }
+
+        /**
+         * Discards pending bytes, so that the encoder can be used for new input.
+         */
+        public void reset() {
+            bits = 0;
+            pendingBytes = 0;
+        }
+    }
+
+    /**
+     * A stateful Base64 decoder. Whitespace in the input is ignored.
+     */
+    public static final class Decoder {
+
+        private int bits;
+
+        private int sextets;
+
+        private int padding;
+
+        private boolean finished;
+
+        private int decoded;
+
+        private int decodedCount;
+
+        /**
+         * Decodes the remaining characters of <code>in</code> into <code>out</code>.
+         *
+         * @param in the Base64 encoded characters.
+         * @param out the buffer for the decoded bytes.
+         * @throws IllegalArgumentException if the input is not valid Base64.
+         */
+        public void decode(CharBuffer in, ByteBuffer out) {
+            int position = decode(in, in.position(), in.limit(), out);
+            in.position(position);
+        }
+
+        /**
+         * Decodes the characters between <code>start</code> and <code>end</code> into <code>out</code>, until either
+         * all characters have been processed or <code>out</code> is full.
+         *
+         * @param in the Base64 encoded characters.
+         * @param start the index of the first character to decode.
+         * @param end the index after the last character to decode.
+         * @param out the buffer for the decoded bytes.
+         * @return the index of the first character which was not processed.
+         * @throws IllegalArgumentException if the input is not valid Base64.
+         */
+        public int decode(CharSequence in, int start, int end, ByteBuffer out) {
+            int i = start;
+            while (true) {
+                while (decodedCount > 0) {
+                    if (!out.hasRemaining()) {
+                        return i;
+                    }
+                    decodedCount--;
+                    out.put((byte) (decoded >>> (8 * decodedCount)));
+                }
+                if (i >= end) {
+                    return i;
+                }
+                process(in.charAt(i++));
+            }
+        }
+
+        private void process(char c) {
+            int value = c < DECODE_TABLE.length ? DECODE_TABLE[c] : INVALID;
+            if (value == WHITESPACE) {
+                return;
+            }
+            if (finished) {
+                throw new IllegalArgumentException("Base64 data after padding");
+            }
+            if (c == '=') {
+                if (sextets < 2) {
+                    throw new IllegalArgumentException("Unexpected Base64 padding");
+                }
+                padding++;
+                if (sextets + padding == 4) {
+                    // Two sextets carry one byte, three sextets carry two bytes.
+                    decodedCount = sextets - 1;
+                    decoded = bits >>> (sextets == 2 ? 4 : 2);
+                    bits = 0;
+                    sextets = 0;
+                    finished = true;
+                }
+                return;
+            }
+            if (value == INVALID) {
+                throw new IllegalArgumentException("Invalid Base64 character: " + c);
+            }
+            if (padding > 0) {
+                throw new IllegalArgumentException("Base64 data after padding");
+            }
+            bits = (bits << 6) | value;
+            sextets++;
+            if (sextets == 4) {
+                decoded = bits;
+                decodedCount = 3;
+                bits = 0;
+                sextets = 0;
+            }
+        }
+
+        /**
+         * Returns true if the decoder holds decoded bytes which did not fit into the output buffer.
+         *
+         * @return true if there are decoded bytes left.
+         */
+        public boolean hasDecodedBytes() {
+            return decodedCount > 0;
+        }
+
+        /**
+         * Checks that the input processed so far ended with a complete group.
+         *
+         * @throws IllegalArgumentException if the last group is incomplete.
+         */
+        public void finish() {
+            if (sextets != 0 || padding != 0 && !finished) {
+                throw new IllegalArgumentException("Incomplete Base64 data");
+            }
+        }
+
+        /**
+         * Discards all state, so that the decoder can be used for new input.
+         */
+        public void reset() {
+            bits = 0;
+            sextets = 0;
+            padding = 0;
+            finished = false;
+            decoded = 0;
+            decodedCount = 0;
+        }
+    }
+}
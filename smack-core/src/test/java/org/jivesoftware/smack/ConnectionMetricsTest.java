@@ -0,0 +1,116 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.jivesoftware.smack.ConnectionMetrics.StanzaType;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.TestIQ;
+import org.jivesoftware.smack.test.util.SmackTestSuite;
+import org.jivesoftware.smack.util.Histogram;
+import org.junit.Before;
+import org.junit.Test;
+import org.jxmpp.jid.JidTestUtil;
+
+public class ConnectionMetricsTest extends SmackTestSuite {
+
+    private DummyConnection connection;
+
+    private ConnectionMetrics metrics;
+
+    @Before
+    public void setup() {
+        connection = DummyConnection.newConnectedDummyConnection();
+        metrics = connection.getMetrics();
+    }
+
+    @Test
+    public void stanzaCountsTest() throws Exception {
+        connection.sendStanza(new Message());
+        connection.sendStanza(new Message());
+        connection.sendStanza(new Presence(Presence.Type.available));
+        // DummyConnection bypasses the incoming stanza processing, report the stanza ourselves.
+        metrics.stanzaReceived(new Message());
+
+        assertEquals(2, metrics.getStanzasSent(StanzaType.message));
+        assertEquals(1, metrics.getStanzasSent(StanzaType.presence));
+        assertEquals(0, metrics.getStanzasSent(StanzaType.iq));
+        assertEquals(1, metrics.getStanzasReceived(StanzaType.message));
+        assertEquals(0, metrics.getStanzasReceived(StanzaType.presence));
+    }
+
+    @Test
+    public void iqRoundTripTimeTest() throws Exception {
+        IQ request = new TestIQ("query", "urn:example:metrics");
+        request.setTo(JidTestUtil.FULL_JID_1_RESOURCE_1);
+        connection.sendStanza(request);
+        assertNull(metrics.getIqRoundTripTime("urn:example:metrics"));
+
+        IQ result = IQ.createResultIQ(request);
+        result.setFrom(request.getTo());
+        metrics.stanzaReceived(result);
+
+        Histogram roundTripTime = metrics.getIqRoundTripTime("urn:example:metrics");
+        assertNotNull(roundTripTime);
+        assertEquals(1, roundTripTime.getCount());
+        assertTrue(metrics.getIqRoundTripTimes().containsKey("urn:example:metrics"));
+
+        // A second response with the same ID is not recorded.
+        metrics.stanzaReceived(result);
+        assertEquals(1, roundTripTime.getCount());
+    }
+
+    @Test
+    public void oldestPendingIqRequestIsEvictedTest() {
+        IQ[] requests = new IQ[1001];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = new TestIQ("query", "urn:example:metrics");
+            requests[i].setTo(JidTestUtil.FULL_JID_1_RESOURCE_1);
+            metrics.stanzaSent(requests[i]);
+        }
+
+        // The first request is no longer tracked, but the most recent one is.
+        metrics.stanzaReceived(IQ.createResultIQ(requests[0]));
+        assertNull(metrics.getIqRoundTripTime("urn:example:metrics"));
+        metrics.stanzaReceived(IQ.createResultIQ(requests[1000]));
+        assertEquals(1, metrics.getIqRoundTripTime("urn:example:metrics").getCount());
+    }
+
+    @Test
+    public void byteCountsTest() throws Exception {
+        InputStream inputStream = metrics.countBytesReceived(new ByteArrayInputStream(new byte[100]));
+        assertEquals(10, inputStream.read(new byte[10]));
+        inputStream.read();
+        assertEquals(11, metrics.getBytesReceived());
+
+        OutputStream outputStream = metrics.countBytesSent(new ByteArrayOutputStream());
+        outputStream.write(new byte[42]);
+        outputStream.write(1);
+        assertEquals(43, metrics.getBytesSent());
+    }
+}
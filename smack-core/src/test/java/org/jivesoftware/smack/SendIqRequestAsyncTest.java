@@ -0,0 +1,151 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jivesoftware.smack.SmackException.NoResponseException;
+import org.jivesoftware.smack.XMPPException.XMPPErrorException;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.TestIQ;
+import org.jivesoftware.smack.packet.XMPPError;
+import org.jivesoftware.smack.test.util.SmackTestSuite;
+import org.junit.Before;
+import org.junit.Test;
+import org.jxmpp.jid.JidTestUtil;
+
+public class SendIqRequestAsyncTest extends SmackTestSuite {
+
+    private DummyConnection connection;
+
+    private IQ request;
+
+    @Before
+    public void setup() {
+        connection = DummyConnection.newConnectedDummyConnection();
+        request = new TestIQ("query", "urn:example:test");
+        request.setTo(JidTestUtil.FULL_JID_1_RESOURCE_1);
+    }
+
+    @Test
+    public void resultTest() throws Exception {
+        final CountDownLatch callbackInvoked = new CountDownLatch(1);
+        final AtomicReference<IQ> callbackResult = new AtomicReference<>();
+        SmackFuture<IQ> future = connection.sendIqRequestAsync(request).onSuccess(new SuccessCallback<IQ>() {
+            @Override
+            public void onSuccess(IQ result) {
+                callbackResult.set(result);
+                callbackInvoked.countDown();
+            }
+        });
+        assertSame(request, connection.getSentPacket());
+        assertFalse(future.isDone());
+
+        IQ result = IQ.createResultIQ(request);
+        result.setFrom(request.getTo());
+        connection.processStanza(result);
+
+        assertSame(result, future.get(1, TimeUnit.SECONDS));
+        assertTrue(callbackInvoked.await(1, TimeUnit.SECONDS));
+        assertSame(result, callbackResult.get());
+    }
+
+    @Test
+    public void errorTest() throws Exception {
+        final CountDownLatch callbackInvoked = new CountDownLatch(1);
+        SmackFuture<IQ> future = connection.sendIqRequestAsync(request).onError(new ExceptionCallback() {
+            @Override
+            public void processException(Exception exception) {
+                if (exception instanceof XMPPErrorException) {
+                    callbackInvoked.countDown();
+                }
+            }
+        });
+
+        IQ error = IQ.createErrorResponse(request, XMPPError.getBuilder(XMPPError.Condition.item_not_found));
+        connection.processStanza(error);
+
+        assertTrue(callbackInvoked.await(1, TimeUnit.SECONDS));
+        try {
+            future.get();
+            throw new AssertionError("Expected ExecutionException");
+        }
+        catch (ExecutionException e) {
+            XMPPErrorException xmppErrorException = (XMPPErrorException) e.getCause();
+            assertEquals(XMPPError.Condition.item_not_found, xmppErrorException.getXMPPError().getCondition());
+        }
+    }
+
+    @Test
+    public void spoofedResponseIsIgnoredTest() throws Exception {
+        SmackFuture<IQ> future = connection.sendIqRequestAsync(request, 100);
+
+        IQ spoofedResult = IQ.createResultIQ(request);
+        spoofedResult.setFrom(JidTestUtil.FULL_JID_2_RESOURCE_1);
+        connection.processStanza(spoofedResult);
+
+        assertFalse(future.isDone());
+        try {
+            future.get();
+            throw new AssertionError("Expected ExecutionException");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof NoResponseException);
+        }
+    }
+
+    @Test
+    public void noResponseTest() throws Exception {
+        SmackFuture<IQ> future = connection.sendIqRequestAsync(request, 10);
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            throw new AssertionError("Expected ExecutionException");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof NoResponseException);
+        }
+
+        // A late response must not change the outcome.
+        IQ result = IQ.createResultIQ(request);
+        result.setFrom(request.getTo());
+        connection.processStanza(result);
+        assertTrue(future.isDone());
+    }
+
+    @Test
+    public void cancelRemovesPendingRequestTest() throws Exception {
+        SmackFuture<IQ> future = connection.sendIqRequestAsync(request);
+        assertTrue(future.cancel(false));
+        assertTrue(future.isCancelled());
+
+        // The cancelled request no longer occupies its stanza ID, so the same IQ can be send again.
+        SmackFuture<IQ> secondFuture = connection.sendIqRequestAsync(request);
+        IQ result = IQ.createResultIQ(request);
+        result.setFrom(request.getTo());
+        connection.processStanza(result);
+
+        assertSame(result, secondFuture.get(1, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.SmackExecutionModel.SerialExecutor;
+import org.junit.Test;
+
+public class SmackExecutionModelTest {
+
+    @Test
+    public void serialExecutorKeepsOrderTest() throws InterruptedException {
+        SmackExecutionModel executionModel = new SmackExecutionModel(8, 1000);
+        SerialExecutor serialExecutor = executionModel.newSerialExecutor();
+
+        final int taskCount = 1000;
+        final List<Integer> result = Collections.synchronizedList(new ArrayList<Integer>(taskCount));
+        final CountDownLatch latch = new CountDownLatch(taskCount);
+        for (int i = 0; i < taskCount; i++) {
+            final int number = i;
+            serialExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    result.add(number);
+                    latch.countDown();
+                }
+            });
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < taskCount; i++) {
+            assertEquals(i, (int) result.get(i));
+        }
+        assertEquals(0, serialExecutor.getQueueDepth());
+        assertEquals(0, executionModel.getQueueDepth());
+    }
+
+    @Test
+    public void serialExecutorsShareOneThreadTest() throws InterruptedException {
+        // Many serial executors can make progress with a single thread.
+        SmackExecutionModel executionModel = new SmackExecutionModel(1, 1000);
+        final int executorCount = 50;
+        final CountDownLatch latch = new CountDownLatch(executorCount * 10);
+        for (int i = 0; i < executorCount; i++) {
+            SerialExecutor serialExecutor = executionModel.newSerialExecutor();
+            for (int j = 0; j < 10; j++) {
+                serialExecutor.execute(new CountDownRunnable(latch));
+            }
+        }
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void queueDepthTest() throws InterruptedException {
+        SmackExecutionModel executionModel = new SmackExecutionModel(1, 1000);
+        SerialExecutor serialExecutor = executionModel.newSerialExecutor();
+        final CountDownLatch blockLatch = new CountDownLatch(1);
+        final CountDownLatch runningLatch = new CountDownLatch(1);
+        serialExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runningLatch.countDown();
+                try {
+                    blockLatch.await();
+                }
+                catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        assertTrue(runningLatch.await(5, TimeUnit.SECONDS));
+
+        final CountDownLatch doneLatch = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            serialExecutor.execute(new CountDownRunnable(doneLatch));
+        }
+        assertEquals(3, serialExecutor.getQueueDepth());
+        assertEquals(3, executionModel.getQueueDepth());
+
+        blockLatch.countDown();
+        assertTrue(doneLatch.await(5, TimeUnit.SECONDS));
+        assertEquals(0, executionModel.getQueueDepth());
+    }
+
+    @Test
+    public void serialExecutorSurvivesErrorTest() throws InterruptedException {
+        SmackExecutionModel executionModel = new SmackExecutionModel(1, 1000);
+        SerialExecutor serialExecutor = executionModel.newSerialExecutor();
+        serialExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new Error("Thrown by serialExecutorSurvivesErrorTest");
+            }
+        });
+        // The tasks queued after the Error must still be run.
+        final CountDownLatch queuedLatch = new CountDownLatch(1);
+        serialExecutor.execute(new CountDownRunnable(queuedLatch));
+        assertTrue(queuedLatch.await(5, TimeUnit.SECONDS));
+
+        // The serial executor must not be stuck in the draining state after the Error.
+        final CountDownLatch laterLatch = new CountDownLatch(1);
+        serialExecutor.execute(new CountDownRunnable(laterLatch));
+        assertTrue(laterLatch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void processingSerialExecutorIsNotStarvedTest() throws InterruptedException {
+        // Occupy the only thread of the shared executor, like a listener waiting for a response.
+        SmackExecutionModel executionModel = new SmackExecutionModel(1, 1000);
+        final CountDownLatch blockLatch = new CountDownLatch(1);
+        executionModel.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blockLatch.await();
+                }
+                catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        executionModel.newProcessingSerialExecutor(10).execute(new Runnable() {
+            @Override
+            public void run() {
+                // Processing the response unblocks the listener.
+                blockLatch.countDown();
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void rejectedTasksAreRunAndCountedTest() throws InterruptedException {
+        SmackExecutionModel executionModel = new SmackExecutionModel(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+        final CountDownLatch latch = new CountDownLatch(2);
+        executionModel.execute(new CountDownRunnable(latch));
+        executionModel.newSerialExecutor().execute(new CountDownRunnable(latch));
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(2, executionModel.getRejectedExecutionCount());
+    }
+
+    @Test
+    public void virtualThreadExecutionModelTest() throws InterruptedException {
+        SmackExecutionModel executionModel;
+        try {
+            executionModel = SmackExecutionModel.newVirtualThreadExecutionModel();
+        }
+        catch (UnsupportedOperationException e) {
+            assertFalse(SmackExecutionModel.isVirtualThreadSupported());
+            return;
+        }
+        assertTrue(SmackExecutionModel.isVirtualThreadSupported());
+
+        final CountDownLatch latch = new CountDownLatch(2);
+        Thread thread = executionModel.newThread(new CountDownRunnable(latch));
+        // Virtual threads are always daemon threads.
+        assertTrue(thread.isDaemon());
+        thread.start();
+        executionModel.newSerialExecutor().execute(new CountDownRunnable(latch));
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    private static final class CountDownRunnable implements Runnable {
+        private final CountDownLatch latch;
+
+        private CountDownRunnable(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void run() {
+            latch.countDown();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class SmackReactorTest {
+
+    private static final int CHANNEL_COUNT = 50;
+
+    @Test
+    public void manyChannelsOnFewThreadsTest() throws IOException, InterruptedException {
+        SmackReactor reactor = new SmackReactor("Test Reactor", 2);
+        ServerSocket serverSocket = new ServerSocket(0, CHANNEL_COUNT, InetAddress.getLoopbackAddress());
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+
+        final CountDownLatch allRead = new CountDownLatch(CHANNEL_COUNT);
+        final Set<String> readerThreads = new CopyOnWriteArraySet<>();
+        List<SocketChannel> channels = new ArrayList<>(CHANNEL_COUNT);
+        List<Socket> acceptedSockets = new ArrayList<>(CHANNEL_COUNT);
+        try {
+            for (int i = 0; i < CHANNEL_COUNT; i++) {
+                SocketChannel channel = SocketChannel.open(address);
+                channel.configureBlocking(false);
+                channels.add(channel);
+                acceptedSockets.add(serverSocket.accept());
+
+                reactor.registerWithSelector(channel, SelectionKey.OP_READ, new ChannelSelectedCallback() {
+                    private final ByteBuffer buffer = ByteBuffer.allocate(4);
+                    @Override
+                    public void onChannelSelected(SelectableChannel channel, SelectionKey selectionKey) {
+                        readerThreads.add(Thread.currentThread().getName());
+                        try {
+                            ((SocketChannel) channel).read(buffer);
+                        }
+                        catch (IOException e) {
+                            throw new AssertionError(e);
+                        }
+                        if (!buffer.hasRemaining()) {
+                            selectionKey.cancel();
+                            allRead.countDown();
+                        }
+                    }
+                });
+            }
+            assertEquals(CHANNEL_COUNT, reactor.getRegisteredChannelCount());
+
+            // Write the payload in two parts, to verify that partial reads are resumed.
+            for (Socket socket : acceptedSockets) {
+                socket.getOutputStream().write(new byte[] { 1, 2 });
+                socket.getOutputStream().flush();
+            }
+            for (Socket socket : acceptedSockets) {
+                socket.getOutputStream().write(new byte[] { 3, 4 });
+                socket.getOutputStream().flush();
+            }
+
+            assertTrue(allRead.await(10, TimeUnit.SECONDS));
+            assertEquals(2, reactor.getReactorThreadCount());
+            assertTrue(readerThreads.size() <= 2);
+        }
+        finally {
+            for (SocketChannel channel : channels) {
+                channel.close();
+            }
+            for (Socket socket : acceptedSockets) {
+                socket.close();
+            }
+            serverSocket.close();
+        }
+    }
+
+    @Test
+    public void interestOpsAreAppliedByReactorThreadTest() throws IOException, InterruptedException {
+        final SmackReactor reactor = new SmackReactor("Test Reactor", 1);
+        ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                        serverSocket.getLocalPort()));
+        Socket acceptedSocket = serverSocket.accept();
+        try {
+            channel.configureBlocking(false);
+            final CountDownLatch writable = new CountDownLatch(1);
+            final CountDownLatch readable = new CountDownLatch(1);
+            SelectionKey selectionKey = reactor.registerWithSelector(channel, 0, new ChannelSelectedCallback() {
+                @Override
+                public void onChannelSelected(SelectableChannel channel, SelectionKey selectionKey) {
+                    if (selectionKey.isWritable()) {
+                        writable.countDown();
+                        // Switch from write to read interest from within the callback.
+                        reactor.setInterestOps(selectionKey, SelectionKey.OP_READ);
+                    }
+                    if (selectionKey.isReadable()) {
+                        readable.countDown();
+                        throw new IllegalStateException("Test exception");
+                    }
+                }
+            });
+
+            // The reactor thread is blocked in select() with an empty interest set, the change must wake it up.
+            reactor.setInterestOps(selectionKey, SelectionKey.OP_WRITE);
+            assertTrue(writable.await(10, TimeUnit.SECONDS));
+
+            // A callback throwing an exception causes the channel to be closed.
+            acceptedSocket.getOutputStream().write(1);
+            assertTrue(readable.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 100 && channel.isOpen(); i++) {
+                Thread.sleep(10);
+            }
+            assertFalse(channel.isOpen());
+        }
+        finally {
+            channel.close();
+            acceptedSocket.close();
+            serverSocket.close();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.packet.StandardExtensionElement;
+import org.junit.Test;
+import org.jxmpp.jid.JidTestUtil;
+
+public class StanzaFilterIndexTest {
+
+    @Test
+    public void onlyMatchingCandidatesTest() {
+        StanzaFilterIndex<String, String> index = new StanzaFilterIndex<>();
+        index.put("id", "id", new StanzaIdFilter("id1"));
+        index.put("from", "from", FromMatchesFilter.create(JidTestUtil.BARE_JID_1));
+        index.put("extension", "extension", new StanzaExtensionFilter("urn:example:test"));
+        index.put("message", "message", MessageTypeFilter.NORMAL);
+        index.put("presence", "presence", StanzaTypeFilter.PRESENCE);
+        index.put("and", "and", new AndFilter(StanzaTypeFilter.MESSAGE, new StanzaIdFilter("id2")));
+        index.put("unindexed", "unindexed", new NotFilter(StanzaTypeFilter.IQ));
+        index.put("all", "all", null);
+
+        Message message = new Message();
+        message.setStanzaId("id2");
+        assertEquals(Arrays.asList("message", "and", "unindexed", "all"), findCandidates(index, message));
+
+        message.setStanzaId("id1");
+        message.setFrom(JidTestUtil.FULL_JID_1_RESOURCE_1);
+        message.addExtension(StandardExtensionElement.builder("test", "urn:example:test").build());
+        message.addExtension(StandardExtensionElement.builder("test2", "urn:example:test").build());
+        assertEquals(Arrays.asList("id", "from", "extension", "message", "unindexed", "all"),
+                        findCandidates(index, message));
+
+        Presence presence = new Presence(Presence.Type.available);
+        presence.setFrom(JidTestUtil.BARE_JID_2);
+        assertEquals(Arrays.asList("presence", "unindexed", "all"), findCandidates(index, presence));
+    }
+
+    @Test
+    public void removeAndReplaceTest() {
+        StanzaFilterIndex<String, String> index = new StanzaFilterIndex<>();
+        index.put("a", "a", StanzaTypeFilter.IQ);
+        index.put("b", "b", new StanzaIdFilter("id1"));
+        index.put("c", "c", null);
+
+        // Replacing keeps the position of the key, even if the filter, and hence the bucket, changes.
+        assertEquals("a", index.put("a", "a2", new StanzaIdFilter("id1")));
+        IQ iq = new TestIQ();
+        iq.setStanzaId("id1");
+        assertEquals(Arrays.asList("a2", "b", "c"), findCandidates(index, iq));
+
+        assertEquals("b", index.remove("b"));
+        assertNull(index.remove("b"));
+        assertEquals(Arrays.asList("a2", "c"), findCandidates(index, iq));
+        assertEquals(2, index.size());
+
+        index.remove("a");
+        index.remove("c");
+        assertTrue(index.isEmpty());
+        assertEquals(Collections.emptyList(), findCandidates(index, iq));
+    }
+
+    @Test
+    public void overriddenAcceptIsNotIndexedTest() {
+        StanzaFilter broadenedFilter = new StanzaIdFilter("id1") {
+            @Override
+            public boolean accept(Stanza stanza) {
+                return true;
+            }
+        };
+        assertNull(StanzaFilterIndex.getIndexKey(broadenedFilter));
+        assertEquals(StanzaFilterIndex.IndexType.stanzaId,
+                        StanzaFilterIndex.getIndexKey(new StanzaIdFilter("id1")).type);
+    }
+
+    @Test
+    public void nonFinalStanzaTypeIsNotIndexedTest() {
+        StanzaFilterIndex<String, String> index = new StanzaFilterIndex<>();
+        index.put("iq", "iq", StanzaTypeFilter.IQ);
+        index.put("testIq", "testIq", new StanzaTypeFilter(TestIQ.class));
+        index.put("message", "message", StanzaTypeFilter.MESSAGE);
+
+        assertNull(StanzaFilterIndex.getIndexKey(StanzaTypeFilter.IQ));
+        assertNull(StanzaFilterIndex.getIndexKey(new StanzaTypeFilter(TestIQ.class)));
+        assertEquals(StanzaFilterIndex.IndexType.stanzaType,
+                        StanzaFilterIndex.getIndexKey(StanzaTypeFilter.MESSAGE).type);
+
+        // A subclass of a subclass of Stanza must still be matched by filters for its superclasses.
+        IQ iq = new SubTestIQ();
+        assertEquals(Arrays.asList("iq", "testIq"), findCandidates(index, iq));
+        for (String candidate : findCandidates(index, iq)) {
+            assertTrue(candidate.equals("iq") ? StanzaTypeFilter.IQ.accept(iq)
+                            : new StanzaTypeFilter(TestIQ.class).accept(iq));
+        }
+    }
+
+    private static List<String> findCandidates(StanzaFilterIndex<String, String> index, Stanza stanza) {
+        List<String> candidates = new ArrayList<>();
+        index.findCandidates(stanza, candidates);
+        return candidates;
+    }
+
+    private static class TestIQ extends IQ {
+        TestIQ() {
+            super("test", "urn:example:test");
+        }
+
+        @Override
+        protected IQChildElementXmlStringBuilder getIQChildElementBuilder(IQChildElementXmlStringBuilder xml) {
+            return xml;
+        }
+    }
+
+    private static class SubTestIQ extends TestIQ {
+    }
+}
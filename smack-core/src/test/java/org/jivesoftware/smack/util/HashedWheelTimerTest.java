@@ -0,0 +1,126 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jivesoftware.smack.util.HashedWheelTimer.Timeout;
+import org.junit.Test;
+
+public class HashedWheelTimerTest {
+
+    private final HashedWheelTimer timer = new HashedWheelTimer("Test Timer", 10, TimeUnit.MILLISECONDS, 8);
+
+    @Test
+    public void scheduledTaskRunsAfterDelayTest() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        Timeout timeout = timer.schedule(new CountDownRunnable(latch), 50, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("Task run after " + elapsedMillis + "ms", elapsedMillis >= 50);
+        timeout.get(5, TimeUnit.SECONDS);
+        assertTrue(timeout.isDone());
+        assertFalse(timeout.isCancelled());
+        assertEquals(0, timer.getScheduledTimeoutCount());
+    }
+
+    @Test
+    public void delayLongerThanOneRoundTest() throws Exception {
+        // The wheel has 8 ticks of 10ms, a delay of 200ms requires more than two rounds.
+        final CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        timer.schedule(new CountDownRunnable(latch), 200, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("Task run after " + elapsedMillis + "ms", elapsedMillis >= 200);
+    }
+
+    @Test
+    public void cancelledTaskDoesNotRunTest() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        };
+        Timeout cancelled = timer.schedule(task, 30, TimeUnit.MILLISECONDS);
+        final CountDownLatch latch = new CountDownLatch(1);
+        timer.schedule(new CountDownRunnable(latch), 100, TimeUnit.MILLISECONDS);
+
+        assertTrue(cancelled.cancel(false));
+        assertFalse(cancelled.cancel(false));
+        assertTrue(cancelled.isCancelled());
+        assertTrue(cancelled.isDone());
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(0, runs.get());
+    }
+
+    @Test(expected = CancellationException.class)
+    public void getOfCancelledTaskThrowsTest() throws Exception {
+        Timeout timeout = timer.schedule(new CountDownRunnable(new CountDownLatch(1)), 1, TimeUnit.HOURS);
+        timeout.cancel(true);
+        timeout.get();
+    }
+
+    @Test
+    public void manyTasksTest() throws Exception {
+        final int taskCount = 1000;
+        final CountDownLatch latch = new CountDownLatch(taskCount);
+        for (int i = 0; i < taskCount; i++) {
+            timer.schedule(new CountDownRunnable(latch), i % 150, TimeUnit.MILLISECONDS);
+        }
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void throwingTaskDoesNotStopTimerTest() throws Exception {
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("Expected by the test");
+            }
+        }, 10, TimeUnit.MILLISECONDS);
+        final CountDownLatch latch = new CountDownLatch(1);
+        timer.schedule(new CountDownRunnable(latch), 50, TimeUnit.MILLISECONDS);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    private static final class CountDownRunnable implements Runnable {
+        private final CountDownLatch latch;
+
+        private CountDownRunnable(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void run() {
+            latch.countDown();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void bucketBoundsTest() {
+        long[] values = new long[] { 0, 1, 15, 16, 17, 31, 32, 33, 1000, 123456789, Long.MAX_VALUE };
+        for (long value : values) {
+            int index = Histogram.bucketIndexOf(value);
+            assertTrue(value + " below bucket", Histogram.lowestValueOfBucket(index) <= value);
+            assertTrue(value + " above bucket", Histogram.highestValueOfBucket(index) >= value);
+        }
+        // Adjacent buckets do not overlap and have no gaps.
+        for (int index = 0; index < Histogram.bucketIndexOf(Long.MAX_VALUE); index++) {
+            assertEquals(Histogram.highestValueOfBucket(index) + 1, Histogram.lowestValueOfBucket(index + 1));
+        }
+    }
+
+    @Test
+    public void emptyHistogramTest() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(99), 0);
+        assertEquals(0, histogram.getMean(), 0);
+    }
+
+    @Test
+    public void percentilesTest() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(10000, histogram.getCount());
+        assertEquals(10000, histogram.getMax());
+        assertEquals(5000.5, histogram.getMean(), 0.001);
+        assertWithinRelativeError(5000, histogram.getValueAtPercentile(50));
+        assertWithinRelativeError(9900, histogram.getValueAtPercentile(99));
+        assertEquals(10000, histogram.getValueAtPercentile(100));
+        assertEquals(1, histogram.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void negativeValuesAreRecordedAsZeroTest() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(100));
+    }
+
+    private static void assertWithinRelativeError(long expected, long actual) {
+        assertTrue("Expected " + expected + " but was " + actual, Math.abs(expected - actual) <= expected / 16);
+    }
+}
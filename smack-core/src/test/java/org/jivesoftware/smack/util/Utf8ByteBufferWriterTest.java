@@ -0,0 +1,113 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+import org.jivesoftware.smack.packet.Message;
+import org.junit.Test;
+
+public class Utf8ByteBufferWriterTest {
+
+    private static final String TEXT = "Hello <world> & Grüße, € and 😀 in a row: 😀😀";
+
+    @Test
+    public void encodesLikeStringGetBytesTest() throws IOException {
+        // Use small buffers, so that the sequences span multiple buffers and the writer has to write them out.
+        ByteBufferPool pool = new ByteBufferPool(5, 2, false);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Utf8ByteBufferWriter writer = new Utf8ByteBufferWriter(outputStream, pool, 3);
+
+        writer.write(TEXT);
+        writer.append(new StringBuilder(TEXT));
+        // Write char by char, which splits the surrogate pairs over two calls.
+        for (char c : TEXT.toCharArray()) {
+            writer.write(c);
+        }
+        writer.flush();
+
+        assertArrayEquals((TEXT + TEXT + TEXT).getBytes(StringUtils.UTF8), outputStream.toByteArray());
+    }
+
+    @Test
+    public void gatheringChannelTest() throws IOException {
+        ByteBufferPool pool = new ByteBufferPool(7, 4, true);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Utf8ByteBufferWriter writer = new Utf8ByteBufferWriter(Channels.newChannel(outputStream), pool);
+
+        Message message = new Message("juliet@example.org", TEXT);
+        message.setStanzaId("id1");
+        XmlStringBuilder xml = message.toXML();
+        xml.write(writer);
+        writer.flush();
+
+        assertEquals(xml.toString(), new String(outputStream.toByteArray(), StringUtils.UTF8));
+    }
+
+    @Test
+    public void unpairedSurrogatesTest() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Utf8ByteBufferWriter writer = new Utf8ByteBufferWriter(outputStream, new ByteBufferPool(16, 1, false));
+
+        writer.write("a\uD83Db\uDE00c\uD83D");
+        writer.close();
+
+        assertEquals("a?b?c?", new String(outputStream.toByteArray(), StringUtils.UTF8));
+    }
+
+    @Test
+    public void buffersAreReturnedToThePoolTest() throws IOException {
+        ByteBufferPool pool = new ByteBufferPool(4, 10, false);
+        Utf8ByteBufferWriter writer = new Utf8ByteBufferWriter(new ByteArrayOutputStream(), pool);
+
+        // 16 bytes, multi-byte sequences are never split over two buffers, hence this fills exactly four buffers.
+        writer.write("Grüße € 😀");
+        assertEquals(0, pool.getPooledBufferCount());
+
+        // The writer keeps its first buffer and returns the others.
+        writer.flush();
+        assertEquals(3, pool.getPooledBufferCount());
+
+        writer.close();
+        assertEquals(4, pool.getPooledBufferCount());
+    }
+
+    @Test
+    public void releaseKeepsStreamOpenTest() throws IOException {
+        ByteBufferPool pool = new ByteBufferPool(4, 10, false);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Utf8ByteBufferWriter writer = new Utf8ByteBufferWriter(outputStream, pool);
+
+        writer.write("foo");
+        writer.flush();
+        writer.write("bar");
+        writer.release();
+        assertEquals(1, pool.getPooledBufferCount());
+
+        // Pending bytes are discarded, and the stream can be used by a new writer.
+        Utf8ByteBufferWriter newWriter = new Utf8ByteBufferWriter(outputStream, pool);
+        assertEquals(0, pool.getPooledBufferCount());
+        newWriter.write("baz");
+        newWriter.flush();
+        assertEquals("foobaz", new String(outputStream.toByteArray(), StringUtils.UTF8));
+    }
+}
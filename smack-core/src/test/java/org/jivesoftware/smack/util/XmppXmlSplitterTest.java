@@ -0,0 +1,158 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.util.XmppXmlSplitter.XmppElementCallback;
+import org.junit.Test;
+import org.xmlpull.v1.XmlPullParser;
+
+public class XmppXmlSplitterTest {
+
+    private static final String STREAM_OPEN = "<?xml version='1.0'?>"
+                    + "<stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'"
+                    + " id='c2s_123' from='example.com' version='1.0'>";
+
+    private static final String FEATURES = "<stream:features>"
+                    + "<mechanisms xmlns='urn:ietf:params:xml:ns:xmpp-sasl'><mechanism>PLAIN</mechanism></mechanisms>"
+                    + "</stream:features>";
+
+    private static final String MESSAGE = "<message to='juliet@example.com' id='1' type='chat'>"
+                    + "<body><![CDATA[<not-an-element/> & more]]></body>"
+                    + "<message-like><message/></message-like>"
+                    + "</message>";
+
+    private static final String PRESENCE = "<presence id='2'/>";
+
+    private static final String IQ = "<iq type=\"result\" id = \"3\"><query xmlns='jabber:iq:roster'/></iq>";
+
+    private static final String STREAM = STREAM_OPEN + FEATURES + "\n \n" + MESSAGE + ' ' + PRESENCE
+                    + "<!-- comment with <tag> inside -->" + IQ + "</stream:stream>";
+
+    @Test
+    public void splitInOneChunkTest() throws IOException {
+        RecordingCallback callback = new RecordingCallback();
+        XmppXmlSplitter splitter = new XmppXmlSplitter(callback);
+        splitter.write(STREAM);
+        callback.assertStream();
+    }
+
+    @Test
+    public void splitCharByCharTest() throws IOException {
+        RecordingCallback callback = new RecordingCallback();
+        XmppXmlSplitter splitter = new XmppXmlSplitter(callback);
+        for (char c : STREAM.toCharArray()) {
+            splitter.write(c);
+        }
+        callback.assertStream();
+    }
+
+    @Test
+    public void utf8ByteSplitTest() throws IOException {
+        final String body = "Grüße € 😀";
+        final String message = "<message id='4'><body>" + body + "</body></message>";
+        RecordingCallback callback = new RecordingCallback();
+        Utf8ByteXmppXmlSplitter splitter = new Utf8ByteXmppXmlSplitter(callback);
+
+        byte[] bytes = (STREAM_OPEN + message).getBytes(StringUtils.UTF8);
+        // Feed the bytes one by one, which splits every multi-byte sequence.
+        for (int i = 0; i < bytes.length; i++) {
+            splitter.write(bytes, i, 1);
+        }
+
+        assertEquals(1, callback.elements.size());
+        assertEquals(withDefaultNamespace(message, "message"), callback.elements.get(0));
+    }
+
+    @Test
+    public void completeElementsAreParseableTest() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        XmppXmlSplitter splitter = new XmppXmlSplitter(callback);
+        splitter.write(STREAM);
+
+        XmlPullParser parser = PacketParserUtils.getParserFor(callback.elements.get(0));
+        assertEquals("features", parser.getName());
+        assertEquals(XmppXmlSplitter.STREAM_NAMESPACE, parser.getNamespace());
+
+        Stanza stanza = PacketParserUtils.parseStanza(callback.elements.get(1));
+        assertTrue(stanza instanceof Message);
+        Message message = (Message) stanza;
+        assertEquals("<not-an-element/> & more", message.getBody());
+        assertNotNull(message.getExtension("message-like", "jabber:client"));
+    }
+
+    @Test(expected = IOException.class)
+    public void maxElementSizeTest() throws IOException {
+        XmppXmlSplitter splitter = new XmppXmlSplitter(new RecordingCallback());
+        splitter.setMaxElementSize(100);
+        splitter.write(STREAM_OPEN);
+        splitter.write("<message><body>");
+        for (int i = 0; i < 100; i++) {
+            splitter.write('a');
+        }
+    }
+
+    private static String withDefaultNamespace(String element, String name) {
+        return element.replaceFirst('<' + name, '<' + name + " xmlns='jabber:client'");
+    }
+
+    private static class RecordingCallback implements XmppElementCallback {
+        private final List<String> elements = new ArrayList<>();
+        private Map<String, String> streamAttributes;
+        private int streamOpenCount;
+        private int streamClosedCount;
+
+        @Override
+        public void onCompleteElement(String completeElement) {
+            elements.add(completeElement);
+        }
+
+        @Override
+        public void onStreamOpen(String prefix, Map<String, String> attributes) {
+            assertEquals("stream", prefix);
+            streamAttributes = attributes;
+            streamOpenCount++;
+        }
+
+        @Override
+        public void onStreamClosed() {
+            streamClosedCount++;
+        }
+
+        private void assertStream() {
+            assertEquals(1, streamOpenCount);
+            assertEquals("c2s_123", streamAttributes.get("id"));
+            assertEquals(4, elements.size());
+            assertEquals(FEATURES.replace("<stream:features>", "<stream:features xmlns='jabber:client'"
+                            + " xmlns:stream='http://etherx.jabber.org/streams'>"), elements.get(0));
+            assertEquals(withDefaultNamespace(MESSAGE, "message"), elements.get(1));
+            assertEquals(withDefaultNamespace(PRESENCE, "presence"), elements.get(2));
+            assertEquals(withDefaultNamespace(IQ, "iq"), elements.get(3));
+            assertEquals(1, streamClosedCount);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util.stringencoder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+import org.jivesoftware.smack.util.StringUtils;
+import org.junit.Test;
+
+public class Base64CodecTest {
+
+    private static final String[][] VECTORS = new String[][] {
+        { "", "" },
+        { "f", "Zg==" },
+        { "fo", "Zm8=" },
+        { "foo", "Zm9v" },
+        { "foo bar 123", "Zm9vIGJhciAxMjM=" },
+        { "abcdefghijklmnopqrstuvwxyz0123456789\n\t\"?!.@{}[]();',./<>#$%^&*",
+            "YWJjZGVmZ2hpamtsbW5vcHFyc3R1dnd4eXowMTIzNDU2Nzg5CgkiPyEuQHt9W10oKTsnLC4vPD4jJCVeJio=" },
+    };
+
+    @Test
+    public void shouldEncodeInChunks() throws UnsupportedEncodingException {
+        for (String[] vector : VECTORS) {
+            byte[] bytes = vector[0].getBytes(StringUtils.UTF8);
+            assertEquals(vector[1], Base64Codec.encode(bytes, 0, bytes.length).toString());
+            assertEquals(vector[1].length(), Base64Codec.encodedLength(bytes.length));
+
+            // Feed the encoder a single byte at a time, into an output buffer which is too small for most groups.
+            Base64Codec.Encoder encoder = new Base64Codec.Encoder();
+            StringBuilder encoded = new StringBuilder();
+            CharBuffer out = CharBuffer.allocate(5);
+            for (int i = 0; i <= bytes.length; i++) {
+                ByteBuffer in = ByteBuffer.wrap(bytes, i, i < bytes.length ? 1 : 0);
+                while (!encoder.encode(in, out, i == bytes.length)) {
+                    out.flip();
+                    encoded.append(out);
+                    out.clear();
+                }
+            }
+            out.flip();
+            encoded.append(out);
+            assertEquals(vector[1], encoded.toString());
+        }
+    }
+
+    @Test
+    public void encodedViewShouldComputeCharacters() throws UnsupportedEncodingException {
+        byte[] bytes = "xxfoo barxx".getBytes(StringUtils.UTF8);
+        CharSequence view = Base64Codec.encode(bytes, 2, 7);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < view.length(); i++) {
+            sb.append(view.charAt(i));
+        }
+        assertEquals("Zm9vIGJhcg==", sb.toString());
+        assertEquals("Zm9vIGJhcg==", view.toString());
+    }
+
+    @Test
+    public void shouldDecodeIntoSmallBuffers() throws UnsupportedEncodingException {
+        for (String[] vector : VECTORS) {
+            byte[] expected = vector[0].getBytes(StringUtils.UTF8);
+            String encoded = vector[1];
+            assertEquals(expected.length, Base64Codec.decodedLength(encoded));
+
+            Base64Codec.Decoder decoder = new Base64Codec.Decoder();
+            byte[] decoded = new byte[expected.length];
+            int position = 0;
+            for (int i = 0; i < decoded.length; i++) {
+                // Decode into one byte sized buffers, the decoder has to keep the rest of the group.
+                position = decoder.decode(encoded, position, encoded.length(), ByteBuffer.wrap(decoded, i, 1));
+            }
+            assertEquals(encoded.length(), decoder.decode(encoded, position, encoded.length(),
+                            ByteBuffer.allocate(0)));
+            assertFalse(decoder.hasDecodedBytes());
+            decoder.finish();
+            assertArrayEquals(expected, decoded);
+        }
+    }
+
+    @Test
+    public void shouldIgnoreWhitespace() throws UnsupportedEncodingException {
+        String encoded = " Zm9v\nIGJh\r\n ciAx\tMjM= \n";
+        assertEquals(11, Base64Codec.decodedLength(encoded));
+        ByteBuffer out = ByteBuffer.allocate(11);
+        new Base64Codec.Decoder().decode(CharBuffer.wrap(encoded), out);
+        assertEquals("foo bar 123", new String(out.array(), StringUtils.UTF8));
+    }
+
+    @Test
+    public void shouldRejectInvalidData() {
+        String[] invalid = new String[] { "Zm9v{", "Zg=", "Z===", "Zg==Zg==", "BBBB=CCC", "Zm9vI", "=" };
+        for (String encoded : invalid) {
+            assertEquals(encoded, -1, Base64Codec.decodedLength(encoded));
+            Base64Codec.Decoder decoder = new Base64Codec.Decoder();
+            try {
+                decoder.decode(encoded, 0, encoded.length(), ByteBuffer.allocate(16));
+                decoder.finish();
+                fail("Expected IllegalArgumentException for " + encoded);
+            }
+            catch (IllegalArgumentException e) {
+                // Expected.
+            }
+        }
+    }
+}
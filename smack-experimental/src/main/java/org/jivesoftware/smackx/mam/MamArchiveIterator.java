@@ -0,0 +1,310 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.mam;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.SmackConfiguration;
+import org.jivesoftware.smack.SmackException.NoResponseException;
+import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.StanzaListener;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.XMPPException.XMPPErrorException;
+import org.jivesoftware.smack.filter.IQReplyFilter;
+import org.jivesoftware.smack.filter.OrFilter;
+import org.jivesoftware.smack.filter.StanzaFilter;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smackx.forward.packet.Forwarded;
+import org.jivesoftware.smackx.mam.element.MamElements.MamResultExtension;
+import org.jivesoftware.smackx.mam.element.MamFinIQ;
+import org.jivesoftware.smackx.mam.element.MamQueryIQ;
+import org.jivesoftware.smackx.mam.filter.MamResultFilter;
+import org.jivesoftware.smackx.rsm.packet.RSMSet;
+
+/**
+ * Streams the results of a MAM query, page by page.
+ * <p>
+ * Archived messages are handed out as soon as they arrive, instead of after the whole page was received. Once the
+ * {@code fin} of a page arrived, the next page is requested right away, while the current page is still consumed. At
+ * most {@code prefetchPages} pages beyond the page currently consumed are requested, which bounds the amount of
+ * messages held in memory.
+ * </p>
+ * <p>
+ * Like {@link org.jivesoftware.smack.StanzaCollector}, the methods of this class block and report failures as checked
+ * exceptions, which is why this class does not implement {@link java.util.Iterator}. Instances are not thread-safe and
+ * should be consumed by a single thread. Remember to {@link #close()} the iterator if it is not consumed completely.
+ * </p>
+ *
+ * @see MamManager#queryArchiveIterator(String, int, java.util.Date, java.util.Date, org.jxmpp.jid.Jid, java.util.List)
+ * @since 4.3
+ */
+public final class MamArchiveIterator {
+
+    private static final Object END_OF_PAGE = new Object();
+
+    private final MamManager mamManager;
+    private final XMPPConnection connection;
+    private final MamQueryIQ initialQuery;
+    private final int pageSize;
+    private final int prefetchPages;
+
+    /**
+     * The requested pages which are not yet completely consumed. The head is the page currently consumed.
+     */
+    private final Deque<Page> pages = new ArrayDeque<>();
+
+    private Page lastRequestedPage;
+
+    private MamFinIQ lastFin;
+
+    private MamResultExtension next;
+
+    private boolean closed;
+
+    MamArchiveIterator(MamManager mamManager, XMPPConnection connection, MamQueryIQ initialQuery, int pageSize,
+                    int prefetchPages) {
+        this.mamManager = mamManager;
+        this.connection = connection;
+        this.initialQuery = initialQuery;
+        this.pageSize = pageSize;
+        this.prefetchPages = prefetchPages;
+    }
+
+    synchronized void start() throws NotConnectedException, InterruptedException {
+        Page page = new Page(initialQuery);
+        pages.add(page);
+        lastRequestedPage = page;
+        page.send();
+    }
+
+    /**
+     * Returns true if there is another archived message. Blocks until the next message arrived or the archive is
+     * exhausted.
+     *
+     * @return true if {@link #next()} and {@link #nextResult()} will return another message.
+     * @throws NoResponseException if the archive did not respond within the reply timeout.
+     * @throws XMPPErrorException if the archive returned an error.
+     * @throws NotConnectedException
+     * @throws InterruptedException
+     */
+    public boolean hasNext() throws NoResponseException, XMPPErrorException, NotConnectedException,
+                    InterruptedException {
+        if (next != null) {
+            return true;
+        }
+        while (true) {
+            Page page;
+            synchronized (this) {
+                if (closed) {
+                    return false;
+                }
+                page = pages.peek();
+            }
+            if (page == null) {
+                return false;
+            }
+
+            Object result = page.results.poll(connection.getReplyTimeout(), TimeUnit.MILLISECONDS);
+            if (result == null) {
+                close();
+                throw NoResponseException.newWith(connection, page.filter);
+            }
+            if (result != END_OF_PAGE) {
+                next = (MamResultExtension) result;
+                return true;
+            }
+
+            synchronized (this) {
+                pages.poll();
+                if (page.fin != null) {
+                    lastFin = page.fin;
+                }
+            }
+            if (page.failure != null) {
+                close();
+                throwFailure(page.failure);
+            }
+            requestNextPageIfRequired();
+        }
+    }
+
+    /**
+     * Returns the next archived message.
+     *
+     * @return the next archived message.
+     * @throws NoSuchElementException if the archive is exhausted.
+     * @throws NoResponseException if the archive did not respond within the reply timeout.
+     * @throws XMPPErrorException if the archive returned an error.
+     * @throws NotConnectedException
+     * @throws InterruptedException
+     */
+    public Forwarded next() throws NoResponseException, XMPPErrorException, NotConnectedException,
+                    InterruptedException {
+        return nextResult().getForwarded();
+    }
+
+    /**
+     * Returns the next archived message together with its archive ID.
+     *
+     * @return the next MAM result.
+     * @throws NoSuchElementException if the archive is exhausted.
+     * @throws NoResponseException if the archive did not respond within the reply timeout.
+     * @throws XMPPErrorException if the archive returned an error.
+     * @throws NotConnectedException
+     * @throws InterruptedException
+     */
+    public MamResultExtension nextResult() throws NoResponseException, XMPPErrorException, NotConnectedException,
+                    InterruptedException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        MamResultExtension result = next;
+        next = null;
+        return result;
+    }
+
+    /**
+     * Get the {@code fin} of the last completely consumed page. The RSM set of the {@code fin} can be used to resume
+     * the synchronization of the archive at a later point.
+     *
+     * @return the last {@code fin} or <code>null</code>.
+     */
+    public synchronized MamFinIQ getLastFin() {
+        return lastFin;
+    }
+
+    /**
+     * Stop consuming the archive. Results of pages that are still in progress are discarded. May be invoked from a
+     * different thread than the consuming one, in which case {@link #hasNext()} returns false.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Page page : pages) {
+            connection.removeSyncStanzaListener(page);
+            // Wake up a consumer which is waiting for results of this page.
+            page.results.add(END_OF_PAGE);
+        }
+        pages.clear();
+        next = null;
+    }
+
+    private synchronized void requestNextPageIfRequired() {
+        if (closed || lastRequestedPage.fin == null || pages.size() > prefetchPages) {
+            return;
+        }
+        MamFinIQ fin = lastRequestedPage.fin;
+        RSMSet rsmSet = fin.getRSMSet();
+        if (fin.isComplete() || rsmSet == null || rsmSet.getLast() == null) {
+            return;
+        }
+
+        MamQueryIQ query = mamManager.createPageQuery(initialQuery.getNode(), initialQuery.getDataForm(),
+                        new RSMSet(pageSize, rsmSet.getLast(), RSMSet.PageDirection.after));
+        final Page page = new Page(query);
+        pages.add(page);
+        lastRequestedPage = page;
+        // Avoid sending from within the stanza listener of the previous page.
+        SmackConfiguration.getExecutionModel().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    page.send();
+                }
+                catch (NotConnectedException | InterruptedException e) {
+                    page.finish(null, e);
+                }
+            }
+        });
+    }
+
+    private static void throwFailure(Exception failure) throws XMPPErrorException, NotConnectedException,
+                    InterruptedException {
+        if (failure instanceof XMPPErrorException) {
+            throw (XMPPErrorException) failure;
+        }
+        if (failure instanceof NotConnectedException) {
+            throw (NotConnectedException) failure;
+        }
+        if (failure instanceof InterruptedException) {
+            throw (InterruptedException) failure;
+        }
+        throw new IllegalStateException(failure);
+    }
+
+    private final class Page implements StanzaListener {
+        private final MamQueryIQ query;
+        private final StanzaFilter filter;
+        private final BlockingQueue<Object> results = new LinkedBlockingQueue<>();
+        private volatile MamFinIQ fin;
+        private volatile Exception failure;
+
+        private Page(MamQueryIQ query) {
+            this.query = query;
+            filter = new OrFilter(new MamResultFilter(query), new IQReplyFilter(query, connection));
+        }
+
+        private void send() throws NotConnectedException, InterruptedException {
+            connection.addSyncStanzaListener(this, filter);
+            try {
+                connection.sendStanza(query);
+            }
+            catch (NotConnectedException | InterruptedException e) {
+                connection.removeSyncStanzaListener(this);
+                throw e;
+            }
+        }
+
+        @Override
+        public void processStanza(Stanza stanza) {
+            if (stanza instanceof Message) {
+                results.add(MamResultExtension.from((Message) stanza));
+                return;
+            }
+            IQ iq = (IQ) stanza;
+            if (iq.getType() == IQ.Type.error) {
+                finish(null, new XMPPErrorException(iq, iq.getError()));
+            }
+            else if (iq instanceof MamFinIQ) {
+                finish((MamFinIQ) iq, null);
+            }
+            else {
+                // Not a valid response, but there is no way to continue the query without a fin.
+                finish(null, null);
+            }
+        }
+
+        private void finish(MamFinIQ fin, Exception failure) {
+            connection.removeSyncStanzaListener(this);
+            this.fin = fin;
+            this.failure = failure;
+            // Request the next page before the end of this one becomes visible to the consumer, so that the consumer
+            // never sees an empty queue of pages while the archive still has more to offer.
+            requestNextPageIfRequired();
+            results.add(END_OF_PAGE);
+        }
+    }
+}
@@ -16,14 +16,23 @@
  */
 package org.jivesoftware.smackx.mam;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.jivesoftware.smack.AbstractConnectionListener;
 import org.jivesoftware.smack.ConnectionCreationListener;
 import org.jivesoftware.smack.Manager;
 import org.jivesoftware.smack.SmackException.NoResponseException;
@@ -36,10 +45,13 @@ import org.jivesoftware.smack.XMPPException.XMPPErrorException;
 import org.jivesoftware.smack.filter.IQReplyFilter;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.util.Async;
 import org.jivesoftware.smack.util.Objects;
 import org.jivesoftware.smackx.disco.ServiceDiscoveryManager;
 import org.jivesoftware.smackx.forward.packet.Forwarded;
+import org.jivesoftware.smackx.mam.cache.MamArchiveCache;
 import org.jivesoftware.smackx.mam.element.MamElements;
+import org.jivesoftware.smackx.mam.element.MamElements.MamResultExtension;
 import org.jivesoftware.smackx.mam.element.MamFinIQ;
 import org.jivesoftware.smackx.mam.element.MamPrefsIQ;
 import org.jivesoftware.smackx.mam.element.MamPrefsIQ.DefaultBehavior;
@@ -73,6 +85,10 @@ public final class MamManager extends Manager {
         });
     }
 
+    private static final Logger LOGGER = Logger.getLogger(MamManager.class.getName());
+
+    private static final int ARCHIVE_CACHE_SYNC_PAGE_SIZE = 100;
+
     private static final Map<XMPPConnection, Map<Jid, MamManager>> INSTANCES = new WeakHashMap<>();
 
     /**
@@ -101,9 +117,156 @@ public final class MamManager extends Manager {
 
     private final Jid archiveAddress;
 
+    private final Object archiveCacheSyncLock = new Object();
+
+    private volatile MamArchiveCache archiveCache;
+
     private MamManager(XMPPConnection connection, Jid archiveAddress) {
         super(connection);
         this.archiveAddress = archiveAddress;
+
+        connection.addConnectionListener(new AbstractConnectionListener() {
+            @Override
+            public void authenticated(XMPPConnection connection, boolean resumed) {
+                if (resumed || archiveCache == null) {
+                    return;
+                }
+                // The synchronization may page through the archive for a long time, hence use a dedicated thread.
+                Async.go(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            synchronizeArchiveCache();
+                        }
+                        catch (Exception e) {
+                            LOGGER.log(Level.WARNING, "Could not synchronize MAM archive cache", e);
+                        }
+                    }
+                }, "MAM Archive Cache Synchronization (" + connection.getConnectionCounter() + ')');
+            }
+        });
+    }
+
+    /**
+     * Set the local cache of this archive. Once set, the cache is synchronized with the archive every time the
+     * connection authenticates, requesting only the messages after the last cached one. An empty cache is initialized
+     * with the most recent page of the archive, older messages can be queried with
+     * {@link #pageBefore(Jid, String, int)}.
+     *
+     * @param archiveCache the cache, or <code>null</code> to disable caching.
+     * @since 4.3
+     */
+    public void setArchiveCache(MamArchiveCache archiveCache) {
+        this.archiveCache = archiveCache;
+    }
+
+    /**
+     * Get the local cache of this archive.
+     *
+     * @return the cache or <code>null</code>.
+     * @since 4.3
+     */
+    public MamArchiveCache getArchiveCache() {
+        return archiveCache;
+    }
+
+    /**
+     * Synchronize the local cache with the archive by requesting all messages after the last cached message. If the
+     * cache is empty, only the most recent page of the archive is requested.
+     *
+     * @return the number of new messages.
+     * @throws NoResponseException
+     * @throws XMPPErrorException
+     * @throws NotConnectedException
+     * @throws InterruptedException
+     * @throws NotLoggedInException
+     * @throws IOException if the cache could not be updated.
+     * @since 4.3
+     */
+    public int synchronizeArchiveCache() throws NoResponseException, XMPPErrorException, NotConnectedException,
+                    InterruptedException, NotLoggedInException, IOException {
+        return synchronizeArchiveCache(ARCHIVE_CACHE_SYNC_PAGE_SIZE);
+    }
+
+    /**
+     * Synchronize the local cache with the archive by requesting all messages after the last cached message. If the
+     * cache is empty, only the most recent page of the archive is requested.
+     *
+     * @param pageSize the maximum amount of messages per page.
+     * @return the number of new messages.
+     * @throws NoResponseException
+     * @throws XMPPErrorException
+     * @throws NotConnectedException
+     * @throws InterruptedException
+     * @throws NotLoggedInException
+     * @throws IOException if the cache could not be updated.
+     * @since 4.3
+     */
+    public int synchronizeArchiveCache(int pageSize) throws NoResponseException, XMPPErrorException,
+                    NotConnectedException, InterruptedException, NotLoggedInException, IOException {
+        final MamArchiveCache archiveCache = this.archiveCache;
+        if (archiveCache == null) {
+            throw new IllegalStateException("No archive cache set");
+        }
+        final XMPPConnection connection = getAuthenticatedConnectionOrThrow();
+        final Jid archive = getArchiveJid(connection);
+
+        synchronized (archiveCacheSyncLock) {
+            String lastId = archiveCache.getLastId(archive);
+            // Do not download the whole archive into an empty cache, start with the most recent page instead.
+            RSMSet rsmSet = lastId == null ? new RSMSet(pageSize, "", RSMSet.PageDirection.before)
+                            : new RSMSet(pageSize, lastId, RSMSet.PageDirection.after);
+            MamArchiveIterator iterator = queryArchiveIterator(connection, null, getNewMamForm(), rsmSet, pageSize);
+            int count = 0;
+            List<MamResultExtension> results = new ArrayList<>(pageSize);
+            try {
+                while (iterator.hasNext()) {
+                    results.add(iterator.nextResult());
+                    if (results.size() == pageSize) {
+                        archiveCache.addResults(archive, results);
+                        count += results.size();
+                        results.clear();
+                    }
+                }
+                if (!results.isEmpty()) {
+                    archiveCache.addResults(archive, results);
+                    count += results.size();
+                }
+            }
+            finally {
+                iterator.close();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Get the most recent messages exchanged with the given JID from the local cache of this archive. No request is
+     * send to the archive.
+     *
+     * @param chatJid the bare JID the messages were exchanged with, or <code>null</code> for all messages.
+     * @param beforeId only return messages before the message with this archive ID, may be <code>null</code>.
+     * @param max the maximum number of messages.
+     * @return the cached messages in chronological order.
+     * @throws NotLoggedInException
+     * @throws IOException if the cache could not be read.
+     * @since 4.3
+     */
+    public List<Forwarded> getCachedMessages(Jid chatJid, String beforeId, int max)
+                    throws NotLoggedInException, IOException {
+        final MamArchiveCache archiveCache = this.archiveCache;
+        if (archiveCache == null) {
+            throw new IllegalStateException("No archive cache set");
+        }
+        Jid archive = getArchiveJid(getAuthenticatedConnectionOrThrow());
+        return archiveCache.getMessages(archive, chatJid, beforeId, max);
+    }
+
+    private Jid getArchiveJid(XMPPConnection connection) {
+        if (archiveAddress != null) {
+            return archiveAddress;
+        }
+        return connection.getUser().asBareJid();
     }
 
     /**
@@ -273,6 +436,229 @@ public final class MamManager extends Manager {
         return queryArchive(mamQueryIQ);
     }
 
+    /**
+     * Query an archive and stream the results. Contrary to {@link #queryArchive(String, Integer, Date, Date, Jid, List)},
+     * this method returns as soon as the query was send. The returned iterator delivers the archived messages as they
+     * arrive and automatically requests the following pages of the archive. While a page is consumed, the next page is
+     * already requested.
+     *
+     * @param node The Pubsub node name, can be null
+     * @param pageSize the maximum amount of messages per page.
+     * @param start
+     * @param end
+     * @param withJid
+     * @param additionalFields
+     * @return an iterator over the archived messages.
+     * @throws NotConnectedException
+     * @throws InterruptedException
+     * @throws NotLoggedInException
+     * @since 4.3
+     */
+    public MamArchiveIterator queryArchiveIterator(String node, int pageSize, Date start, Date end, Jid withJid,
+                    List<FormField> additionalFields)
+                    throws NotConnectedException, InterruptedException, NotLoggedInException {
+        final XMPPConnection connection = getAuthenticatedConnectionOrThrow();
+        DataForm dataForm = getNewMamForm();
+        addStart(start, dataForm);
+        addEnd(end, dataForm);
+        addWithJid(withJid, dataForm);
+        addAdditionalFields(additionalFields, dataForm);
+
+        return queryArchiveIterator(connection, node, dataForm, new RSMSet(pageSize), pageSize);
+    }
+
+    private MamArchiveIterator queryArchiveIterator(XMPPConnection connection, String node, DataForm dataForm,
+                    RSMSet rsmSet, int pageSize) throws NotConnectedException, InterruptedException {
+        MamQueryIQ mamQueryIQ = createPageQuery(node, dataForm, rsmSet);
+        MamArchiveIterator iterator = new MamArchiveIterator(this, connection, mamQueryIQ, pageSize, 1);
+        iterator.start();
+        return iterator;
+    }
+
+    /**
+     * Synchronize the given date range of an archive by splitting it into sub-ranges which are queried concurrently.
+     * This method blocks until all messages of the range were delivered to the listener or one of the queries failed.
+     * <p>
+     * The listener is invoked concurrently from multiple threads, one dedicated thread per concurrently queried
+     * sub-range. Messages of the same sub-range are delivered in order, but there is no order between messages of
+     * different sub-ranges.
+     * </p>
+     *
+     * @param node The Pubsub node name, can be null
+     * @param start the start of the range (inclusive).
+     * @param end the end of the range (inclusive).
+     * @param withJid
+     * @param subRanges the number of sub-ranges the range is split into.
+     * @param maxConcurrentQueries the maximum number of sub-ranges that are queried at the same time.
+     * @param pageSize the maximum amount of messages per page.
+     * @param listener the listener receiving the archived messages.
+     * @throws NoResponseException
+     * @throws XMPPErrorException
+     * @throws NotConnectedException
+     * @throws InterruptedException
+     * @throws NotLoggedInException
+     * @since 4.3
+     */
+    public void syncArchive(String node, Date start, Date end, Jid withJid, int subRanges, int maxConcurrentQueries,
+                    int pageSize, ArchivedMessageListener listener) throws NoResponseException, XMPPErrorException,
+                    NotConnectedException, InterruptedException, NotLoggedInException {
+        if (subRanges < 1 || maxConcurrentQueries < 1) {
+            throw new IllegalArgumentException("subRanges and maxConcurrentQueries must be positive");
+        }
+        final long startMillis = start.getTime();
+        final long span = end.getTime() - startMillis + 1;
+        if (span < 1) {
+            throw new IllegalArgumentException("The end of the range must not be before its start");
+        }
+        getAuthenticatedConnectionOrThrow();
+
+        int rangeCount = (int) Math.min(subRanges, span);
+        Queue<Date[]> ranges = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < rangeCount; i++) {
+            // MAM ranges are inclusive, hence the end of a sub-range is one millisecond before the start of the next.
+            Date rangeStart = new Date(startMillis + span * i / rangeCount);
+            Date rangeEnd = new Date(startMillis + span * (i + 1) / rangeCount - 1);
+            ranges.add(new Date[] { rangeStart, rangeEnd });
+        }
+
+        ArchiveRangeSync sync = new ArchiveRangeSync(node, withJid, pageSize, ranges, listener,
+                        Math.min(rangeCount, maxConcurrentQueries));
+        sync.run();
+    }
+
+    /**
+     * A listener for archived messages.
+     *
+     * @see MamManager#syncArchive(String, Date, Date, Jid, int, int, int, ArchivedMessageListener)
+     * @since 4.3
+     */
+    public interface ArchivedMessageListener {
+
+        /**
+         * Process an archived message.
+         *
+         * @param forwarded the archived message.
+         */
+        void processArchivedMessage(Forwarded forwarded);
+    }
+
+    private final class ArchiveRangeSync {
+        private final String node;
+        private final Jid withJid;
+        private final int pageSize;
+        private final Queue<Date[]> ranges;
+        private final ArchivedMessageListener listener;
+        private final CountDownLatch workersDone;
+        private final Set<MamArchiveIterator> activeIterators = new HashSet<>();
+        private Exception failure;
+
+        private ArchiveRangeSync(String node, Jid withJid, int pageSize, Queue<Date[]> ranges,
+                        ArchivedMessageListener listener, int workerCount) {
+            this.node = node;
+            this.withJid = withJid;
+            this.pageSize = pageSize;
+            this.ranges = ranges;
+            this.listener = listener;
+            this.workersDone = new CountDownLatch(workerCount);
+        }
+
+        private void run() throws NoResponseException, XMPPErrorException, NotConnectedException,
+                        InterruptedException, NotLoggedInException {
+            // The workers block while waiting for the next page, hence they get dedicated threads instead of
+            // occupying the threads of the shared executor, which are needed to send and process the pages.
+            Runnable worker = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        syncRanges();
+                    }
+                    catch (Exception e) {
+                        fail(e);
+                    }
+                    finally {
+                        workersDone.countDown();
+                    }
+                }
+            };
+            for (long i = workersDone.getCount(); i > 0; i--) {
+                Async.go(worker, "MAM Archive Sync (" + connection().getConnectionCounter() + ')');
+            }
+
+            try {
+                workersDone.await();
+            }
+            catch (InterruptedException e) {
+                fail(e);
+                throw e;
+            }
+
+            Exception failure;
+            synchronized (this) {
+                failure = this.failure;
+            }
+            if (failure == null) {
+                return;
+            }
+            if (failure instanceof NoResponseException) {
+                throw (NoResponseException) failure;
+            }
+            if (failure instanceof XMPPErrorException) {
+                throw (XMPPErrorException) failure;
+            }
+            if (failure instanceof NotConnectedException) {
+                throw (NotConnectedException) failure;
+            }
+            if (failure instanceof InterruptedException) {
+                throw (InterruptedException) failure;
+            }
+            if (failure instanceof NotLoggedInException) {
+                throw (NotLoggedInException) failure;
+            }
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            throw new IllegalStateException(failure);
+        }
+
+        private void syncRanges() throws NoResponseException, XMPPErrorException, NotConnectedException,
+                        InterruptedException, NotLoggedInException {
+            Date[] range;
+            while ((range = ranges.poll()) != null) {
+                MamArchiveIterator iterator = queryArchiveIterator(node, pageSize, range[0], range[1], withJid, null);
+                synchronized (this) {
+                    if (failure != null) {
+                        iterator.close();
+                        return;
+                    }
+                    activeIterators.add(iterator);
+                }
+                try {
+                    while (iterator.hasNext()) {
+                        listener.processArchivedMessage(iterator.next());
+                    }
+                }
+                finally {
+                    synchronized (this) {
+                        activeIterators.remove(iterator);
+                    }
+                    iterator.close();
+                }
+            }
+        }
+
+        private void fail(Exception e) {
+            synchronized (this) {
+                if (failure == null) {
+                    failure = e;
+                }
+                ranges.clear();
+                for (MamArchiveIterator iterator : activeIterators) {
+                    iterator.close();
+                }
+            }
+        }
+    }
+
     private static void addAdditionalFields(List<FormField> additionalFields, DataForm dataForm) {
         if (additionalFields == null) {
             return;
@@ -353,11 +739,15 @@ public final class MamManager extends Manager {
     public MamQueryResult page(String node, DataForm dataForm, RSMSet rsmSet)
                     throws NoResponseException, XMPPErrorException,
             NotConnectedException, InterruptedException, NotLoggedInException {
+        return queryArchive(createPageQuery(node, dataForm, rsmSet));
+    }
+
+    MamQueryIQ createPageQuery(String node, DataForm dataForm, RSMSet rsmSet) {
         MamQueryIQ mamQueryIQ = new MamQueryIQ(UUID.randomUUID().toString(), node, dataForm);
         mamQueryIQ.setType(IQ.Type.set);
         mamQueryIQ.setTo(archiveAddress);
         mamQueryIQ.addExtension(rsmSet);
-        return queryArchive(mamQueryIQ);
+        return mamQueryIQ;
     }
 
     /**
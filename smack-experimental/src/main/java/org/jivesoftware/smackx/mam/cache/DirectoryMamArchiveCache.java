@@ -0,0 +1,323 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.mam.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smack.util.StringUtils;
+import org.jivesoftware.smack.util.stringencoder.Base32;
+import org.jivesoftware.smack.util.stringencoder.StringEncoder;
+import org.jivesoftware.smackx.forward.packet.Forwarded;
+import org.jivesoftware.smackx.forward.provider.ForwardedProvider;
+import org.jivesoftware.smackx.mam.element.MamElements.MamResultExtension;
+import org.jxmpp.jid.Jid;
+
+/**
+ * A MAM archive cache which uses a directory to store the archived messages. Every archive is represented by an
+ * append-only file.
+ * <p>
+ * Each record of an archive file consists of the length of the payload, the payload and a CRC32 checksum of the
+ * payload. The payload contains the archive ID of the message, the bare JID the message was exchanged with and the
+ * XML of the forwarded message. Records which where only partially written, e.g. because the process was killed, are
+ * discarded when the archive file is opened. Only the file offsets of the records are kept in memory.
+ * </p>
+ *
+ * @since 4.3
+ */
+public class DirectoryMamArchiveCache implements MamArchiveCache {
+
+    private static final Logger LOGGER = Logger.getLogger(DirectoryMamArchiveCache.class.getName());
+
+    private final File cacheDir;
+    private final StringEncoder filenameEncoder;
+    private final Map<Jid, ArchiveFile> archives = new HashMap<>();
+
+    /**
+     * Creates a new DirectoryMamArchiveCache. Make sure that the cacheDir exists and that it's an directory.
+     *
+     * @param cacheDir The directory where the archives will be stored.
+     */
+    public DirectoryMamArchiveCache(File cacheDir) {
+        this(cacheDir, Base32.getStringEncoder());
+    }
+
+    /**
+     * Creates a new DirectoryMamArchiveCache. Make sure that the cacheDir exists and that it's an directory.
+     * <p>
+     * If your cacheDir is case insensitive then make sure to set the StringEncoder to {@link Base32} (which is the
+     * default).
+     * </p>
+     *
+     * @param cacheDir The directory where the archives will be stored.
+     * @param filenameEncoder Encodes the archive address into a filename.
+     */
+    public DirectoryMamArchiveCache(File cacheDir, StringEncoder filenameEncoder) {
+        if (!cacheDir.exists())
+            throw new IllegalStateException("Cache directory \"" + cacheDir + "\" does not exist");
+        if (!cacheDir.isDirectory())
+            throw new IllegalStateException("Cache directory \"" + cacheDir + "\" is not a directory");
+
+        this.cacheDir = cacheDir;
+        this.filenameEncoder = filenameEncoder;
+    }
+
+    @Override
+    public synchronized void addResults(Jid archive, List<MamResultExtension> results) throws IOException {
+        getArchiveFile(archive).append(archive, results);
+    }
+
+    @Override
+    public synchronized String getLastId(Jid archive) throws IOException {
+        return getArchiveFile(archive).lastId;
+    }
+
+    @Override
+    public synchronized List<Forwarded> getMessages(Jid archive, Jid with, String beforeId, int max)
+                    throws IOException {
+        return getArchiveFile(archive).read(with != null ? with.asBareJid().toString() : null, beforeId, max);
+    }
+
+    @Override
+    public synchronized void clear(Jid archive) throws IOException {
+        ArchiveFile archiveFile = getArchiveFile(archive);
+        if (archiveFile.file.exists() && !archiveFile.file.delete()) {
+            throw new IOException("Could not delete " + archiveFile.file);
+        }
+        archives.remove(archive);
+    }
+
+    private ArchiveFile getArchiveFile(Jid archive) throws IOException {
+        ArchiveFile archiveFile = archives.get(archive);
+        if (archiveFile == null) {
+            archiveFile = new ArchiveFile(new File(cacheDir, filenameEncoder.encode(archive.toString())));
+            archives.put(archive, archiveFile);
+        }
+        if (!archiveFile.loaded) {
+            archiveFile.load();
+        }
+        return archiveFile;
+    }
+
+    private static final class ArchiveFile {
+        private final File file;
+        private boolean loaded;
+        private long[] offsets;
+        private int count;
+        private long length;
+        private String lastId;
+
+        private ArchiveFile(File file) {
+            this.file = file;
+        }
+
+        private void load() throws IOException {
+            offsets = new long[64];
+            count = 0;
+            length = 0;
+            lastId = null;
+            if (file.exists()) {
+                long fileLength = file.length();
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                try {
+                    while (true) {
+                        byte[] payload;
+                        try {
+                            payload = readRecord(in, fileLength - length - 8);
+                        }
+                        catch (EOFException e) {
+                            break;
+                        }
+                        if (payload == null) {
+                            break;
+                        }
+                        DataInputStream payloadIn = new DataInputStream(new ByteArrayInputStream(payload));
+                        lastId = payloadIn.readUTF();
+                        addOffset(length);
+                        length += 8 + payload.length;
+                    }
+                }
+                finally {
+                    in.close();
+                }
+                if (length < file.length()) {
+                    LOGGER.log(Level.WARNING, "Discarding incomplete records at the end of " + file);
+                    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                    try {
+                        raf.setLength(length);
+                    }
+                    finally {
+                        raf.close();
+                    }
+                }
+            }
+            loaded = true;
+        }
+
+        private void append(Jid archive, List<MamResultExtension> results) throws IOException {
+            String archiveString = archive.asBareJid().toString();
+            List<Long> newOffsets = new ArrayList<>(results.size());
+            long newLength = length;
+            String newLastId = lastId;
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            DataOutputStream payloadOut = new DataOutputStream(payload);
+            CRC32 crc = new CRC32();
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+            try {
+                for (MamResultExtension result : results) {
+                    String id = result.getId();
+                    if (id == null || id.equals(newLastId)) {
+                        continue;
+                    }
+                    Forwarded forwarded = result.getForwarded();
+                    payload.reset();
+                    payloadOut.writeUTF(id);
+                    payloadOut.writeUTF(getWith(archiveString, forwarded));
+                    payloadOut.write(forwarded.toXML().toString().getBytes(StringUtils.UTF8));
+                    crc.reset();
+                    crc.update(payload.toByteArray(), 0, payload.size());
+
+                    out.writeInt(payload.size());
+                    payload.writeTo(out);
+                    out.writeInt((int) crc.getValue());
+
+                    newOffsets.add(newLength);
+                    newLength += 8 + payload.size();
+                    newLastId = id;
+                }
+            }
+            catch (IOException e) {
+                // The file may now end with a partial record, which will be discarded by the next load.
+                loaded = false;
+                throw e;
+            }
+            finally {
+                out.close();
+            }
+
+            for (Long offset : newOffsets) {
+                addOffset(offset);
+            }
+            length = newLength;
+            lastId = newLastId;
+        }
+
+        private List<Forwarded> read(String with, String beforeId, int max) throws IOException {
+            List<Forwarded> messages = new ArrayList<>(Math.min(max, count));
+            if (count == 0 || max <= 0) {
+                return messages;
+            }
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                boolean beforeIdFound = beforeId == null;
+                for (int i = count - 1; i >= 0 && messages.size() < max; i--) {
+                    raf.seek(offsets[i]);
+                    int payloadLength = raf.readInt();
+                    String id = raf.readUTF();
+                    if (!beforeIdFound) {
+                        beforeIdFound = id.equals(beforeId);
+                        continue;
+                    }
+                    String recordWith = raf.readUTF();
+                    if (with != null && !with.equals(recordWith)) {
+                        continue;
+                    }
+                    int xmlLength = payloadLength - (int) (raf.getFilePointer() - offsets[i] - 4);
+                    byte[] xml = new byte[xmlLength];
+                    raf.readFully(xml);
+                    messages.add(parseForwarded(new String(xml, StringUtils.UTF8)));
+                }
+            }
+            finally {
+                raf.close();
+            }
+            Collections.reverse(messages);
+            return messages;
+        }
+
+        private void addOffset(long offset) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = offset;
+        }
+
+        /**
+         * Read the next record.
+         *
+         * @return the payload of the record or <code>null</code> if the record is corrupted.
+         */
+        private static byte[] readRecord(DataInputStream in, long maxPayloadLength) throws IOException {
+            int payloadLength = in.readInt();
+            if (payloadLength < 0 || payloadLength > maxPayloadLength) {
+                return null;
+            }
+            byte[] payload = new byte[payloadLength];
+            in.readFully(payload);
+            int checksum = in.readInt();
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, payload.length);
+            if ((int) crc.getValue() != checksum) {
+                return null;
+            }
+            return payload;
+        }
+
+        private static String getWith(String archive, Forwarded forwarded) {
+            Jid from = forwarded.getForwardedStanza().getFrom();
+            Jid to = forwarded.getForwardedStanza().getTo();
+            Jid with = from;
+            if (from == null || archive.equals(from.asBareJid().toString())) {
+                with = to;
+            }
+            if (with == null) {
+                return "";
+            }
+            return with.asBareJid().toString();
+        }
+
+        private static Forwarded parseForwarded(String xml) throws IOException {
+            try {
+                return ForwardedProvider.INSTANCE.parse(PacketParserUtils.getParserFor(xml));
+            }
+            catch (Exception e) {
+                throw new IOException("Could not parse cached message", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.mam.cache;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.jivesoftware.smackx.forward.packet.Forwarded;
+import org.jivesoftware.smackx.mam.element.MamElements.MamResultExtension;
+import org.jxmpp.jid.Jid;
+
+/**
+ * A local copy of MAM archives. The cache stores the archived messages in the order they were received from the
+ * archive and remembers the ID of the last archived message, so that only newer messages need to be requested from
+ * the archive.
+ *
+ * @see org.jivesoftware.smackx.mam.MamManager#setArchiveCache(MamArchiveCache)
+ * @since 4.3
+ */
+public interface MamArchiveCache {
+
+    /**
+     * Append the given results to the cached archive. Results are expected in chronological order.
+     *
+     * @param archive the address of the archive.
+     * @param results the results received from the archive.
+     * @throws IOException
+     */
+    void addResults(Jid archive, List<MamResultExtension> results) throws IOException;
+
+    /**
+     * Get the ID of the last message of the cached archive.
+     *
+     * @param archive the address of the archive.
+     * @return the ID of the last cached message or <code>null</code> if nothing was cached yet.
+     * @throws IOException
+     */
+    String getLastId(Jid archive) throws IOException;
+
+    /**
+     * Get the most recent messages of the cached archive.
+     *
+     * @param archive the address of the archive.
+     * @param with only return messages exchanged with this bare JID, may be <code>null</code>.
+     * @param beforeId only return messages before the message with this ID, may be <code>null</code>.
+     * @param max the maximum number of messages to return.
+     * @return the messages in chronological order.
+     * @throws IOException
+     */
+    List<Forwarded> getMessages(Jid archive, Jid with, String beforeId, int max) throws IOException;
+
+    /**
+     * Remove all cached messages of the given archive.
+     *
+     * @param archive the address of the archive.
+     * @throws IOException
+     */
+    void clear(Jid archive) throws IOException;
+}
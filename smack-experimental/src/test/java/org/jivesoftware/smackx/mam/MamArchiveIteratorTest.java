@@ -0,0 +1,241 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.mam;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.jivesoftware.smack.DummyConnection;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smackx.InitExtensions;
+import org.jivesoftware.smackx.forward.packet.Forwarded;
+import org.jivesoftware.smackx.mam.MamManager.ArchivedMessageListener;
+import org.jivesoftware.smackx.mam.cache.DirectoryMamArchiveCache;
+import org.jivesoftware.smackx.mam.cache.MamArchiveCache;
+import org.jivesoftware.smackx.mam.element.MamElements.MamResultExtension;
+import org.jivesoftware.smackx.mam.element.MamFinIQ;
+import org.jivesoftware.smackx.mam.element.MamQueryIQ;
+import org.jivesoftware.smackx.rsm.packet.RSMSet;
+import org.jivesoftware.smackx.xdata.FormField;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MamArchiveIteratorTest extends InitExtensions {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private DummyConnection connection;
+    private MamManager mamManager;
+
+    @Before
+    public void setUp() {
+        connection = DummyConnection.newConnectedDummyConnection();
+        mamManager = MamManager.getInstanceFor(connection);
+    }
+
+    @Test
+    public void shouldStreamResultsAndPrefetchNextPage() throws Exception {
+        MamArchiveIterator iterator = mamManager.queryArchiveIterator(null, 2, null, null, null, null);
+
+        MamQueryIQ firstQuery = connection.getSentPacket(5);
+        assertEquals(2, RSMSet.from(firstQuery).getMax());
+        sendResult(firstQuery, "1");
+        // The first message is available before the page is complete.
+        assertTrue(iterator.hasNext());
+        assertEquals("1", iterator.next().getForwardedStanza().getStanzaId());
+        assertNull(connection.getSentPacket(0));
+
+        sendResult(firstQuery, "2");
+        sendFin(firstQuery, "2", false);
+        // The next page is requested while the current one is consumed.
+        MamQueryIQ secondQuery = connection.getSentPacket(5);
+        assertNotNull(secondQuery);
+        assertEquals("2", RSMSet.from(secondQuery).getAfter());
+
+        sendResult(secondQuery, "3");
+        sendFin(secondQuery, "3", true);
+
+        List<String> ids = new ArrayList<>();
+        while (iterator.hasNext()) {
+            ids.add(iterator.next().getForwardedStanza().getStanzaId());
+        }
+        assertEquals(2, ids.size());
+        assertEquals("2", ids.get(0));
+        assertEquals("3", ids.get(1));
+        assertEquals("3", iterator.getLastFin().getRSMSet().getLast());
+        // The archive is complete, no further page is requested.
+        assertNull(connection.getSentPacket(0));
+    }
+
+    @Test
+    public void shouldSyncSubRangesConcurrently() throws Exception {
+        final List<Exception> exceptions = new CopyOnWriteArrayList<>();
+        final List<String> ids = new CopyOnWriteArrayList<>();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    mamManager.syncArchive(null, new Date(0), new Date(999), null, 2, 2, 10,
+                                    new ArchivedMessageListener() {
+                        @Override
+                        public void processArchivedMessage(Forwarded forwarded) {
+                            ids.add(forwarded.getForwardedStanza().getStanzaId());
+                        }
+                    });
+                }
+                catch (Exception e) {
+                    exceptions.add(e);
+                }
+            }
+        };
+        thread.start();
+
+        // Both sub-ranges are queried before the first one was answered.
+        List<MamQueryIQ> queries = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            MamQueryIQ query = connection.getSentPacket(5);
+            assertNotNull(query);
+            queries.add(query);
+        }
+        List<String> starts = new ArrayList<>();
+        for (MamQueryIQ query : queries) {
+            starts.add(getFieldValue(query, "start"));
+        }
+        Collections.sort(starts);
+        assertEquals("1970-01-01T00:00:00.000+00:00", starts.get(0));
+        assertEquals("1970-01-01T00:00:00.500+00:00", starts.get(1));
+
+        for (MamQueryIQ query : queries) {
+            sendResult(query, getFieldValue(query, "end"));
+            sendFin(query, null, true);
+        }
+        thread.join();
+
+        assertTrue(exceptions.isEmpty());
+        assertEquals(2, ids.size());
+        assertTrue(ids.contains("1970-01-01T00:00:00.499+00:00"));
+        assertTrue(ids.contains("1970-01-01T00:00:00.999+00:00"));
+        assertFalse(thread.isAlive());
+    }
+
+    @Test
+    public void shouldSynchronizeArchiveCacheAfterLastCachedMessage() throws Exception {
+        MamArchiveCache cache = new DirectoryMamArchiveCache(tmpFolder.getRoot());
+        Message cachedMessage = new Message();
+        cachedMessage.setStanzaId("1");
+        cache.addResults(connection.getUser().asBareJid(),
+                        Collections.singletonList(new MamResultExtension("old", "1", new Forwarded(cachedMessage))));
+        mamManager.setArchiveCache(cache);
+
+        final List<Object> syncResults = new CopyOnWriteArrayList<>();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    syncResults.add(mamManager.synchronizeArchiveCache());
+                }
+                catch (Exception e) {
+                    syncResults.add(e);
+                }
+            }
+        };
+        thread.start();
+
+        MamQueryIQ query = connection.getSentPacket(5);
+        // Only messages after the last cached one are requested.
+        assertEquals("1", RSMSet.from(query).getAfter());
+        sendResult(query, "2");
+        sendResult(query, "3");
+        sendFin(query, "3", true);
+        thread.join();
+
+        assertEquals(Collections.<Object>singletonList(2), syncResults);
+        List<String> ids = new ArrayList<>();
+        for (Forwarded forwarded : mamManager.getCachedMessages(null, null, 10)) {
+            ids.add(forwarded.getForwardedStanza().getStanzaId());
+        }
+        assertEquals(3, ids.size());
+        assertEquals("1", ids.get(0));
+        assertEquals("3", ids.get(2));
+    }
+
+    @Test
+    public void shouldSynchronizeEmptyArchiveCacheWithMostRecentPage() throws Exception {
+        mamManager.setArchiveCache(new DirectoryMamArchiveCache(tmpFolder.getRoot()));
+
+        final List<Object> syncResults = new CopyOnWriteArrayList<>();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    syncResults.add(mamManager.synchronizeArchiveCache(2));
+                }
+                catch (Exception e) {
+                    syncResults.add(e);
+                }
+            }
+        };
+        thread.start();
+
+        MamQueryIQ query = connection.getSentPacket(5);
+        // Only the most recent page is requested, not the whole archive.
+        RSMSet rsmSet = RSMSet.from(query);
+        assertEquals("", rsmSet.getBefore());
+        assertEquals(2, rsmSet.getMax());
+        sendResult(query, "8");
+        sendResult(query, "9");
+        sendFin(query, "9", true);
+        thread.join();
+
+        assertEquals(Collections.<Object>singletonList(2), syncResults);
+        assertEquals(2, mamManager.getCachedMessages(null, null, 10).size());
+    }
+
+    private void sendResult(MamQueryIQ query, String id) {
+        Message archivedMessage = new Message();
+        archivedMessage.setStanzaId(id);
+        Message resultMessage = new Message();
+        resultMessage.addExtension(new MamResultExtension(query.getQueryId(), id, new Forwarded(archivedMessage)));
+        connection.processStanza(resultMessage);
+    }
+
+    private void sendFin(MamQueryIQ query, String last, boolean complete) {
+        RSMSet rsmSet = new RSMSet(null, null, -1, -1, last, -1, null, -1);
+        MamFinIQ fin = new MamFinIQ(query.getQueryId(), rsmSet, complete, true);
+        fin.setType(IQ.Type.result);
+        fin.setStanzaId(query.getStanzaId());
+        connection.processStanza(fin);
+    }
+
+    private static String getFieldValue(MamQueryIQ query, String var) {
+        FormField field = query.getDataForm().getField(var);
+        return field.getValues().get(0);
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.mam.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smackx.InitExtensions;
+import org.jivesoftware.smackx.forward.packet.Forwarded;
+import org.jivesoftware.smackx.mam.element.MamElements.MamResultExtension;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jxmpp.jid.Jid;
+import org.jxmpp.jid.impl.JidCreate;
+
+public class DirectoryMamArchiveCacheTest extends InitExtensions {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private Jid archive;
+
+    @Before
+    public void setUp() throws Exception {
+        archive = JidCreate.from("juliet@example.org");
+    }
+
+    @Test
+    public void shouldRestoreMessagesAfterReopening() throws Exception {
+        File dir = tmpFolder.getRoot();
+        MamArchiveCache cache = new DirectoryMamArchiveCache(dir);
+        assertNull(cache.getLastId(archive));
+        List<MamResultExtension> results = new ArrayList<>();
+        results.add(createResult("1", "romeo@example.org", "juliet@example.org"));
+        results.add(createResult("2", "juliet@example.org/balcony", "romeo@example.org"));
+        results.add(createResult("3", "nurse@example.org", "juliet@example.org"));
+        cache.addResults(archive, results);
+        // Results already cached are skipped.
+        cache.addResults(archive, results.subList(2, 3));
+
+        cache = new DirectoryMamArchiveCache(dir);
+        assertEquals("3", cache.getLastId(archive));
+        assertEquals(ids("1", "2", "3"), ids(cache.getMessages(archive, null, null, 10)));
+        assertEquals(ids("2", "3"), ids(cache.getMessages(archive, null, null, 2)));
+        assertEquals(ids("1", "2"), ids(cache.getMessages(archive, JidCreate.from("romeo@example.org"), null, 10)));
+        assertEquals(ids("1"), ids(cache.getMessages(archive, JidCreate.from("romeo@example.org"), "2", 10)));
+        assertTrue(cache.getMessages(JidCreate.from("romeo@example.org"), null, null, 10).isEmpty());
+
+        cache.clear(archive);
+        assertNull(cache.getLastId(archive));
+        assertNull(new DirectoryMamArchiveCache(dir).getLastId(archive));
+    }
+
+    @Test
+    public void shouldDiscardIncompleteRecords() throws Exception {
+        File dir = tmpFolder.getRoot();
+        MamArchiveCache cache = new DirectoryMamArchiveCache(dir);
+        List<MamResultExtension> results = new ArrayList<>();
+        results.add(createResult("1", "romeo@example.org", "juliet@example.org"));
+        cache.addResults(archive, results);
+
+        File[] files = dir.listFiles();
+        assertEquals(1, files.length);
+        long validLength = files[0].length();
+        // Simulate a record which was only partially written.
+        FileOutputStream out = new FileOutputStream(files[0], true);
+        try {
+            out.write(new byte[] { 0, 0, 1, 0, 0, 1, 'x' });
+        }
+        finally {
+            out.close();
+        }
+
+        cache = new DirectoryMamArchiveCache(dir);
+        assertEquals("1", cache.getLastId(archive));
+        assertEquals(validLength, files[0].length());
+        results.set(0, createResult("2", "romeo@example.org", "juliet@example.org"));
+        cache.addResults(archive, results);
+        assertEquals(ids("1", "2"), ids(new DirectoryMamArchiveCache(dir).getMessages(archive, null, null, 10)));
+    }
+
+    private static MamResultExtension createResult(String id, String from, String to) throws IOException {
+        Message message = new Message(JidCreate.from(to), "Message " + id);
+        message.setFrom(JidCreate.from(from));
+        message.setStanzaId(id);
+        return new MamResultExtension("query", id, new Forwarded(message));
+    }
+
+    private static List<String> ids(String... ids) {
+        List<String> list = new ArrayList<>();
+        for (String id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+
+    private static List<String> ids(List<Forwarded> messages) {
+        List<String> ids = new ArrayList<>();
+        for (Forwarded forwarded : messages) {
+            ids.add(forwarded.getForwardedStanza().getStanzaId());
+        }
+        return ids;
+    }
+}
@@ -176,6 +176,9 @@ public final class InBandBytestreamManager extends Manager implements Bytestream
     /* the stanza used to send data packets */
     private StanzaType stanza = StanzaType.IQ;
 
+    /* maximum number of unacknowledged IQ data packets of an outgoing stream */
+    private int maximumDataPacketsInFlight = 16;
+
     /*
      * list containing session IDs of In-Band Bytestream open packets that should be ignored by the
      * InitiationListener
@@ -365,6 +368,38 @@ public final class InBandBytestreamManager extends Manager implements Bytestream
         this.maximumBlockSize = maximumBlockSize;
     }
 
+    /**
+     * Returns the maximum number of IQ data packets an In-Band Bytestream session sends without
+     * waiting for their acknowledgement.
+     * <p>
+     * The default is 16.
+     * 
+     * @return the maximum number of unacknowledged data packets
+     * @since 4.3
+     */
+    public int getMaximumDataPacketsInFlight() {
+        return maximumDataPacketsInFlight;
+    }
+
+    /**
+     * Sets the maximum number of IQ data packets an In-Band Bytestream session sends without
+     * waiting for their acknowledgement. Within this limit, the number of data packets in flight
+     * is adapted to the observed round trip time. A value of 1 sends the next data packet only
+     * after the previous one was acknowledged.
+     * <p>
+     * This setting only affects sessions using {@link StanzaType#IQ} and is applied to sessions
+     * created afterwards.
+     * 
+     * @param maximumDataPacketsInFlight the maximum number of unacknowledged data packets
+     * @since 4.3
+     */
+    public void setMaximumDataPacketsInFlight(int maximumDataPacketsInFlight) {
+        if (maximumDataPacketsInFlight <= 0) {
+            throw new IllegalArgumentException("Maximum data packets in flight must be positive");
+        }
+        this.maximumDataPacketsInFlight = maximumDataPacketsInFlight;
+    }
+
     /**
      * Returns the stanza used to send data packets.
      * <p>
@@ -20,11 +20,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
+import org.jivesoftware.smack.ExceptionCallback;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.SuccessCallback;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.StanzaListener;
 import org.jivesoftware.smack.filter.AndFilter;
@@ -34,7 +37,7 @@ import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smack.packet.XMPPError;
-import org.jivesoftware.smack.util.stringencoder.Base64;
+import org.jivesoftware.smack.util.stringencoder.Base64Codec;
 import org.jivesoftware.smackx.bytestreams.BytestreamSession;
 import org.jivesoftware.smackx.bytestreams.ibb.packet.Close;
 import org.jivesoftware.smackx.bytestreams.ibb.packet.Data;
@@ -249,11 +252,17 @@ public class InBandBytestreamSession implements BytestreamSession {
         /* queue containing received In-Band Bytestream data packets */
         protected final BlockingQueue<DataPacketExtension> dataQueue = new LinkedBlockingQueue<DataPacketExtension>();
 
-        /* buffer containing the data from one data packet */
-        private byte[] buffer;
+        /* the data packet currently read from */
+        private DataPacketExtension data;
 
-        /* pointer to the next byte to read from buffer */
-        private int bufferPointer = -1;
+        /* position in the Base64 encoded data of the current data packet */
+        private int dataPosition;
+
+        /* decoder used to decode the data packets straight into the buffers of the reader */
+        private final Base64Codec.Decoder decoder = new Base64Codec.Decoder();
+
+        /* buffer used by read() */
+        private final byte[] singleByte = new byte[1];
 
         /* data packet sequence (range from 0 to 65535) */
         private long seq = -1;
@@ -292,18 +301,10 @@ public class InBandBytestreamSession implements BytestreamSession {
 
         @Override
         public synchronized int read() throws IOException {
-            checkClosed();
-
-            // if nothing read yet or whole buffer has been read fill buffer
-            if (bufferPointer == -1 || bufferPointer >= buffer.length) {
-                // if no data available and stream was closed return -1
-                if (!loadBuffer()) {
-                    return -1;
-                }
+            if (read(singleByte, 0, 1) == -1) {
+                return -1;
             }
-
-            // return byte and increment buffer pointer
-            return buffer[bufferPointer++] & 0xff;
+            return singleByte[0] & 0xff;
         }
 
         @Override
@@ -321,23 +322,27 @@ public class InBandBytestreamSession implements BytestreamSession {
 
             checkClosed();
 
-            // if nothing read yet or whole buffer has been read fill buffer
-            if (bufferPointer == -1 || bufferPointer >= buffer.length) {
-                // if no data available and stream was closed return -1
-                if (!loadBuffer()) {
-                    return -1;
+            // decode at most the data of one data packet, data packets without data are skipped
+            ByteBuffer out = ByteBuffer.wrap(b, off, len);
+            while (out.position() == off) {
+                // if nothing read yet or whole data packet has been read load next data packet
+                if (data == null || (dataPosition >= data.getDataLength() && !decoder.hasDecodedBytes())) {
+                    // if no data available and stream was closed return -1
+                    if (!loadBuffer()) {
+                        return -1;
+                    }
                 }
-            }
 
-            // if more bytes wanted than available return all available
-            int bytesAvailable = buffer.length - bufferPointer;
-            if (len > bytesAvailable) {
-                len = bytesAvailable;
+                try {
+                    dataPosition = data.decodeData(decoder, dataPosition, out);
+                }
+                catch (IllegalArgumentException e) {
+                    IOException ioException = new IOException("Invalid data packet");
+                    ioException.initCause(e);
+                    throw ioException;
+                }
             }
-
-            System.arraycopy(buffer, bufferPointer, b, off, len);
-            bufferPointer += len;
-            return len;
+            return out.position() - off;
         }
 
         @Override
@@ -394,9 +399,10 @@ public class InBandBytestreamSession implements BytestreamSession {
                 this.seq = seq;
             }
 
-            // set buffer to decoded data
-            buffer = data.getDecodedData();
-            bufferPointer = 0;
+            // decode data of the new data packet on the following reads
+            this.data = data;
+            this.dataPosition = 0;
+            this.decoder.reset();
             return true;
         }
 
@@ -479,7 +485,7 @@ public class InBandBytestreamSession implements BytestreamSession {
                     }
 
                     // check if encoded data is valid (see XEP-0047 Section 2.2)
-                    if (data.getDecodedData() == null) {
+                    if (data.getDecodedLength() < 0) {
                         // data is invalid; respond with bad-request error
                         IQ badRequest = IQ.createErrorResponse((IQ) packet,
                                         XMPPError.Condition.bad_request);
@@ -534,7 +540,7 @@ public class InBandBytestreamSession implements BytestreamSession {
                                     DataPacketExtension.NAMESPACE);
 
                     // check if encoded data is valid
-                    if (data.getDecodedData() == null) {
+                    if (data.getDecodedLength() < 0) {
                         /*
                          * TODO once a majority of XMPP server implementation support XEP-0079
                          * Advanced Message Processing the invalid message could be answered with an
@@ -725,6 +731,15 @@ public class InBandBytestreamSession implements BytestreamSession {
                 throw new IOException("Stream is closed");
             }
             flushBuffer();
+            awaitAcknowledgements();
+        }
+
+        /**
+         * Waits until all data packets send so far were acknowledged by the remote peer.
+         * 
+         * @throws IOException if a data packet was not acknowledged
+         */
+        protected void awaitAcknowledgements() throws IOException {
         }
 
         private synchronized void flushBuffer() throws IOException {
@@ -734,10 +749,9 @@ public class InBandBytestreamSession implements BytestreamSession {
                 return;
             }
 
-            // create data packet
-            String enc = Base64.encodeToString(buffer, 0, bufferPointer);
+            // create data packet, the data is Base64 encoded while the packet is written to the XMPP stream
             DataPacketExtension data = new DataPacketExtension(byteStreamRequest.getSessionID(),
-                            this.seq, enc);
+                            this.seq, buffer, 0, bufferPointer);
 
             // write to XMPP stream
             try {
@@ -779,6 +793,7 @@ public class InBandBytestreamSession implements BytestreamSession {
             try {
                 if (flush) {
                     flushBuffer();
+                    awaitAcknowledgements();
                 }
             }
             catch (IOException e) {
@@ -794,30 +809,128 @@ public class InBandBytestreamSession implements BytestreamSession {
     /**
      * IQIBBOutputStream class implements IBBOutputStream to be used with IQ stanzas encapsulating
      * the data packets.
+     * <p>
+     * Instead of waiting for the acknowledgement of each data packet before sending the next one,
+     * up to a window of data packets is kept in flight. Since XMPP delivers the stanzas between
+     * two entities in order, the remote peer receives the data packets in sequence, just like with
+     * a stop-and-wait sender. The window grows while the round trip time stays close to the lowest
+     * observed one, and shrinks once it rises, i.e. once the acknowledgements start to queue up.
+     * As a data packet can not be send twice with the same sequence number, a missing or failed
+     * acknowledgement closes the session.
      */
     private class IQIBBOutputStream extends IBBOutputStream {
 
+        private final Object windowLock = new Object();
+
+        private final int maximumWindow = InBandBytestreamManager.getByteStreamManager(connection).getMaximumDataPacketsInFlight();
+
+        /* number of data packets which may be in flight, between 1 and maximumWindow */
+        private int window = Math.min(2, maximumWindow);
+
+        /* number of data packets waiting for an acknowledgement */
+        private int inFlight = 0;
+
+        /* the lowest observed round trip time in nanoseconds */
+        private long minimumRtt = Long.MAX_VALUE;
+
+        /* the exception of the first failed data packet */
+        private Exception failure;
+
         @Override
-        protected synchronized void writeToXML(DataPacketExtension data) throws IOException {
+        protected synchronized void writeToXML(DataPacketExtension data) throws IOException, InterruptedException {
             // create IQ stanza containing data packet
             IQ iq = new Data(data);
             iq.setTo(remoteJID);
 
-            try {
-                connection.createStanzaCollectorAndSend(iq).nextResultOrThrow();
+            boolean failed;
+            synchronized (windowLock) {
+                while (inFlight >= window && failure == null) {
+                    windowLock.wait();
+                }
+                failed = failure != null;
+                if (!failed) {
+                    inFlight++;
+                }
             }
-            catch (Exception e) {
-                // close session unless it is already closed
-                if (!this.isClosed) {
-                    InBandBytestreamSession.this.close();
-                    // Sadly we are unable to use the IOException(Throwable) constructor because this
-                    // constructor is only supported from Android API 9 on.
-                    IOException ioException = new IOException();
-                    ioException.initCause(e);
-                    throw ioException;
+            if (failed) {
+                throwIfFailed();
+                return;
+            }
+
+            final long sendTime = System.nanoTime();
+            connection.sendIqRequestAsync(iq).onSuccess(new SuccessCallback<IQ>() {
+                @Override
+                public void onSuccess(IQ result) {
+                    acknowledged(System.nanoTime() - sendTime);
+                }
+            }).onError(new ExceptionCallback() {
+                @Override
+                public void processException(Exception exception) {
+                    failed(exception);
+                }
+            });
+        }
+
+        @Override
+        protected void awaitAcknowledgements() throws IOException {
+            synchronized (windowLock) {
+                while (inFlight > 0 && failure == null) {
+                    try {
+                        windowLock.wait();
+                    }
+                    catch (InterruptedException e) {
+                        IOException ioException = new IOException();
+                        ioException.initCause(e);
+                        throw ioException;
+                    }
                 }
             }
+            throwIfFailed();
+        }
 
+        private void acknowledged(long rtt) {
+            synchronized (windowLock) {
+                inFlight--;
+                if (rtt < minimumRtt) {
+                    minimumRtt = rtt;
+                }
+                if (rtt <= 2 * minimumRtt) {
+                    if (window < maximumWindow) {
+                        window++;
+                    }
+                }
+                else if (window > 1) {
+                    window--;
+                }
+                windowLock.notifyAll();
+            }
+        }
+
+        private void failed(Exception exception) {
+            synchronized (windowLock) {
+                inFlight--;
+                if (failure == null) {
+                    failure = exception;
+                }
+                windowLock.notifyAll();
+            }
+        }
+
+        private void throwIfFailed() throws IOException {
+            Exception e;
+            synchronized (windowLock) {
+                e = failure;
+            }
+            // close session unless it is already closed
+            if (e == null || this.isClosed) {
+                return;
+            }
+            InBandBytestreamSession.this.close();
+            // Sadly we are unable to use the IOException(Throwable) constructor because this
+            // constructor is only supported from Android API 9 on.
+            IOException ioException = new IOException();
+            ioException.initCause(e);
+            throw ioException;
         }
 
     }
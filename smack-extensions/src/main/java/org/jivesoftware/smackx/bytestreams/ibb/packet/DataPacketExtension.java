@@ -16,10 +16,13 @@
  */
 package org.jivesoftware.smackx.bytestreams.ibb.packet;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.packet.IQ.IQChildElementXmlStringBuilder;
 import org.jivesoftware.smack.util.XmlStringBuilder;
-import org.jivesoftware.smack.util.stringencoder.Base64;
+import org.jivesoftware.smack.util.stringencoder.Base64Codec;
 
 /**
  * Represents a chunk of data of an In-Band Bytestream within an IQ stanza or a
@@ -45,8 +48,8 @@ public class DataPacketExtension implements ExtensionElement {
     /* sequence of this packet in regard to the other data packets */
     private final long seq;
 
-    /* the data contained in this packet */
-    private final String data;
+    /* the Base64 encoded data contained in this packet */
+    private final CharSequence data;
 
     private byte[] decodedData;
 
@@ -58,6 +61,25 @@ public class DataPacketExtension implements ExtensionElement {
      * @param data the base64 encoded data contained in this packet
      */
     public DataPacketExtension(String sessionID, long seq, String data) {
+        this(sessionID, seq, (CharSequence) data);
+    }
+
+    /**
+     * Creates a new In-Band Bytestream data packet from raw bytes. The bytes are copied, but only Base64 encoded
+     * while the packet is serialized.
+     *
+     * @param sessionID unique session ID identifying this In-Band Bytestream
+     * @param seq sequence of this stanza(/packet) in regard to the other data packets
+     * @param data the buffer containing the data
+     * @param offset the offset of the data in the buffer
+     * @param length the length of the data
+     * @since 4.3
+     */
+    public DataPacketExtension(String sessionID, long seq, byte[] data, int offset, int length) {
+        this(sessionID, seq, Base64Codec.encode(Arrays.copyOfRange(data, offset, offset + length), 0, length));
+    }
+
+    private DataPacketExtension(String sessionID, long seq, CharSequence data) {
         if (sessionID == null || "".equals(sessionID)) {
             throw new IllegalArgumentException("Session ID must not be null or empty");
         }
@@ -96,7 +118,42 @@ public class DataPacketExtension implements ExtensionElement {
      * @return the data contained in this packet.
      */
     public String getData() {
-        return data;
+        return data.toString();
+    }
+
+    /**
+     * Returns the length of the decoded data or -1 if the data is not valid Base64. Unlike
+     * {@link #getDecodedData()}, this does not decode the data.
+     *
+     * @return the length of the decoded data or -1
+     * @since 4.3
+     */
+    public int getDecodedLength() {
+        return Base64Codec.decodedLength(data);
+    }
+
+    /**
+     * Decodes the data, starting at the given position of the Base64 encoded data, into the given buffer.
+     *
+     * @param decoder the decoder, which must have been reset before the first invocation for this packet
+     * @param position the position in the encoded data
+     * @param out the buffer for the decoded data
+     * @return the position in the encoded data up to which the data was decoded
+     * @throws IllegalArgumentException if the data is not valid Base64
+     * @since 4.3
+     */
+    public int decodeData(Base64Codec.Decoder decoder, int position, ByteBuffer out) {
+        return decoder.decode(data, position, data.length(), out);
+    }
+
+    /**
+     * Returns the length of the Base64 encoded data.
+     *
+     * @return the length of the encoded data
+     * @since 4.3
+     */
+    public int getDataLength() {
+        return data.length();
     }
 
     /**
@@ -116,14 +173,16 @@ public class DataPacketExtension implements ExtensionElement {
             return this.decodedData;
         }
 
-        // data must not contain the pad (=) other than end of data
-        if (data.matches(".*={1,2}+.+")) {
+        // data must only contain Base64 characters and the pad (=) only at the end of data
+        int length = getDecodedLength();
+        if (length < 0) {
             return null;
         }
 
-        // decodeBase64 will return null if bad characters are included
-        this.decodedData = Base64.decode(data);
-        return this.decodedData;
+        byte[] decodedData = new byte[length];
+        new Base64Codec.Decoder().decode(data, 0, data.length(), ByteBuffer.wrap(decodedData));
+        this.decodedData = decodedData;
+        return decodedData;
     }
 
     @Override
@@ -21,6 +21,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.SocketChannel;
 
 import org.jivesoftware.smackx.bytestreams.BytestreamSession;
 
@@ -64,6 +65,17 @@ public class Socks5BytestreamSession implements BytestreamSession {
         return !this.isDirect;
     }
 
+    /**
+     * Returns the channel of the underlying socket, or <code>null</code> if the socket has no channel. The channel
+     * is in blocking mode and allows, for example, to transfer files without copying them into the Java heap.
+     *
+     * @return the socket channel or <code>null</code>.
+     * @since 4.3
+     */
+    public SocketChannel getSocketChannel() {
+        return this.socket.getChannel();
+    }
+
     @Override
     public InputStream getInputStream() throws IOException {
         return this.socket.getInputStream();
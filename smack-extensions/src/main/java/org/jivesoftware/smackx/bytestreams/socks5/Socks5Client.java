@@ -23,6 +23,7 @@ import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
 import java.util.Arrays;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -87,8 +88,8 @@ class Socks5Client {
             @Override
             public Socket call() throws IOException, SmackException {
 
-                // initialize socket
-                Socket socket = new Socket();
+                // initialize socket, backed by a channel so that files can be transferred by the channel
+                Socket socket = SocketChannel.open().socket();
                 SocketAddress socketAddress = new InetSocketAddress(streamHost.getAddress(),
                                 streamHost.getPort());
                 socket.connect(socketAddress);
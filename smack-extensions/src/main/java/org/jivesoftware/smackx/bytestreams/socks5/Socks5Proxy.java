@@ -16,24 +16,32 @@
  */
 package org.jivesoftware.smackx.bytestreams.socks5;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.NetworkInterface;
-import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -66,6 +74,16 @@ import org.jivesoftware.smack.util.StringUtils;
  * with other address types</li>
  * </ul>
  * (see <a href="http://tools.ietf.org/html/rfc1928">RFC 1928</a>)
+ * <p>
+ * The proxy serves all clients from a single thread using a {@link Selector}, hence a slow or
+ * misbehaving client does not delay the handshakes of other clients. Handshakes which do not complete
+ * within the handshake timeout (see {@link #setHandshakeTimeout(int)}) are aborted, and established
+ * connections which are not retrieved via {@link #getSocket(String)} within the connection expiry
+ * (see {@link #setConnectionExpiry(int)}) are closed.
+ * <p>
+ * If relaying is enabled (see {@link #setRelayEnabled(boolean)}), a second connection with the digest
+ * of an established connection that was not yet retrieved is joined with it, and the proxy copies the
+ * data between both connections, again from the selector thread.
  * 
  * @author Henning Staib
  */
@@ -83,17 +101,25 @@ public final class Socks5Proxy {
      */
     private static int localSocks5ProxyPort = -7777;
 
-    /* reusable implementation of a SOCKS5 proxy server process */
-    private Socks5ServerProcess serverProcess;
+    private static final int RELAY_BUFFER_SIZE = 16 * 1024;
 
     /* thread running the SOCKS5 server process */
     private Thread serverThread;
 
-    /* server socket to accept SOCKS5 connections */
-    private ServerSocket serverSocket;
+    /* the SOCKS5 server process of the running proxy */
+    private volatile Socks5ServerProcess serverProcess;
+
+    /* server socket channel to accept SOCKS5 connections */
+    private volatile ServerSocketChannel serverChannel;
 
     /* assigns a connection to a digest */
-    private final Map<String, Socket> connectionMap = new ConcurrentHashMap<String, Socket>();
+    private final ConcurrentMap<String, EstablishedConnection> connectionMap = new ConcurrentHashMap<>();
+
+    private volatile int handshakeTimeout = 10000;
+
+    private volatile int connectionExpiry = 60000;
+
+    private volatile boolean relayEnabled;
 
     /* list of digests connections should be stored */
     private final List<String> allowedConnections = Collections.synchronizedList(new LinkedList<String>());
@@ -104,8 +130,6 @@ public final class Socks5Proxy {
      * Private constructor.
      */
     private Socks5Proxy() {
-        this.serverProcess = new Socks5ServerProcess();
-
         Enumeration<NetworkInterface> networkInterfaces;
         try {
             networkInterfaces = NetworkInterface.getNetworkInterfaces();
@@ -191,12 +215,13 @@ public final class Socks5Proxy {
         if (isRunning()) {
             return;
         }
+        ServerSocketChannel channel = null;
         try {
             if (getLocalSocks5ProxyPort() < 0) {
                 int port = Math.abs(getLocalSocks5ProxyPort());
                 for (int i = 0; i < 65535 - port; i++) {
                     try {
-                        this.serverSocket = new ServerSocket(port + i);
+                        channel = bind(port + i);
                         break;
                     }
                     catch (IOException e) {
@@ -205,20 +230,40 @@ public final class Socks5Proxy {
                 }
             }
             else {
-                this.serverSocket = new ServerSocket(getLocalSocks5ProxyPort());
+                channel = bind(getLocalSocks5ProxyPort());
             }
 
-            if (this.serverSocket != null) {
-                this.serverThread = new Thread(this.serverProcess);
+            if (channel != null) {
+                Selector selector = Selector.open();
+                channel.register(selector, SelectionKey.OP_ACCEPT);
+                this.serverProcess = new Socks5ServerProcess(selector);
+                this.serverThread = new Thread(this.serverProcess, "Smack Local SOCKS5 Proxy");
+                this.serverThread.setDaemon(true);
+                this.serverChannel = channel;
                 this.serverThread.start();
             }
         }
         catch (IOException e) {
             // couldn't setup server
+            closeQuietly(channel);
             LOGGER.log(Level.SEVERE, "couldn't setup local SOCKS5 proxy on port " + getLocalSocks5ProxyPort(), e);
         }
     }
 
+    private static ServerSocketChannel bind(int port) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            // Use the ServerSocket to bind, ServerSocketChannel.bind() requires Android API 24.
+            channel.socket().bind(new InetSocketAddress(port));
+            channel.configureBlocking(false);
+        }
+        catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
     /**
      * Stops the local SOCKS5 proxy server. If it is not running this method does nothing.
      */
@@ -227,16 +272,15 @@ public final class Socks5Proxy {
             return;
         }
 
-        try {
-            this.serverSocket.close();
-        }
-        catch (IOException e) {
-            // do nothing
+        // the server process closes the server channel, all connections it serves and the established
+        // connections which were not retrieved once it terminates
+        Socks5ServerProcess serverProcess = this.serverProcess;
+        if (serverProcess != null) {
+            serverProcess.terminate();
         }
 
         if (this.serverThread != null && this.serverThread.isAlive()) {
             try {
-                this.serverThread.interrupt();
                 this.serverThread.join();
             }
             catch (InterruptedException e) {
@@ -244,7 +288,8 @@ public final class Socks5Proxy {
             }
         }
         this.serverThread = null;
-        this.serverSocket = null;
+        this.serverProcess = null;
+        this.serverChannel = null;
 
     }
 
@@ -323,10 +368,82 @@ public final class Socks5Proxy {
      * @return the port of the local SOCKS5 proxy server or -1 if proxy is not running
      */
     public int getPort() {
-        if (!isRunning()) {
+        ServerSocketChannel channel = this.serverChannel;
+        if (channel == null) {
             return -1;
         }
-        return this.serverSocket.getLocalPort();
+        return channel.socket().getLocalPort();
+    }
+
+    /**
+     * Returns the time in milliseconds a client has to complete the SOCKS5 handshake. Default is 10 seconds.
+     *
+     * @return the handshake timeout in milliseconds
+     * @since 4.3
+     */
+    public int getHandshakeTimeout() {
+        return handshakeTimeout;
+    }
+
+    /**
+     * Sets the time in milliseconds a client has to complete the SOCKS5 handshake. Connections of clients which
+     * did not complete the handshake in time are closed.
+     *
+     * @param handshakeTimeout the handshake timeout in milliseconds
+     * @since 4.3
+     */
+    public void setHandshakeTimeout(int handshakeTimeout) {
+        if (handshakeTimeout <= 0) {
+            throw new IllegalArgumentException("handshakeTimeout must be positive");
+        }
+        this.handshakeTimeout = handshakeTimeout;
+    }
+
+    /**
+     * Returns the time in milliseconds an established connection is kept if it is not retrieved. Default is 60
+     * seconds.
+     *
+     * @return the connection expiry in milliseconds
+     * @since 4.3
+     */
+    public int getConnectionExpiry() {
+        return connectionExpiry;
+    }
+
+    /**
+     * Sets the time in milliseconds an established connection is kept if it is not retrieved via
+     * {@link #getSocket(String)}. Expired connections are closed.
+     *
+     * @param connectionExpiry the connection expiry in milliseconds
+     * @since 4.3
+     */
+    public void setConnectionExpiry(int connectionExpiry) {
+        if (connectionExpiry <= 0) {
+            throw new IllegalArgumentException("connectionExpiry must be positive");
+        }
+        this.connectionExpiry = connectionExpiry;
+    }
+
+    /**
+     * Returns true if the proxy relays data between two connections with the same digest. Default is false.
+     *
+     * @return true if relaying is enabled
+     * @since 4.3
+     */
+    public boolean isRelayEnabled() {
+        return relayEnabled;
+    }
+
+    /**
+     * Sets if the proxy relays data between two connections with the same digest. If enabled, a connection
+     * whose digest matches an established connection that was not yet retrieved via {@link #getSocket(String)}
+     * is joined with that connection instead of replacing it.
+     *
+     * @param relayEnabled true if relaying should be enabled
+     * @since 4.3
+     */
+    public void setRelayEnabled(boolean relayEnabled) {
+        this.relayEnabled = relayEnabled;
     }
 
     /**
@@ -338,7 +455,11 @@ public final class Socks5Proxy {
      * @return socket or null if there is no socket for the given digest
      */
     protected Socket getSocket(String digest) {
-        return this.connectionMap.get(digest);
+        EstablishedConnection connection = this.connectionMap.get(digest);
+        if (connection == null || !connection.retrieve()) {
+            return null;
+        }
+        return connection.channel.socket();
     }
 
     /**
@@ -374,123 +495,470 @@ public final class Socks5Proxy {
      *         <code>false</code>
      */
     public boolean isRunning() {
-        return this.serverSocket != null;
+        return this.serverChannel != null;
+    }
+
+    private static void closeQuietly(Channel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.FINE, "Exception while closing channel", e);
+        }
+    }
+
+    /**
+     * A connection which completed the SOCKS5 handshake and waits to be retrieved.
+     */
+    private static final class EstablishedConnection {
+
+        private static final int STORED = 0;
+
+        private static final int RETRIEVED = 1;
+
+        /* the connection was relayed, replaced or has expired */
+        private static final int TAKEN = 2;
+
+        private final SocketChannel channel;
+
+        private final long expiry;
+
+        private final AtomicInteger state = new AtomicInteger(STORED);
+
+        private EstablishedConnection(SocketChannel channel, long expiry) {
+            this.channel = channel;
+            this.expiry = expiry;
+        }
+
+        private boolean retrieve() {
+            return state.compareAndSet(STORED, RETRIEVED) || state.get() == RETRIEVED;
+        }
+
+        private boolean take() {
+            return state.compareAndSet(STORED, TAKEN);
+        }
     }
 
     /**
-     * Implementation of a simplified SOCKS5 proxy server.
+     * Implementation of a simplified SOCKS5 proxy server. All connections are served by a single
+     * thread using non-blocking channels.
      */
-    private class Socks5ServerProcess implements Runnable {
+    private final class Socks5ServerProcess implements Runnable {
+
+        private final Selector selector;
+
+        /* handshakes which completed in the current iteration of the select loop */
+        private final List<Handshake> completedHandshakes = new ArrayList<Handshake>();
+
+        private volatile boolean terminated;
+
+        private Socks5ServerProcess(Selector selector) {
+            this.selector = selector;
+        }
+
+        private void terminate() {
+            terminated = true;
+            selector.wakeup();
+        }
 
         @Override
         public void run() {
-            while (true) {
-                Socket socket = null;
+            try {
+                while (!terminated) {
+                    long timeout = closeExpiredConnections();
+                    // keys selected while connections were established have not been handled yet
+                    if (selector.selectedKeys().isEmpty()) {
+                        selector.select(timeout);
+                    }
+                    else {
+                        selector.selectNow();
+                    }
 
-                try {
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (key.isValid()) {
+                            handle(key);
+                        }
+                    }
 
-                    if (Socks5Proxy.this.serverSocket == null || Socks5Proxy.this.serverSocket.isClosed()
-                                    || Thread.currentThread().isInterrupted()) {
-                        return;
+                    establishConnections();
+                }
+            }
+            catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "local SOCKS5 proxy terminated", e);
+            }
+            finally {
+                for (SelectionKey key : selector.keys()) {
+                    closeQuietly(key.channel());
+                }
+                for (Map.Entry<String, EstablishedConnection> entry : connectionMap.entrySet()) {
+                    EstablishedConnection connection = entry.getValue();
+                    if (connection.take()) {
+                        connectionMap.remove(entry.getKey(), connection);
+                        closeQuietly(connection.channel);
                     }
+                }
+                try {
+                    selector.close();
+                }
+                catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Exception while closing selector", e);
+                }
+                // Mark the proxy as stopped, so that it can be started again if this thread terminated
+                // unexpectedly. The server channel is reset last, as start() only proceeds once it is null.
+                if (serverProcess == this) {
+                    serverProcess = null;
+                    serverChannel = null;
+                }
+            }
+        }
+
+        private void handle(SelectionKey key) {
+            Object attachment = key.attachment();
+            try {
+                if (key.isAcceptable()) {
+                    accept((ServerSocketChannel) key.channel());
+                }
+                else if (attachment instanceof Handshake) {
+                    ((Handshake) attachment).handle(key);
+                }
+                else {
+                    ((RelayEndpoint) attachment).handle(key);
+                }
+            }
+            catch (IOException | SmackException e) {
+                LOGGER.log(Level.FINE, "closing SOCKS5 connection", e);
+                close(key);
+            }
+            catch (RuntimeException e) {
+                // e.g. a CancelledKeyException, which must not terminate the proxy
+                LOGGER.log(Level.WARNING, "closing SOCKS5 connection", e);
+                close(key);
+            }
+        }
 
-                    // accept connection
-                    socket = Socks5Proxy.this.serverSocket.accept();
+        private void close(SelectionKey key) {
+            Object attachment = key.attachment();
+            if (key.channel() instanceof ServerSocketChannel) {
+                // the proxy can not serve without its server channel, terminate so that it can be started again
+                terminated = true;
+            }
+            else if (attachment instanceof RelayEndpoint) {
+                ((RelayEndpoint) attachment).close();
+            }
+            else {
+                closeQuietly(key.channel());
+            }
+        }
 
-                    // initialize connection
-                    establishConnection(socket);
+        private void accept(ServerSocketChannel serverChannel) throws IOException {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                try {
+                    channel.configureBlocking(false);
+                    long deadline = System.currentTimeMillis() + handshakeTimeout;
+                    channel.register(selector, SelectionKey.OP_READ, new Handshake(channel, deadline));
+                }
+                catch (IOException e) {
+                    LOGGER.log(Level.FINE, "could not register SOCKS5 connection", e);
+                    closeQuietly(channel);
+                }
+            }
+        }
 
+        /**
+         * Closes handshakes and established connections which have expired.
+         *
+         * @return the time in milliseconds until the next expiry or 0 if nothing will expire
+         */
+        private long closeExpiredConnections() {
+            long now = System.currentTimeMillis();
+            long nextExpiry = Long.MAX_VALUE;
+            for (SelectionKey key : selector.keys()) {
+                if (!(key.attachment() instanceof Handshake)) {
+                    continue;
                 }
-                catch (SocketException e) {
-                    /*
-                     * do nothing, if caused by closing the server socket, thread will terminate in
-                     * next loop
-                     */
+                Handshake handshake = (Handshake) key.attachment();
+                if (handshake.deadline <= now) {
+                    LOGGER.fine("SOCKS5 handshake timed out");
+                    closeQuietly(handshake.channel);
                 }
-                catch (Exception e) {
-                    try {
-                        if (socket != null) {
-                            socket.close();
-                        }
-                    }
-                    catch (IOException e1) {
-                        /* do nothing */
-                    }
+                else {
+                    nextExpiry = Math.min(nextExpiry, handshake.deadline);
+                }
+            }
+            for (Map.Entry<String, EstablishedConnection> entry : connectionMap.entrySet()) {
+                EstablishedConnection connection = entry.getValue();
+                if (connection.state.get() != EstablishedConnection.STORED) {
+                    continue;
+                }
+                if (connection.expiry > now) {
+                    nextExpiry = Math.min(nextExpiry, connection.expiry);
                 }
+                else if (connection.take()) {
+                    connectionMap.remove(entry.getKey(), connection);
+                    closeQuietly(connection.channel);
+                }
+            }
+            if (nextExpiry == Long.MAX_VALUE) {
+                return 0;
+            }
+            return Math.max(1, nextExpiry - now);
+        }
+
+        private void establishConnections() throws IOException {
+            if (completedHandshakes.isEmpty()) {
+                return;
+            }
+            // deregister the cancelled keys, only then the channels can be switched to blocking mode
+            selector.selectNow();
+            for (Handshake handshake : completedHandshakes) {
+                try {
+                    establishConnection(handshake.channel, handshake.digest);
+                }
+                catch (IOException e) {
+                    LOGGER.log(Level.FINE, "could not establish SOCKS5 connection", e);
+                    closeQuietly(handshake.channel);
+                }
+            }
+            completedHandshakes.clear();
+        }
+
+        private void establishConnection(SocketChannel channel, String digest) throws IOException {
+            if (relayEnabled) {
+                EstablishedConnection waiting = connectionMap.get(digest);
+                if (waiting != null && waiting.take()) {
+                    connectionMap.remove(digest, waiting);
+                    startRelay(waiting.channel, channel);
+                    return;
+                }
+            }
+
+            channel.configureBlocking(true);
+            long expiry = System.currentTimeMillis() + connectionExpiry;
+            EstablishedConnection previous = connectionMap.put(digest, new EstablishedConnection(channel, expiry));
+            if (previous != null && previous.take()) {
+                closeQuietly(previous.channel);
             }
+        }
 
+        private void startRelay(SocketChannel first, SocketChannel second) throws IOException {
+            RelayEndpoint firstEndpoint = new RelayEndpoint(first);
+            RelayEndpoint secondEndpoint = new RelayEndpoint(second);
+            firstEndpoint.peer = secondEndpoint;
+            secondEndpoint.peer = firstEndpoint;
+            try {
+                first.configureBlocking(false);
+                firstEndpoint.key = first.register(selector, SelectionKey.OP_READ, firstEndpoint);
+                secondEndpoint.key = second.register(selector, SelectionKey.OP_READ, secondEndpoint);
+            }
+            catch (IOException e) {
+                firstEndpoint.close();
+                throw e;
+            }
         }
 
         /**
-         * Negotiates a SOCKS5 connection and stores it on success.
-         * 
-         * @param socket connection to the client
-         * @throws SmackException if client requests a connection in an unsupported way
-         * @throws IOException if a network error occurred
+         * The state of a SOCKS5 handshake. Only as many bytes as the current message requires are read,
+         * so that no data following the handshake is consumed.
          */
-        private void establishConnection(Socket socket) throws SmackException, IOException {
-            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
-            DataInputStream in = new DataInputStream(socket.getInputStream());
+        private final class Handshake {
+
+            private static final int AUTH_HEADER = 0;
+
+            private static final int AUTH_METHODS = 1;
+
+            private static final int REQUEST_HEADER = 2;
+
+            private static final int REQUEST_ADDRESS = 3;
+
+            private static final int ESTABLISHED = 4;
 
-            // first byte is version should be 5
-            int b = in.read();
-            if (b != 5) {
-                throw new SmackException("Only SOCKS5 supported");
+            private final SocketChannel channel;
+
+            private final long deadline;
+
+            /* large enough for a connection request with the longest possible address */
+            private final ByteBuffer buffer = ByteBuffer.allocate(7 + 255);
+
+            private int phase = AUTH_HEADER;
+
+            private ByteBuffer response;
+
+            private boolean refused;
+
+            private String digest;
+
+            private Handshake(SocketChannel channel, long deadline) {
+                this.channel = channel;
+                this.deadline = deadline;
+                buffer.limit(2);
             }
 
-            // second byte number of authentication methods supported
-            b = in.read();
+            private void handle(SelectionKey key) throws IOException, SmackException {
+                if (key.isReadable()) {
+                    if (channel.read(buffer) == -1) {
+                        throw new IOException("Connection closed during SOCKS5 handshake");
+                    }
+                    while (!buffer.hasRemaining() && response == null) {
+                        processMessage();
+                    }
+                }
 
-            // read list of supported authentication methods
-            byte[] auth = new byte[b];
-            in.readFully(auth);
+                if (response == null) {
+                    return;
+                }
+                channel.write(response);
+                if (response.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                response = null;
 
-            byte[] authMethodSelectionResponse = new byte[2];
-            authMethodSelectionResponse[0] = (byte) 0x05; // protocol version
+                if (refused) {
+                    closeQuietly(channel);
+                }
+                else if (phase == ESTABLISHED) {
+                    key.cancel();
+                    completedHandshakes.add(this);
+                }
+                else {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            }
 
-            // only authentication method 0, no authentication, supported
-            boolean noAuthMethodFound = false;
-            for (int i = 0; i < auth.length; i++) {
-                if (auth[i] == (byte) 0x00) {
-                    noAuthMethodFound = true;
+            private void processMessage() throws IOException, SmackException {
+                switch (phase) {
+                case AUTH_HEADER:
+                    // first byte is version should be 5, second byte number of authentication methods supported
+                    if (buffer.get(0) != (byte) 0x05) {
+                        throw new SmackException("Only SOCKS5 supported");
+                    }
+                    phase = AUTH_METHODS;
+                    buffer.limit(2 + (buffer.get(1) & 0xff));
+                    break;
+                case AUTH_METHODS:
+                    // only authentication method 0, no authentication, supported
+                    boolean noAuthMethodFound = false;
+                    for (int i = 2; i < buffer.limit(); i++) {
+                        if (buffer.get(i) == (byte) 0x00) {
+                            noAuthMethodFound = true;
+                            break;
+                        }
+                    }
+                    if (!noAuthMethodFound) {
+                        // no acceptable methods
+                        response = ByteBuffer.wrap(new byte[] { (byte) 0x05, (byte) 0xFF });
+                        refused = true;
+                        break;
+                    }
+                    // no-authentication method
+                    response = ByteBuffer.wrap(new byte[] { (byte) 0x05, (byte) 0x00 });
+                    phase = REQUEST_HEADER;
+                    buffer.clear();
+                    buffer.limit(5);
+                    break;
+                case REQUEST_HEADER:
+                    if (buffer.get(3) != (byte) 0x03) {
+                        throw new SmackException("Unsupported SOCKS5 address type: " + buffer.get(3)
+                                        + " (expected: 0x03)");
+                    }
+                    phase = REQUEST_ADDRESS;
+                    buffer.limit(7 + (buffer.get(4) & 0xff));
                     break;
+                case REQUEST_ADDRESS:
+                    String responseDigest = new String(buffer.array(), 5, buffer.get(4) & 0xff, StringUtils.UTF8);
+                    if (allowedConnections.contains(responseDigest)) {
+                        buffer.put(1, (byte) 0x00); // set return status to 0 (success)
+                        digest = responseDigest;
+                        phase = ESTABLISHED;
+                    }
+                    else {
+                        buffer.put(1, (byte) 0x05); // set return status to 5 (connection refused)
+                        refused = true;
+                    }
+                    // the response echoes the connection request
+                    buffer.flip();
+                    response = buffer;
+                    break;
+                default:
+                    throw new AssertionError();
                 }
             }
+        }
 
-            if (!noAuthMethodFound) {
-                authMethodSelectionResponse[1] = (byte) 0xFF; // no acceptable methods
-                out.write(authMethodSelectionResponse);
-                out.flush();
-                throw new SmackException("Authentication method not supported");
-            }
+        /**
+         * One side of a relay. Data read from the endpoint is buffered in a direct buffer until it is
+         * written to the peer.
+         */
+        private final class RelayEndpoint {
+
+            private final SocketChannel channel;
+
+            private final ByteBuffer buffer = ByteBuffer.allocateDirect(RELAY_BUFFER_SIZE);
 
-            authMethodSelectionResponse[1] = (byte) 0x00; // no-authentication method
-            out.write(authMethodSelectionResponse);
-            out.flush();
+            private RelayEndpoint peer;
 
-            // receive connection request
-            byte[] connectionRequest = Socks5Utils.receiveSocks5Message(in);
+            private SelectionKey key;
 
-            // extract digest
-            String responseDigest = new String(connectionRequest, 5, connectionRequest[4], StringUtils.UTF8);
+            private boolean endOfStream;
 
-            // return error if digest is not allowed
-            if (!Socks5Proxy.this.allowedConnections.contains(responseDigest)) {
-                connectionRequest[1] = (byte) 0x05; // set return status to 5 (connection refused)
-                out.write(connectionRequest);
-                out.flush();
+            private boolean outputShutdown;
 
-                throw new SmackException("Connection is not allowed");
+            private RelayEndpoint(SocketChannel channel) {
+                this.channel = channel;
             }
 
-            connectionRequest[1] = (byte) 0x00; // set return status to 0 (success)
-            out.write(connectionRequest);
-            out.flush();
+            private void handle(SelectionKey key) throws IOException {
+                if (key.isReadable() && channel.read(buffer) == -1) {
+                    endOfStream = true;
+                }
 
-            // store connection
-            Socks5Proxy.this.connectionMap.put(responseDigest, socket);
-        }
+                transferToPeer();
+                peer.transferToPeer();
+
+                if (endOfStream && peer.endOfStream && buffer.position() == 0 && peer.buffer.position() == 0) {
+                    close();
+                    return;
+                }
+                updateInterestOps();
+                peer.updateInterestOps();
+            }
+
+            private void transferToPeer() throws IOException {
+                if (buffer.position() > 0) {
+                    buffer.flip();
+                    peer.channel.write(buffer);
+                    buffer.compact();
+                }
+                if (endOfStream && buffer.position() == 0 && !peer.outputShutdown) {
+                    // Use the Socket, SocketChannel.shutdownOutput() requires Android API 24.
+                    peer.channel.socket().shutdownOutput();
+                    peer.outputShutdown = true;
+                }
+            }
 
+            private void updateInterestOps() {
+                int ops = 0;
+                if (!endOfStream && buffer.hasRemaining()) {
+                    ops |= SelectionKey.OP_READ;
+                }
+                if (peer.buffer.position() > 0) {
+                    ops |= SelectionKey.OP_WRITE;
+                }
+                key.interestOps(ops);
+            }
+
+            private void close() {
+                closeQuietly(channel);
+                closeQuietly(peer.channel);
+            }
+        }
     }
 
 }
@@ -39,6 +39,7 @@ import org.jivesoftware.smack.filter.StanzaExtensionFilter;
 import org.jivesoftware.smack.util.StringUtils;
 import org.jivesoftware.smack.util.stringencoder.Base64;
 import org.jivesoftware.smackx.caps.cache.EntityCapsPersistentCache;
+import org.jivesoftware.smackx.caps.cache.SingleFilePersistentCache;
 import org.jivesoftware.smackx.caps.packet.CapsExtension;
 import org.jivesoftware.smackx.disco.AbstractNodeInformationProvider;
 import org.jivesoftware.smackx.disco.ServiceDiscoveryManager;
@@ -52,20 +53,21 @@ import org.jxmpp.jid.FullJid;
 import org.jxmpp.jid.Jid;
 import org.jxmpp.util.cache.LruCache;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Queue;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -81,7 +83,38 @@ public final class EntityCapsManager extends Manager {
     public static final String NAMESPACE = CapsExtension.NAMESPACE;
     public static final String ELEMENT = CapsExtension.ELEMENT;
 
-    private static final Map<String, MessageDigest> SUPPORTED_HASHES = new HashMap<String, MessageDigest>();
+    /**
+     * The supported hashes, in the format of MessageDigest, i.e. uppercase.
+     */
+    private static final Set<String> SUPPORTED_HASHES = new HashSet<String>();
+
+    /**
+     * The message digests of the supported hashes of the current thread. MessageDigest is not thread-safe, using one
+     * instance per thread allows verification strings to be generated concurrently without locking.
+     */
+    private static final ThreadLocal<Map<String, MessageDigest>> MESSAGE_DIGESTS = new ThreadLocal<Map<String, MessageDigest>>() {
+        @Override
+        protected Map<String, MessageDigest> initialValue() {
+            return new HashMap<String, MessageDigest>();
+        }
+    };
+
+    /**
+     * The buffers used to generate verification strings in the current thread.
+     */
+    private static final ThreadLocal<VerificationBuffers> VERIFICATION_BUFFERS = new ThreadLocal<VerificationBuffers>() {
+        @Override
+        protected VerificationBuffers initialValue() {
+            return new VerificationBuffers();
+        }
+    };
+
+    private static final Comparator<FormField> FORM_FIELD_COMPARATOR = new Comparator<FormField>() {
+        @Override
+        public int compare(FormField f1, FormField f2) {
+            return f1.getVariable().compareTo(f2.getVariable());
+        }
+    };
 
     /**
      * The default hash. Currently 'sha-1'.
@@ -121,8 +154,8 @@ public final class EntityCapsManager extends Manager {
         });
 
         try {
-            MessageDigest sha1MessageDigest = MessageDigest.getInstance(DEFAULT_HASH);
-            SUPPORTED_HASHES.put(DEFAULT_HASH, sha1MessageDigest);
+            MessageDigest.getInstance(DEFAULT_HASH);
+            SUPPORTED_HASHES.add(DEFAULT_HASH);
         } catch (NoSuchAlgorithmException e) {
             // Ignore
         }
@@ -219,12 +252,20 @@ public final class EntityCapsManager extends Manager {
     }
 
     /**
-     * Set the persistent cache implementation.
+     * Set the persistent cache implementation. If the cache is a {@link SingleFilePersistentCache}, then the in-memory
+     * cache is filled with the information returned by {@link SingleFilePersistentCache#loadAll(int)}.
      * 
      * @param cache
      */
     public static void setPersistentCache(EntityCapsPersistentCache cache) {
         persistentCache = cache;
+        if (!(cache instanceof SingleFilePersistentCache)) {
+            return;
+        }
+        Map<String, DiscoverInfo> infos = ((SingleFilePersistentCache) cache).loadAll(CAPS_CACHE.getMaxCacheSize());
+        for (Map.Entry<String, DiscoverInfo> entry : infos.entrySet()) {
+            CAPS_CACHE.put(entry.getKey(), entry.getValue());
+        }
     }
 
     /**
@@ -250,7 +291,7 @@ public final class EntityCapsManager extends Manager {
         String capsExtensionHash = capsExtension.getHash();
         String hashInUppercase = capsExtensionHash.toUpperCase(Locale.US);
         // SUPPORTED_HASHES uses the format of MessageDigest, which is uppercase, e.g. "SHA-1" instead of "sha-1"
-        if (!SUPPORTED_HASHES.containsKey(hashInUppercase))
+        if (!SUPPORTED_HASHES.contains(hashInUppercase))
             return;
         String hash = capsExtensionHash.toLowerCase(Locale.US);
 
@@ -266,6 +307,12 @@ public final class EntityCapsManager extends Manager {
 
     private boolean entityCapsEnabled;
     private CapsVersionAndHash currentCapsVersion;
+
+    /**
+     * The input of the verification string of the local entity, i.e. the string S of XEP-0115 5.1, from which
+     * {@link #currentCapsVersion} was generated.
+     */
+    private String currentCapsVersionInput;
     private volatile Presence presenceSend;
 
     /**
@@ -367,7 +414,7 @@ public final class EntityCapsManager extends Manager {
     }
 
     public static synchronized EntityCapsManager getInstanceFor(XMPPConnection connection) {
-        if (SUPPORTED_HASHES.size() <= 0)
+        if (SUPPORTED_HASHES.isEmpty())
             throw new IllegalStateException("No supported hashes for EntityCapsManager");
 
         EntityCapsManager entityCapsManager = instances.get(connection);
@@ -481,8 +528,13 @@ public final class EntityCapsManager extends Manager {
         sdm.addDiscoverInfoTo(discoverInfo);
 
         // getLocalNodeVer() will return a result only after currentCapsVersion is set. Therefore
-        // set it first and then call getLocalNodeVer()
-        currentCapsVersion = generateVerificationString(discoverInfo);
+        // set it first and then call getLocalNodeVer(). The hash is only re-computed if the
+        // service discovery information actually changed.
+        String capsVersionInput = createVerificationStringInput(discoverInfo);
+        if (currentCapsVersion == null || !capsVersionInput.equals(currentCapsVersionInput)) {
+            currentCapsVersion = hashVerificationStringInput(capsVersionInput, DEFAULT_HASH);
+            currentCapsVersionInput = capsVersionInput;
+        }
         final String localNodeVer = getLocalNodeVer();
         discoverInfo.setNode(localNodeVer);
         addDiscoverInfoByNode(localNodeVer, discoverInfo);
@@ -553,9 +605,9 @@ public final class EntityCapsManager extends Manager {
         if (verifyPacketExtensions(info))
             return false;
 
-        String calculatedVer = generateVerificationString(info, hash).version;
+        CapsVersionAndHash calculatedVer = generateVerificationString(info, hash);
 
-        if (!ver.equals(calculatedVer))
+        if (calculatedVer == null || !ver.equals(calculatedVer.version))
             return false;
 
         return true;
@@ -606,19 +658,30 @@ public final class EntityCapsManager extends Manager {
             hash = DEFAULT_HASH;
         }
         // SUPPORTED_HASHES uses the format of MessageDigest, which is uppercase, e.g. "SHA-1" instead of "sha-1"
-        MessageDigest md = SUPPORTED_HASHES.get(hash.toUpperCase(Locale.US));
-        if (md == null)
+        if (!SUPPORTED_HASHES.contains(hash.toUpperCase(Locale.US)))
             return null;
-        // Then transform the hash to lowercase, as this value will be put on the wire within the caps element's hash
-        // attribute. I'm not sure if the standard is case insensitive here, but let's assume that even it is, there could
-        // be "broken" implementation in the wild, so we *always* transform to lowercase.
-        hash = hash.toLowerCase(Locale.US);
 
+        StringBuilder sb = VERIFICATION_BUFFERS.get().getStringBuilder();
+        appendVerificationStringInput(discoverInfo, sb);
+        return hashVerificationStringInput(sb, hash);
+    }
+
+    private static String createVerificationStringInput(DiscoverInfo discoverInfo) {
+        StringBuilder sb = new StringBuilder();
+        appendVerificationStringInput(discoverInfo, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Appends the input of the verification string, i.e. the string S of XEP-0115 5.1, to the given StringBuilder.
+     *
+     * @param discoverInfo
+     * @param sb the StringBuilder, initially empty ('S').
+     */
+    private static void appendVerificationStringInput(DiscoverInfo discoverInfo, StringBuilder sb) {
         DataForm extendedInfo =  DataForm.from(discoverInfo);
 
         // 1. Initialize an empty string S ('sb' in this method).
-        StringBuilder sb = new StringBuilder(); // Use StringBuilder as we don't
-                                                // need thread-safe StringBuffer
 
         // 2. Sort the service discovery identities by category and then by
         // type and then by xml:lang
@@ -626,14 +689,17 @@ public final class EntityCapsManager extends Manager {
         // [NAME]. Note that each slash is included even if the LANG or
         // NAME is not included (in accordance with XEP-0030, the category and
         // type MUST be included.
-        SortedSet<DiscoverInfo.Identity> sortedIdentities = new TreeSet<DiscoverInfo.Identity>();
-
-        for (DiscoverInfo.Identity i : discoverInfo.getIdentities())
-            sortedIdentities.add(i);
+        List<DiscoverInfo.Identity> sortedIdentities = new ArrayList<DiscoverInfo.Identity>(discoverInfo.getIdentities());
+        Collections.sort(sortedIdentities);
 
         // 3. For each identity, append the 'category/type/lang/name' to S,
         // followed by the '<' character.
+        DiscoverInfo.Identity previousIdentity = null;
         for (DiscoverInfo.Identity identity : sortedIdentities) {
+            if (previousIdentity != null && previousIdentity.compareTo(identity) == 0) {
+                continue;
+            }
+            previousIdentity = identity;
             sb.append(identity.getCategory());
             sb.append('/');
             sb.append(identity.getType());
@@ -645,16 +711,15 @@ public final class EntityCapsManager extends Manager {
         }
 
         // 4. Sort the supported service discovery features.
-        SortedSet<String> features = new TreeSet<String>();
-        for (Feature f : discoverInfo.getFeatures())
+        List<Feature> discoverInfoFeatures = discoverInfo.getFeatures();
+        List<String> features = new ArrayList<String>(discoverInfoFeatures.size());
+        for (Feature f : discoverInfoFeatures)
             features.add(f.getVar());
+        Collections.sort(features);
 
         // 5. For each feature, append the feature to S, followed by the '<'
         // character
-        for (String f : features) {
-            sb.append(f);
-            sb.append('<');
-        }
+        appendSortedValues(features, sb);
 
         // only use the data form for calculation is it has a hidden FORM_TYPE
         // field
@@ -664,12 +729,7 @@ public final class EntityCapsManager extends Manager {
                 // 6. If the service discovery information response includes
                 // XEP-0128 data forms, sort the forms by the FORM_TYPE (i.e.,
                 // by the XML character data of the <value/> element).
-                SortedSet<FormField> fs = new TreeSet<FormField>(new Comparator<FormField>() {
-                    @Override
-                    public int compare(FormField f1, FormField f2) {
-                        return f1.getVariable().compareTo(f2.getVariable());
-                    }
-                });
+                List<FormField> fs = new ArrayList<FormField>();
 
                 FormField ft = null;
 
@@ -680,6 +740,7 @@ public final class EntityCapsManager extends Manager {
                         ft = f;
                     }
                 }
+                Collections.sort(fs, FORM_FIELD_COMPARATOR);
 
                 // Add FORM_TYPE values
                 if (ft != null) {
@@ -693,13 +754,34 @@ public final class EntityCapsManager extends Manager {
                 // element.
                 // 3. For each <value/> element, append the XML character data,
                 // followed by the '<' character.
+                FormField previousField = null;
                 for (FormField f : fs) {
+                    if (previousField != null && FORM_FIELD_COMPARATOR.compare(previousField, f) == 0) {
+                        continue;
+                    }
+                    previousField = f;
                     sb.append(f.getVariable());
                     sb.append('<');
                     formFieldValuesToCaps(f.getValues(), sb);
                 }
             }
         }
+    }
+
+    /**
+     * Computes the verification string from the given input, i.e. the string S of XEP-0115 5.1.
+     *
+     * @param verificationStringInput the input of the verification string.
+     * @param hash the used hash function, which must be supported.
+     * @return the generated verification string.
+     */
+    private static CapsVersionAndHash hashVerificationStringInput(CharSequence verificationStringInput, String hash) {
+        MessageDigest md = getMessageDigest(hash.toUpperCase(Locale.US));
+        // Then transform the hash to lowercase, as this value will be put on the wire within the caps element's hash
+        // attribute. I'm not sure if the standard is case insensitive here, but let's assume that even it is, there could
+        // be "broken" implementation in the wild, so we *always* transform to lowercase.
+        hash = hash.toLowerCase(Locale.US);
+
         // 8. Ensure that S is encoded according to the UTF-8 encoding (RFC
         // 3269).
         // 9. Compute the verification string by hashing S using the algorithm
@@ -709,32 +791,108 @@ public final class EntityCapsManager extends Manager {
         // encoded using Base64 as specified in Section 4 of RFC 4648
         // (note: the Base64 output MUST NOT include whitespace and MUST set
         // padding bits to zero).
-        byte[] bytes;
-        try {
-            bytes = sb.toString().getBytes(StringUtils.UTF8);
-        }
-        catch (UnsupportedEncodingException e) {
-            throw new AssertionError(e);
-        }
-        byte[] digest;
-        synchronized(md) {
-            digest = md.digest(bytes);
-        }
+        updateUtf8(md, verificationStringInput, VERIFICATION_BUFFERS.get().bytes);
+        byte[] digest = md.digest();
         String version = Base64.encodeToString(digest);
         return new CapsVersionAndHash(version, hash);
     }
 
-    private static void formFieldValuesToCaps(List<String> i, StringBuilder sb) {
-        SortedSet<String> fvs = new TreeSet<String>();
-        for (String s : i) {
-            fvs.add(s);
+    private static MessageDigest getMessageDigest(String hashInUppercase) {
+        Map<String, MessageDigest> messageDigests = MESSAGE_DIGESTS.get();
+        MessageDigest md = messageDigests.get(hashInUppercase);
+        if (md == null) {
+            try {
+                md = MessageDigest.getInstance(hashInUppercase);
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new AssertionError(e);
+            }
+            messageDigests.put(hashInUppercase, md);
+        }
+        return md;
+    }
+
+    /**
+     * Updates the given message digest with the UTF-8 encoding of the given characters, using the given buffer instead
+     * of allocating the encoded bytes. Like {@link String#getBytes(String)}, unpaired surrogates are replaced by '?'.
+     *
+     * @param md the message digest.
+     * @param chars the characters.
+     * @param buffer the buffer, at least 4 bytes long.
+     */
+    private static void updateUtf8(MessageDigest md, CharSequence chars, byte[] buffer) {
+        final int length = chars.length();
+        int pos = 0;
+        for (int i = 0; i < length; i++) {
+            if (pos > buffer.length - 4) {
+                md.update(buffer, 0, pos);
+                pos = 0;
+            }
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                buffer[pos++] = (byte) c;
+            }
+            else if (c < 0x800) {
+                buffer[pos++] = (byte) (0xc0 | (c >> 6));
+                buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+            else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+                buffer[pos++] = (byte) (0xe0 | (c >> 12));
+                buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+                buffer[pos++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+            }
+            else {
+                buffer[pos++] = '?';
+            }
         }
-        for (String fv : fvs) {
-            sb.append(fv);
+        md.update(buffer, 0, pos);
+    }
+
+    private static void formFieldValuesToCaps(List<String> i, StringBuilder sb) {
+        List<String> fvs = new ArrayList<String>(i);
+        Collections.sort(fvs);
+        appendSortedValues(fvs, sb);
+    }
+
+    private static void appendSortedValues(List<String> sortedValues, StringBuilder sb) {
+        String previous = null;
+        for (String value : sortedValues) {
+            // Skip duplicates, like a SortedSet would.
+            if (value.equals(previous)) {
+                continue;
+            }
+            previous = value;
+            sb.append(value);
             sb.append('<');
         }
     }
 
+    private static final class VerificationBuffers {
+        /**
+         * StringBuilders which grew larger than this are not re-used, in order to not keep them around forever.
+         */
+        private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+        private final byte[] bytes = new byte[1024];
+
+        private StringBuilder stringBuilder = new StringBuilder(1024);
+
+        private StringBuilder getStringBuilder() {
+            if (stringBuilder.capacity() > MAX_RETAINED_CAPACITY) {
+                stringBuilder = new StringBuilder(1024);
+            }
+            stringBuilder.setLength(0);
+            return stringBuilder;
+        }
+    }
+
     public static class NodeVerHash {
         private String node;
         private String hash;
@@ -0,0 +1,660 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.caps.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import org.jivesoftware.smack.SmackConfiguration;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smack.util.StringUtils;
+import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
+
+/**
+ * An EntityCapsPersistentCache that stores the Caps information of all nodes in a single, append-only file. An
+ * in-memory index maps the node#ver strings to the position of their record in the file, the index is built by a
+ * sequential scan when the cache is created. The records are protected by a CRC32 checksum, an incomplete record at
+ * the end of the file, e.g. because the process died while it was written, is discarded.
+ * <p>
+ * The size of the cache is bounded. If the information of all nodes exceeds the maximum size, the least recently or
+ * the least frequently used nodes are evicted, depending on the {@link EvictionPolicy}. Once more than half of the
+ * file consists of evicted records, the file is compacted by writing the remaining records to a new file, which then
+ * replaces the old one.
+ * </p>
+ * <p>
+ * New information is written to the file in the background, so that adding information never blocks on disk. The
+ * file is only locked for the individual reads and appends, in particular a lookup does not wait while a compacted file
+ * is written and synced. {@link #loadAll(int)} reads the information of many nodes in one sequential read, which
+ * {@link org.jivesoftware.smackx.caps.EntityCapsManager} uses to warm its in-memory cache.
+ * </p>
+ *
+ * @since 4.3
+ */
+public class SingleFilePersistentCache implements EntityCapsPersistentCache {
+    private static final Logger LOGGER = Logger.getLogger(SingleFilePersistentCache.class.getName());
+
+    /**
+     * The eviction policy used once the cache exceeds its maximum size.
+     */
+    public enum EvictionPolicy {
+        /**
+         * Evict the least recently used nodes first.
+         */
+        LRU,
+
+        /**
+         * Evict the least frequently used nodes first.
+         */
+        LFU,
+    }
+
+    public static final long DEFAULT_MAX_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The magic number at the beginning of the file, 'SMCC'.
+     */
+    private static final int MAGIC = 0x534d4343;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_LENGTH = 8;
+
+    /**
+     * A record consists of the length of the payload, the type, the payload and the CRC32 of type and payload.
+     */
+    private static final int RECORD_OVERHEAD = 4 + 1 + 4;
+
+    private static final byte TYPE_ENTRY = 1;
+    private static final byte TYPE_REMOVE = 2;
+
+    private static final int COMPACTION_MIN_GARBAGE = 64 * 1024;
+
+    private static final Comparator<Map.Entry<String, RecordPosition>> LEAST_FREQUENTLY_USED_FIRST = new Comparator<Map.Entry<String, RecordPosition>>() {
+        @Override
+        public int compare(Map.Entry<String, RecordPosition> e1, Map.Entry<String, RecordPosition> e2) {
+            int hits1 = e1.getValue().hits;
+            int hits2 = e2.getValue().hits;
+            return hits1 < hits2 ? -1 : (hits1 == hits2 ? 0 : 1);
+        }
+    };
+
+    private final File file;
+
+    private final long maxSize;
+
+    private final EvictionPolicy evictionPolicy;
+
+    private final Executor writeExecutor = SmackConfiguration.getExecutionModel().newSerialExecutor();
+
+    /**
+     * Serializes the modifications of the file, i.e. appending records, evicting and compacting. Acquired before
+     * {@link #fileLock}.
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * Guards {@link #randomAccessFile} and {@link #end}. It is held for single reads and appends only, and acquired
+     * before the monitor of this cache, which guards the in-memory state.
+     */
+    private final Object fileLock = new Object();
+
+    /**
+     * Maps the node#ver strings to the positions of their records in the file. Ordered by access, i.e. the least
+     * recently used node comes first.
+     */
+    private final LinkedHashMap<String, RecordPosition> index = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The information which was added, but not yet written to the file, in the order it was added.
+     */
+    private final Map<String, DiscoverInfo> pendingWrites = new LinkedHashMap<>();
+
+    private RandomAccessFile randomAccessFile;
+
+    /**
+     * The end of the records in the file, new records are appended here.
+     */
+    private long end;
+
+    /**
+     * The number of bytes of the entry records referenced by the index.
+     */
+    private long liveBytes;
+
+    /**
+     * Creates a new SingleFilePersistentCache with a maximum size of {@link #DEFAULT_MAX_SIZE} bytes, which evicts the
+     * least recently used nodes first.
+     *
+     * @param file the file of the cache, which is created if it does not exist.
+     * @throws IOException if the file could not be read or created.
+     */
+    public SingleFilePersistentCache(File file) throws IOException {
+        this(file, DEFAULT_MAX_SIZE, EvictionPolicy.LRU);
+    }
+
+    /**
+     * Creates a new SingleFilePersistentCache. An existing file which is not a valid cache file is overwritten.
+     *
+     * @param file the file of the cache, which is created if it does not exist.
+     * @param maxSize the maximum size of the information of all nodes in bytes.
+     * @param evictionPolicy the eviction policy.
+     * @throws IOException if the file could not be read or created.
+     */
+    public SingleFilePersistentCache(File file, long maxSize, EvictionPolicy evictionPolicy) throws IOException {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be greater than zero");
+        }
+        this.file = file;
+        this.maxSize = maxSize;
+        this.evictionPolicy = evictionPolicy;
+        if (!file.exists() || !load()) {
+            rewrite(Collections.<String, byte[]>emptyMap());
+        }
+    }
+
+    @Override
+    public void addDiscoverInfoByNodePersistent(final String nodeVer, DiscoverInfo info) {
+        synchronized (this) {
+            // The information of a node#ver never changes, so there is no need to write it again.
+            if (index.containsKey(nodeVer) || pendingWrites.put(nodeVer, info) != null) {
+                return;
+            }
+        }
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writePending(nodeVer);
+            }
+        });
+    }
+
+    @Override
+    public DiscoverInfo lookup(String nodeVer) {
+        synchronized (this) {
+            DiscoverInfo info = pendingWrites.get(nodeVer);
+            if (info != null) {
+                return info;
+            }
+        }
+        byte[] payload;
+        try {
+            synchronized (fileLock) {
+                RecordPosition record;
+                synchronized (this) {
+                    record = index.get(nodeVer);
+                    if (record == null) {
+                        return null;
+                    }
+                    record.hits++;
+                }
+                payload = readPayload(record);
+            }
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not read info of " + nodeVer + " from " + file, e);
+            return null;
+        }
+        if (payload == null) {
+            LOGGER.warning("Invalid record for " + nodeVer + " in " + file);
+            return null;
+        }
+        try {
+            return decodeEntry(payload).info;
+        }
+        catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Could not restore info of " + nodeVer + " from " + file, e);
+            return null;
+        }
+    }
+
+    @Override
+    public void emptyCache() {
+        synchronized (writeLock) {
+            synchronized (this) {
+                pendingWrites.clear();
+            }
+            try {
+                rewrite(Collections.<String, byte[]>emptyMap());
+            }
+            catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Could not empty " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Write the information which was added, but not yet written in the background, to the file.
+     */
+    public void flush() {
+        List<String> nodeVers;
+        synchronized (this) {
+            nodeVers = new ArrayList<>(pendingWrites.keySet());
+        }
+        for (String nodeVer : nodeVers) {
+            writePending(nodeVer);
+        }
+    }
+
+    /**
+     * Load the information of the most recently or most frequently used nodes, depending on the eviction policy, from
+     * the file in one sequential read.
+     *
+     * @param maxEntries the maximum number of nodes to load.
+     * @return a map of node#ver strings to their information, where the most recently or frequently used node comes
+     *         last.
+     */
+    public Map<String, DiscoverInfo> loadAll(int maxEntries) {
+        Map<String, DiscoverInfo> result = new LinkedHashMap<>();
+        List<Map.Entry<String, RecordPosition>> entries;
+        byte[] records;
+        synchronized (fileLock) {
+            synchronized (this) {
+                entries = evictionOrder();
+            }
+            entries = entries.subList(Math.max(0, entries.size() - maxEntries), entries.size());
+            if (entries.isEmpty()) {
+                return result;
+            }
+            try {
+                records = new byte[(int) (end - HEADER_LENGTH)];
+                randomAccessFile.seek(HEADER_LENGTH);
+                randomAccessFile.readFully(records);
+            }
+            catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not read " + file, e);
+                return result;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(records);
+        for (Map.Entry<String, RecordPosition> entry : entries) {
+            byte[] payload = readValidPayload(buffer, (int) (entry.getValue().offset - HEADER_LENGTH));
+            if (payload == null) {
+                continue;
+            }
+            try {
+                result.put(entry.getKey(), decodeEntry(payload).info);
+            }
+            catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Could not restore info of " + entry.getKey() + " from " + file, e);
+            }
+        }
+        return result;
+    }
+
+    private void writePending(String nodeVer) {
+        synchronized (writeLock) {
+            DiscoverInfo info;
+            synchronized (this) {
+                // Keep the information in pendingWrites until it was written, so that lookups find it meanwhile.
+                info = pendingWrites.get(nodeVer);
+            }
+            if (info == null) {
+                // Already written by flush() or removed by emptyCache().
+                return;
+            }
+            try {
+                byte[] payload = encodeEntry(nodeVer, 0, info.toXML().toString());
+                RecordPosition record;
+                synchronized (fileLock) {
+                    record = append(TYPE_ENTRY, payload);
+                }
+                synchronized (this) {
+                    pendingWrites.remove(nodeVer);
+                    index.put(nodeVer, record);
+                    liveBytes += record.length;
+                }
+                evict(nodeVer);
+            }
+            catch (IOException e) {
+                synchronized (this) {
+                    pendingWrites.remove(nodeVer);
+                }
+                LOGGER.log(Level.SEVERE, "Failed to write disco info of " + nodeVer + " to " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Evict nodes until the cache does not exceed its maximum size anymore.
+     *
+     * @param addedNodeVer the node#ver which was just added, which is not evicted. Otherwise it would always be the
+     *        first victim of the LFU eviction policy.
+     */
+    private void evict(String addedNodeVer) throws IOException {
+        assert(Thread.holdsLock(writeLock));
+        List<String> victims = new ArrayList<>();
+        synchronized (this) {
+            if (liveBytes <= maxSize) {
+                return;
+            }
+            for (Map.Entry<String, RecordPosition> victim : evictionOrder()) {
+                if (liveBytes <= maxSize) {
+                    break;
+                }
+                String nodeVer = victim.getKey();
+                if (nodeVer.equals(addedNodeVer)) {
+                    continue;
+                }
+                index.remove(nodeVer);
+                liveBytes -= victim.getValue().length;
+                victims.add(nodeVer);
+            }
+        }
+        for (String nodeVer : victims) {
+            synchronized (fileLock) {
+                append(TYPE_REMOVE, nodeVer.getBytes(StringUtils.UTF8));
+            }
+        }
+        maybeCompact();
+    }
+
+    /**
+     * Returns the entries of the index in the order in which they are evicted, i.e. the entry which is evicted first
+     * comes first.
+     */
+    private List<Map.Entry<String, RecordPosition>> evictionOrder() {
+        assert(Thread.holdsLock(this));
+        List<Map.Entry<String, RecordPosition>> entries = new ArrayList<>(index.entrySet());
+        if (evictionPolicy == EvictionPolicy.LFU) {
+            // Stable, so nodes with the same number of hits are ordered by recency.
+            Collections.sort(entries, LEAST_FREQUENTLY_USED_FIRST);
+        }
+        return entries;
+    }
+
+    private void maybeCompact() throws IOException {
+        assert(Thread.holdsLock(writeLock));
+        List<Map.Entry<String, RecordPosition>> entries;
+        synchronized (this) {
+            // Only writers, which hold the write lock, modify 'end'.
+            long garbage = end - HEADER_LENGTH - liveBytes;
+            if (garbage < COMPACTION_MIN_GARBAGE || garbage < liveBytes) {
+                return;
+            }
+            entries = evictionOrder();
+        }
+        Map<String, byte[]> payloads = new LinkedHashMap<>();
+        for (Map.Entry<String, RecordPosition> entry : entries) {
+            RecordPosition record = entry.getValue();
+            byte[] payload;
+            synchronized (fileLock) {
+                payload = readPayload(record);
+            }
+            if (payload == null) {
+                continue;
+            }
+            int hits;
+            synchronized (this) {
+                hits = record.hits;
+            }
+            // Write the current number of hits, so that the LFU eviction continues to work after a restart.
+            Entry decoded = decodeEntryWithoutInfo(payload);
+            payloads.put(entry.getKey(), encodeEntry(entry.getKey(), hits, decoded.xml));
+        }
+        rewrite(payloads);
+    }
+
+    /**
+     * Write a new file with the given entry payloads, in eviction order, to a temporary file, which then replaces the
+     * current file. The file lock is only held while the files are swapped, not while the new file is written and
+     * synced.
+     */
+    private void rewrite(Map<String, byte[]> entryPayloads) throws IOException {
+        int size = HEADER_LENGTH;
+        for (byte[] payload : entryPayloads.values()) {
+            size += RECORD_OVERHEAD + payload.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putInt(FORMAT_VERSION);
+        LinkedHashMap<String, RecordPosition> newIndex = new LinkedHashMap<>(16, 0.75f, true);
+        long newLiveBytes = 0;
+        for (Map.Entry<String, byte[]> entry : entryPayloads.entrySet()) {
+            int offset = buffer.position();
+            putRecord(buffer, TYPE_ENTRY, entry.getValue());
+            RecordPosition record = new RecordPosition(offset, buffer.position() - offset, 0);
+            newIndex.put(entry.getKey(), record);
+            newLiveBytes += record.length;
+        }
+
+        File tmpFile = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmpFile);
+        try {
+            out.write(buffer.array());
+            out.getFD().sync();
+        }
+        finally {
+            out.close();
+        }
+
+        synchronized (fileLock) {
+            closeFile();
+            if (!tmpFile.renameTo(file)) {
+                // Some platforms, e.g. Windows, can not rename over an existing file.
+                if (!file.delete() || !tmpFile.renameTo(file)) {
+                    throw new IOException("Could not replace " + file + " with " + tmpFile);
+                }
+            }
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            end = size;
+            synchronized (this) {
+                for (Map.Entry<String, RecordPosition> entry : newIndex.entrySet()) {
+                    // Keep the hits of the lookups which happened while the new file was written.
+                    RecordPosition previous = index.get(entry.getKey());
+                    if (previous != null) {
+                        entry.getValue().hits = previous.hits;
+                    }
+                }
+                index.clear();
+                index.putAll(newIndex);
+                liveBytes = newLiveBytes;
+            }
+        }
+    }
+
+    /**
+     * Build the index by scanning the records of the file in one sequential read.
+     *
+     * @return true if the file is a valid cache file.
+     */
+    private boolean load() throws IOException {
+        closeFile();
+        index.clear();
+        liveBytes = 0;
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        long fileLength = randomAccessFile.length();
+        if (fileLength < HEADER_LENGTH || fileLength > Integer.MAX_VALUE) {
+            return false;
+        }
+        byte[] content = new byte[(int) fileLength];
+        randomAccessFile.readFully(content);
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+            return false;
+        }
+
+        int position = HEADER_LENGTH;
+        while (true) {
+            byte[] payload = readValidPayload(buffer, position);
+            if (payload == null) {
+                break;
+            }
+            int recordLength = RECORD_OVERHEAD + payload.length;
+            switch (buffer.get(position + 4)) {
+            case TYPE_ENTRY:
+                Entry entry = decodeEntryWithoutInfo(payload);
+                RecordPosition previous = index.put(entry.nodeVer, new RecordPosition(position, recordLength, entry.hits));
+                if (previous != null) {
+                    liveBytes -= previous.length;
+                }
+                liveBytes += recordLength;
+                break;
+            case TYPE_REMOVE:
+                RecordPosition removed = index.remove(new String(payload, StringUtils.UTF8));
+                if (removed != null) {
+                    liveBytes -= removed.length;
+                }
+                break;
+            default:
+                break;
+            }
+            position += recordLength;
+        }
+
+        end = position;
+        if (end < fileLength) {
+            // Discard the incomplete or corrupt records at the end.
+            randomAccessFile.setLength(end);
+        }
+        return true;
+    }
+
+    /**
+     * Reads the payload of the record at the given position of the buffer, if the record is complete and valid.
+     *
+     * @return the payload, or <code>null</code> if there is no valid record at the position.
+     */
+    private static byte[] readValidPayload(ByteBuffer buffer, int position) {
+        if (position < 0 || buffer.limit() - position < RECORD_OVERHEAD) {
+            return null;
+        }
+        int payloadLength = buffer.getInt(position);
+        if (payloadLength < 0 || payloadLength > buffer.limit() - position - RECORD_OVERHEAD) {
+            return null;
+        }
+        byte[] payload = new byte[payloadLength];
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(position + 5);
+        duplicate.get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.get(position + 4));
+        crc.update(payload);
+        if ((int) crc.getValue() != duplicate.getInt()) {
+            return null;
+        }
+        return payload;
+    }
+
+    private byte[] readPayload(RecordPosition record) throws IOException {
+        byte[] bytes = new byte[record.length];
+        randomAccessFile.seek(record.offset);
+        randomAccessFile.readFully(bytes);
+        return readValidPayload(ByteBuffer.wrap(bytes), 0);
+    }
+
+    private RecordPosition append(byte type, byte[] payload) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_OVERHEAD + payload.length);
+        putRecord(buffer, type, payload);
+        randomAccessFile.seek(end);
+        randomAccessFile.write(buffer.array());
+        RecordPosition record = new RecordPosition(end, buffer.capacity(), 0);
+        end += buffer.capacity();
+        return record;
+    }
+
+    private void closeFile() {
+        if (randomAccessFile == null) {
+            return;
+        }
+        try {
+            randomAccessFile.close();
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.FINE, "Could not close " + file, e);
+        }
+        randomAccessFile = null;
+    }
+
+    private static void putRecord(ByteBuffer buffer, byte type, byte[] payload) {
+        buffer.putInt(payload.length);
+        buffer.put(type);
+        buffer.put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    private static byte[] encodeEntry(String nodeVer, int hits, String xml) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + xml.length());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(nodeVer);
+        out.writeInt(hits);
+        out.write(xml.getBytes(StringUtils.UTF8));
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static Entry decodeEntryWithoutInfo(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        String nodeVer = in.readUTF();
+        int hits = in.readInt();
+        // readUTF() consumed two bytes for the length and the modified UTF-8 bytes of the string.
+        int xmlOffset = payload.length - in.available();
+        String xml = new String(payload, xmlOffset, payload.length - xmlOffset, StringUtils.UTF8);
+        return new Entry(nodeVer, hits, xml, null);
+    }
+
+    private static Entry decodeEntry(byte[] payload) throws Exception {
+        Entry entry = decodeEntryWithoutInfo(payload);
+        DiscoverInfo info = (DiscoverInfo) PacketParserUtils.parseStanza(entry.xml);
+        return new Entry(entry.nodeVer, entry.hits, entry.xml, info);
+    }
+
+    private static final class Entry {
+        private final String nodeVer;
+        private final int hits;
+        private final String xml;
+        private final DiscoverInfo info;
+
+        private Entry(String nodeVer, int hits, String xml, DiscoverInfo info) {
+            this.nodeVer = nodeVer;
+            this.hits = hits;
+            this.xml = xml;
+            this.info = info;
+        }
+    }
+
+    private static final class RecordPosition {
+        private final long offset;
+        private final int length;
+        private int hits;
+
+        private RecordPosition(long offset, int length, int hits) {
+            this.offset = offset;
+            this.length = length;
+            this.hits = hits;
+        }
+    }
+}
@@ -29,6 +29,7 @@ import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.packet.XMPPError;
+import org.jivesoftware.smack.util.Async;
 import org.jivesoftware.smack.util.Objects;
 import org.jivesoftware.smackx.caps.EntityCapsManager;
 import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
@@ -51,6 +52,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -88,6 +94,20 @@ public final class ServiceDiscoveryManager extends Manager {
     private Map<String, NodeInformationProvider> nodeInformationProviders =
             new ConcurrentHashMap<String, NodeInformationProvider>();
 
+    /**
+     * The disco#info and disco#items queries which are currently awaiting their response, concurrent identical queries
+     * share the response of the first one.
+     */
+    private final ConcurrentMap<String, InFlightQuery<? extends IQ>> inFlightQueries = new ConcurrentHashMap<>();
+
+    /**
+     * The entity caps node#ver whose disco#info is currently queried and verified, concurrent queries of entities with
+     * the same node#ver wait for the verified result of the first one.
+     */
+    private final ConcurrentMap<String, InFlightQuery<DiscoverInfo>> inFlightCapsQueries = new ConcurrentHashMap<>();
+
+    private int maxConcurrentQueries = 8;
+
     // Create a new ServiceDiscoveryManager on every established connection
     static {
         XMPPConnectionRegistry.addConnectionCreationListener(new ConnectionCreationListener() {
@@ -240,7 +260,9 @@ public final class ServiceDiscoveryManager extends Manager {
      * @param identity
      */
     public synchronized void addIdentity(DiscoverInfo.Identity identity) {
-        identities.add(identity);
+        if (!identities.add(identity)) {
+            return;
+        }
         // Notify others of a state change of SDM. In order to keep the state consistent, this
         // method is synchronized
         renewEntityCapsVersion();
@@ -255,7 +277,9 @@ public final class ServiceDiscoveryManager extends Manager {
      */
     public synchronized boolean removeIdentity(DiscoverInfo.Identity identity) {
         if (identity.equals(this.identity)) return false;
-        identities.remove(identity);
+        if (!identities.remove(identity)) {
+            return true;
+        }
         // Notify others of a state change of SDM. In order to keep the state consistent, this
         // method is synchronized
         renewEntityCapsVersion();
@@ -381,7 +405,10 @@ public final class ServiceDiscoveryManager extends Manager {
      * @param feature the feature to register as supported.
      */
     public synchronized void addFeature(String feature) {
-        features.add(feature);
+        if (!features.add(feature)) {
+            // The feature is already supported, the entity caps version does not change.
+            return;
+        }
         // Notify others of a state change of SDM. In order to keep the state consistent, this
         // method is synchronized
         renewEntityCapsVersion();
@@ -396,7 +423,9 @@ public final class ServiceDiscoveryManager extends Manager {
      * @param feature the feature to remove from the supported features.
      */
     public synchronized void removeFeature(String feature) {
-        features.remove(feature);
+        if (!features.remove(feature)) {
+            return;
+        }
         // Notify others of a state change of SDM. In order to keep the state consistent, this
         // method is synchronized
         renewEntityCapsVersion();
@@ -499,21 +528,76 @@ public final class ServiceDiscoveryManager extends Manager {
 
         // Try to get the newest node#version if it's known, otherwise null is
         // returned
-        EntityCapsManager.NodeVerHash nvh = EntityCapsManager.getNodeVerHashByJid(entityID);
+        final EntityCapsManager.NodeVerHash nvh = EntityCapsManager.getNodeVerHashByJid(entityID);
+
+        if (nvh == null) {
+            return discoverInfo(entityID, null);
+        }
+
+        // Entities with the same node#version have the same information, so if the information of the node#version
+        // is already queried from another entity, wait for the verified result of this query.
+        final InFlightQuery<DiscoverInfo> capsQuery = new InFlightQuery<>();
+        InFlightQuery<DiscoverInfo> existingCapsQuery = inFlightCapsQueries.putIfAbsent(nvh.getNodeVer(), capsQuery);
+        if (existingCapsQuery != null) {
+            info = existingCapsQuery.await(connection().getReplyTimeout());
+            if (info != null) {
+                // Every caller gets its own instance, as stanzas are mutable.
+                return new DiscoverInfo(info);
+            }
+            // The other query failed, timed out or its result could not be verified, query the entity itself.
+            info = discoverInfo(entityID, nvh.getNodeVer());
+            verifyAndAddDiscoverInfoByNode(nvh, info, null);
+            return info;
+        }
 
         // Discover by requesting the information from the remote entity
         // Note that wee need to use NodeVer as argument for Node if it exists
-        info = discoverInfo(entityID, nvh != null ? nvh.getNodeVer() : null);
-
-        // If the node version is known, store the new entry.
-        if (nvh != null) {
-            if (EntityCapsManager.verifyDiscoverInfoVersion(nvh.getVer(), nvh.getHash(), info))
-                EntityCapsManager.addDiscoverInfoByNode(nvh.getNodeVer(), info);
+        try {
+            info = discoverInfo(entityID, nvh.getNodeVer());
+        }
+        finally {
+            if (info == null) {
+                inFlightCapsQueries.remove(nvh.getNodeVer(), capsQuery);
+                capsQuery.complete(null, null);
+            }
         }
 
+        // The node version is known, verify and store the new entry.
+        verifyAndAddDiscoverInfoByNode(nvh, info, capsQuery);
+
         return info;
     }
 
+    /**
+     * Verify the given information against the given node, version and hash and add it to the entity caps cache if
+     * it is valid. Afterwards the in-flight query of the node#ver, if any, is completed, so that the threads waiting
+     * for it do not depend on another thread being available.
+     *
+     * @param nvh the node, version and hash announced by the entity.
+     * @param info the information of the entity.
+     * @param capsQuery the in-flight query of the node#ver, which is completed with the verified information, or
+     *        <code>null</code>.
+     */
+    private void verifyAndAddDiscoverInfoByNode(final EntityCapsManager.NodeVerHash nvh, final DiscoverInfo info,
+                    InFlightQuery<DiscoverInfo> capsQuery) {
+        DiscoverInfo verifiedInfo = null;
+        try {
+            if (EntityCapsManager.verifyDiscoverInfoVersion(nvh.getVer(), nvh.getHash(), info)) {
+                EntityCapsManager.addDiscoverInfoByNode(nvh.getNodeVer(), info);
+                verifiedInfo = info;
+            }
+            else {
+                LOGGER.fine("Could not verify service discovery information for " + nvh.getNodeVer());
+            }
+        }
+        finally {
+            if (capsQuery != null) {
+                inFlightCapsQueries.remove(nvh.getNodeVer(), capsQuery);
+                capsQuery.complete(verifiedInfo, null);
+            }
+        }
+    }
+
     /**
      * Returns the discovered information of a given XMPP entity addressed by its JID and
      * note attribute. Use this message only when trying to query information which is not 
@@ -537,9 +621,7 @@ public final class ServiceDiscoveryManager extends Manager {
         disco.setTo(entityID);
         disco.setNode(node);
 
-        Stanza result = connection().createStanzaCollectorAndSend(disco).nextResultOrThrow();
-
-        return (DiscoverInfo) result;
+        return query(disco, node);
     }
 
     /**
@@ -576,8 +658,73 @@ public final class ServiceDiscoveryManager extends Manager {
         disco.setTo(entityID);
         disco.setNode(node);
 
-        Stanza result = connection().createStanzaCollectorAndSend(disco).nextResultOrThrow();
-        return (DiscoverItems) result;
+        return query(disco, node);
+    }
+
+    /**
+     * Send the given disco#info or disco#items query and return the result. If an identical query, i.e. a query of the
+     * same kind for the same JID and node, is already awaiting its result, no new query is send and a copy of the
+     * result of the other query is returned instead.
+     *
+     * @param request the query.
+     * @param node the node of the query, or <code>null</code>.
+     * @return the result.
+     */
+    @SuppressWarnings("unchecked")
+    private <I extends IQ> I query(I request, String node) throws NoResponseException, XMPPErrorException,
+                    NotConnectedException, InterruptedException {
+        String key = request.getChildElementName() + ' ' + request.getTo() + (node != null ? '#' + node : "");
+        InFlightQuery<I> query = new InFlightQuery<>();
+        InFlightQuery<I> existingQuery = (InFlightQuery<I>) inFlightQueries.putIfAbsent(key, query);
+        if (existingQuery != null) {
+            I result = existingQuery.await(connection().getReplyTimeout());
+            if (result != null) {
+                return copyOf(result);
+            }
+            // The other query did not complete normally in time, e.g. because its thread was interrupted.
+            return connection().createStanzaCollectorAndSend(request).nextResultOrThrow();
+        }
+
+        I result = null;
+        Exception exception = null;
+        try {
+            result = connection().createStanzaCollectorAndSend(request).nextResultOrThrow();
+            return result;
+        }
+        catch (NoResponseException | XMPPErrorException | NotConnectedException e) {
+            exception = e;
+            throw e;
+        }
+        finally {
+            inFlightQueries.remove(key, query);
+            query.complete(result, exception);
+        }
+    }
+
+    /**
+     * Create a copy of the given disco#info or disco#items result, so that concurrent callers do not share a mutable
+     * stanza.
+     */
+    @SuppressWarnings("unchecked")
+    private static <I extends IQ> I copyOf(I result) {
+        if (result instanceof DiscoverInfo) {
+            return (I) new DiscoverInfo((DiscoverInfo) result);
+        }
+        return (I) new DiscoverItems((DiscoverItems) result);
+    }
+
+    /**
+     * Set the maximum number of disco#info queries {@link #findServicesDiscoverInfo(String, boolean, boolean)} sends
+     * concurrently to the items of the service. The default is 8.
+     *
+     * @param maxConcurrentQueries the maximum number of concurrent queries.
+     * @since 4.3
+     */
+    public void setMaxConcurrentQueries(int maxConcurrentQueries) {
+        if (maxConcurrentQueries <= 0) {
+            throw new IllegalArgumentException("maxConcurrentQueries must be greater than zero");
+        }
+        this.maxConcurrentQueries = maxConcurrentQueries;
     }
 
     /**
@@ -765,25 +912,11 @@ public final class ServiceDiscoveryManager extends Manager {
             LOGGER.log(Level.WARNING, "Could not discover items about service", e);
             return serviceDiscoInfo;
         }
-        for (DiscoverItems.Item item : items.getItems()) {
-            try {
-                // TODO is it OK here in all cases to query without the node attribute?
-                // MultipleRecipientManager queried initially also with the node attribute, but this
-                // could be simply a fault instead of intentional.
-                info = discoverInfo(item.getEntityID());
-            }
-            catch (XMPPErrorException | NoResponseException e) {
-                // Don't throw this exceptions if one of the server's items fail
-                LOGGER.log(Level.WARNING, "Exception while discovering info for feature " + feature
-                                + " of " + item.getEntityID() + " node: " + item.getNode(), e);
-                continue;
-            }
-            if (info.containsFeature(feature)) {
-                serviceDiscoInfo.add(info);
-                //serviceAddresses.add(item.getEntityID().asDomainBareJid());
-                if (stopOnFirst) {
-                    break;
-                }
+        for (DiscoverInfo itemInfo : discoverInfoOfItems(items.getItems(), feature, stopOnFirst)) {
+            serviceDiscoInfo.add(itemInfo);
+            //serviceAddresses.add(item.getEntityID().asDomainBareJid());
+            if (stopOnFirst) {
+                break;
             }
         }
         if (useCache) {
@@ -793,6 +926,90 @@ public final class ServiceDiscoveryManager extends Manager {
         return serviceDiscoInfo;
     }
 
+    /**
+     * Query the information of the given items concurrently, sending at most {@link #maxConcurrentQueries} queries at
+     * once, and return the information of the items which provide the given feature. The queries block until their
+     * response arrives, hence they are send from dedicated threads instead of occupying the threads of the shared
+     * executor, which are needed to process the responses.
+     *
+     * @param items the items.
+     * @param feature the feature to search for.
+     * @param stopOnFirst if true, no further queries are send once an item providing the feature was found.
+     * @return the information of the items providing the feature, in the order of the items.
+     */
+    private List<DiscoverInfo> discoverInfoOfItems(final List<DiscoverItems.Item> items, final String feature,
+                    final boolean stopOnFirst) throws NotConnectedException, InterruptedException {
+        final DiscoverInfo[] infos = new DiscoverInfo[items.size()];
+        final AtomicInteger nextItem = new AtomicInteger();
+        final AtomicBoolean found = new AtomicBoolean();
+        final Exception[] failure = new Exception[1];
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int index;
+                while ((index = nextItem.getAndIncrement()) < infos.length) {
+                    if (stopOnFirst && found.get()) {
+                        return;
+                    }
+                    DiscoverItems.Item item = items.get(index);
+                    try {
+                        // TODO is it OK here in all cases to query without the node attribute?
+                        // MultipleRecipientManager queried initially also with the node attribute, but this
+                        // could be simply a fault instead of intentional.
+                        DiscoverInfo info = discoverInfo(item.getEntityID());
+                        if (info.containsFeature(feature)) {
+                            infos[index] = info;
+                            found.set(true);
+                        }
+                    }
+                    catch (XMPPErrorException | NoResponseException e) {
+                        // Don't throw this exceptions if one of the server's items fail
+                        LOGGER.log(Level.WARNING, "Exception while discovering info for feature " + feature
+                                        + " of " + item.getEntityID() + " node: " + item.getNode(), e);
+                    }
+                    catch (NotConnectedException | InterruptedException e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                        return;
+                    }
+                }
+            }
+        };
+        int workerCount = Math.min(maxConcurrentQueries, infos.length);
+        List<Thread> workers = new ArrayList<>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            workers.add(Async.go(worker, "Smack Service Discovery Query (" + connection().getConnectionCounter() + ')'));
+        }
+        try {
+            for (Thread thread : workers) {
+                thread.join();
+            }
+        }
+        catch (InterruptedException e) {
+            for (Thread thread : workers) {
+                thread.interrupt();
+            }
+            throw e;
+        }
+
+        synchronized (failure) {
+            if (failure[0] instanceof NotConnectedException) {
+                throw (NotConnectedException) failure[0];
+            }
+            if (failure[0] instanceof InterruptedException) {
+                throw (InterruptedException) failure[0];
+            }
+        }
+        List<DiscoverInfo> result = new ArrayList<>();
+        for (DiscoverInfo info : infos) {
+            if (info != null) {
+                result.add(info);
+            }
+        }
+        return result;
+    }
+
     /**
      * Find all services under the users service that provide a given feature.
      * 
@@ -858,4 +1075,42 @@ public final class ServiceDiscoveryManager extends Manager {
         if (capsManager != null && capsManager.entityCapsEnabled())
             capsManager.updateLocalEntityCaps();
     }
+
+    /**
+     * A query awaiting its result, which other threads can wait for.
+     */
+    private static final class InFlightQuery<R extends IQ> {
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private R result;
+        private Exception exception;
+
+        private void complete(R result, Exception exception) {
+            this.result = result;
+            this.exception = exception;
+            completed.countDown();
+        }
+
+        /**
+         * Wait for the result of the query.
+         *
+         * @param timeout the maximum time to wait in milliseconds.
+         * @return the result, or <code>null</code> if the query did not complete with a result or an exception in time.
+         */
+        private R await(long timeout) throws NoResponseException, XMPPErrorException, NotConnectedException,
+                        InterruptedException {
+            if (!completed.await(timeout, TimeUnit.MILLISECONDS)) {
+                return null;
+            }
+            if (exception instanceof NoResponseException) {
+                throw (NoResponseException) exception;
+            }
+            if (exception instanceof XMPPErrorException) {
+                throw (XMPPErrorException) exception;
+            }
+            if (exception instanceof NotConnectedException) {
+                throw (NotConnectedException) exception;
+            }
+            return result;
+        }
+    }
 }
@@ -46,6 +46,28 @@ public class DiscoverItems extends IQ {
         super(ELEMENT, NAMESPACE);
     }
 
+    /**
+     * Copy constructor.
+     *
+     * @param d
+     * @since 4.3
+     */
+    public DiscoverItems(DiscoverItems d) {
+        super(d);
+
+        // Set node
+        setNode(d.getNode());
+
+        // Copy items
+        for (Item i : d.items) {
+            Item item = new Item(i.getEntityID());
+            item.setName(i.getName());
+            item.setNode(i.getNode());
+            item.setAction(i.getAction());
+            addItem(item);
+        }
+    }
+
     /**
      * Adds a new item to the discovered information.
      * 
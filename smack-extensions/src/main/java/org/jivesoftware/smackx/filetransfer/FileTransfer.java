@@ -19,6 +19,8 @@ package org.jivesoftware.smackx.filetransfer;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.jxmpp.jid.Jid;
 
@@ -31,6 +33,8 @@ import org.jxmpp.jid.Jid;
  */
 public abstract class FileTransfer {
 
+    private static final Logger LOGGER = Logger.getLogger(FileTransfer.class.getName());
+
     private String fileName;
 
     private String filePath;
@@ -39,7 +43,7 @@ public abstract class FileTransfer {
 
     private Jid peer;
 
-    private Status status = Status.initial;
+    private volatile Status status = Status.initial;
 
     private final Object statusMonitor = new Object();
 
@@ -47,16 +51,23 @@ public abstract class FileTransfer {
 
     protected String streamID;
 
-    protected long amountWritten = -1;
+    protected volatile long amountWritten = -1;
 
     private Error error;
 
     private Exception exception;
 
-    /**
-     * Buffer size between input and output
-     */
-    private static final int BUFFER_SIZE = 8192;
+    private final FileTransferEngine.ProgressMonitor progressMonitor = new FileTransferEngine.ProgressMonitor() {
+        @Override
+        public void progress(long transferred) {
+            amountWritten = transferred;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return getStatus() == Status.cancelled;
+        }
+    };
 
     protected FileTransfer(Jid peer, String streamID,
             FileTransferNegotiator negotiator) {
@@ -206,15 +217,41 @@ public abstract class FileTransfer {
     protected void writeToStream(final InputStream in, final OutputStream out)
                     throws IOException
     {
-        final byte[] b = new byte[BUFFER_SIZE];
-        int count = 0;
         amountWritten = 0;
+        FileTransferEngine.copy(in, out, progressMonitor);
+        checkAmountWritten();
+    }
 
-        while ((count = in.read(b)) > 0 && !getStatus().equals(Status.cancelled)) {
-            out.write(b, 0, count);
-            amountWritten += count;
-        }
+    /**
+     * Wrap the given part of this transfer, so that an unexpected exception thrown by it fails the transfer instead of
+     * leaving it in a non-terminal status.
+     *
+     * @param task the part of the transfer.
+     * @return the wrapped task.
+     */
+    Runnable failOnException(final Runnable task) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                }
+                catch (RuntimeException e) {
+                    LOGGER.log(Level.SEVERE, "Unexpected exception in file transfer " + streamID, e);
+                    setStatus(Status.error);
+                    setException(e);
+                }
+            }
+        };
+    }
+
+    void transferParallel(ParallelSocks5Transfer transfer) throws IOException {
+        amountWritten = 0;
+        transfer.transfer(progressMonitor);
+        checkAmountWritten();
+    }
 
+    private void checkAmountWritten() {
         // the connection was likely terminated abruptly if these are not equal
         if (!getStatus().equals(Status.cancelled) && getError() == Error.none
                 && amountWritten != fileSize) {
@@ -0,0 +1,282 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.filetransfer;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jivesoftware.smack.SmackConfiguration;
+
+/**
+ * Runs file transfers and copies their data.
+ * <p>
+ * All transfers copy their data on a bounded pool of worker threads, so that many concurrent transfers do not result
+ * in as many threads. The negotiation of a transfer is not run on this pool, as it may wait a long time for the remote
+ * entity to accept the transfer. If a file is transferred over a socket backed by a {@link SocketChannel}, the data is sent with
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, which lets the operating system
+ * move the data without copying it into the Java heap, and received into a direct buffer. Otherwise a buffer is used,
+ * which grows as long as the source keeps filling it.
+ * </p>
+ *
+ * @since 4.3
+ */
+public final class FileTransferEngine {
+
+    private static final int MIN_BUFFER_SIZE = 8 * 1024;
+
+    private static final int MAX_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * The maximum number of bytes sent by a single transferTo() call. Cancellation and progress are checked between
+     * the calls.
+     */
+    private static final long CHANNEL_CHUNK_SIZE = 1024 * 1024;
+
+    private static int maximumConcurrentTransfers = 8;
+
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(maximumConcurrentTransfers,
+                    maximumConcurrentTransfers, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new WorkerThreadFactory());
+
+    static {
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private FileTransferEngine() {
+    }
+
+    /**
+     * Set the maximum number of file transfers which copy their data concurrently. Further negotiated transfers are
+     * queued until a running one is done. The default is 8.
+     * <p>
+     * Note that a transfer between two connections of the same process needs one worker for each side.
+     * </p>
+     *
+     * @param maximumConcurrentTransfers the maximum number of concurrent transfers.
+     */
+    public static synchronized void setMaximumConcurrentTransfers(int maximumConcurrentTransfers) {
+        if (maximumConcurrentTransfers <= 0) {
+            throw new IllegalArgumentException("maximumConcurrentTransfers must be greater than zero");
+        }
+        // The core pool size must never exceed the maximum pool size.
+        if (maximumConcurrentTransfers > EXECUTOR.getMaximumPoolSize()) {
+            EXECUTOR.setMaximumPoolSize(maximumConcurrentTransfers);
+            EXECUTOR.setCorePoolSize(maximumConcurrentTransfers);
+        }
+        else {
+            EXECUTOR.setCorePoolSize(maximumConcurrentTransfers);
+            EXECUTOR.setMaximumPoolSize(maximumConcurrentTransfers);
+        }
+        FileTransferEngine.maximumConcurrentTransfers = maximumConcurrentTransfers;
+    }
+
+    /**
+     * Get the maximum number of file transfers which are run concurrently.
+     *
+     * @return the maximum number of concurrent transfers.
+     */
+    public static synchronized int getMaximumConcurrentTransfers() {
+        return maximumConcurrentTransfers;
+    }
+
+    static void execute(Runnable copy) {
+        EXECUTOR.execute(copy);
+    }
+
+    /**
+     * Copy all data from the input stream to the output stream. The streams are not closed.
+     * <p>
+     * A {@link FileInputStream} is copied to a {@link SocketChannelOutputStream}, and a
+     * {@link SocketChannelInputStream} is copied to a {@link FileOutputStream}, using their channels. All other
+     * streams are copied using a buffer.
+     * </p>
+     *
+     * @param in the stream to read the data from.
+     * @param out the stream to write the data to.
+     * @param monitor the monitor which is informed about the progress and may cancel the copying.
+     * @return the number of bytes copied.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static long copy(InputStream in, OutputStream out, ProgressMonitor monitor) throws IOException {
+        if (in instanceof FileInputStream && out instanceof SocketChannelOutputStream) {
+            out.flush();
+            return copy(((FileInputStream) in).getChannel(), ((SocketChannelOutputStream) out).channel, monitor);
+        }
+        if (in instanceof SocketChannelInputStream && out instanceof FileOutputStream) {
+            return copy((SocketChannelInputStream) in, ((FileOutputStream) out).getChannel(), monitor);
+        }
+        return copyBuffered(in, out, monitor);
+    }
+
+    private static long copy(FileChannel source, SocketChannel target, ProgressMonitor monitor) throws IOException {
+        long position = source.position();
+        long size = source.size();
+        long transferred = 0;
+        while (position < size && !monitor.isCancelled()) {
+            long count = source.transferTo(position, Math.min(CHANNEL_CHUNK_SIZE, size - position), target);
+            position += count;
+            transferred += count;
+            monitor.progress(transferred);
+        }
+        source.position(position);
+        return transferred;
+    }
+
+    private static long copy(SocketChannelInputStream source, FileChannel target, ProgressMonitor monitor)
+                    throws IOException {
+        long transferred = 0;
+        // Write the bytes already read from the socket, for example by a stream negotiator, first.
+        int buffered = source.getBufferedByteCount();
+        if (buffered > 0) {
+            byte[] bytes = new byte[buffered];
+            int count = source.read(bytes, 0, buffered);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, count);
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            transferred += count;
+            monitor.progress(transferred);
+        }
+        // FileChannel.transferFrom() copies data from a socket through a small intermediate buffer, use a large direct
+        // buffer instead. It keeps the data out of the Java heap as well, but needs far fewer system calls.
+        ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_BUFFER_SIZE);
+        while (!monitor.isCancelled()) {
+            int count = source.channel.read(buffer);
+            if (count < 0) {
+                break;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            buffer.clear();
+            transferred += count;
+            monitor.progress(transferred);
+        }
+        return transferred;
+    }
+
+    private static long copyBuffered(InputStream in, OutputStream out, ProgressMonitor monitor) throws IOException {
+        byte[] buffer = new byte[MIN_BUFFER_SIZE];
+        long transferred = 0;
+        int count;
+        while ((count = in.read(buffer)) > 0 && !monitor.isCancelled()) {
+            out.write(buffer, 0, count);
+            transferred += count;
+            monitor.progress(transferred);
+            // The source keeps up, use fewer and larger reads.
+            if (count == buffer.length && buffer.length < MAX_BUFFER_SIZE) {
+                buffer = new byte[buffer.length * 2];
+            }
+        }
+        return transferred;
+    }
+
+    /**
+     * Monitors the progress of copying data.
+     */
+    public interface ProgressMonitor {
+
+        /**
+         * Invoked after a chunk of data was copied.
+         *
+         * @param transferred the total number of bytes copied so far.
+         */
+        void progress(long transferred);
+
+        /**
+         * Check if the copying should be stopped. Invoked before every chunk of data.
+         *
+         * @return true if the copying should be stopped.
+         */
+        boolean isCancelled();
+    }
+
+    /**
+     * An output stream writing to the socket of a {@link SocketChannel}. Files copied to it are transferred by the
+     * channel.
+     */
+    public static final class SocketChannelOutputStream extends FilterOutputStream {
+
+        private final SocketChannel channel;
+
+        /**
+         * Create a new output stream writing to the socket of the given channel. The channel must be in blocking mode.
+         *
+         * @param channel the socket channel.
+         * @throws IOException if the output stream of the socket could not be created.
+         */
+        public SocketChannelOutputStream(SocketChannel channel) throws IOException {
+            super(channel.socket().getOutputStream());
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            // FilterOutputStream would write the bytes one by one.
+            out.write(b, off, len);
+        }
+    }
+
+    /**
+     * An input stream reading from the socket of a {@link SocketChannel}. Copying it to a file reads from the channel.
+     */
+    public static final class SocketChannelInputStream extends PushbackInputStream {
+
+        private final SocketChannel channel;
+
+        /**
+         * Create a new input stream reading from the socket of the given channel. The channel must be in blocking mode.
+         *
+         * @param channel the socket channel.
+         * @throws IOException if the input stream of the socket could not be created.
+         */
+        public SocketChannelInputStream(SocketChannel channel) throws IOException {
+            super(channel.socket().getInputStream());
+            this.channel = channel;
+        }
+
+        private synchronized int getBufferedByteCount() {
+            return buf.length - pos;
+        }
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = SmackConfiguration.getExecutionModel().newThread(runnable);
+            thread.setName("Smack File Transfer " + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -130,6 +130,36 @@ public final class FileTransferManager extends Manager {
                 fileTransferNegotiator);
     }
 
+    /**
+     * Set the number of parallel SOCKS5 Bytestreams used to transfer a file, which helps on links where a single TCP
+     * connection cannot use the available bandwidth, e.g. because of high latency. The default is 1, which disables
+     * parallel streams.
+     * <p>
+     * Parallel streams are only used between two Smack endpoints which both enabled them, and only for files sent with
+     * {@link OutgoingFileTransfer#sendFile(java.io.File, String)} and received with
+     * {@link IncomingFileTransfer#recieveFile(java.io.File)}. The file is split into one range per stream, and the
+     * receiver writes the ranges directly to their position in the file. The number of streams used is the smaller
+     * of the two endpoints' settings. Otherwise the file is transferred over a single stream, as usual.
+     * </p>
+     *
+     * @param parallelStreams the number of parallel streams, between 1 and 16.
+     * @since 4.3
+     */
+    public void setParallelStreams(int parallelStreams) {
+        fileTransferNegotiator.setParallelStreams(parallelStreams);
+    }
+
+    /**
+     * Get the number of parallel SOCKS5 Bytestreams used to transfer a file.
+     *
+     * @return the number of parallel streams.
+     * @see #setParallelStreams(int)
+     * @since 4.3
+     */
+    public int getParallelStreams() {
+        return fileTransferNegotiator.getParallelStreams();
+    }
+
     /**
      * When the file transfer request is acceptable, this method should be
      * invoked. It will create an IncomingFileTransfer which allows the
@@ -16,6 +16,7 @@
  */
 package org.jivesoftware.smackx.filetransfer;
 
+import java.io.IOException;
 import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -25,16 +26,21 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.jivesoftware.smack.Manager;
+import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
 import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.XMPPException.XMPPErrorException;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smack.packet.XMPPError;
 import org.jivesoftware.smackx.bytestreams.ibb.packet.DataPacketExtension;
+import org.jivesoftware.smackx.bytestreams.socks5.Socks5BytestreamSession;
 import org.jivesoftware.smackx.bytestreams.socks5.packet.Bytestream;
 import org.jivesoftware.smackx.disco.ServiceDiscoveryManager;
 import org.jivesoftware.smackx.filetransfer.FileTransferException.NoAcceptableTransferMechanisms;
@@ -54,6 +60,8 @@ import org.jxmpp.jid.Jid;
  */
 public final class FileTransferNegotiator extends Manager {
 
+    private static final Logger LOGGER = Logger.getLogger(FileTransferNegotiator.class.getName());
+
     public static final String SI_NAMESPACE = "http://jabber.org/protocol/si";
     public static final String SI_PROFILE_FILE_TRANSFER_NAMESPACE = "http://jabber.org/protocol/si/profile/file-transfer";
     private static final String[] NAMESPACE = { SI_NAMESPACE, SI_PROFILE_FILE_TRANSFER_NAMESPACE };
@@ -161,10 +169,12 @@ public final class FileTransferNegotiator extends Manager {
 
     // non-static
 
-    private final StreamNegotiator byteStreamTransferManager;
+    private final Socks5TransferNegotiator byteStreamTransferManager;
 
     private final StreamNegotiator inbandTransferManager;
 
+    private int parallelStreams = 1;
+
     private FileTransferNegotiator(final XMPPConnection connection) {
         super(connection);
         byteStreamTransferManager = new Socks5TransferNegotiator(connection);
@@ -173,6 +183,145 @@ public final class FileTransferNegotiator extends Manager {
         setServiceEnabled(connection, true);
     }
 
+    /**
+     * Set the number of parallel SOCKS5 Bytestreams to use for transferring a file. See
+     * {@link FileTransferManager#setParallelStreams(int)}.
+     *
+     * @param parallelStreams the number of parallel streams, 1 disables parallel streams.
+     */
+    synchronized void setParallelStreams(int parallelStreams) {
+        if (parallelStreams < 1 || parallelStreams > ParallelSocks5Transfer.MAX_STREAMS) {
+            throw new IllegalArgumentException("parallelStreams must be between 1 and "
+                            + ParallelSocks5Transfer.MAX_STREAMS);
+        }
+        ServiceDiscoveryManager manager = ServiceDiscoveryManager.getInstanceFor(connection());
+        if (parallelStreams > 1) {
+            manager.addFeature(ParallelSocks5Transfer.NAMESPACE);
+        }
+        else {
+            manager.removeFeature(ParallelSocks5Transfer.NAMESPACE);
+        }
+        this.parallelStreams = parallelStreams;
+    }
+
+    synchronized int getParallelStreams() {
+        return parallelStreams;
+    }
+
+    /**
+     * Returns the number of parallel streams to offer the peer for transferring a file. That is 1 if parallel streams
+     * are disabled or the peer does not announce support for them, including if its service discovery information
+     * could not be retrieved.
+     *
+     * @param peer the peer to send the file to.
+     * @return the number of parallel streams to offer.
+     * @throws NotConnectedException
+     * @throws InterruptedException
+     */
+    int getParallelStreamsToOffer(Jid peer) throws NotConnectedException, InterruptedException {
+        int parallelStreams = getParallelStreams();
+        if (parallelStreams == 1 || IBB_ONLY) {
+            return 1;
+        }
+        try {
+            if (!ServiceDiscoveryManager.getInstanceFor(connection()).supportsFeature(peer,
+                            ParallelSocks5Transfer.NAMESPACE)) {
+                return 1;
+            }
+        }
+        catch (NoResponseException | XMPPErrorException e) {
+            LOGGER.log(Level.FINE, "Could not discover if " + peer + " supports parallel streams", e);
+            return 1;
+        }
+        return parallelStreams;
+    }
+
+    /**
+     * Returns the number of parallel streams to accept for an incoming file transfer request. That is 1 if parallel
+     * streams are disabled, or the request does not offer them over SOCKS5 Bytestreams.
+     *
+     * @param request the file transfer request.
+     * @return the number of parallel streams to accept.
+     */
+    int getParallelStreamsToAccept(FileTransferRequest request) {
+        int parallelStreams = getParallelStreams();
+        if (parallelStreams == 1 || IBB_ONLY) {
+            return 1;
+        }
+        DataForm form = request.getStreamInitiation().getFeatureNegotiationForm();
+        FormField streamMethodField = getStreamMethodField(form);
+        if (streamMethodField == null) {
+            return 1;
+        }
+        for (FormField.Option option : streamMethodField.getOptions()) {
+            if (option.getValue().equals(Bytestream.NAMESPACE)) {
+                return Math.min(parallelStreams, getParallelStreams(form));
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Accepts an incoming file transfer request using parallel SOCKS5 Bytestreams.
+     *
+     * @param request the file transfer request.
+     * @param streams the number of streams to accept, as returned by
+     *        {@link #getParallelStreamsToAccept(FileTransferRequest)}.
+     * @return the accepted sessions, ordered by their index.
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws SmackException
+     * @throws XMPPErrorException
+     */
+    List<Socks5BytestreamSession> acceptParallelStreams(FileTransferRequest request, int streams)
+                    throws IOException, InterruptedException, SmackException, XMPPErrorException {
+        StreamInitiation offer = request.getStreamInitiation();
+        StreamInitiation response = StreamNegotiator.createInitiationAccept(offer,
+                        new String[] { Bytestream.NAMESPACE });
+        FormField field = new FormField(ParallelSocks5Transfer.NAMESPACE);
+        field.addValue(Integer.toString(streams));
+        response.getFeatureNegotiationForm().addField(field);
+        return byteStreamTransferManager.acceptSessions(offer, response, streams);
+    }
+
+    /**
+     * Establishes parallel SOCKS5 Bytestreams to transfer a file, after the peer accepted them.
+     *
+     * @param peer the peer to send the file to.
+     * @param streamID the stream ID of the file transfer.
+     * @param streams the number of streams accepted by the peer.
+     * @return the established sessions, ordered by their index.
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws SmackException
+     * @throws XMPPException
+     */
+    List<Socks5BytestreamSession> establishParallelStreams(Jid peer, String streamID, int streams)
+                    throws IOException, InterruptedException, SmackException, XMPPException {
+        return byteStreamTransferManager.establishSessions(peer, streamID, streams);
+    }
+
+    /**
+     * Returns the number of parallel streams in a stream initiation form, or 1 if it contains none.
+     */
+    private static int getParallelStreams(DataForm form) {
+        FormField field = form.getField(ParallelSocks5Transfer.NAMESPACE);
+        if (field == null || field.getValues().isEmpty()) {
+            return 1;
+        }
+        int streams;
+        try {
+            streams = Integer.parseInt(field.getValues().get(0));
+        }
+        catch (NumberFormatException e) {
+            return 1;
+        }
+        if (streams < 1 || streams > ParallelSocks5Transfer.MAX_STREAMS) {
+            return 1;
+        }
+        return streams;
+    }
+
     /**
      * Selects an appropriate stream negotiator after examining the incoming file transfer request.
      *
@@ -301,6 +450,24 @@ public final class FileTransferNegotiator extends Manager {
     public StreamNegotiator negotiateOutgoingTransfer(final Jid userID,
             final String streamID, final String fileName, final long size,
             final String desc, int responseTimeout) throws XMPPErrorException, NotConnectedException, NoResponseException, NoAcceptableTransferMechanisms, InterruptedException {
+        StreamInitiation response = offerOutgoingTransfer(userID, streamID, fileName, size, desc, responseTimeout, 1);
+        if (response == null) {
+            return null;
+        }
+        return getOutgoingNegotiator(response);
+    }
+
+    /**
+     * Send a request to another user to send them a file, like
+     * {@link #negotiateOutgoingTransfer(Jid, String, String, long, String, int)}, and offer to transfer the file
+     * over parallel streams.
+     *
+     * @param parallelStreams the number of parallel streams to offer, 1 to not offer parallel streams.
+     * @return the response of the other user.
+     */
+    StreamInitiation offerOutgoingTransfer(final Jid userID,
+            final String streamID, final String fileName, final long size,
+            final String desc, int responseTimeout, int parallelStreams) throws XMPPErrorException, NotConnectedException, NoResponseException, InterruptedException {
         StreamInitiation si = new StreamInitiation();
         si.setSessionID(streamID);
         si.setMimeType(URLConnection.guessContentTypeFromName(fileName));
@@ -309,7 +476,14 @@ public final class FileTransferNegotiator extends Manager {
         siFile.setDesc(desc);
         si.setFile(siFile);
 
-        si.setFeatureNegotiationForm(createDefaultInitiationForm());
+        DataForm form = createDefaultInitiationForm();
+        if (parallelStreams > 1) {
+            FormField field = new FormField(ParallelSocks5Transfer.NAMESPACE);
+            field.setType(FormField.Type.text_single);
+            field.addValue(Integer.toString(parallelStreams));
+            form.addField(field);
+        }
+        si.setFeatureNegotiationForm(form);
 
         si.setFrom(connection().getUser());
         si.setTo(userID);
@@ -321,10 +495,7 @@ public final class FileTransferNegotiator extends Manager {
         if (siResponse instanceof IQ) {
             IQ iqResponse = (IQ) siResponse;
             if (iqResponse.getType().equals(IQ.Type.result)) {
-                StreamInitiation response = (StreamInitiation) siResponse;
-                return getOutgoingNegotiator(getStreamMethodField(response
-                        .getFeatureNegotiationForm()));
-
+                return (StreamInitiation) siResponse;
             }
             else {
                 throw new XMPPErrorException(iqResponse, iqResponse.getError());
@@ -335,6 +506,28 @@ public final class FileTransferNegotiator extends Manager {
         }
     }
 
+    /**
+     * Returns the number of parallel streams the other user accepted in the response to a file transfer offer.
+     *
+     * @param response the response to the offer.
+     * @param offeredStreams the number of offered streams.
+     * @return the number of accepted streams, or 1 if the other user did not accept parallel streams.
+     */
+    static int getAcceptedParallelStreams(StreamInitiation response, int offeredStreams) {
+        DataForm form = response.getFeatureNegotiationForm();
+        int streams = getParallelStreams(form);
+        FormField streamMethodField = getStreamMethodField(form);
+        if (streams > offeredStreams || streamMethodField == null
+                        || !streamMethodField.getValues().contains(Bytestream.NAMESPACE)) {
+            return 1;
+        }
+        return streams;
+    }
+
+    StreamNegotiator getOutgoingNegotiator(StreamInitiation response) throws NoAcceptableTransferMechanisms {
+        return getOutgoingNegotiator(getStreamMethodField(response.getFeatureNegotiationForm()));
+    }
+
     private StreamNegotiator getOutgoingNegotiator(final FormField field) throws NoAcceptableTransferMechanisms {
         boolean isByteStream = false;
         boolean isIBB = false;
@@ -22,6 +22,8 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.FutureTask;
@@ -30,9 +32,11 @@ import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.jivesoftware.smack.SmackConfiguration;
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.XMPPException.XMPPErrorException;
+import org.jivesoftware.smackx.bytestreams.socks5.Socks5BytestreamSession;
 
 
 /**
@@ -125,9 +129,23 @@ public class IncomingFileTransfer extends FileTransfer {
                 throw new IllegalArgumentException("Cannot write to provided file");
         }
 
-        Thread transferThread = new Thread(new Runnable() {
+        Thread transferThread = SmackConfiguration.getExecutionModel().newThread(failOnException(new Runnable() {
             @Override
             public void run() {
+                int parallelStreams = negotiator.getParallelStreamsToAccept(recieveRequest);
+                if (parallelStreams > 1) {
+                    final List<Socks5BytestreamSession> sessions = negotiateParallelStreams(parallelStreams);
+                    if (sessions == null) {
+                        return;
+                    }
+                    FileTransferEngine.execute(failOnException(new Runnable() {
+                        @Override
+                        public void run() {
+                            recieveFileParallel(file, sessions);
+                        }
+                    }));
+                    return;
+                }
                 try {
                     inputStream = negotiateStream();
                 }
@@ -137,46 +155,106 @@ public class IncomingFileTransfer extends FileTransfer {
                     return;
                 }
 
-                OutputStream outputStream = null;
-                try {
-                    outputStream = new FileOutputStream(file);
-                    setStatus(Status.in_progress);
-                    writeToStream(inputStream, outputStream);
-                }
-                catch (FileNotFoundException e) {
-                    setStatus(Status.error);
-                    setError(Error.bad_file);
-                    setException(e);
-                }
-                catch (IOException e) {
-                    setStatus(Status.error);
-                    setError(Error.stream);
-                    setException(e);
-                }
-
-
-                if (getStatus().equals(Status.in_progress)) {
-                    setStatus(Status.complete);
-                }
-                if (inputStream != null) {
-                    try {
-                        inputStream.close();
-                    } catch (IOException e) {
-                        LOGGER.log(Level.WARNING, "Closing input stream", e);
-                    }
-                }
-                if (outputStream != null) {
-                    try {
-                        outputStream.close();
-                    } catch (IOException e) {
-                        LOGGER.log(Level.WARNING, "Closing output stream", e);
+                // Only the copying of the data occupies a worker of the FileTransferEngine, so that the transfer is
+                // accepted right away even if other transfers are in progress.
+                FileTransferEngine.execute(failOnException(new Runnable() {
+                    @Override
+                    public void run() {
+                        recieveFileData(file);
                     }
-                }
+                }));
             }
-        }, "File Transfer " + streamID);
+        }));
+        transferThread.setName("File Transfer " + streamID);
         transferThread.start();
     }
 
+    private void recieveFileData(File file) {
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(file);
+            setStatus(Status.in_progress);
+            writeToStream(inputStream, outputStream);
+        }
+        catch (FileNotFoundException e) {
+            setStatus(Status.error);
+            setError(Error.bad_file);
+            setException(e);
+        }
+        catch (IOException e) {
+            setStatus(Status.error);
+            setError(Error.stream);
+            setException(e);
+        }
+
+
+        if (getStatus().equals(Status.in_progress)) {
+            setStatus(Status.complete);
+        }
+        if (inputStream != null) {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Closing input stream", e);
+            }
+        }
+        if (outputStream != null) {
+            try {
+                outputStream.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Closing output stream", e);
+            }
+        }
+    }
+
+    private List<Socks5BytestreamSession> negotiateParallelStreams(int parallelStreams) {
+        try {
+            setStatus(Status.negotiating_transfer);
+            setStatus(Status.negotiating_stream);
+            List<Socks5BytestreamSession> sessions = negotiator.acceptParallelStreams(recieveRequest, parallelStreams);
+            setStatus(Status.negotiated);
+            return sessions;
+        }
+        catch (Exception e) {
+            setStatus(Status.error);
+            setException(e);
+            return null;
+        }
+    }
+
+    private void recieveFileParallel(File file, List<Socks5BytestreamSession> sessions) {
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            randomAccessFile.setLength(0);
+            setStatus(Status.in_progress);
+            // The ranges are written at their position in the file as they arrive.
+            transferParallel(ParallelSocks5Transfer.receive(sessions, randomAccessFile.getChannel(), getFileSize()));
+        }
+        catch (FileNotFoundException e) {
+            setStatus(Status.error);
+            setError(Error.bad_file);
+            setException(e);
+        }
+        catch (IOException e) {
+            setStatus(Status.error);
+            setError(Error.stream);
+            setException(e);
+        }
+
+        if (getStatus().equals(Status.in_progress)) {
+            setStatus(Status.complete);
+        }
+        ParallelSocks5Transfer.closeQuietly(sessions);
+        if (randomAccessFile != null) {
+            try {
+                randomAccessFile.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Closing file", e);
+            }
+        }
+    }
+
     private InputStream negotiateStream() throws SmackException, XMPPErrorException, InterruptedException {
         setStatus(Status.negotiating_transfer);
         final StreamNegotiator streamNegotiator = negotiator
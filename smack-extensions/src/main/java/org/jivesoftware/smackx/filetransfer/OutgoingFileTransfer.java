@@ -22,14 +22,18 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.jivesoftware.smack.SmackConfiguration;
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.SmackException.IllegalStateChangeException;
 import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.XMPPException.XMPPErrorException;
 import org.jivesoftware.smack.packet.XMPPError;
+import org.jivesoftware.smackx.bytestreams.socks5.Socks5BytestreamSession;
+import org.jivesoftware.smackx.si.packet.StreamInitiation;
 import org.jxmpp.jid.Jid;
 
 /**
@@ -75,6 +79,8 @@ public class OutgoingFileTransfer extends FileTransfer {
 
     private Thread transferThread;
 
+    private List<Socks5BytestreamSession> parallelSessions;
+
     protected OutgoingFileTransfer(Jid initiator, Jid target,
             String streamID, FileTransferNegotiator transferNegotiator) {
         super(target, streamID, transferNegotiator);
@@ -173,7 +179,7 @@ public class OutgoingFileTransfer extends FileTransfer {
         }
         setFileInfo(fileName, fileSize);
         this.callback = progress;
-        transferThread = new Thread(new Runnable() {
+        transferThread = SmackConfiguration.getExecutionModel().newThread(failOnException(new Runnable() {
             @Override
             public void run() {
                 try {
@@ -188,12 +194,14 @@ public class OutgoingFileTransfer extends FileTransfer {
                     setException(e);
                 }
             }
-        }, "File Transfer Negotiation " + streamID);
+        }));
+        transferThread.setName("File Transfer Negotiation " + streamID);
         transferThread.start();
     }
 
     private void checkTransferThread() {
-        if ((transferThread != null && transferThread.isAlive()) || isDone()) {
+        // Once negotiated, the data of a transfer is copied by the FileTransferEngine while it is in progress.
+        if ((transferThread != null && transferThread.isAlive()) || getStatus() == Status.in_progress || isDone()) {
             throw new IllegalStateException(
                     "File transfer in progress or has already completed.");
         }
@@ -209,6 +217,10 @@ public class OutgoingFileTransfer extends FileTransfer {
      * <LI>{@link FileTransfer#getProgress()}
      * <LI>{@link FileTransfer#isDone()}
      * </UL>
+     * <p>
+     * The file is sent over parallel streams if they are enabled, see
+     * {@link FileTransferManager#setParallelStreams(int)}, and the remote entity supports them.
+     * </p>
      *
      * @param file the file to transfer to the remote entity.
      * @param description a description for the file to transfer.
@@ -225,12 +237,12 @@ public class OutgoingFileTransfer extends FileTransfer {
             setFileInfo(file.getAbsolutePath(), file.getName(), file.length());
         }
 
-        transferThread = new Thread(new Runnable() {
+        transferThread = SmackConfiguration.getExecutionModel().newThread(failOnException(new Runnable() {
             @Override
             public void run() {
                 try {
                     outputStream = negotiateStream(file.getName(), file
-                            .length(), description);
+                            .length(), description, true);
                 } catch (XMPPErrorException e) {
                     handleXMPPException(e);
                     return;
@@ -246,37 +258,56 @@ public class OutgoingFileTransfer extends FileTransfer {
                     return;
                 }
 
-                InputStream inputStream = null;
+                // Only the copying of the data occupies a worker of the FileTransferEngine, the negotiation may
+                // wait a long time for the remote entity to accept the transfer.
+                FileTransferEngine.execute(failOnException(new Runnable() {
+                    @Override
+                    public void run() {
+                        sendFileData(file);
+                    }
+                }));
+            }
+        }));
+        transferThread.setName("File Transfer " + streamID);
+        transferThread.start();
+    }
+
+    private void sendFileData(File file) {
+        FileInputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            if (parallelSessions != null) {
+                transferParallel(ParallelSocks5Transfer.send(inputStream.getChannel(), parallelSessions));
+            }
+            else {
+                writeToStream(inputStream, outputStream);
+            }
+        } catch (FileNotFoundException e) {
+            setStatus(FileTransfer.Status.error);
+            setError(Error.bad_file);
+            setException(e);
+        } catch (IOException e) {
+            setStatus(FileTransfer.Status.error);
+            setException(e);
+        } finally {
+            if (inputStream != null) {
                 try {
-                    inputStream = new FileInputStream(file);
-                    writeToStream(inputStream, outputStream);
-                } catch (FileNotFoundException e) {
-                    setStatus(FileTransfer.Status.error);
-                    setError(Error.bad_file);
-                    setException(e);
+                    inputStream.close();
                 } catch (IOException e) {
-                    setStatus(FileTransfer.Status.error);
-                    setException(e);
-                } finally {
-                        if (inputStream != null) {
-                            try {
-                                inputStream.close();
-                            } catch (IOException e) {
-                                LOGGER.log(Level.WARNING, "Closing input stream", e);
-                            }
-                        }
-
-                        try {
-                            outputStream.close();
-                        } catch (IOException e) {
-                            LOGGER.log(Level.WARNING, "Closing output stream", e);
-                        }
-                }
-                updateStatus(Status.in_progress, FileTransfer.Status.complete);
+                    LOGGER.log(Level.WARNING, "Closing input stream", e);
                 }
+            }
 
-        }, "File Transfer " + streamID);
-        transferThread.start();
+            try {
+                outputStream.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Closing output stream", e);
+            }
+            if (parallelSessions != null) {
+                ParallelSocks5Transfer.closeQuietly(parallelSessions);
+            }
+        }
+        updateStatus(Status.in_progress, FileTransfer.Status.complete);
     }
 
     /**
@@ -299,7 +330,7 @@ public class OutgoingFileTransfer extends FileTransfer {
         checkTransferThread();
 
         setFileInfo(fileName, fileSize);
-        transferThread = new Thread(new Runnable() {
+        transferThread = SmackConfiguration.getExecutionModel().newThread(failOnException(new Runnable() {
             @Override
             public void run() {
                 //Create packet filter
@@ -319,28 +350,40 @@ public class OutgoingFileTransfer extends FileTransfer {
                 if (!updateStatus(Status.negotiated, Status.in_progress)) {
                     return;
                 }
-                try {
-                    writeToStream(in, outputStream);
-                } catch (IOException e) {
-                    setStatus(FileTransfer.Status.error);
-                    setException(e);
-                } finally {
-                    try {
-                        if (in != null) {
-                            in.close();
-                        }
-
-                        outputStream.flush();
-                        outputStream.close();
-                    } catch (IOException e) {
-                        /* Do Nothing */
+
+                // Only the copying of the data occupies a worker of the FileTransferEngine, the negotiation may
+                // wait a long time for the remote entity to accept the transfer.
+                FileTransferEngine.execute(failOnException(new Runnable() {
+                    @Override
+                    public void run() {
+                        sendStreamData(in);
                     }
-                }
-                updateStatus(Status.in_progress, FileTransfer.Status.complete);
+                }));
+            }
+        }));
+        transferThread.setName("File Transfer " + streamID);
+        transferThread.start();
+    }
+
+    private void sendStreamData(InputStream in) {
+        try {
+            writeToStream(in, outputStream);
+        } catch (IOException e) {
+            setStatus(FileTransfer.Status.error);
+            setException(e);
+        } finally {
+            try {
+                if (in != null) {
+                    in.close();
                 }
 
-        }, "File Transfer " + streamID);
-        transferThread.start();
+                outputStream.flush();
+                outputStream.close();
+            } catch (IOException e) {
+                /* Do Nothing */
+            }
+        }
+        updateStatus(Status.in_progress, FileTransfer.Status.complete);
     }
 
     private void handleXMPPException(XMPPErrorException e) {
@@ -379,21 +422,43 @@ public class OutgoingFileTransfer extends FileTransfer {
 
     private OutputStream negotiateStream(String fileName, long fileSize,
             String description) throws SmackException, XMPPException, InterruptedException {
+        return negotiateStream(fileName, fileSize, description, false);
+    }
+
+    private OutputStream negotiateStream(String fileName, long fileSize,
+            String description, boolean offerParallelStreams) throws SmackException, XMPPException, InterruptedException {
         // Negotiate the file transfer profile
 
         if (!updateStatus(Status.initial, Status.negotiating_transfer)) {
             throw new IllegalStateChangeException();
         }
-        StreamNegotiator streamNegotiator = negotiator.negotiateOutgoingTransfer(
+        int offeredStreams = 1;
+        if (offerParallelStreams) {
+            offeredStreams = negotiator.getParallelStreamsToOffer(getPeer());
+        }
+        StreamInitiation response = negotiator.offerOutgoingTransfer(
                 getPeer(), streamID, fileName, fileSize, description,
-                RESPONSE_TIMEOUT);
+                RESPONSE_TIMEOUT, offeredStreams);
+        int streams = FileTransferNegotiator.getAcceptedParallelStreams(response, offeredStreams);
 
         // Negotiate the stream
         if (!updateStatus(Status.negotiating_transfer, Status.negotiating_stream)) {
             throw new IllegalStateChangeException();
         }
-        outputStream = streamNegotiator.createOutgoingStream(streamID,
-                initiator, getPeer());
+        if (streams > 1) {
+            try {
+                parallelSessions = negotiator.establishParallelStreams(getPeer(), streamID, streams);
+                outputStream = parallelSessions.get(0).getOutputStream();
+            }
+            catch (IOException e) {
+                throw new SmackException("error establishing SOCKS5 Bytestreams", e);
+            }
+        }
+        else {
+            StreamNegotiator streamNegotiator = negotiator.getOutgoingNegotiator(response);
+            outputStream = streamNegotiator.createOutgoingStream(streamID,
+                    initiator, getPeer());
+        }
 
         if (!updateStatus(Status.negotiating_stream, Status.negotiated)) {
             throw new IllegalStateChangeException();
@@ -0,0 +1,258 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.filetransfer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.util.Async;
+import org.jivesoftware.smackx.bytestreams.socks5.Socks5BytestreamSession;
+import org.jivesoftware.smackx.filetransfer.FileTransferEngine.ProgressMonitor;
+
+/**
+ * Transfers a file over several SOCKS5 Bytestreams at once. The file is split into as many consecutive ranges of
+ * (almost) the same size as there are streams, stream <i>i</i> carries range <i>i</i>. Each range is read and
+ * written at its position in the file, so the receiver writes the ranges concurrently into the target file without
+ * reassembling them afterwards.
+ * <p>
+ * This is a Smack specific extension, peers announce support for it with the {@link #NAMESPACE} feature. The
+ * initiator offers the number of streams it wants to use with a field of the same name in the stream initiation
+ * form, the target responds with the number of streams it accepts. The session ID of the first stream is the stream
+ * ID of the file transfer, the one of stream <i>i</i> is the stream ID followed by '-' and <i>i</i>.
+ * </p>
+ */
+final class ParallelSocks5Transfer {
+
+    private static final Logger LOGGER = Logger.getLogger(ParallelSocks5Transfer.class.getName());
+
+    static final String NAMESPACE = "http://www.igniterealtime.org/protocol/smack/si/parallel-streams";
+
+    /**
+     * The maximum number of parallel streams of a single file transfer.
+     */
+    static final int MAX_STREAMS = 16;
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final long TRANSFER_TO_CHUNK_SIZE = 1024 * 1024;
+
+    private final List<Socks5BytestreamSession> sessions;
+
+    private final FileChannel file;
+
+    private final long size;
+
+    private final boolean sending;
+
+    private ParallelSocks5Transfer(List<Socks5BytestreamSession> sessions, FileChannel file, long size,
+                    boolean sending) {
+        this.sessions = sessions;
+        this.file = file;
+        this.size = size;
+        this.sending = sending;
+    }
+
+    static ParallelSocks5Transfer send(FileChannel source, List<Socks5BytestreamSession> sessions) throws IOException {
+        return new ParallelSocks5Transfer(sessions, source, source.size(), true);
+    }
+
+    static ParallelSocks5Transfer receive(List<Socks5BytestreamSession> sessions, FileChannel target, long size) {
+        return new ParallelSocks5Transfer(sessions, target, size, false);
+    }
+
+    static String getSessionID(String streamID, int index) {
+        if (index == 0) {
+            return streamID;
+        }
+        return streamID + '-' + index;
+    }
+
+    static void closeQuietly(List<Socks5BytestreamSession> sessions) {
+        for (Socks5BytestreamSession session : sessions) {
+            try {
+                session.close();
+            }
+            catch (IOException e) {
+                LOGGER.log(Level.FINE, "Could not close SOCKS5 Bytestream", e);
+            }
+        }
+    }
+
+    /**
+     * Transfer the ranges of all streams concurrently. If the transfer of one range fails, all streams are closed.
+     *
+     * @param monitor the monitor which is informed about the total progress and may cancel the transfer.
+     * @return the total number of bytes transferred.
+     * @throws IOException if the transfer of a range failed.
+     */
+    long transfer(ProgressMonitor monitor) throws IOException {
+        final SharedProgressMonitor sharedMonitor = new SharedProgressMonitor(monitor);
+        int count = sessions.size();
+        List<FutureTask<Long>> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final Socks5BytestreamSession session = sessions.get(i);
+            final long start = size * i / count;
+            final long end = size * (i + 1) / count;
+            FutureTask<Long> task = new FutureTask<>(new Callable<Long>() {
+                @Override
+                public Long call() throws IOException {
+                    if (sending) {
+                        return send(session, start, end, sharedMonitor);
+                    }
+                    return receive(session, start, end, sharedMonitor);
+                }
+            });
+            tasks.add(task);
+            if (i > 0) {
+                // The ranges block on their socket for the whole transfer, hence they get dedicated threads. They
+                // occupy neither the file transfer workers nor the shared executor, which processes the incoming
+                // stanzas, and the ranges of a transfer never wait for other work.
+                Async.go(task, "Parallel SOCKS5 Transfer Range " + i);
+            }
+        }
+        tasks.get(0).run();
+
+        long transferred = 0;
+        IOException exception = null;
+        for (FutureTask<Long> task : tasks) {
+            try {
+                transferred += task.get();
+            }
+            catch (ExecutionException e) {
+                if (exception == null) {
+                    exception = new IOException("Transferring a range failed");
+                    exception.initCause(e.getCause());
+                    // Unblock the transfers of the other ranges.
+                    closeQuietly(sessions);
+                }
+            }
+            catch (InterruptedException e) {
+                closeQuietly(sessions);
+                InterruptedIOException interruptedException = new InterruptedIOException();
+                interruptedException.initCause(e);
+                throw interruptedException;
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+        return transferred;
+    }
+
+    private long send(Socks5BytestreamSession session, long start, long end, SharedProgressMonitor monitor)
+                    throws IOException {
+        long position = start;
+        SocketChannel channel = session.getSocketChannel();
+        if (channel != null) {
+            while (position < end && !monitor.isCancelled()) {
+                long count = file.transferTo(position, Math.min(TRANSFER_TO_CHUNK_SIZE, end - position), channel);
+                position += count;
+                monitor.add(count);
+            }
+        }
+        else {
+            OutputStream out = session.getOutputStream();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (position < end && !monitor.isCancelled()) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                int count = file.read(buffer, position);
+                if (count < 0) {
+                    break;
+                }
+                out.write(buffer.array(), 0, count);
+                position += count;
+                monitor.add(count);
+            }
+            out.flush();
+        }
+        return position - start;
+    }
+
+    private long receive(Socks5BytestreamSession session, long start, long end, SharedProgressMonitor monitor)
+                    throws IOException {
+        long position = start;
+        SocketChannel channel = session.getSocketChannel();
+        ByteBuffer buffer;
+        InputStream in = null;
+        if (channel != null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        else {
+            buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            in = session.getInputStream();
+        }
+        while (position < end && !monitor.isCancelled()) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int count;
+            if (channel != null) {
+                count = channel.read(buffer);
+            }
+            else {
+                count = in.read(buffer.array(), 0, buffer.limit());
+                if (count > 0) {
+                    buffer.position(count);
+                }
+            }
+            if (count < 0) {
+                break;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += file.write(buffer, position);
+            }
+            monitor.add(count);
+        }
+        return position - start;
+    }
+
+    /**
+     * Sums up the progress of the ranges.
+     */
+    private static final class SharedProgressMonitor {
+
+        private final ProgressMonitor monitor;
+
+        private final AtomicLong transferred = new AtomicLong();
+
+        private SharedProgressMonitor(ProgressMonitor monitor) {
+            this.monitor = monitor;
+        }
+
+        private void add(long count) {
+            monitor.progress(transferred.addAndGet(count));
+        }
+
+        private boolean isCancelled() {
+            return monitor.isCancelled();
+        }
+    }
+}
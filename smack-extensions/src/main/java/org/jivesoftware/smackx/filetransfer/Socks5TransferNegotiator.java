@@ -20,17 +20,25 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PushbackInputStream;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.SmackException.NoResponseException;
+import org.jivesoftware.smack.SmackException.NotConnectedException;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.XMPPException.XMPPErrorException;
+import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.util.EventManger.Callback;
 import org.jivesoftware.smackx.bytestreams.socks5.Socks5BytestreamManager;
 import org.jivesoftware.smackx.bytestreams.socks5.Socks5BytestreamRequest;
 import org.jivesoftware.smackx.bytestreams.socks5.Socks5BytestreamSession;
 import org.jivesoftware.smackx.bytestreams.socks5.packet.Bytestream;
+import org.jivesoftware.smackx.filetransfer.FileTransferEngine.SocketChannelInputStream;
+import org.jivesoftware.smackx.filetransfer.FileTransferEngine.SocketChannelOutputStream;
 import org.jivesoftware.smackx.si.packet.StreamInitiation;
 import org.jxmpp.jid.Jid;
 
@@ -54,7 +62,13 @@ public class Socks5TransferNegotiator extends StreamNegotiator {
     public OutputStream createOutgoingStream(String streamID, Jid initiator, Jid target) throws NoResponseException, SmackException, XMPPException
                     {
         try {
-            return this.manager.establishSession(target, streamID).getOutputStream();
+            Socks5BytestreamSession session = this.manager.establishSession(target, streamID);
+            SocketChannel channel = session.getSocketChannel();
+            if (channel != null) {
+                // allows the file to be transferred by the channel
+                return new SocketChannelOutputStream(channel);
+            }
+            return session.getOutputStream();
         }
         catch (IOException e) {
             throw new SmackException("error establishing SOCKS5 Bytestream", e);
@@ -104,7 +118,15 @@ public class Socks5TransferNegotiator extends StreamNegotiator {
 
         // test input stream
         try {
-            PushbackInputStream stream = new PushbackInputStream(session.getInputStream());
+            SocketChannel channel = session.getSocketChannel();
+            PushbackInputStream stream;
+            if (channel != null) {
+                // allows the file to be transferred by the channel
+                stream = new SocketChannelInputStream(channel);
+            }
+            else {
+                stream = new PushbackInputStream(session.getInputStream());
+            }
             int firstByte = stream.read();
             stream.unread(firstByte);
             return stream;
@@ -114,6 +136,116 @@ public class Socks5TransferNegotiator extends StreamNegotiator {
         }
     }
 
+    /**
+     * Establishes the SOCKS5 Bytestreams of a file transfer using parallel streams. The first one is established
+     * right away, every further one once the target signaled on the first one that it is ready to accept it.
+     *
+     * @param target the target of the file transfer.
+     * @param streamID the stream ID of the file transfer.
+     * @param count the number of streams.
+     * @return the established sessions, ordered by their index.
+     * @throws IOException if a stream could not be established.
+     * @throws InterruptedException if interrupted.
+     * @throws SmackException if a stream could not be established or the target did not signal that it is ready.
+     * @throws XMPPException if a stream could not be established.
+     */
+    List<Socks5BytestreamSession> establishSessions(Jid target, String streamID, int count)
+                    throws IOException, InterruptedException, SmackException, XMPPException {
+        List<Socks5BytestreamSession> sessions = new ArrayList<>(count);
+        boolean established = false;
+        try {
+            Socks5BytestreamSession firstSession = this.manager.establishSession(target, streamID);
+            sessions.add(firstSession);
+            InputStream readySignals = firstSession.getInputStream();
+            firstSession.setReadTimeout((int) connection().getReplyTimeout());
+            for (int i = 1; i < count; i++) {
+                if (readySignals.read() != i) {
+                    throw new SmackException("Target not ready to accept parallel stream " + i);
+                }
+                sessions.add(this.manager.establishSession(target, ParallelSocks5Transfer.getSessionID(streamID, i)));
+            }
+            firstSession.setReadTimeout(0);
+            established = true;
+        }
+        finally {
+            if (!established) {
+                ParallelSocks5Transfer.closeQuietly(sessions);
+            }
+        }
+        return sessions;
+    }
+
+    /**
+     * Accepts the SOCKS5 Bytestreams of a file transfer using parallel streams. Sends the response to the stream
+     * initiation offer and accepts the first stream, then signals on the first stream that the next one can be
+     * established and accepts it, until all streams are established.
+     *
+     * @param offer the stream initiation offer.
+     * @param response the response accepting the offer.
+     * @param count the number of streams.
+     * @return the accepted sessions, ordered by their index.
+     * @throws IOException if signaling that the target is ready failed.
+     * @throws InterruptedException if interrupted.
+     * @throws SmackException if a stream could not be established.
+     * @throws XMPPErrorException if the initiator sent an error.
+     */
+    List<Socks5BytestreamSession> acceptSessions(StreamInitiation offer, final StreamInitiation response, int count)
+                    throws IOException, InterruptedException, SmackException, XMPPErrorException {
+        final XMPPConnection connection = connection();
+        final Jid initiator = offer.getFrom();
+        final String streamID = offer.getSessionID();
+        for (int i = 0; i < count; i++) {
+            // The streams are handled here, not by the bytestream listeners.
+            this.manager.ignoreBytestreamRequestOnce(ParallelSocks5Transfer.getSessionID(streamID, i));
+        }
+
+        List<Socks5BytestreamSession> sessions = new ArrayList<>(count);
+        boolean accepted = false;
+        try {
+            IQ request = waitForStreamMethodInitiation(connection, initiator, streamID, new Callback<NotConnectedException>() {
+                @Override
+                public void action() throws NotConnectedException {
+                    try {
+                        connection.sendStanza(response);
+                    }
+                    catch (InterruptedException e) {
+                        // Ignore
+                    }
+                }
+            });
+            sessions.add(new ByteStreamRequest(this.manager, (Bytestream) request).accept());
+            final OutputStream readySignals = sessions.get(0).getOutputStream();
+            for (int i = 1; i < count; i++) {
+                final int index = i;
+                final IOException[] signalException = new IOException[1];
+                request = waitForStreamMethodInitiation(connection, initiator,
+                                ParallelSocks5Transfer.getSessionID(streamID, i), new Callback<NotConnectedException>() {
+                    @Override
+                    public void action() {
+                        try {
+                            readySignals.write(index);
+                            readySignals.flush();
+                        }
+                        catch (IOException e) {
+                            signalException[0] = e;
+                        }
+                    }
+                });
+                if (signalException[0] != null) {
+                    throw signalException[0];
+                }
+                sessions.add(new ByteStreamRequest(this.manager, (Bytestream) request).accept());
+            }
+            accepted = true;
+        }
+        finally {
+            if (!accepted) {
+                ParallelSocks5Transfer.closeQuietly(sessions);
+            }
+        }
+        return sessions;
+    }
+
     /**
      * Derive from Socks5BytestreamRequest to access protected constructor.
      */
@@ -98,20 +98,39 @@ public abstract class StreamNegotiator extends Manager {
 
         newStreamInitiation(initiation.getFrom(), initiation.getSessionID());
 
-        final String eventKey = initiation.getFrom().toString() + '\t' + initiation.getSessionID();
+        return waitForStreamMethodInitiation(connection, initiation.getFrom(), initiation.getSessionID(), new Callback<NotConnectedException>() {
+            @Override
+            public void action() throws NotConnectedException {
+                try {
+                    connection.sendStanza(response);
+                }
+                catch (InterruptedException e) {
+                    // Ignore
+                }
+            }
+        });
+    }
+
+    /**
+     * Performs the action and waits for the stream method initiation, e.g. the XEP-65 Bytestream IQ, the action
+     * causes the initiator to send.
+     *
+     * @param connection the connection.
+     * @param from the initiator of the stream.
+     * @param sessionID the session ID of the stream.
+     * @param action the action causing the initiator to initiate the stream.
+     * @return the stream method initiation.
+     * @throws NoResponseException if the initiator did not initiate the stream in time.
+     * @throws XMPPErrorException if the stream method initiation is an error.
+     * @throws NotConnectedException if the action throws it.
+     */
+    static IQ waitForStreamMethodInitiation(XMPPConnection connection, Jid from, String sessionID,
+                    Callback<NotConnectedException> action)
+                    throws NoResponseException, XMPPErrorException, NotConnectedException {
+        final String eventKey = from.toString() + '\t' + sessionID;
         IQ streamMethodInitiation;
         try {
-            streamMethodInitiation = initationSetEvents.performActionAndWaitForEvent(eventKey, connection.getReplyTimeout(), new Callback<NotConnectedException>() {
-                @Override
-                public void action() throws NotConnectedException {
-                    try {
-                        connection.sendStanza(response);
-                    }
-                    catch (InterruptedException e) {
-                        // Ignore
-                    }
-                }
-            });
+            streamMethodInitiation = initationSetEvents.performActionAndWaitForEvent(eventKey, connection.getReplyTimeout(), action);
         }
         catch (InterruptedException e) {
             // TODO remove this try/catch once merged into 4.2's master branch
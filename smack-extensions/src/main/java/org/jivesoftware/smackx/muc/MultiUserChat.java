@@ -24,6 +24,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -144,6 +146,13 @@ public class MultiUserChat {
     private String subject;
     private Resourcepart nickname;
     private boolean joined = false;
+
+    /**
+     * Guards entering, leaving and changing the nickname. A Lock is used instead of a monitor, as those operations
+     * block until the MUC service responds, which would pin the carrier thread of a virtual thread.
+     */
+    private final Lock enterLock = new ReentrantLock();
+
     private StanzaCollector messageCollector;
 
     MultiUserChat(XMPPConnection connection, EntityBareJid room, MultiUserChatManager multiUserChatManager) {
@@ -400,21 +409,27 @@ public class MultiUserChat {
      * @throws MissingMucCreationAcknowledgeException 
      * @throws NotAMucServiceException 
      */
-    public synchronized MucCreateConfigFormHandle create(Resourcepart nickname) throws NoResponseException,
+    public MucCreateConfigFormHandle create(Resourcepart nickname) throws NoResponseException,
                     XMPPErrorException, InterruptedException, MucAlreadyJoinedException,
                     NotConnectedException, MissingMucCreationAcknowledgeException, NotAMucServiceException {
-        if (joined) {
-            throw new MucAlreadyJoinedException();
-        }
+        enterLock.lock();
+        try {
+            if (joined) {
+                throw new MucAlreadyJoinedException();
+            }
 
-        MucCreateConfigFormHandle mucCreateConfigFormHandle = createOrJoin(nickname);
-        if (mucCreateConfigFormHandle != null) {
-            // We successfully created a new room
-            return mucCreateConfigFormHandle;
+            MucCreateConfigFormHandle mucCreateConfigFormHandle = createOrJoin(nickname);
+            if (mucCreateConfigFormHandle != null) {
+                // We successfully created a new room
+                return mucCreateConfigFormHandle;
+            }
+            // We need to leave the room since it seems that the room already existed
+            leave();
+            throw new MissingMucCreationAcknowledgeException();
+        }
+        finally {
+            enterLock.unlock();
         }
-        // We need to leave the room since it seems that the room already existed
-        leave();
-        throw new MissingMucCreationAcknowledgeException();
     }
 
     /**
@@ -429,10 +444,16 @@ public class MultiUserChat {
      * @throws MucAlreadyJoinedException 
      * @throws NotAMucServiceException 
      */
-    public synchronized MucCreateConfigFormHandle createOrJoin(Resourcepart nickname) throws NoResponseException, XMPPErrorException,
+    public MucCreateConfigFormHandle createOrJoin(Resourcepart nickname) throws NoResponseException, XMPPErrorException,
                     InterruptedException, MucAlreadyJoinedException, NotConnectedException, NotAMucServiceException {
-        MucEnterConfiguration mucEnterConfiguration = getEnterConfigurationBuilder(nickname).build();
-        return createOrJoin(mucEnterConfiguration);
+        enterLock.lock();
+        try {
+            MucEnterConfiguration mucEnterConfiguration = getEnterConfigurationBuilder(nickname).build();
+            return createOrJoin(mucEnterConfiguration);
+        }
+        finally {
+            enterLock.unlock();
+        }
     }
 
     /**
@@ -480,21 +501,27 @@ public class MultiUserChat {
      * @throws NotConnectedException 
      * @throws NotAMucServiceException 
      */
-    public synchronized MucCreateConfigFormHandle createOrJoin(MucEnterConfiguration mucEnterConfiguration)
+    public MucCreateConfigFormHandle createOrJoin(MucEnterConfiguration mucEnterConfiguration)
                     throws NoResponseException, XMPPErrorException, InterruptedException, MucAlreadyJoinedException, NotConnectedException, NotAMucServiceException {
-        if (joined) {
-            throw new MucAlreadyJoinedException();
-        }
+        enterLock.lock();
+        try {
+            if (joined) {
+                throw new MucAlreadyJoinedException();
+            }
 
-        Presence presence = enter(mucEnterConfiguration);
+            Presence presence = enter(mucEnterConfiguration);
 
-        // Look for confirmation of room creation from the server
-        MUCUser mucUser = MUCUser.from(presence);
-        if (mucUser != null && mucUser.getStatus().contains(Status.ROOM_CREATED_201)) {
-            // Room was created and the user has joined the room
-            return new MucCreateConfigFormHandle();
+            // Look for confirmation of room creation from the server
+            MUCUser mucUser = MUCUser.from(presence);
+            if (mucUser != null && mucUser.getStatus().contains(Status.ROOM_CREATED_201)) {
+                // Room was created and the user has joined the room
+                return new MucCreateConfigFormHandle();
+            }
+            return null;
+        }
+        finally {
+            enterLock.unlock();
         }
-        return null;
     }
 
     /**
@@ -692,14 +719,20 @@ public class MultiUserChat {
      * @throws InterruptedException 
      * @throws NotAMucServiceException 
      */
-    public synchronized void join(MucEnterConfiguration mucEnterConfiguration)
+    public void join(MucEnterConfiguration mucEnterConfiguration)
         throws XMPPErrorException, NoResponseException, NotConnectedException, InterruptedException, NotAMucServiceException {
-        // If we've already joined the room, leave it before joining under a new
-        // nickname.
-        if (joined) {
-            leave();
+        enterLock.lock();
+        try {
+            // If we've already joined the room, leave it before joining under a new
+            // nickname.
+            if (joined) {
+                leave();
+            }
+            enter(mucEnterConfiguration);
+        }
+        finally {
+            enterLock.unlock();
         }
-        enter(mucEnterConfiguration);
     }
 
     /**
@@ -717,21 +750,27 @@ public class MultiUserChat {
      * @throws NotConnectedException 
      * @throws InterruptedException 
      */
-    public synchronized void leave() throws NotConnectedException, InterruptedException {
-        // If not joined already, do nothing.
-        if (!joined) {
-            return;
+    public void leave() throws NotConnectedException, InterruptedException {
+        enterLock.lock();
+        try {
+            // If not joined already, do nothing.
+            if (!joined) {
+                return;
+            }
+            // We leave a room by sending a presence packet where the "to"
+            // field is in the form "roomName@service/nickname"
+            Presence leavePresence = new Presence(Presence.Type.unavailable);
+            leavePresence.setTo(JidCreate.fullFrom(room, nickname));
+            connection.sendStanza(leavePresence);
+            // Reset occupant information.
+            occupantsMap.clear();
+            nickname = null;
+            joined = false;
+            userHasLeft();
+        }
+        finally {
+            enterLock.unlock();
         }
-        // We leave a room by sending a presence packet where the "to"
-        // field is in the form "roomName@service/nickname"
-        Presence leavePresence = new Presence(Presence.Type.unavailable);
-        leavePresence.setTo(JidCreate.fullFrom(room, nickname));
-        connection.sendStanza(leavePresence);
-        // Reset occupant information.
-        occupantsMap.clear();
-        nickname = null;
-        joined = false;
-        userHasLeft();
     }
 
     /**
@@ -1075,31 +1114,37 @@ public class MultiUserChat {
      * @throws InterruptedException 
      * @throws MucNotJoinedException 
      */
-    public synchronized void changeNickname(Resourcepart nickname) throws NoResponseException, XMPPErrorException, NotConnectedException, InterruptedException, MucNotJoinedException  {
-        StringUtils.requireNotNullOrEmpty(nickname, "Nickname must not be null or blank.");
-        // Check that we already have joined the room before attempting to change the
-        // nickname.
-        if (!joined) {
-            throw new MucNotJoinedException(this);
+    public void changeNickname(Resourcepart nickname) throws NoResponseException, XMPPErrorException, NotConnectedException, InterruptedException, MucNotJoinedException  {
+        enterLock.lock();
+        try {
+            StringUtils.requireNotNullOrEmpty(nickname, "Nickname must not be null or blank.");
+            // Check that we already have joined the room before attempting to change the
+            // nickname.
+            if (!joined) {
+                throw new MucNotJoinedException(this);
+            }
+            final EntityFullJid jid = JidCreate.fullFrom(room, nickname);
+            // We change the nickname by sending a presence packet where the "to"
+            // field is in the form "roomName@service/nickname"
+            // We don't have to signal the MUC support again
+            Presence joinPresence = new Presence(Presence.Type.available);
+            joinPresence.setTo(jid);
+
+            // Wait for a presence packet back from the server.
+            StanzaFilter responseFilter =
+                new AndFilter(
+                    FromMatchesFilter.createFull(jid),
+                    new StanzaTypeFilter(Presence.class));
+            StanzaCollector response = connection.createStanzaCollectorAndSend(responseFilter, joinPresence);
+            // Wait up to a certain number of seconds for a reply. If there is a negative reply, an
+            // exception will be thrown
+            response.nextResultOrThrow();
+
+            this.nickname = nickname;
+        }
+        finally {
+            enterLock.unlock();
         }
-        final EntityFullJid jid = JidCreate.fullFrom(room, nickname);
-        // We change the nickname by sending a presence packet where the "to"
-        // field is in the form "roomName@service/nickname"
-        // We don't have to signal the MUC support again
-        Presence joinPresence = new Presence(Presence.Type.available);
-        joinPresence.setTo(jid);
-
-        // Wait for a presence packet back from the server.
-        StanzaFilter responseFilter =
-            new AndFilter(
-                FromMatchesFilter.createFull(jid),
-                new StanzaTypeFilter(Presence.class));
-        StanzaCollector response = connection.createStanzaCollectorAndSend(responseFilter, joinPresence);
-        // Wait up to a certain number of seconds for a reply. If there is a negative reply, an
-        // exception will be thrown
-        response.nextResultOrThrow();
-
-        this.nickname = nickname;
     }
 
     /**
@@ -2013,10 +2058,16 @@ public class MultiUserChat {
     /**
      * Remove all callbacks and resources necessary when the user has left the room for some reason.
      */
-    private synchronized void userHasLeft() {
-        // Update the list of joined rooms
-        multiUserChatManager.removeJoinedRoom(room);
-        removeConnectionCallbacks();
+    private void userHasLeft() {
+        enterLock.lock();
+        try {
+            // Update the list of joined rooms
+            multiUserChatManager.removeJoinedRoom(room);
+            removeConnectionCallbacks();
+        }
+        finally {
+            enterLock.unlock();
+        }
     }
 
     /**
@@ -20,14 +20,13 @@ import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.jivesoftware.smack.AbstractConnectionClosedListener;
+import org.jivesoftware.smack.SmackConfiguration;
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
@@ -41,7 +40,7 @@ import org.jivesoftware.smack.iqrequest.AbstractIqRequestHandler;
 import org.jivesoftware.smack.iqrequest.IQRequestHandler.Mode;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.IQ.Type;
-import org.jivesoftware.smack.util.SmackExecutorThreadFactory;
+import org.jivesoftware.smack.util.HashedWheelTimer;
 import org.jivesoftware.smackx.disco.ServiceDiscoveryManager;
 import org.jivesoftware.smackx.ping.packet.Ping;
 import org.jxmpp.jid.Jid;
@@ -106,8 +105,6 @@ public final class PingManager extends Manager {
 
     private final Set<PingFailedListener> pingFailedListeners = new CopyOnWriteArraySet<>();
 
-    private final ScheduledExecutorService executorService;
-
     /**
      * The interval in seconds between pings are send to the users server.
      */
@@ -117,8 +114,6 @@ public final class PingManager extends Manager {
 
     private PingManager(XMPPConnection connection) {
         super(connection);
-        executorService = Executors.newSingleThreadScheduledExecutor(
-                        new SmackExecutorThreadFactory(connection, "Ping"));
         ServiceDiscoveryManager sdm = ServiceDiscoveryManager.getInstanceFor(connection);
         sdm.addFeature(Ping.NAMESPACE);
 
@@ -320,7 +315,8 @@ public final class PingManager extends Manager {
             int nextPingIn = pingInterval - delta;
             LOGGER.fine("Scheduling ServerPingTask in " + nextPingIn + " seconds (pingInterval="
                             + pingInterval + ", delta=" + delta + ")");
-            nextAutomaticPing = executorService.schedule(pingServerRunnable, nextPingIn, TimeUnit.SECONDS);
+            nextAutomaticPing = HashedWheelTimer.getInstance().schedule(pingServerRunnable, nextPingIn,
+                            TimeUnit.SECONDS);
         }
     }
 
@@ -404,20 +400,18 @@ public final class PingManager extends Manager {
         @Override
         public void run() {
             LOGGER.fine("ServerPingTask run()");
-            pingServerIfNecessary();
+            XMPPConnection connection = connection();
+            if (connection == null) {
+                // connection has been collected by GC
+                return;
+            }
+            // Pinging the server blocks, so do not ping from the timer thread.
+            SmackConfiguration.getExecutionModel().execute(new Runnable() {
+                @Override
+                public void run() {
+                    pingServerIfNecessary();
+                }
+            });
         }
     };
-
-    @Override
-    protected void finalize() throws Throwable {
-        LOGGER.fine("finalizing PingManager: Shutting down executor service");
-        try {
-            executorService.shutdown();
-        } catch (Throwable t) {
-            LOGGER.log(Level.WARNING, "finalize() threw throwable", t);
-        }
-        finally {
-            super.finalize();
-        }
-    }
 }
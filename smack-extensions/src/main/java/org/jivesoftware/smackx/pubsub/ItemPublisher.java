@@ -0,0 +1,243 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.pubsub;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jivesoftware.smack.ExceptionCallback;
+import org.jivesoftware.smack.SmackConfiguration;
+import org.jivesoftware.smack.SmackFuture;
+import org.jivesoftware.smack.SmackFuture.InternalSmackFuture;
+import org.jivesoftware.smack.SuccessCallback;
+import org.jivesoftware.smack.XMPPException.XMPPErrorException;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.IQ.Type;
+import org.jivesoftware.smack.packet.XMPPError;
+import org.jivesoftware.smackx.pubsub.packet.PubSub;
+
+/**
+ * Publishes items to a {@link LeafNode} without waiting for each publish request to be acknowledged.
+ * <p>
+ * Up to {@code maxInFlightRequests} publish requests are pipelined. Items published while the window is full are
+ * batched, up to {@code itemsPerRequest} items per request, and send as soon as one of the pending requests was
+ * acknowledged. If the batch is full as well, {@link #publish(Item)} blocks until there is room again, which provides
+ * backpressure to the publishing thread.
+ * </p>
+ * <p>
+ * Note that recent versions of XEP-0060 allow only one item per publish request. If the service rejects a request
+ * with multiple items, the items are re-published one by one and the publisher no longer batches items.
+ * </p>
+ * <p>
+ * The items are published in the order {@link #publish(Item)} was called, with one exception: the re-published items
+ * of a rejected batch are sent before all items which are not yet sent, in their original order, but after the
+ * batches which were already in flight when the rejection arrived. Hence the service may receive those items after
+ * items published later. Use {@code itemsPerRequest} of 1 if the order must be strictly kept.
+ * </p>
+ *
+ * @param <T> the type of the published items.
+ * @see LeafNode#createItemPublisher(int, int)
+ * @since 4.3
+ */
+public final class ItemPublisher<T extends Item>
+{
+    private final LeafNode node;
+    private final int maxInFlightRequests;
+
+    private final Lock lock = new ReentrantLock();
+    private final Condition stateChanged = lock.newCondition();
+
+    private final Deque<PendingItem<T>> pendingItems = new ArrayDeque<>();
+
+    private int itemsPerRequest;
+    private int inFlightRequests;
+
+    ItemPublisher(LeafNode node, int itemsPerRequest, int maxInFlightRequests)
+    {
+        if (itemsPerRequest < 1 || maxInFlightRequests < 1)
+            throw new IllegalArgumentException("itemsPerRequest and maxInFlightRequests must be positive");
+
+        this.node = node;
+        this.itemsPerRequest = itemsPerRequest;
+        this.maxInFlightRequests = maxInFlightRequests;
+    }
+
+    /**
+     * Publish an item. Blocks while the window of in-flight requests and the current batch are full.
+     *
+     * @param item the item to publish.
+     * @return a future which completes once the service acknowledged the item.
+     * @throws InterruptedException if the calling thread was interrupted while waiting for room in the window.
+     */
+    public SmackFuture<Void> publish(T item) throws InterruptedException
+    {
+        PendingItem<T> pendingItem = new PendingItem<>(item);
+        lock.lock();
+        try
+        {
+            while (inFlightRequests >= maxInFlightRequests && pendingItems.size() >= itemsPerRequest)
+                stateChanged.await();
+
+            pendingItems.add(pendingItem);
+            sendPendingItems();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        return pendingItem.future;
+    }
+
+    /**
+     * Wait until all published items were acknowledged or failed.
+     *
+     * @throws InterruptedException
+     */
+    public void awaitCompletion() throws InterruptedException
+    {
+        lock.lock();
+        try
+        {
+            while (inFlightRequests > 0 || !pendingItems.isEmpty())
+                stateChanged.await();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of publish requests which are not yet acknowledged.
+     *
+     * @return the number of in-flight requests.
+     */
+    public int getInFlightRequests()
+    {
+        lock.lock();
+        try
+        {
+            return inFlightRequests;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Send requests for the pending items, as long as the window is not full. Must be called with the lock held, which
+     * also ensures that the requests are send in the order the items were published.
+     */
+    private void sendPendingItems()
+    {
+        while (inFlightRequests < maxInFlightRequests && !pendingItems.isEmpty())
+        {
+            int batchSize = Math.min(itemsPerRequest, pendingItems.size());
+            final List<PendingItem<T>> batch = new ArrayList<>(batchSize);
+            List<T> items = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize; i++)
+            {
+                PendingItem<T> pendingItem = pendingItems.poll();
+                batch.add(pendingItem);
+                items.add(pendingItem.item);
+            }
+
+            PubSub packet = node.createPubsubPacket(Type.set, new PublishItem<T>(node.getId(), items));
+            inFlightRequests++;
+            node.pubSubManager.getConnection().sendIqRequestAsync(packet).onSuccess(new SuccessCallback<IQ>()
+            {
+                @Override
+                public void onSuccess(IQ result)
+                {
+                    for (PendingItem<T> pendingItem : batch)
+                        pendingItem.future.setResult(null);
+                    requestCompleted(batch, null);
+                }
+            }).onError(new ExceptionCallback()
+            {
+                @Override
+                public void processException(Exception exception)
+                {
+                    requestCompleted(batch, exception);
+                }
+            });
+        }
+    }
+
+    private void requestCompleted(List<PendingItem<T>> batch, Exception exception)
+    {
+        List<PendingItem<T>> failedItems = null;
+        lock.lock();
+        try
+        {
+            inFlightRequests--;
+            if (exception != null)
+            {
+                if (batch.size() > 1 && isMultipleItemsRejected(exception))
+                {
+                    // Re-publish the items of the rejected request one by one, before any other pending item.
+                    itemsPerRequest = 1;
+                    for (int i = batch.size() - 1; i >= 0; i--)
+                        pendingItems.addFirst(batch.get(i));
+                }
+                else
+                {
+                    failedItems = batch;
+                }
+            }
+            sendPendingItems();
+            stateChanged.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        if (failedItems != null)
+        {
+            for (PendingItem<T> pendingItem : failedItems)
+                pendingItem.future.setException(exception);
+        }
+    }
+
+    private static boolean isMultipleItemsRejected(Exception exception)
+    {
+        if (!(exception instanceof XMPPErrorException))
+            return false;
+
+        XMPPError.Condition condition = ((XMPPErrorException) exception).getXMPPError().getCondition();
+        return condition == XMPPError.Condition.bad_request || condition == XMPPError.Condition.not_acceptable
+                        || condition == XMPPError.Condition.feature_not_implemented;
+    }
+
+    private static final class PendingItem<T extends Item>
+    {
+        private final T item;
+        private final InternalSmackFuture<Void> future = new InternalSmackFuture<>(SmackConfiguration.getExecutionModel());
+
+        private PendingItem(T item)
+        {
+            this.item = item;
+        }
+    }
+}
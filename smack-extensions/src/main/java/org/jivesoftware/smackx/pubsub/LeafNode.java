@@ -327,6 +327,20 @@ public class LeafNode extends Node
         pubSubManager.getConnection().createStanzaCollectorAndSend(packet).nextResultOrThrow();
     }
 
+    /**
+     * Creates a publisher which pipelines the publish requests to this node, instead of waiting for the response to
+     * every single request like {@link #publish(Item)} does.
+     * 
+     * @param itemsPerRequest the maximum number of items which are batched into one publish request.
+     * @param maxInFlightRequests the maximum number of publish requests awaiting a response.
+     * @return a new item publisher.
+     * @since 4.3
+     */
+    public <T extends Item> ItemPublisher<T> createItemPublisher(int itemsPerRequest, int maxInFlightRequests)
+    {
+        return new ItemPublisher<T>(this, itemsPerRequest, maxInFlightRequests);
+    }
+
     /**
      * Purges the node of all items.
      *   
@@ -25,14 +25,12 @@ import org.jivesoftware.smack.StanzaListener;
 import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
 import org.jivesoftware.smack.XMPPException.XMPPErrorException;
-import org.jivesoftware.smack.filter.FlexibleStanzaTypeFilter;
-import org.jivesoftware.smack.filter.OrFilter;
-import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.packet.IQ.Type;
 import org.jivesoftware.smackx.delay.DelayInformationManager;
 import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
+import org.jivesoftware.smackx.pubsub.PubSubEventDispatcher.EventKind;
 import org.jivesoftware.smackx.pubsub.listener.ItemDeleteListener;
 import org.jivesoftware.smackx.pubsub.listener.ItemEventListener;
 import org.jivesoftware.smackx.pubsub.listener.NodeConfigListener;
@@ -478,7 +476,7 @@ abstract public class Node
     {
         StanzaListener conListener = new ItemEventTranslator(listener); 
         itemEventToListenerMap.put(listener, conListener);
-        pubSubManager.getConnection().addSyncStanzaListener(conListener, new EventContentFilter(EventElementType.items.toString(), "item"));
+        pubSubManager.addEventListener(getId(), EventKind.itemPublished, conListener);
     }
 
     /**
@@ -491,7 +489,7 @@ abstract public class Node
         StanzaListener conListener = itemEventToListenerMap.remove(listener);
 
         if (conListener != null)
-            pubSubManager.getConnection().removeSyncStanzaListener(conListener);
+            pubSubManager.removeEventListener(getId(), EventKind.itemPublished, conListener);
     }
 
     /**
@@ -504,7 +502,7 @@ abstract public class Node
     {
         StanzaListener conListener = new NodeConfigTranslator(listener); 
         configEventToListenerMap.put(listener, conListener);
-        pubSubManager.getConnection().addSyncStanzaListener(conListener, new EventContentFilter(EventElementType.configuration.toString()));
+        pubSubManager.addEventListener(getId(), EventKind.configuration, conListener);
     }
 
     /**
@@ -517,7 +515,7 @@ abstract public class Node
         StanzaListener conListener = configEventToListenerMap .remove(listener);
 
         if (conListener != null)
-            pubSubManager.getConnection().removeSyncStanzaListener(conListener);
+            pubSubManager.removeEventListener(getId(), EventKind.configuration, conListener);
     }
 
     /**
@@ -530,10 +528,7 @@ abstract public class Node
     {
         StanzaListener delListener = new ItemDeleteTranslator(listener); 
         itemDeleteToListenerMap.put(listener, delListener);
-        EventContentFilter deleteItem = new EventContentFilter(EventElementType.items.toString(), "retract");
-        EventContentFilter purge = new EventContentFilter(EventElementType.purge.toString());
-
-        pubSubManager.getConnection().addSyncStanzaListener(delListener, new OrFilter(deleteItem, purge));
+        pubSubManager.addEventListener(getId(), EventKind.itemDeleted, delListener);
     }
 
     /**
@@ -546,7 +541,7 @@ abstract public class Node
         StanzaListener conListener = itemDeleteToListenerMap .remove(listener);
 
         if (conListener != null)
-            pubSubManager.getConnection().removeSyncStanzaListener(conListener);
+            pubSubManager.removeEventListener(getId(), EventKind.itemDeleted, conListener);
     }
 
     @Override
@@ -687,68 +682,4 @@ abstract public class Node
             listener.handleNodeConfiguration(config);
         }
     }
-
-    /**
-     * Filter for {@link StanzaListener} to filter out events not specific to the 
-     * event type expected for this node.
-     * 
-     * @author Robin Collier
-     */
-    class EventContentFilter extends FlexibleStanzaTypeFilter<Message>
-    {
-        private final String firstElement;
-        private final String secondElement;
-        private final boolean allowEmpty;
-
-        EventContentFilter(String elementName)
-        {
-            this(elementName, null);
-        }
-
-        EventContentFilter(String firstLevelEelement, String secondLevelElement)
-        {
-            firstElement = firstLevelEelement;
-            secondElement = secondLevelElement;
-            allowEmpty = firstElement.equals(EventElementType.items.toString())
-                            && "item".equals(secondLevelElement);
-        }
-
-        @Override
-        public boolean acceptSpecific(Message message) {
-            EventElement event = EventElement.from(message);
-
-            if (event == null)
-                return false;
-
-            NodeExtension embedEvent = event.getEvent();
-
-            if (embedEvent == null)
-                return false;
-
-            if (embedEvent.getElementName().equals(firstElement))
-            {
-                if (!embedEvent.getNode().equals(getId()))
-                    return false;
-
-                if (secondElement == null)
-                    return true;
-
-                if (embedEvent instanceof EmbeddedPacketExtension)
-                {
-                    List<ExtensionElement> secondLevelList = ((EmbeddedPacketExtension)embedEvent).getExtensions();
-
-                    // XEP-0060 allows no elements on second level for notifications. See schema or
-                    // for example § 4.3:
-                    // "although event notifications MUST include an empty <items/> element;"
-                    if (allowEmpty && secondLevelList.isEmpty()) {
-                        return true;
-                    }
-
-                    if (secondLevelList.size() > 0 && secondLevelList.get(0).getElementName().equals(secondElement))
-                        return true;
-                }
-            }
-            return false;
-        }
-    }
 }
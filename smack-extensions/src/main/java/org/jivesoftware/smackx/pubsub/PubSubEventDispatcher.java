@@ -0,0 +1,172 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.pubsub;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.StanzaListener;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.filter.AndFilter;
+import org.jivesoftware.smack.filter.StanzaExtensionFilter;
+import org.jivesoftware.smack.filter.StanzaFilter;
+import org.jivesoftware.smack.filter.StanzaTypeFilter;
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.packet.Stanza;
+
+/**
+ * Routes incoming pubsub event notifications to the listeners registered on the {@link Node}s of a
+ * {@link PubSubManager}. Instead of one connection listener with its own filter per node listener, a single listener
+ * is registered on the connection, which looks at the event once and dispatches it by node ID. The listener is only
+ * registered while there are node listeners, so that managers without node listeners, like most of the per contact
+ * PEP managers, do not add to the cost of processing incoming messages.
+ */
+final class PubSubEventDispatcher implements StanzaListener
+{
+    private static final Logger LOGGER = Logger.getLogger(PubSubEventDispatcher.class.getName());
+
+    static final StanzaFilter EVENT_FILTER = new AndFilter(StanzaTypeFilter.MESSAGE,
+                    new StanzaExtensionFilter(EventElement.ELEMENT, EventElement.NAMESPACE));
+
+    enum EventKind
+    {
+        itemPublished,
+        itemDeleted,
+        configuration,
+    }
+
+    private final Map<String, NodeListeners> nodeListeners = new ConcurrentHashMap<>();
+
+    synchronized void addListener(XMPPConnection connection, String nodeId, EventKind kind, StanzaListener listener)
+    {
+        if (nodeListeners.isEmpty())
+            connection.addSyncStanzaListener(this, EVENT_FILTER);
+
+        NodeListeners listeners = nodeListeners.get(nodeId);
+        if (listeners == null)
+        {
+            listeners = new NodeListeners();
+            nodeListeners.put(nodeId, listeners);
+        }
+        listeners.get(kind).add(listener);
+    }
+
+    synchronized void removeListener(XMPPConnection connection, String nodeId, EventKind kind,
+                    StanzaListener listener)
+    {
+        NodeListeners listeners = nodeListeners.get(nodeId);
+        if (listeners == null)
+            return;
+
+        listeners.get(kind).remove(listener);
+        if (listeners.isEmpty())
+        {
+            nodeListeners.remove(nodeId);
+            if (nodeListeners.isEmpty())
+                connection.removeSyncStanzaListener(this);
+        }
+    }
+
+    @Override
+    public void processStanza(Stanza stanza)
+    {
+        EventElement event = EventElement.from(stanza);
+        NodeExtension embedEvent = event.getEvent();
+        if (embedEvent == null || embedEvent.getNode() == null)
+            return;
+
+        NodeListeners listeners = nodeListeners.get(embedEvent.getNode());
+        if (listeners == null)
+            return;
+
+        EventKind kind = getEventKind(embedEvent);
+        if (kind == null)
+            return;
+
+        for (StanzaListener listener : listeners.get(kind))
+        {
+            try
+            {
+                listener.processStanza(stanza);
+            }
+            catch (Exception e)
+            {
+                LOGGER.log(Level.WARNING, "Exception in pubsub event listener for node " + embedEvent.getNode(), e);
+            }
+        }
+    }
+
+    private static EventKind getEventKind(NodeExtension embedEvent)
+    {
+        String elementName = embedEvent.getElementName();
+        if (elementName.equals(EventElementType.configuration.toString()))
+            return EventKind.configuration;
+
+        if (elementName.equals(EventElementType.purge.toString()))
+            return EventKind.itemDeleted;
+
+        if (elementName.equals(EventElementType.items.toString()) && embedEvent instanceof EmbeddedPacketExtension)
+        {
+            List<ExtensionElement> secondLevelList = ((EmbeddedPacketExtension) embedEvent).getExtensions();
+
+            // XEP-0060 allows no elements on second level for notifications. See schema or
+            // for example § 4.3:
+            // "although event notifications MUST include an empty <items/> element;"
+            if (secondLevelList.isEmpty())
+                return EventKind.itemPublished;
+
+            String secondElement = secondLevelList.get(0).getElementName();
+            if (secondElement.equals("item"))
+                return EventKind.itemPublished;
+            if (secondElement.equals("retract"))
+                return EventKind.itemDeleted;
+        }
+        return null;
+    }
+
+    private static final class NodeListeners
+    {
+        private final List<StanzaListener> itemPublishedListeners = new CopyOnWriteArrayList<>();
+        private final List<StanzaListener> itemDeletedListeners = new CopyOnWriteArrayList<>();
+        private final List<StanzaListener> configurationListeners = new CopyOnWriteArrayList<>();
+
+        private List<StanzaListener> get(EventKind kind)
+        {
+            switch (kind)
+            {
+            case itemPublished:
+                return itemPublishedListeners;
+            case itemDeleted:
+                return itemDeletedListeners;
+            case configuration:
+                return configurationListeners;
+            default:
+                throw new AssertionError(kind);
+            }
+        }
+
+        private boolean isEmpty()
+        {
+            return itemPublishedListeners.isEmpty() && itemDeletedListeners.isEmpty()
+                            && configurationListeners.isEmpty();
+        }
+    }
+}
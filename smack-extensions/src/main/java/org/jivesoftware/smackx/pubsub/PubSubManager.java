@@ -30,6 +30,7 @@ import java.util.logging.Logger;
 import org.jivesoftware.smack.Manager;
 import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.StanzaListener;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.XMPPException.XMPPErrorException;
 import org.jivesoftware.smack.packet.EmptyResultIQ;
@@ -42,6 +43,7 @@ import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smackx.disco.ServiceDiscoveryManager;
 import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
 import org.jivesoftware.smackx.disco.packet.DiscoverItems;
+import org.jivesoftware.smackx.pubsub.PubSubEventDispatcher.EventKind;
 import org.jivesoftware.smackx.pubsub.packet.PubSub;
 import org.jivesoftware.smackx.pubsub.packet.PubSubNamespace;
 import org.jivesoftware.smackx.pubsub.util.NodeUtils;
@@ -78,6 +80,12 @@ public final class PubSubManager extends Manager {
      */
     private final Map<String, Node> nodeMap = new ConcurrentHashMap<String, Node>();
 
+    /**
+     * Dispatches the incoming event notifications to the listeners of the nodes. Registered on the connection once the
+     * first node listener is added.
+     */
+    private final PubSubEventDispatcher eventDispatcher = new PubSubEventDispatcher();
+
     /**
      * Get a PubSub manager for the default PubSub service of the connection.
      * 
@@ -483,6 +491,14 @@ public final class PubSubManager extends Manager {
         return connection();
     }
 
+    void addEventListener(String nodeId, EventKind kind, StanzaListener listener) {
+        eventDispatcher.addListener(connection(), nodeId, kind, listener);
+    }
+
+    void removeEventListener(String nodeId, EventKind kind, StanzaListener listener) {
+        eventDispatcher.removeListener(connection(), nodeId, kind, listener);
+    }
+
     PubSub sendPubsubPacket(Jid to, Type type, List<ExtensionElement> extList, PubSubNamespace ns)
                     throws NoResponseException, XMPPErrorException, NotConnectedException,
                     InterruptedException {
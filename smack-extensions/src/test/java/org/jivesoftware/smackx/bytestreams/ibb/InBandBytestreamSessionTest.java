@@ -17,14 +17,18 @@
 package org.jivesoftware.smackx.bytestreams.ibb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.jivesoftware.smack.DummyConnection;
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.StanzaListener;
@@ -296,6 +300,77 @@ public class InBandBytestreamSessionTest extends InitExtensions {
 
     }
 
+    /**
+     * Data packets should be send without waiting for the acknowledgement of the previous one.
+     * 
+     * @throws Exception should not happen
+     */
+    @Test
+    public void shouldKeepMultipleDataPacketsInFlight() throws Exception {
+        DummyConnection dummyConnection = DummyConnection.newConnectedDummyConnection();
+        InBandBytestreamSession session = new InBandBytestreamSession(dummyConnection,
+                        initBytestream, initiatorJID);
+        final OutputStream outputStream = session.getOutputStream();
+        final List<Exception> exceptions = new CopyOnWriteArrayList<>();
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    outputStream.write(new byte[blockSize * 3]);
+                    outputStream.flush();
+                }
+                catch (IOException e) {
+                    exceptions.add(e);
+                }
+            }
+        };
+        writer.start();
+
+        // the first two data packets are send before the first one is acknowledged
+        Data first = dummyConnection.getSentPacket(5);
+        Data second = dummyConnection.getSentPacket(5);
+        assertEquals(0, first.getDataPacketExtension().getSeq());
+        assertEquals(1, second.getDataPacketExtension().getSeq());
+        assertNull(dummyConnection.getSentPacket(0));
+
+        dummyConnection.processStanza(IQ.createResultIQ(first));
+        Data third = dummyConnection.getSentPacket(5);
+        assertEquals(2, third.getDataPacketExtension().getSeq());
+
+        // flush() returns once all data packets are acknowledged
+        dummyConnection.processStanza(IQ.createResultIQ(second));
+        assertTrue(writer.isAlive());
+        dummyConnection.processStanza(IQ.createResultIQ(third));
+        writer.join();
+        assertTrue(exceptions.isEmpty());
+    }
+
+    /**
+     * If a data packet is not acknowledged, the output stream should throw an exception.
+     * 
+     * @throws Exception should not happen
+     */
+    @Test
+    public void shouldThrowExceptionIfDataPacketIsNotAcknowledged() throws Exception {
+        InBandBytestreamSession session = new InBandBytestreamSession(connection, initBytestream,
+                        initiatorJID);
+
+        IQ resultIQ = IBBPacketUtils.createResultIQ(initiatorJID, targetJID);
+        IQ errorIQ = IBBPacketUtils.createErrorIQ(initiatorJID, targetJID, XMPPError.Condition.item_not_found);
+        protocol.addResponse(resultIQ);
+        protocol.addResponse(errorIQ);
+
+        OutputStream outputStream = session.getOutputStream();
+        outputStream.write(new byte[blockSize * 2]);
+        try {
+            outputStream.flush();
+            fail("should throw an exception");
+        }
+        catch (IOException e) {
+            assertTrue(e.getCause() instanceof XMPPException.XMPPErrorException);
+        }
+    }
+
     /**
      * If the input stream is closed the output stream should not be closed as well.
      * 
@@ -17,6 +17,7 @@
 package org.jivesoftware.smackx.bytestreams.ibb.packet;
 
 import static org.custommonkey.xmlunit.XMLAssert.assertXMLEqual;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
@@ -98,4 +99,22 @@ public class DataPacketExtensionTest extends InitExtensions {
         assertXMLEqual(control, data.toXML().toString());
     }
 
+    @Test
+    public void shouldEncodeRawDataWhenSerialized() throws Exception {
+        byte[] buffer = "xxfoo bar 123xx".getBytes(StringUtils.UTF8);
+        DataPacketExtension data = new DataPacketExtension("i781hf64", 0, buffer, 2, 11);
+        // The data was copied, later modifications of the buffer must not change the packet.
+        buffer[2] = 'x';
+
+        String control = XMLBuilder.create("data")
+            .a("xmlns", "http://jabber.org/protocol/ibb")
+            .a("seq", "0")
+            .a("sid", "i781hf64")
+            .t("Zm9vIGJhciAxMjM=")
+            .asString(outputProperties);
+        assertXMLEqual(control, data.toXML().toString());
+        assertEquals(11, data.getDecodedLength());
+        assertArrayEquals("foo bar 123".getBytes(StringUtils.UTF8), data.getDecodedData());
+    }
+
 }
@@ -16,12 +16,16 @@
  */
 package org.jivesoftware.smackx.bytestreams.socks5;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.DataInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
@@ -328,6 +332,134 @@ public class Socks5ProxyTest {
 
     }
 
+    /**
+     * A client which stalls during the handshake should neither delay the handshakes of other clients
+     * nor be kept forever.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void shouldNotBeBlockedByStalledHandshake() throws Exception {
+        Socks5Proxy.setLocalSocks5ProxyPort(7890);
+        Socks5Proxy proxy = Socks5Proxy.getSocks5Proxy();
+        proxy.start();
+        proxy.setHandshakeTimeout(500);
+        String digest = new String(new byte[] { (byte) 0xAA }, StringUtils.UTF8);
+        proxy.addTransfer(digest);
+
+        @SuppressWarnings("resource")
+        Socket stalledSocket = new Socket(loopbackAddress, proxy.getPort());
+        stalledSocket.setSoTimeout(5000);
+        // only send the SOCKS version
+        stalledSocket.getOutputStream().write(new byte[] { (byte) 0x05 });
+
+        @SuppressWarnings("resource")
+        Socket socket = connect(proxy, (byte) 0xAA);
+        assertNotNull(socket);
+
+        // the stalled client is disconnected once the handshake timeout expired
+        int res;
+        try {
+            res = stalledSocket.getInputStream().read();
+        } catch (SocketException e) {
+            res = -1;
+        }
+        assertEquals(-1, res);
+
+        socket.close();
+        proxy.removeTransfer(digest);
+        proxy.stop();
+    }
+
+    /**
+     * Established connections which are not retrieved within the connection expiry should be closed.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void shouldCloseExpiredConnections() throws Exception {
+        Socks5Proxy.setLocalSocks5ProxyPort(7890);
+        Socks5Proxy proxy = Socks5Proxy.getSocks5Proxy();
+        proxy.start();
+        proxy.setConnectionExpiry(200);
+        String digest = new String(new byte[] { (byte) 0xAA }, StringUtils.UTF8);
+        proxy.addTransfer(digest);
+
+        @SuppressWarnings("resource")
+        Socket socket = connect(proxy, (byte) 0xAA);
+        socket.setSoTimeout(5000);
+
+        assertEquals(-1, socket.getInputStream().read());
+        assertNull(proxy.getSocket(digest));
+
+        proxy.removeTransfer(digest);
+        proxy.stop();
+    }
+
+    /**
+     * If relaying is enabled, the proxy should copy the data between two connections with the same
+     * digest.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void shouldRelayBetweenConnectionsWithSameDigest() throws Exception {
+        Socks5Proxy.setLocalSocks5ProxyPort(7890);
+        Socks5Proxy proxy = Socks5Proxy.getSocks5Proxy();
+        proxy.start();
+        proxy.setRelayEnabled(true);
+        String digest = new String(new byte[] { (byte) 0xAA }, StringUtils.UTF8);
+        proxy.addTransfer(digest);
+
+        Socket target = connect(proxy, (byte) 0xAA);
+        Socket initiator = connect(proxy, (byte) 0xAA);
+        target.setSoTimeout(5000);
+        initiator.setSoTimeout(5000);
+
+        byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        initiator.getOutputStream().write(data);
+        initiator.shutdownOutput();
+
+        DataInputStream targetIn = new DataInputStream(target.getInputStream());
+        byte[] received = new byte[data.length];
+        targetIn.readFully(received);
+        assertArrayEquals(data, received);
+        assertEquals(-1, targetIn.read());
+
+        // the connections are relayed, not stored for local use
+        assertNull(proxy.getSocket(digest));
+
+        // the other direction is still open
+        target.getOutputStream().write(new byte[] { 1, 2, 3 });
+        target.close();
+        InputStream initiatorIn = initiator.getInputStream();
+        assertEquals(1, initiatorIn.read());
+        assertEquals(2, initiatorIn.read());
+        assertEquals(3, initiatorIn.read());
+        assertEquals(-1, initiatorIn.read());
+        initiator.close();
+
+        proxy.removeTransfer(digest);
+        proxy.stop();
+    }
+
+    private static Socket connect(Socks5Proxy proxy, byte digest) throws IOException {
+        Socket socket = new Socket(loopbackAddress, proxy.getPort());
+        OutputStream out = socket.getOutputStream();
+        out.write(new byte[] { (byte) 0x05, (byte) 0x01, (byte) 0x00 });
+        out.write(new byte[] { (byte) 0x05, (byte) 0x00, (byte) 0x00, (byte) 0x03, (byte) 0x01,
+                        digest, (byte) 0x00, (byte) 0x00 });
+
+        byte[] response = new byte[10];
+        new DataInputStream(socket.getInputStream()).readFully(response);
+        assertArrayEquals(new byte[] { (byte) 0x05, (byte) 0x00, (byte) 0x05, (byte) 0x00, (byte) 0x00,
+                        (byte) 0x03, (byte) 0x01, digest, (byte) 0x00, (byte) 0x00 }, response);
+        return socket;
+    }
+
     /**
      * Reset SOCKS5 proxy settings.
      */
@@ -336,6 +468,9 @@ public class Socks5ProxyTest {
         Socks5Proxy.setLocalSocks5ProxyEnabled(true);
         Socks5Proxy.setLocalSocks5ProxyPort(7777);
         Socks5Proxy socks5Proxy = Socks5Proxy.getSocks5Proxy();
+        socks5Proxy.setHandshakeTimeout(10000);
+        socks5Proxy.setConnectionExpiry(60000);
+        socks5Proxy.setRelayEnabled(false);
         try {
             String address = InetAddress.getLocalHost().getHostAddress();
             List<String> addresses = new ArrayList<String>();
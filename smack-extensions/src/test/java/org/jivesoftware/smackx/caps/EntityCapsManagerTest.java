@@ -22,15 +22,21 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.util.StringUtils;
 import org.jivesoftware.smack.util.stringencoder.Base32;
+import org.jivesoftware.smack.util.stringencoder.Base64;
 import org.jivesoftware.smack.util.stringencoder.StringEncoder;
 import org.jivesoftware.smackx.InitExtensions;
 import org.jivesoftware.smackx.caps.cache.EntityCapsPersistentCache;
+import org.jivesoftware.smackx.caps.cache.SingleFilePersistentCache;
 import org.jivesoftware.smackx.caps.cache.SimpleDirectoryPersistentCache;
 import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
 import org.jivesoftware.smackx.xdata.FormField;
@@ -55,12 +61,77 @@ public class EntityCapsManagerTest extends InitExtensions {
         assertEquals("q07IKJEyjvHSyhy//CH0CxmKi8w=", versionAndHash.version);
     }
 
+    @Test
+    public void testConcurrentGeneration() throws Exception {
+        final DiscoverInfo di = createComplexSamplePacket();
+        final List<String> versions = new CopyOnWriteArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 100; j++) {
+                        versions.add(EntityCapsManager.generateVerificationString(di, StringUtils.SHA1).version);
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400, versions.size());
+        for (String version : versions) {
+            assertEquals("q07IKJEyjvHSyhy//CH0CxmKi8w=", version);
+        }
+    }
+
+    @Test
+    public void testGenerationWithSupplementaryCharacters() throws Exception {
+        DiscoverInfo di = new DiscoverInfo();
+        // A long name, so that the encoded bytes do not fit into a single buffer, containing a surrogate pair and an
+        // unpaired surrogate.
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            name.append("Ψ\uD83D\uDE00\uD800");
+        }
+        di.addIdentity(new DiscoverInfo.Identity("client", "pc", name.toString(), "en"));
+        di.addFeature("http://jabber.org/protocol/disco#info");
+
+        String s = "client/pc/en/" + name + "<http://jabber.org/protocol/disco#info<";
+        byte[] digest = MessageDigest.getInstance(StringUtils.SHA1).digest(s.getBytes(StringUtils.UTF8));
+        assertEquals(Base64.encodeToString(digest),
+                        EntityCapsManager.generateVerificationString(di, StringUtils.SHA1).version);
+    }
+
     @Test
     public void testSimpleDirectoryCacheBase32() throws IOException {
         EntityCapsManager.persistentCache = null;
         testSimpleDirectoryCache(Base32.getStringEncoder());
     }
 
+    @Test
+    public void testSingleFileCacheWarmsMemoryCache() throws IOException {
+        File file = new File(createTempDirectory(), "caps");
+        SingleFilePersistentCache cache = new SingleFilePersistentCache(file);
+        DiscoverInfo di = createComplexSamplePacket();
+        String nodeVer = di.getNode() + "#" + EntityCapsManager.generateVerificationString(di, StringUtils.SHA1).version;
+        cache.addDiscoverInfoByNodePersistent(nodeVer, di);
+        cache.flush();
+
+        EntityCapsManager.clearMemoryCache();
+        EntityCapsManager.setPersistentCache(new SingleFilePersistentCache(file));
+        try {
+            DiscoverInfo restored = EntityCapsManager.CAPS_CACHE.lookup(nodeVer);
+            assertNotNull(restored);
+            assertEquals(di.toXML().toString(), restored.toXML().toString());
+        }
+        finally {
+            EntityCapsManager.setPersistentCache(null);
+        }
+    }
+
     @Test
     public void testVerificationDuplicateFeatures() throws XmppStringprepException {
         DiscoverInfo di = createMalformedDiscoverInfo();
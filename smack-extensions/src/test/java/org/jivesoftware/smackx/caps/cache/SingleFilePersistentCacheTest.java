@@ -0,0 +1,187 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.caps.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smackx.InitExtensions;
+import org.jivesoftware.smackx.caps.cache.SingleFilePersistentCache.EvictionPolicy;
+import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SingleFilePersistentCacheTest extends InitExtensions {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void shouldRestoreInformationAfterReopening() throws IOException {
+        File file = new File(tmpFolder.getRoot(), "caps");
+        SingleFilePersistentCache cache = new SingleFilePersistentCache(file);
+        DiscoverInfo info = createDiscoverInfo("urn:example:feature");
+        cache.addDiscoverInfoByNodePersistent("node#1", info);
+        // Pending writes are visible right away.
+        assertNotNull(cache.lookup("node#1"));
+        cache.flush();
+
+        cache = new SingleFilePersistentCache(file);
+        DiscoverInfo restored = cache.lookup("node#1");
+        assertNotNull(restored);
+        assertEquals(info.toXML().toString(), restored.toXML().toString());
+        assertNull(cache.lookup("node#2"));
+
+        cache.emptyCache();
+        assertNull(cache.lookup("node#1"));
+        assertNull(new SingleFilePersistentCache(file).lookup("node#1"));
+    }
+
+    @Test
+    public void shouldDiscardIncompleteRecords() throws IOException {
+        File file = new File(tmpFolder.getRoot(), "caps");
+        SingleFilePersistentCache cache = new SingleFilePersistentCache(file);
+        cache.addDiscoverInfoByNodePersistent("node#1", createDiscoverInfo("urn:example:feature"));
+        cache.flush();
+        long validLength = file.length();
+
+        // Simulate a record which was only partially written.
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(new byte[] { 0, 0, 1, 0, 1, 'x' });
+        }
+        finally {
+            out.close();
+        }
+
+        cache = new SingleFilePersistentCache(file);
+        assertNotNull(cache.lookup("node#1"));
+        assertEquals(validLength, file.length());
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsed() throws IOException {
+        SingleFilePersistentCache cache = createBoundedCache(EvictionPolicy.LRU);
+        cache.addDiscoverInfoByNodePersistent("node#1", createDiscoverInfo("urn:example:1"));
+        cache.addDiscoverInfoByNodePersistent("node#2", createDiscoverInfo("urn:example:2"));
+        cache.flush();
+        cache.lookup("node#1");
+        cache.addDiscoverInfoByNodePersistent("node#3", createDiscoverInfo("urn:example:3"));
+        cache.flush();
+
+        assertNotNull(cache.lookup("node#1"));
+        assertNull(cache.lookup("node#2"));
+        assertNotNull(cache.lookup("node#3"));
+    }
+
+    @Test
+    public void shouldEvictLeastFrequentlyUsed() throws IOException {
+        SingleFilePersistentCache cache = createBoundedCache(EvictionPolicy.LFU);
+        cache.addDiscoverInfoByNodePersistent("node#1", createDiscoverInfo("urn:example:1"));
+        cache.addDiscoverInfoByNodePersistent("node#2", createDiscoverInfo("urn:example:2"));
+        cache.flush();
+        cache.lookup("node#1");
+        cache.lookup("node#1");
+        cache.lookup("node#2");
+        cache.addDiscoverInfoByNodePersistent("node#3", createDiscoverInfo("urn:example:3"));
+        cache.flush();
+
+        assertNotNull(cache.lookup("node#1"));
+        assertNull(cache.lookup("node#2"));
+        assertNotNull(cache.lookup("node#3"));
+    }
+
+    @Test
+    public void shouldCompactAndLoadAll() throws IOException {
+        File file = new File(tmpFolder.getRoot(), "caps");
+        SingleFilePersistentCache cache = new SingleFilePersistentCache(file, 8 * 1024, EvictionPolicy.LRU);
+        for (int i = 0; i < 1000; i++) {
+            cache.addDiscoverInfoByNodePersistent("node#" + i, createDiscoverInfo("urn:example:" + i));
+        }
+        cache.flush();
+        // The evicted records were compacted away.
+        assertTrue(file.length() < 2 * 8 * 1024 + 64 * 1024);
+
+        cache = new SingleFilePersistentCache(file, 8 * 1024, EvictionPolicy.LRU);
+        Map<String, DiscoverInfo> infos = cache.loadAll(2);
+        assertEquals(Arrays.asList("node#998", "node#999"), new ArrayList<>(infos.keySet()));
+        assertNotNull(infos.get("node#999").getFeatures());
+        assertEquals("urn:example:999", infos.get("node#999").getFeatures().get(0).getVar());
+    }
+
+    @Test
+    public void shouldLookupWhileCompacting() throws Exception {
+        File file = new File(tmpFolder.getRoot(), "caps");
+        final SingleFilePersistentCache cache = new SingleFilePersistentCache(file, 8 * 1024, EvictionPolicy.LRU);
+        final int nodeCount = 2000;
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int i = 0;
+                while (!done.get()) {
+                    // Look up the nodes while they are written, evicted and compacted. A lookup may miss, but must
+                    // never return the information of another node.
+                    DiscoverInfo info = cache.lookup("node#" + i);
+                    if (info != null && !("urn:example:" + i).equals(info.getFeatures().get(0).getVar())) {
+                        failure.set("Wrong info for node#" + i + ": " + info.toXML());
+                    }
+                    i = (i + 1) % nodeCount;
+                }
+            }
+        });
+        reader.start();
+        for (int i = 0; i < nodeCount; i++) {
+            cache.addDiscoverInfoByNodePersistent("node#" + i, createDiscoverInfo("urn:example:" + i));
+        }
+        cache.flush();
+        done.set(true);
+        reader.join();
+
+        assertNull(failure.get());
+        DiscoverInfo last = cache.lookup("node#" + (nodeCount - 1));
+        assertEquals("urn:example:" + (nodeCount - 1), last.getFeatures().get(0).getVar());
+    }
+
+    private SingleFilePersistentCache createBoundedCache(EvictionPolicy evictionPolicy) throws IOException {
+        File file = new File(tmpFolder.getRoot(), "caps");
+        int entrySize = createDiscoverInfo("urn:example:1").toXML().length() + 32;
+        return new SingleFilePersistentCache(file, 2 * entrySize + entrySize / 2, evictionPolicy);
+    }
+
+    private static DiscoverInfo createDiscoverInfo(String feature) {
+        DiscoverInfo info = new DiscoverInfo();
+        info.setType(IQ.Type.result);
+        info.addIdentity(new DiscoverInfo.Identity("client", "pc", "Example", null));
+        info.addFeature(feature);
+        return info;
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.disco;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.jivesoftware.smack.DummyConnection;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smackx.InitExtensions;
+import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
+import org.jivesoftware.smackx.disco.packet.DiscoverItems;
+import org.junit.Before;
+import org.junit.Test;
+import org.jxmpp.jid.Jid;
+import org.jxmpp.jid.impl.JidCreate;
+
+public class ServiceDiscoveryManagerTest extends InitExtensions {
+
+    private DummyConnection connection;
+    private ServiceDiscoveryManager sdm;
+
+    @Before
+    public void setUp() {
+        connection = DummyConnection.newConnectedDummyConnection();
+        sdm = ServiceDiscoveryManager.getInstanceFor(connection);
+    }
+
+    @Test
+    public void concurrentIdenticalQueriesShouldShareOneRequest() throws Exception {
+        final Jid service = JidCreate.from("pubsub.example.org");
+        final List<DiscoverInfo> results = new CopyOnWriteArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        results.add(sdm.discoverInfo(service, "node"));
+                    }
+                    catch (Exception e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+
+        DiscoverInfo request = connection.getSentPacket(5);
+        assertNotNull(request);
+        // Make sure that all threads are waiting, either for the response or for the other query.
+        for (Thread thread : threads) {
+            while (thread.getState() != Thread.State.WAITING && thread.getState() != Thread.State.TIMED_WAITING) {
+                Thread.sleep(10);
+            }
+        }
+        connection.processStanza(createInfoResult(request, "urn:example:feature"));
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(5, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertTrue(results.get(i).containsFeature("urn:example:feature"));
+            // Every caller got its own instance of the result.
+            for (int j = i + 1; j < results.size(); j++) {
+                assertNotSame(results.get(i), results.get(j));
+            }
+        }
+        // Only a single query was send.
+        assertNull(connection.getSentPacket(0));
+    }
+
+    @Test
+    public void findServicesShouldQueryItemsConcurrently() throws Exception {
+        final List<Exception> exceptions = new CopyOnWriteArrayList<>();
+        final List<List<DiscoverInfo>> results = new CopyOnWriteArrayList<>();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    results.add(sdm.findServicesDiscoverInfo("urn:example:feature", false, true));
+                }
+                catch (Exception e) {
+                    exceptions.add(e);
+                }
+            }
+        };
+        thread.start();
+
+        DiscoverInfo serverInfoRequest = connection.getSentPacket(5);
+        connection.processStanza(createInfoResult(serverInfoRequest));
+
+        DiscoverItems itemsRequest = connection.getSentPacket(5);
+        DiscoverItems items = new DiscoverItems();
+        items.setType(IQ.Type.result);
+        items.setStanzaId(itemsRequest.getStanzaId());
+        items.setFrom(itemsRequest.getTo());
+        for (int i = 0; i < 3; i++) {
+            items.addItem(new DiscoverItems.Item(JidCreate.from("service" + i + ".example.org")));
+        }
+        connection.processStanza(items);
+
+        // All item queries are send before the first one was answered.
+        List<DiscoverInfo> itemRequests = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            DiscoverInfo itemRequest = connection.getSentPacket(5);
+            assertNotNull(itemRequest);
+            itemRequests.add(itemRequest);
+        }
+        Collections.reverse(itemRequests);
+        for (DiscoverInfo itemRequest : itemRequests) {
+            if (itemRequest.getTo().toString().equals("service1.example.org")) {
+                connection.processStanza(createInfoResult(itemRequest));
+            }
+            else {
+                connection.processStanza(createInfoResult(itemRequest, "urn:example:feature"));
+            }
+        }
+        thread.join();
+
+        assertTrue(exceptions.isEmpty());
+        List<DiscoverInfo> services = results.get(0);
+        // The order of the items is retained.
+        assertEquals(2, services.size());
+        assertEquals("service0.example.org", services.get(0).getFrom().toString());
+        assertEquals("service2.example.org", services.get(1).getFrom().toString());
+
+        // The result was put into the cache.
+        assertSame(services, sdm.findServicesDiscoverInfo("urn:example:feature", false, true));
+    }
+
+    private static DiscoverInfo createInfoResult(DiscoverInfo request, String... features) {
+        DiscoverInfo result = new DiscoverInfo();
+        result.setType(IQ.Type.result);
+        result.setStanzaId(request.getStanzaId());
+        result.setFrom(request.getTo());
+        result.setNode(request.getNode());
+        for (String feature : features) {
+            result.addFeature(feature);
+        }
+        return result;
+    }
+}
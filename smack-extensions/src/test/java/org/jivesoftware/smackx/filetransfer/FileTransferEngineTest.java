@@ -0,0 +1,192 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.filetransfer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import org.jivesoftware.smackx.filetransfer.FileTransferEngine.ProgressMonitor;
+import org.jivesoftware.smackx.filetransfer.FileTransferEngine.SocketChannelInputStream;
+import org.jivesoftware.smackx.filetransfer.FileTransferEngine.SocketChannelOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileTransferEngineTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void shouldTransferFileOverSocketChannels() throws Exception {
+        final byte[] data = randomBytes(3 * 1024 * 1024 + 17);
+        final File source = tmpFolder.newFile("source");
+        File target = tmpFolder.newFile("target");
+        writeFile(source, data);
+
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        final SocketChannel sendingChannel = SocketChannel.open(serverChannel.socket().getLocalSocketAddress());
+        SocketChannel receivingChannel = serverChannel.accept();
+        serverChannel.close();
+
+        FutureTask<Long> sender = new FutureTask<>(new Callable<Long>() {
+            @Override
+            public Long call() throws IOException {
+                FileInputStream in = new FileInputStream(source);
+                SocketChannelOutputStream out = new SocketChannelOutputStream(sendingChannel);
+                try {
+                    return FileTransferEngine.copy(in, out, new RecordingMonitor(-1));
+                }
+                finally {
+                    in.close();
+                    out.close();
+                }
+            }
+        });
+        new Thread(sender).start();
+
+        SocketChannelInputStream in = new SocketChannelInputStream(receivingChannel);
+        // Stream negotiators read ahead the first byte.
+        in.unread(in.read());
+        FileOutputStream out = new FileOutputStream(target);
+        RecordingMonitor monitor = new RecordingMonitor(-1);
+        try {
+            assertEquals(data.length, FileTransferEngine.copy(in, out, monitor));
+        }
+        finally {
+            in.close();
+            out.close();
+        }
+
+        assertEquals(data.length, sender.get().longValue());
+        assertEquals(data.length, monitor.transferred);
+        assertEquals(data.length, target.length());
+        assertArrayEquals(data, readFile(target));
+    }
+
+    @Test
+    public void shouldCopyStreamsWithGrowingBuffer() throws IOException {
+        byte[] data = randomBytes(1024 * 1024 + 3);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RecordingMonitor monitor = new RecordingMonitor(-1);
+
+        assertEquals(data.length, FileTransferEngine.copy(new ByteArrayInputStream(data), out, monitor));
+        assertArrayEquals(data, out.toByteArray());
+        assertEquals(data.length, monitor.transferred);
+        // 8, 16, 32, 64, 128 KiB and then 256 KiB chunks.
+        assertTrue(monitor.calls < 10);
+    }
+
+    @Test
+    public void shouldStopCopyingWhenCancelled() throws IOException {
+        byte[] data = randomBytes(1024 * 1024);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        long transferred = FileTransferEngine.copy(new ByteArrayInputStream(data), out, new RecordingMonitor(2));
+        assertTrue(transferred < data.length);
+        assertEquals(transferred, out.size());
+    }
+
+    @Test
+    public void unexpectedExceptionShouldFailTransfer() {
+        FileTransfer transfer = new FileTransfer(null, "sid", null) {
+            @Override
+            public void cancel() {
+            }
+        };
+        final IllegalStateException exception = new IllegalStateException();
+        transfer.failOnException(new Runnable() {
+            @Override
+            public void run() {
+                throw exception;
+            }
+        }).run();
+
+        assertEquals(FileTransfer.Status.error, transfer.getStatus());
+        assertSame(exception, transfer.getException());
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+
+    private static void writeFile(File file, byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] data = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < data.length) {
+                offset += in.read(data, offset, data.length - offset);
+            }
+            return data;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private static final class RecordingMonitor implements ProgressMonitor {
+        private final int cancelAfterCalls;
+        private long transferred;
+        private int calls;
+
+        private RecordingMonitor(int cancelAfterCalls) {
+            this.cancelAfterCalls = cancelAfterCalls;
+        }
+
+        @Override
+        public void progress(long transferred) {
+            assertTrue(transferred > this.transferred);
+            this.transferred = transferred;
+            calls++;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return calls == cancelAfterCalls;
+        }
+    }
+}
@@ -16,13 +16,20 @@
  */
 package org.jivesoftware.smackx.filetransfer;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import org.jivesoftware.smack.DummyConnection;
 import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smackx.InitExtensions;
+import org.jivesoftware.smackx.bytestreams.ibb.packet.DataPacketExtension;
+import org.jivesoftware.smackx.bytestreams.socks5.packet.Bytestream;
 import org.jivesoftware.smackx.disco.ServiceDiscoveryManager;
+import org.jivesoftware.smackx.si.packet.StreamInitiation;
+import org.jivesoftware.smackx.xdata.FormField;
+import org.jivesoftware.smackx.xdata.packet.DataForm;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -57,4 +64,77 @@ public class FileTransferNegotiatorTest extends InitExtensions {
         String xml = packet.toXML().toString();
         assertTrue(xml.indexOf("var='stream-method' type='list-single'") != -1);
     }
+
+    @Test
+    public void shouldAcceptParallelStreamsOnlyIfOfferedOverSocks5() throws Exception {
+        FileTransferManager manager = FileTransferManager.getInstanceFor(connection);
+        FileTransferNegotiator fileNeg = FileTransferNegotiator.getInstanceFor(connection);
+        assertEquals(1, fileNeg.getParallelStreamsToAccept(createRequest(manager, "8", Bytestream.NAMESPACE)));
+
+        manager.setParallelStreams(4);
+        ServiceDiscoveryManager sdm = ServiceDiscoveryManager.getInstanceFor(connection);
+        assertTrue(sdm.includesFeature(ParallelSocks5Transfer.NAMESPACE));
+        assertEquals(4, fileNeg.getParallelStreamsToAccept(createRequest(manager, "8", Bytestream.NAMESPACE,
+                        DataPacketExtension.NAMESPACE)));
+        assertEquals(2, fileNeg.getParallelStreamsToAccept(createRequest(manager, "2", Bytestream.NAMESPACE)));
+        assertEquals(1, fileNeg.getParallelStreamsToAccept(createRequest(manager, null, Bytestream.NAMESPACE)));
+        assertEquals(1, fileNeg.getParallelStreamsToAccept(createRequest(manager, "8", DataPacketExtension.NAMESPACE)));
+        assertEquals(1, fileNeg.getParallelStreamsToAccept(createRequest(manager, "100", Bytestream.NAMESPACE)));
+
+        manager.setParallelStreams(1);
+        assertFalse(sdm.includesFeature(ParallelSocks5Transfer.NAMESPACE));
+    }
+
+    @Test
+    public void shouldOfferSingleStreamIfPeerDoesNotAnswerDiscovery() throws Exception {
+        FileTransferManager.getInstanceFor(connection).setParallelStreams(4);
+        FileTransferNegotiator fileNeg = FileTransferNegotiator.getInstanceFor(connection);
+        connection.setReplyTimeout(100);
+        // The DummyConnection never answers the disco#info query.
+        assertEquals(1, fileNeg.getParallelStreamsToOffer(JidTestUtil.DUMMY_AT_EXAMPLE_ORG_SLASH_DUMMYRESOURCE));
+    }
+
+    @Test
+    public void shouldOnlyUseParallelStreamsWhichWereOffered() {
+        assertEquals(3, FileTransferNegotiator.getAcceptedParallelStreams(createResponse("3", Bytestream.NAMESPACE), 4));
+        assertEquals(1, FileTransferNegotiator.getAcceptedParallelStreams(createResponse("3", Bytestream.NAMESPACE), 2));
+        assertEquals(1, FileTransferNegotiator.getAcceptedParallelStreams(createResponse(null, Bytestream.NAMESPACE), 4));
+        assertEquals(1, FileTransferNegotiator.getAcceptedParallelStreams(
+                        createResponse("3", DataPacketExtension.NAMESPACE), 4));
+    }
+
+    private static FileTransferRequest createRequest(FileTransferManager manager, String parallelStreams,
+                    String... streamMethods) {
+        DataForm form = new DataForm(DataForm.Type.form);
+        FormField field = new FormField(FileTransferNegotiator.STREAM_DATA_FIELD_NAME);
+        field.setType(FormField.Type.list_single);
+        for (String streamMethod : streamMethods) {
+            field.addOption(new FormField.Option(streamMethod));
+        }
+        form.addField(field);
+        addParallelStreamsField(form, parallelStreams);
+        StreamInitiation si = new StreamInitiation();
+        si.setSessionID("streamid");
+        si.setFeatureNegotiationForm(form);
+        return new FileTransferRequest(manager, si);
+    }
+
+    private static StreamInitiation createResponse(String parallelStreams, String streamMethod) {
+        DataForm form = new DataForm(DataForm.Type.submit);
+        FormField field = new FormField(FileTransferNegotiator.STREAM_DATA_FIELD_NAME);
+        field.addValue(streamMethod);
+        form.addField(field);
+        addParallelStreamsField(form, parallelStreams);
+        StreamInitiation response = new StreamInitiation();
+        response.setFeatureNegotiationForm(form);
+        return response;
+    }
+
+    private static void addParallelStreamsField(DataForm form, String parallelStreams) {
+        if (parallelStreams != null) {
+            FormField field = new FormField(ParallelSocks5Transfer.NAMESPACE);
+            field.addValue(parallelStreams);
+            form.addField(field);
+        }
+    }
 }
@@ -0,0 +1,161 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.filetransfer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jivesoftware.smackx.bytestreams.socks5.Socks5BytestreamSession;
+import org.jivesoftware.smackx.filetransfer.FileTransferEngine.ProgressMonitor;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ParallelSocks5TransferTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private final List<Socks5BytestreamSession> sendingSessions = new ArrayList<>();
+
+    private final List<Socks5BytestreamSession> receivingSessions = new ArrayList<>();
+
+    @After
+    public void closeSessions() {
+        ParallelSocks5Transfer.closeQuietly(sendingSessions);
+        ParallelSocks5Transfer.closeQuietly(receivingSessions);
+    }
+
+    @Test
+    public void shouldTransferRangesOverAllStreams() throws Exception {
+        // Mix sockets with and without channels.
+        connectChannels();
+        connectSockets();
+        connectChannels();
+        byte[] data = new byte[5 * 1024 * 1024 + 7];
+        new Random(42).nextBytes(data);
+        File source = tmpFolder.newFile("source");
+        File target = tmpFolder.newFile("target");
+        RandomAccessFile sourceFile = new RandomAccessFile(source, "rw");
+        sourceFile.write(data);
+        final RandomAccessFile targetFile = new RandomAccessFile(target, "rw");
+
+        final CountingMonitor receivingMonitor = new CountingMonitor();
+        FutureTask<Long> receiver = new FutureTask<>(new Callable<Long>() {
+            @Override
+            public Long call() throws IOException {
+                return ParallelSocks5Transfer.receive(receivingSessions, targetFile.getChannel(),
+                                5 * 1024 * 1024 + 7).transfer(receivingMonitor);
+            }
+        });
+        new Thread(receiver).start();
+        CountingMonitor sendingMonitor = new CountingMonitor();
+        long sent;
+        try {
+            sent = ParallelSocks5Transfer.send(sourceFile.getChannel(), sendingSessions).transfer(sendingMonitor);
+            assertEquals(data.length, receiver.get().longValue());
+        }
+        finally {
+            sourceFile.close();
+            targetFile.close();
+        }
+
+        assertEquals(data.length, sent);
+        assertEquals(data.length, sendingMonitor.transferred.get());
+        assertEquals(data.length, receivingMonitor.transferred.get());
+        assertEquals(data.length, target.length());
+        byte[] received = new byte[data.length];
+        RandomAccessFile file = new RandomAccessFile(target, "r");
+        try {
+            file.readFully(received);
+        }
+        finally {
+            file.close();
+        }
+        assertArrayEquals(data, received);
+    }
+
+    @Test
+    public void shouldDeriveSessionIDs() {
+        assertEquals("jsi_1", ParallelSocks5Transfer.getSessionID("jsi_1", 0));
+        assertEquals("jsi_1-3", ParallelSocks5Transfer.getSessionID("jsi_1", 3));
+    }
+
+    private void connectChannels() throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            SocketChannel channel = SocketChannel.open(serverChannel.socket().getLocalSocketAddress());
+            sendingSessions.add(new Session(channel.socket()));
+            receivingSessions.add(new Session(serverChannel.accept().socket()));
+        }
+        finally {
+            serverChannel.close();
+        }
+    }
+
+    private void connectSockets() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        try {
+            sendingSessions.add(new Session(new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort())));
+            receivingSessions.add(new Session(serverSocket.accept()));
+        }
+        finally {
+            serverSocket.close();
+        }
+    }
+
+    private static final class Session extends Socks5BytestreamSession {
+        private Session(Socket socket) {
+            super(socket, true);
+        }
+    }
+
+    private static final class CountingMonitor implements ProgressMonitor {
+        private final AtomicLong transferred = new AtomicLong();
+
+        @Override
+        public void progress(long transferred) {
+            long previous;
+            do {
+                previous = this.transferred.get();
+            } while (transferred > previous && !this.transferred.compareAndSet(previous, transferred));
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.pubsub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.DummyConnection;
+import org.jivesoftware.smack.SmackFuture;
+import org.jivesoftware.smack.XMPPException.XMPPErrorException;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.XMPPError;
+import org.jivesoftware.smackx.InitExtensions;
+import org.jivesoftware.smackx.pubsub.packet.PubSub;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ItemPublisherTest extends InitExtensions {
+
+    private DummyConnection connection;
+    private LeafNode node;
+
+    @Before
+    public void setUp() {
+        connection = DummyConnection.newConnectedDummyConnection();
+        PubSubManager pubSubManager = new PubSubManager(connection, PubSubManagerTest.DUMMY_PUBSUB_SERVICE);
+        node = new LeafNode(pubSubManager, "sensor");
+    }
+
+    @Test
+    public void shouldPipelineAndBatchItems() throws Exception {
+        final ItemPublisher<Item> publisher = node.createItemPublisher(3, 2);
+        List<SmackFuture<Void>> futures = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            futures.add(publisher.publish(new Item("item" + i)));
+        }
+
+        // Two requests are in flight, without waiting for a response.
+        PubSub first = connection.getSentPacket(5);
+        PubSub second = connection.getSentPacket(5);
+        assertEquals(1, getItems(first).size());
+        assertEquals(1, getItems(second).size());
+        assertNull(connection.getSentPacket(0));
+        assertEquals(2, publisher.getInFlightRequests());
+
+        // The window and the batch are full, the next publish blocks.
+        final List<SmackFuture<Void>> blockedFutures = new ArrayList<>();
+        Thread publishing = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    blockedFutures.add(publisher.publish(new Item("item6")));
+                }
+                catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        };
+        publishing.start();
+        while (publishing.getState() != Thread.State.WAITING) {
+            Thread.sleep(10);
+        }
+
+        connection.processStanza(IQ.createResultIQ(first));
+        futures.get(0).get(5, TimeUnit.SECONDS);
+        PubSub third = connection.getSentPacket(5);
+        assertEquals(3, getItems(third).size());
+        assertEquals("item3", getItems(third).get(0).getId());
+        publishing.join();
+
+        connection.processStanza(IQ.createResultIQ(second));
+        PubSub fourth = connection.getSentPacket(5);
+        assertEquals("item6", getItems(fourth).get(0).getId());
+        connection.processStanza(IQ.createResultIQ(third));
+        connection.processStanza(IQ.createResultIQ(fourth));
+
+        publisher.awaitCompletion();
+        futures.addAll(blockedFutures);
+        for (SmackFuture<Void> future : futures) {
+            assertTrue(future.isDone());
+            future.get();
+        }
+    }
+
+    @Test
+    public void shouldRepublishItemsSinglyIfBatchIsRejected() throws Exception {
+        ItemPublisher<Item> publisher = node.createItemPublisher(2, 1);
+        publisher.publish(new Item("item1"));
+        SmackFuture<Void> second = publisher.publish(new Item("item2"));
+        SmackFuture<Void> third = publisher.publish(new Item("item3"));
+
+        PubSub request = connection.getSentPacket(5);
+        connection.processStanza(IQ.createResultIQ(request));
+        request = connection.getSentPacket(5);
+        assertEquals(2, getItems(request).size());
+        connection.processStanza(IQ.createErrorResponse(request, XMPPError.Condition.bad_request));
+
+        request = connection.getSentPacket(5);
+        assertEquals(1, getItems(request).size());
+        assertEquals("item2", getItems(request).get(0).getId());
+        connection.processStanza(IQ.createResultIQ(request));
+        second.get(5, TimeUnit.SECONDS);
+
+        request = connection.getSentPacket(5);
+        assertEquals("item3", getItems(request).get(0).getId());
+        connection.processStanza(IQ.createErrorResponse(request, XMPPError.Condition.forbidden));
+        try {
+            third.get(5, TimeUnit.SECONDS);
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof XMPPErrorException);
+        }
+        assertTrue(third.isDone());
+        publisher.awaitCompletion();
+        assertFalse(third.isCancelled());
+    }
+
+    private static List<Item> getItems(PubSub request) {
+        PublishItem<Item> publishItem = request.getExtension(PubSubElementType.PUBLISH);
+        return new ArrayList<>(publishItem.items);
+    }
+}
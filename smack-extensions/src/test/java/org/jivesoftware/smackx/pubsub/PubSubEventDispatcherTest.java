@@ -0,0 +1,151 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.pubsub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.DummyConnection;
+import org.jivesoftware.smack.StanzaListener;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smackx.InitExtensions;
+import org.jivesoftware.smackx.pubsub.PubSubEventDispatcher.EventKind;
+import org.jivesoftware.smackx.pubsub.listener.ItemDeleteListener;
+import org.jivesoftware.smackx.pubsub.listener.ItemEventListener;
+import org.jivesoftware.smackx.pubsub.listener.NodeConfigListener;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PubSubEventDispatcherTest extends InitExtensions {
+
+    private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+    private DummyConnection connection;
+    private PubSubManager pubSubManager;
+
+    @Before
+    public void setUp() {
+        connection = DummyConnection.newConnectedDummyConnection();
+        pubSubManager = new PubSubManager(connection, PubSubManagerTest.DUMMY_PUBSUB_SERVICE);
+    }
+
+    @Test
+    public void shouldDispatchEventsByNodeAndType() throws Exception {
+        for (String nodeId : new String[] { "a", "b", "c" }) {
+            addListeners(new LeafNode(pubSubManager, nodeId));
+        }
+
+        processEvent("<items node='a'><item id='1'/></items>");
+        processEvent("<items node='b'/>");
+        processEvent("<items node='b'><retract id='2'/></items>");
+        processEvent("<purge node='c'/>");
+        processEvent("<configuration node='a'/>");
+        // No listeners are registered for this node.
+        processEvent("<items node='d'><item id='3'/></items>");
+
+        assertEquals("a:item:1", nextEvent());
+        assertEquals("b:item:", nextEvent());
+        assertEquals("b:retract:2", nextEvent());
+        assertEquals("c:purge", nextEvent());
+        assertEquals("a:configuration", nextEvent());
+        assertNull(events.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void shouldNotDispatchToRemovedListeners() throws Exception {
+        LeafNode node = new LeafNode(pubSubManager, "a");
+        ItemEventListener<Item> listener = new RecordingItemEventListener();
+        node.addItemEventListener(listener);
+        node.addItemEventListener(new RecordingItemEventListener());
+        node.removeItemEventListener(listener);
+
+        processEvent("<items node='a'><item id='1'/></items>");
+        processEvent("<items node='a'><item id='2'/></items>");
+
+        assertEquals("a:item:1", nextEvent());
+        // Only one of the two listeners is still registered.
+        assertEquals("a:item:2", nextEvent());
+    }
+
+    @Test
+    public void shouldOnlyBeRegisteredWhileListenersExist() {
+        PubSubEventDispatcher dispatcher = new PubSubEventDispatcher();
+        StanzaListener listener = new StanzaListener() {
+            @Override
+            public void processStanza(Stanza packet) {
+            }
+        };
+
+        dispatcher.addListener(connection, "a", EventKind.itemPublished, listener);
+        dispatcher.addListener(connection, "b", EventKind.configuration, listener);
+        dispatcher.removeListener(connection, "a", EventKind.itemPublished, listener);
+        dispatcher.removeListener(connection, "b", EventKind.configuration, listener);
+        assertFalse(connection.removeSyncStanzaListener(dispatcher));
+
+        dispatcher.addListener(connection, "a", EventKind.itemPublished, listener);
+        dispatcher.addListener(connection, "b", EventKind.configuration, listener);
+        dispatcher.removeListener(connection, "a", EventKind.itemPublished, listener);
+        // The listener of node b is still registered.
+        assertTrue(connection.removeSyncStanzaListener(dispatcher));
+    }
+
+    private void addListeners(LeafNode node) {
+        node.addItemEventListener(new RecordingItemEventListener());
+        node.addItemDeleteListener(new ItemDeleteListener() {
+            @Override
+            public void handleDeletedItems(ItemDeleteEvent items) {
+                events.add(items.getNodeId() + ":retract:" + items.getItemIds().get(0));
+            }
+
+            @Override
+            public void handlePurge() {
+                events.add("c:purge");
+            }
+        });
+        node.addConfigurationListener(new NodeConfigListener() {
+            @Override
+            public void handleNodeConfiguration(ConfigurationEvent config) {
+                events.add(config.getNode() + ":configuration");
+            }
+        });
+    }
+
+    private void processEvent(String event) throws Exception {
+        String message = "<message from='" + PubSubManagerTest.DUMMY_PUBSUB_SERVICE + "' to='user@dummy.org'>"
+                        + "<event xmlns='http://jabber.org/protocol/pubsub#event'>" + event + "</event></message>";
+        connection.processStanza(PacketParserUtils.parseStanza(message));
+    }
+
+    private String nextEvent() throws InterruptedException {
+        return events.poll(5, TimeUnit.SECONDS);
+    }
+
+    private final class RecordingItemEventListener implements ItemEventListener<Item> {
+        @Override
+        public void handlePublishedItems(ItemPublishEvent<Item> items) {
+            String id = items.getItems().isEmpty() ? "" : items.getItems().get(0).getId();
+            events.add(items.getNodeId() + ":item:" + id);
+        }
+    }
+}
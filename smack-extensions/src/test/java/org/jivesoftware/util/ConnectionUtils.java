@@ -23,8 +23,12 @@ import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
-import org.jivesoftware.smack.StanzaCollector;
+import org.jivesoftware.smack.SmackConfiguration;
 import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.SmackException.NoResponseException;
+import org.jivesoftware.smack.SmackFuture;
+import org.jivesoftware.smack.SmackFuture.InternalSmackFuture;
+import org.jivesoftware.smack.StanzaCollector;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.XMPPException.XMPPErrorException;
 import org.jivesoftware.smack.filter.StanzaFilter;
@@ -71,7 +75,7 @@ public class ConnectionUtils {
                     EntityFullJid initiatorJID, DomainBareJid xmppServer) throws SmackException, XMPPErrorException, InterruptedException {
 
         // mock XMPP connection
-        XMPPConnection connection = mock(XMPPConnection.class);
+        final XMPPConnection connection = mock(XMPPConnection.class);
         when(connection.getUser()).thenReturn(initiatorJID);
         when(connection.getXMPPServiceDomain()).thenReturn(xmppServer);
 
@@ -121,6 +125,28 @@ public class ConnectionUtils {
         when(collector.nextResultOrThrow()).thenAnswer(answerOrThrow);
         when(collector.nextResultOrThrow(anyLong())).thenAnswer(answerOrThrow);
 
+        // mock asynchronous IQ requests
+        Answer<SmackFuture<IQ>> sendIqRequestAsync = new Answer<SmackFuture<IQ>>() {
+            @Override
+            public SmackFuture<IQ> answer(InvocationOnMock invocation) throws Throwable {
+                protocol.getRequests().add((Stanza) invocation.getArguments()[0]);
+                InternalSmackFuture<IQ> future = new InternalSmackFuture<>(SmackConfiguration.getExecutionModel());
+                IQ response = (IQ) protocol.getResponses().poll();
+                if (response == null) {
+                    future.setException(NoResponseException.newWith(connection, "response"));
+                }
+                else if (response.getType() == IQ.Type.error) {
+                    future.setException(new XMPPErrorException(response, response.getError()));
+                }
+                else {
+                    future.setResult(response);
+                }
+                return future;
+            }
+        };
+        when(connection.sendIqRequestAsync(isA(IQ.class))).thenAnswer(sendIqRequestAsync);
+        when(connection.sendIqRequestAsync(isA(IQ.class), anyLong())).thenAnswer(sendIqRequestAsync);
+
         // initialize service discovery manager for this connection
         ServiceDiscoveryManager.getInstanceFor(connection);
 
@@ -0,0 +1,222 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.roster;
+
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.packet.Presence;
+import org.jxmpp.jid.Jid;
+import org.jxmpp.jid.parts.Resourcepart;
+import org.jxmpp.util.cache.LruCache;
+
+/**
+ * The presence of one resource of an entity, as stored by the {@link Roster}. Unlike a {@link Presence} stanza, only
+ * the type, mode, priority, status and entity capabilities of the presence are kept, and equal status strings and caps
+ * elements are shared between all instances. The presences of the resources of one entity form an immutable linked
+ * list, so that entities with a single resource, by far the most common case, require no map.
+ * <p>
+ * If the full presence stanza is retained, or if the presence is an error presence, the stanza is kept as it is.
+ * </p>
+ */
+final class CompactPresence {
+
+    private static final String CAPS_ELEMENT = "c";
+
+    private static final String CAPS_NAMESPACE = "http://jabber.org/protocol/caps";
+
+    /**
+     * Interns status strings. Many contacts use the same status, e.g. the default status of their client.
+     */
+    private static final LruCache<String, String> STATUS_CACHE = new LruCache<>(1024);
+
+    /**
+     * Interns entity caps elements by their XML representation. Contacts using the same client announce the same caps.
+     */
+    private static final LruCache<String, ExtensionElement> CAPS_CACHE = new LruCache<>(1024);
+
+    private final Jid from;
+    private final Presence.Type type;
+    private final Presence.Mode mode;
+    private final int priority;
+    private final String status;
+    private final ExtensionElement caps;
+
+    /**
+     * The full presence stanza, or <code>null</code> if it is not retained.
+     */
+    private final Presence presence;
+
+    /**
+     * The presence of the next resource of the same entity, or <code>null</code>.
+     */
+    private final CompactPresence next;
+
+    private CompactPresence(CompactPresence other, CompactPresence next) {
+        this.from = other.from;
+        this.type = other.type;
+        this.mode = other.mode;
+        this.priority = other.priority;
+        this.status = other.status;
+        this.caps = other.caps;
+        this.presence = other.presence;
+        this.next = next;
+    }
+
+    private CompactPresence(Presence presence, boolean retainStanza) {
+        this.from = presence.getFrom();
+        this.type = presence.getType();
+        if (retainStanza || type == Presence.Type.error) {
+            this.mode = null;
+            this.priority = Integer.MIN_VALUE;
+            this.status = null;
+            this.caps = null;
+            this.presence = presence;
+        }
+        else {
+            Presence.Mode mode = presence.getMode();
+            this.mode = mode == Presence.Mode.available ? null : mode;
+            this.priority = presence.getPriority();
+            this.status = intern(STATUS_CACHE, presence.getStatus(), presence.getStatus());
+            ExtensionElement caps = presence.getExtension(CAPS_ELEMENT, CAPS_NAMESPACE);
+            this.caps = caps != null ? intern(CAPS_CACHE, caps.toXML().toString(), caps) : null;
+            this.presence = null;
+        }
+        this.next = null;
+    }
+
+    /**
+     * Create the compact representation of the given presence.
+     *
+     * @param presence the presence.
+     * @param retainStanza whether the full presence stanza should be retained.
+     * @return the compact representation of the presence.
+     */
+    static CompactPresence from(Presence presence, boolean retainStanza) {
+        return new CompactPresence(presence, retainStanza);
+    }
+
+    Resourcepart getResource() {
+        return from.getResourceOrEmpty();
+    }
+
+    boolean isAvailable() {
+        return type == Presence.Type.available;
+    }
+
+    int getPriority() {
+        if (presence != null) {
+            return presence.getPriority();
+        }
+        return priority;
+    }
+
+    Presence.Mode getMode() {
+        if (presence != null) {
+            return presence.getMode();
+        }
+        return mode != null ? mode : Presence.Mode.available;
+    }
+
+    CompactPresence getNext() {
+        return next;
+    }
+
+    /**
+     * Create a new presence stanza from this compact presence. If the full presence stanza was retained, a clone of it
+     * is returned.
+     *
+     * @return a new presence stanza.
+     */
+    Presence toPresence() {
+        if (presence != null) {
+            return presence.clone();
+        }
+        Presence result = new Presence(type);
+        result.setFrom(from);
+        result.setMode(mode);
+        if (priority != Integer.MIN_VALUE) {
+            result.setPriority(priority);
+        }
+        result.setStatus(status);
+        if (caps != null) {
+            result.addExtension(caps);
+        }
+        return result;
+    }
+
+    /**
+     * Find the presence of the given resource in the list starting with the given presence.
+     *
+     * @param head the first presence of the list, may be <code>null</code>.
+     * @param resource the resource.
+     * @return the presence of the resource, or <code>null</code>.
+     */
+    static CompactPresence find(CompactPresence head, Resourcepart resource) {
+        for (CompactPresence presence = head; presence != null; presence = presence.next) {
+            if (presence.getResource().equals(resource)) {
+                return presence;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a list where the presence of the resource of the given presence is replaced by the given presence, or
+     * where the given presence was appended if there was no presence of the resource.
+     *
+     * @param head the first presence of the list, may be <code>null</code>.
+     * @param presence the new presence.
+     * @return the first presence of the new list.
+     */
+    static CompactPresence put(CompactPresence head, CompactPresence presence) {
+        if (head == null) {
+            return presence.next == null ? presence : new CompactPresence(presence, null);
+        }
+        if (head.getResource().equals(presence.getResource())) {
+            return new CompactPresence(presence, head.next);
+        }
+        return new CompactPresence(head, put(head.next, presence));
+    }
+
+    /**
+     * Returns a list without the presence of the given resource.
+     *
+     * @param head the first presence of the list, may be <code>null</code>.
+     * @param resource the resource whose presence should be removed.
+     * @return the first presence of the new list, or <code>null</code> if the new list is empty.
+     */
+    static CompactPresence remove(CompactPresence head, Resourcepart resource) {
+        if (find(head, resource) == null) {
+            return head;
+        }
+        if (head.getResource().equals(resource)) {
+            return head.next;
+        }
+        return new CompactPresence(head, remove(head.next, resource));
+    }
+
+    private static <V> V intern(LruCache<String, V> cache, String key, V value) {
+        if (key == null) {
+            return null;
+        }
+        V interned = cache.lookup(key);
+        if (interned != null) {
+            return interned;
+        }
+        cache.put(key, value);
+        return value;
+    }
+}
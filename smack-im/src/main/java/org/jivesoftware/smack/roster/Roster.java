@@ -22,6 +22,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -30,6 +31,7 @@ import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,8 +39,10 @@ import org.jivesoftware.smack.AbstractConnectionListener;
 import org.jivesoftware.smack.ConnectionCreationListener;
 import org.jivesoftware.smack.ExceptionCallback;
 import org.jivesoftware.smack.Manager;
+import org.jivesoftware.smack.SmackConfiguration;
 import org.jivesoftware.smack.StanzaListener;
 import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.SmackExecutionModel.SerialExecutor;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.SmackException.FeatureNotSupportedException;
 import org.jivesoftware.smack.SmackException.NoResponseException;
@@ -63,6 +67,7 @@ import org.jivesoftware.smack.roster.packet.RosterVer;
 import org.jivesoftware.smack.roster.packet.RosterPacket.Item;
 import org.jivesoftware.smack.roster.packet.SubscriptionPreApproval;
 import org.jivesoftware.smack.roster.rosterstore.RosterStore;
+import org.jivesoftware.smack.util.HashedWheelTimer;
 import org.jivesoftware.smack.util.Objects;
 import org.jxmpp.jid.BareJid;
 import org.jxmpp.jid.EntityBareJid;
@@ -159,10 +164,10 @@ public final class Roster extends Manager {
     private final Set<PresenceEventListener> presenceEventListeners = new CopyOnWriteArraySet<>();
 
     /**
-     * A map of JIDs to another Map of Resourceparts to Presences. The 'inner' map may contain
+     * A map of JIDs to the list of the presences of their resources. The list may contain
      * {@link Resourcepart#EMPTY} if there are no other Presences available.
      */
-    private final Map<BareJid, Map<Resourcepart, Presence>> presenceMap = new ConcurrentHashMap<>();
+    private final Map<BareJid, CompactPresence> presenceMap = new ConcurrentHashMap<>();
 
     /**
      * Like {@link presenceMap} but for presences of entities not in our Roster.
@@ -170,7 +175,7 @@ public final class Roster extends Manager {
     // TODO Ideally we want here to use a LRU cache like Map which will evict all superfluous items
     // if their maximum size is lowered below the current item count. LruCache does not provide
     // this.
-    private final LruCache<BareJid, Map<Resourcepart, Presence>> nonRosterPresenceMap = new LruCache<>(
+    private final LruCache<BareJid, CompactPresence> nonRosterPresenceMap = new LruCache<>(
                     defaultNonRosterPresenceMapMaxSize);
 
     /**
@@ -197,6 +202,40 @@ public final class Roster extends Manager {
 
     private final PresencePacketListener presencePacketListener = new PresencePacketListener();
 
+    /**
+     * The window in which presences are coalesced in milliseconds, or 0 if presence coalescing is disabled.
+     */
+    private volatile long presenceCoalescingWindowMillis;
+
+    private volatile boolean retainPresenceStanzas = true;
+
+    /**
+     * The latest presences which were received within the current presence coalescing window, by their sender.
+     */
+    private final Map<Jid, Presence> pendingPresences = new LinkedHashMap<>();
+
+    private boolean pendingPresencesScheduled;
+
+    /**
+     * Held while presence events are fired, so that listeners see the presences in the order they were received, also
+     * when presence coalescing is disabled while there are still pending presences.
+     */
+    private final Object presenceDeliveryLock = new Object();
+
+    /**
+     * Delivers the coalesced presences, in order, without blocking the timer thread.
+     */
+    private final SerialExecutor coalescedPresenceExecutor = SmackConfiguration.getExecutionModel().newSerialExecutor();
+
+    private final Runnable deliverPendingPresences = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (presenceDeliveryLock) {
+                firePendingPresenceEvents();
+            }
+        }
+    };
+
     /**
      * 
      */
@@ -346,13 +385,14 @@ public final class Roster extends Manager {
     }
 
     /**
-     * Retrieve the user presences (a map from resource to {@link Presence}) for a given XMPP entity represented by their bare JID.
+     * Retrieve the user presences (a list of the presences of the resources) for a given XMPP entity represented by
+     * their bare JID.
      *
      * @param entity the entity
-     * @return the user presences
+     * @return the first presence of the user presences, or <code>null</code>
      */
-    private Map<Resourcepart, Presence> getPresencesInternal(BareJid entity) {
-        Map<Resourcepart, Presence> entityPresences = presenceMap.get(entity);
+    private CompactPresence getPresencesInternal(BareJid entity) {
+        CompactPresence entityPresences = presenceMap.get(entity);
         if (entityPresences == null) {
             entityPresences = nonRosterPresenceMap.lookup(entity);
         }
@@ -360,23 +400,44 @@ public final class Roster extends Manager {
     }
 
     /**
-     * Retrieve the user presences (a map from resource to {@link Presence}) for a given XMPP entity represented by their bare JID.
+     * Store the user presences of a given XMPP entity represented by their bare JID.
      *
      * @param entity the entity
-     * @return the user presences
+     * @param entityPresences the first presence of the new user presences.
      */
-    private synchronized Map<Resourcepart, Presence> getOrCreatePresencesInternal(BareJid entity) {
-        Map<Resourcepart, Presence> entityPresences = getPresencesInternal(entity);
-        if (entityPresences == null) {
-            entityPresences = new ConcurrentHashMap<>();
-            if (contains(entity)) {
-                presenceMap.put(entity, entityPresences);
-            }
-            else {
-                nonRosterPresenceMap.put(entity, entityPresences);
-            }
+    private synchronized void putPresencesInternal(BareJid entity, CompactPresence entityPresences) {
+        if (presenceMap.containsKey(entity) || (nonRosterPresenceMap.lookup(entity) == null && contains(entity))) {
+            presenceMap.put(entity, entityPresences);
         }
-        return entityPresences;
+        else {
+            nonRosterPresenceMap.put(entity, entityPresences);
+        }
+    }
+
+    /**
+     * Set whether the full presence stanzas of the contacts are retained, which is the default. If they are not
+     * retained, then only the information required to answer the presence related queries of the roster is kept, i.e.
+     * the type, mode, priority, status and entity capabilities of the presences, which considerably reduces the memory
+     * required for large rosters. The presences returned by e.g. {@link #getPresence(BareJid)} then do not contain
+     * other extension elements, like vCard-based avatar updates or delayed delivery information. The setting applies to
+     * the presences received afterwards.
+     *
+     * @param retainPresenceStanzas false if only the compact presence information should be stored.
+     * @since 4.3
+     */
+    public void setRetainPresenceStanzas(boolean retainPresenceStanzas) {
+        this.retainPresenceStanzas = retainPresenceStanzas;
+    }
+
+    /**
+     * Check whether the full presence stanzas of the contacts are retained.
+     *
+     * @return true if the full presence stanzas are retained.
+     * @see #setRetainPresenceStanzas(boolean)
+     * @since 4.3
+     */
+    public boolean isRetainPresenceStanzas() {
+        return retainPresenceStanzas;
     }
 
     /**
@@ -411,6 +472,50 @@ public final class Roster extends Manager {
         this.subscriptionMode = subscriptionMode;
     }
 
+    /**
+     * Set the window in which received presences are coalesced before the roster and presence event listeners are
+     * notified. With large rosters, thousands of presences are received right after login. If presence coalescing is
+     * enabled, the presences received within the window are collected, and only the latest presence of every address,
+     * i.e. of every resource of a contact, is delivered. {@link RosterBatchListener}s receive all of them with a single
+     * {@link RosterBatchListener#presencesChanged(Collection)} callback. Redundant intermediate presences are never
+     * delivered.
+     * <p>
+     * Methods like {@link #getPresence(BareJid)} always reflect the latest received presences, regardless of this
+     * setting. Presence coalescing is disabled by default. The coalesced presences are delivered from a different thread
+     * than the one processing the incoming stanzas, and the window has the granularity of Smack's shared timer, which is
+     * 100 milliseconds. Subscription related presences are never coalesced. If presence coalescing is disabled, i.e. if
+     * the window is shorter than a millisecond, then the pending presences are delivered before this method returns.
+     * </p>
+     *
+     * @param window the window, or 0 to disable presence coalescing.
+     * @param unit the unit of the window.
+     * @since 4.3
+     */
+    public void setPresenceCoalescingWindow(long window, TimeUnit unit) {
+        if (window < 0) {
+            throw new IllegalArgumentException("The presence coalescing window must not be negative");
+        }
+        presenceCoalescingWindowMillis = unit.toMillis(window);
+        if (presenceCoalescingWindowMillis == 0) {
+            // Deliver the presences which are still waiting for the end of the previous window now, before any
+            // presence which is delivered right away.
+            synchronized (presenceDeliveryLock) {
+                firePendingPresenceEvents();
+            }
+        }
+    }
+
+    /**
+     * Get the window in which received presences are coalesced.
+     *
+     * @return the presence coalescing window in milliseconds, or 0 if presence coalescing is disabled.
+     * @see #setPresenceCoalescingWindow(long, TimeUnit)
+     * @since 4.3
+     */
+    public long getPresenceCoalescingWindow() {
+        return presenceCoalescingWindowMillis;
+    }
+
     /**
      * Reloads the entire roster from the server. This is an asynchronous operation,
      * which means the method will return immediately, and the roster will be
@@ -912,7 +1017,7 @@ public final class Roster extends Manager {
      *         or if no presence information is available..
      */
     public Presence getPresence(BareJid jid) {
-        Map<Resourcepart, Presence> userPresences = getPresencesInternal(jid);
+        CompactPresence userPresences = getPresencesInternal(jid);
         if (userPresences == null) {
             Presence presence = new Presence(Presence.Type.unavailable);
             presence.setFrom(jid);
@@ -921,12 +1026,11 @@ public final class Roster extends Manager {
         else {
             // Find the resource with the highest priority
             // Might be changed to use the resource with the highest availability instead.
-            Presence presence = null;
+            CompactPresence presence = null;
             // This is used in case no available presence is found
-            Presence unavailable = null;
+            CompactPresence unavailable = null;
 
-            for (Resourcepart resource : userPresences.keySet()) {
-                Presence p = userPresences.get(resource);
+            for (CompactPresence p = userPresences; p != null; p = p.getNext()) {
                 if (!p.isAvailable()) {
                     unavailable = p;
                     continue;
@@ -954,16 +1058,16 @@ public final class Roster extends Manager {
             }
             if (presence == null) {
                 if (unavailable != null) {
-                    return unavailable.clone();
+                    return unavailable.toPresence();
                 }
                 else {
-                    presence = new Presence(Presence.Type.unavailable);
-                    presence.setFrom(jid);
-                    return presence;
+                    Presence unavailablePresence = new Presence(Presence.Type.unavailable);
+                    unavailablePresence.setFrom(jid);
+                    return unavailablePresence;
                 }
             }
             else {
-                return presence.clone();
+                return presence.toPresence();
             }
         }
     }
@@ -980,22 +1084,14 @@ public final class Roster extends Manager {
     public Presence getPresenceResource(FullJid userWithResource) {
         BareJid key = userWithResource.asBareJid();
         Resourcepart resource = userWithResource.getResourcepart();
-        Map<Resourcepart, Presence> userPresences = getPresencesInternal(key);
-        if (userPresences == null) {
-            Presence presence = new Presence(Presence.Type.unavailable);
-            presence.setFrom(userWithResource);
-            return presence;
+        CompactPresence presence = CompactPresence.find(getPresencesInternal(key), resource);
+        if (presence == null) {
+            Presence unavailable = new Presence(Presence.Type.unavailable);
+            unavailable.setFrom(userWithResource);
+            return unavailable;
         }
         else {
-            Presence presence = userPresences.get(resource);
-            if (presence == null) {
-                presence = new Presence(Presence.Type.unavailable);
-                presence.setFrom(userWithResource);
-                return presence;
-            }
-            else {
-                return presence.clone();
-            }
+            return presence.toPresence();
         }
     }
 
@@ -1008,7 +1104,7 @@ public final class Roster extends Manager {
      *         presence information is available.
      */
     public List<Presence> getAllPresences(BareJid bareJid) {
-        Map<Resourcepart, Presence> userPresences = getPresencesInternal(bareJid);
+        CompactPresence userPresences = getPresencesInternal(bareJid);
         List<Presence> res;
         if (userPresences == null) {
             // Create an unavailable presence if none was found
@@ -1016,9 +1112,9 @@ public final class Roster extends Manager {
             unavailable.setFrom(bareJid);
             res = new ArrayList<>(Arrays.asList(unavailable));
         } else {
-            res = new ArrayList<>(userPresences.values().size());
-            for (Presence presence : userPresences.values()) {
-                res.add(presence.clone());
+            res = new ArrayList<>();
+            for (CompactPresence presence = userPresences; presence != null; presence = presence.getNext()) {
+                res.add(presence.toPresence());
             }
         }
         return res;
@@ -1056,7 +1152,7 @@ public final class Roster extends Manager {
      */
     public List<Presence> getPresences(BareJid jid) {
         List<Presence> res;
-        Map<Resourcepart, Presence> userPresences = getPresencesInternal(jid);
+        CompactPresence userPresences = getPresencesInternal(jid);
         if (userPresences == null) {
             Presence presence = new Presence(Presence.Type.unavailable);
             presence.setFrom(jid);
@@ -1065,10 +1161,10 @@ public final class Roster extends Manager {
         else {
             List<Presence> answer = new ArrayList<Presence>();
             // Used in case no available presence is found
-            Presence unavailable = null;
-            for (Presence presence : userPresences.values()) {
+            CompactPresence unavailable = null;
+            for (CompactPresence presence = userPresences; presence != null; presence = presence.getNext()) {
                 if (presence.isAvailable()) {
-                    answer.add(presence.clone());
+                    answer.add(presence.toPresence());
                 }
                 else {
                     unavailable = presence;
@@ -1078,7 +1174,7 @@ public final class Roster extends Manager {
                 res = answer;
             }
             else if (unavailable != null) {
-                res = Arrays.asList(unavailable.clone());
+                res = Arrays.asList(unavailable.toPresence());
             }
             else {
                 Presence presence = new Presence(Presence.Type.unavailable);
@@ -1183,9 +1279,10 @@ public final class Roster extends Manager {
     private void setOfflinePresences() {
         Presence packetUnavailable;
         outerloop: for (Jid user : presenceMap.keySet()) {
-            Map<Resourcepart, Presence> resources = presenceMap.get(user);
+            CompactPresence resources = presenceMap.get(user);
             if (resources != null) {
-                for (Resourcepart resource : resources.keySet()) {
+                for (CompactPresence presence = resources; presence != null; presence = presence.getNext()) {
+                    Resourcepart resource = presence.getResource();
                     packetUnavailable = new Presence(Presence.Type.unavailable);
                     EntityBareJid bareUserJid = user.asEntityBareJidIfPossible();
                     if (bareUserJid == null) {
@@ -1258,6 +1355,134 @@ public final class Roster extends Manager {
         }
     }
 
+    /**
+     * Fires roster presence changed events to roster listeners for a batch of coalesced presences.
+     *
+     * @param presences the presence changes.
+     */
+    private void fireRosterPresenceEvents(final List<Presence> presences) {
+        Collection<Presence> unmodifiablePresences = Collections.unmodifiableCollection(presences);
+        synchronized (rosterListenersAndEntriesLock) {
+            for (RosterListener listener : rosterListeners) {
+                if (listener instanceof RosterBatchListener) {
+                    ((RosterBatchListener) listener).presencesChanged(unmodifiablePresences);
+                    continue;
+                }
+                for (Presence presence : presences) {
+                    listener.presenceChanged(presence);
+                }
+            }
+        }
+    }
+
+    /**
+     * Notify the listeners about the given available, unavailable or error presence, either now or, if presence
+     * coalescing is enabled, once the current window ends.
+     *
+     * @param presence the received presence.
+     */
+    private void presenceChanged(Presence presence) {
+        final long window = presenceCoalescingWindowMillis;
+        if (window == 0) {
+            synchronized (presenceDeliveryLock) {
+                // Presence coalescing may have just been disabled, deliver the remaining coalesced presences first.
+                firePendingPresenceEvents();
+                if (contains(fromAsBareJid(presence))) {
+                    fireRosterPresenceEvent(presence);
+                }
+                firePresenceEventListeners(presence);
+            }
+            return;
+        }
+
+        synchronized (pendingPresences) {
+            Jid from = presence.getFrom();
+            // Remove the previous presence first, so that the iteration order is the order of the latest presences.
+            pendingPresences.remove(from);
+            pendingPresences.put(from, presence);
+            if (pendingPresencesScheduled) {
+                return;
+            }
+            pendingPresencesScheduled = true;
+        }
+        HashedWheelTimer.getInstance().schedule(new Runnable() {
+            @Override
+            public void run() {
+                coalescedPresenceExecutor.execute(deliverPendingPresences);
+            }
+        }, window, TimeUnit.MILLISECONDS);
+    }
+
+    private void firePendingPresenceEvents() {
+        assert(Thread.holdsLock(presenceDeliveryLock));
+        List<Presence> presences;
+        synchronized (pendingPresences) {
+            if (pendingPresences.isEmpty()) {
+                return;
+            }
+            presences = new ArrayList<>(pendingPresences.values());
+            pendingPresences.clear();
+            pendingPresencesScheduled = false;
+        }
+        firePresenceEvents(presences);
+    }
+
+    private void firePresenceEvents(List<Presence> presences) {
+        List<Presence> rosterPresences = new ArrayList<>(presences.size());
+        for (Presence presence : presences) {
+            if (contains(fromAsBareJid(presence))) {
+                rosterPresences.add(presence);
+            }
+        }
+        if (!rosterPresences.isEmpty()) {
+            fireRosterPresenceEvents(rosterPresences);
+        }
+        for (Presence presence : presences) {
+            firePresenceEventListeners(presence);
+        }
+    }
+
+    private void firePresenceEventListeners(Presence presence) {
+        final Jid from = presence.getFrom();
+        final FullJid fullFrom = from != null ? from.asFullJidIfPossible() : null;
+        switch (presence.getType()) {
+        case available:
+            for (PresenceEventListener presenceEventListener : presenceEventListeners) {
+                presenceEventListener.presenceAvailable(fullFrom, presence);
+            }
+            break;
+        case unavailable:
+            // Ensure that 'from' is a full JID before invoking the presence unavailable
+            // listeners. Usually unavailable presences always have a resourcepart, i.e. are
+            // full JIDs, but RFC 6121 § 4.5.4 has an implementation note that unavailable
+            // presences from a bare JID SHOULD be treated as applying to all resources. I don't
+            // think any client or server ever implemented that, I do think that this
+            // implementation note is a terrible idea since it adds another corner case in
+            // client code, instead of just having the invariant
+            // "unavailable presences are always from the full JID".
+            if (fullFrom != null) {
+                for (PresenceEventListener presenceEventListener : presenceEventListeners) {
+                    presenceEventListener.presenceUnavailable(fullFrom, presence);
+                }
+            } else {
+                LOGGER.fine("Unavailable presence from bare JID: " + presence);
+            }
+            break;
+        case error:
+            for (PresenceEventListener presenceEventListener : presenceEventListeners) {
+                presenceEventListener.presenceError(from, presence);
+            }
+            break;
+        default:
+            throw new AssertionError();
+        }
+    }
+
+    private static BareJid fromAsBareJid(Presence presence) {
+        Jid from = presence.getFrom();
+        return from != null ? from.asBareJid() : null;
+    }
+
     private void addUpdateEntry(Collection<Jid> addedEntries, Collection<Jid> updatedEntries,
                     Collection<Jid> unchangedEntries, RosterPacket.Item item, RosterEntry entry) {
         RosterEntry oldEntry;
@@ -1362,9 +1587,9 @@ public final class Roster extends Manager {
      * @param from the map to move presences from
      * @param to the map to move presences to
      */
-    private static void move(BareJid entity, Map<BareJid, Map<Resourcepart, Presence>> from, Map<BareJid, Map<Resourcepart, Presence>> to) {
-        Map<Resourcepart, Presence> presences = from.remove(entity);
-        if (presences != null && !presences.isEmpty()) {
+    private static void move(BareJid entity, Map<BareJid, CompactPresence> from, Map<BareJid, CompactPresence> to) {
+        CompactPresence presences = from.remove(entity);
+        if (presences != null) {
             to.put(entity, presences);
         }
     }
@@ -1447,80 +1672,50 @@ public final class Roster extends Manager {
             Jid from = presence.getFrom();
             Resourcepart fromResource = Resourcepart.EMPTY;
             BareJid bareFrom = null;
-            FullJid fullFrom = null;
             if (from != null) {
                 fromResource = from.getResourceOrNull();
                 if (fromResource == null) {
                     fromResource = Resourcepart.EMPTY;
                     bareFrom = from.asBareJid();
                 }
-                else {
-                    fullFrom = from.asFullJidIfPossible();
-                    // We know that this must be a full JID in this case.
-                    assert (fullFrom != null);
-                }
             }
 
             BareJid key = from != null ? from.asBareJid() : null;
-            Map<Resourcepart, Presence> userPresences;
+            CompactPresence compactPresence;
 
             // If an "available" presence, add it to the presence map. Each presence
-            // map will hold for a particular user a map with the presence
+            // map will hold for a particular user a list with the presence
             // packets saved for each resource.
             switch (presence.getType()) {
             case available:
-                // Get the user presence map
-                userPresences = getOrCreatePresencesInternal(key);
-                // See if an offline presence was being stored in the map. If so, remove
-                // it since we now have an online presence.
-                userPresences.remove(Resourcepart.EMPTY);
-                // Add the new presence, using the resources as a key.
-                userPresences.put(fromResource, presence);
-                // If the user is in the roster, fire an event.
-                if (contains(key)) {
-                    fireRosterPresenceEvent(presence);
-                }
-                for (PresenceEventListener presenceEventListener : presenceEventListeners) {
-                    presenceEventListener.presenceAvailable(fullFrom, presence);
+                compactPresence = CompactPresence.from(presence, retainPresenceStanzas);
+                synchronized (Roster.this) {
+                    // See if an offline presence was being stored in the list. If so, remove
+                    // it since we now have an online presence.
+                    CompactPresence userPresences = CompactPresence.remove(getPresencesInternal(key),
+                                    Resourcepart.EMPTY);
+                    // Add the new presence, replacing the one of the same resource.
+                    putPresencesInternal(key, CompactPresence.put(userPresences, compactPresence));
                 }
+                presenceChanged(presence);
                 break;
             // If an "unavailable" packet.
             case unavailable:
-                // If no resource, this is likely an offline presence as part of
-                // a roster presence flood. In that case, we store it.
-                if (from.hasNoResource()) {
-                    // Get the user presence map
-                    userPresences = getOrCreatePresencesInternal(key);
-                    userPresences.put(Resourcepart.EMPTY, presence);
-                }
-                // Otherwise, this is a normal offline presence.
-                else if (presenceMap.get(key) != null) {
-                    userPresences = presenceMap.get(key);
-                    // Store the offline presence, as it may include extra information
-                    // such as the user being on vacation.
-                    userPresences.put(fromResource, presence);
-                }
-                // If the user is in the roster, fire an event.
-                if (contains(key)) {
-                    fireRosterPresenceEvent(presence);
-                }
-
-                // Ensure that 'from' is a full JID before invoking the presence unavailable
-                // listeners. Usually unavailable presences always have a resourcepart, i.e. are
-                // full JIDs, but RFC 6121 § 4.5.4 has an implementation note that unavailable
-                // presences from a bare JID SHOULD be treated as applying to all resources. I don't
-                // think any client or server ever implemented that, I do think that this
-                // implementation note is a terrible idea since it adds another corner case in
-                // client code, instead of just having the invariant
-                // "unavailable presences are always from the full JID".
-                if (fullFrom != null) {
-                    for (PresenceEventListener presenceEventListener : presenceEventListeners) {
-                        presenceEventListener.presenceUnavailable(fullFrom, presence);
+                compactPresence = CompactPresence.from(presence, retainPresenceStanzas);
+                synchronized (Roster.this) {
+                    // If no resource, this is likely an offline presence as part of
+                    // a roster presence flood. In that case, we store it.
+                    if (from.hasNoResource()) {
+                        putPresencesInternal(key, CompactPresence.put(getPresencesInternal(key), compactPresence));
+                    }
+                    // Otherwise, this is a normal offline presence.
+                    else if (presenceMap.get(key) != null) {
+                        // Store the offline presence, as it may include extra information
+                        // such as the user being on vacation.
+                        presenceMap.put(key, CompactPresence.put(presenceMap.get(key), compactPresence));
                     }
-                } else {
-                    LOGGER.fine("Unavailable presence from bare JID: " + presence);
                 }
-
+                presenceChanged(presence);
                 break;
             // Error presence packets from a bare JID mean we invalidate all existing
             // presence info for the user.
@@ -1531,19 +1726,10 @@ public final class Roster extends Manager {
                 if (from == null || !from.isEntityBareJid()) {
                     break;
                 }
-                userPresences = getOrCreatePresencesInternal(key);
-                // Any other presence data is invalidated by the error packet.
-                userPresences.clear();
-
-                // Set the new presence using the empty resource as a key.
-                userPresences.put(Resourcepart.EMPTY, presence);
-                // If the user is in the roster, fire an event.
-                if (contains(key)) {
-                    fireRosterPresenceEvent(presence);
-                }
-                for (PresenceEventListener presenceEventListener : presenceEventListeners) {
-                    presenceEventListener.presenceError(from, presence);
-                }
+                // Any other presence data is invalidated by the error packet, the new
+                // presence is stored using the empty resource.
+                putPresencesInternal(key, CompactPresence.from(presence, retainPresenceStanzas));
+                presenceChanged(presence);
                 break;
             case subscribed:
                 for (PresenceEventListener presenceEventListener : presenceEventListeners) {
@@ -0,0 +1,42 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.roster;
+
+import java.util.Collection;
+
+import org.jivesoftware.smack.packet.Presence;
+
+/**
+ * A {@link RosterListener} which receives the presence changes of the roster entries in batches if presence coalescing
+ * is enabled.
+ *
+ * @see Roster#setPresenceCoalescingWindow(long, java.util.concurrent.TimeUnit)
+ */
+public interface RosterBatchListener extends RosterListener {
+
+    /**
+     * Called with the coalesced presence changes of the roster entries which were received within the presence
+     * coalescing window, instead of calling {@link #presenceChanged(Presence)} for every presence. The collection
+     * contains only the latest presence of every address, in the order in which these presences were received.
+     * <p>
+     * If presence coalescing is disabled, {@link #presenceChanged(Presence)} is called instead.
+     * </p>
+     *
+     * @param presences the latest presences of the addresses whose presence changed.
+     */
+    void presencesChanged(Collection<Presence> presences);
+}
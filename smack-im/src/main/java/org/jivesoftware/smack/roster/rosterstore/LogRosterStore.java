@@ -0,0 +1,551 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.roster.rosterstore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import org.jivesoftware.smack.roster.packet.RosterPacket.Item;
+import org.jivesoftware.smack.roster.packet.RosterPacket.ItemType;
+import org.jivesoftware.smack.util.StringUtils;
+import org.jxmpp.jid.Jid;
+import org.jxmpp.jid.impl.JidCreate;
+
+/**
+ * Stores roster entries as specified by RFC 6121 for roster versioning in a single, append-only and memory-mapped log
+ * file. Suitable for large rosters with tens of thousands of entries.
+ * <p>
+ * Every change appends a binary record to the log, followed by a record with the new roster version, which commits the
+ * change. An in-memory index maps the bare JIDs to the position of their latest record, so opening the store only has
+ * to scan the log, and entries are decoded when they are requested. If the process dies while a change is written, the
+ * incomplete records after the last version record are discarded when the store is opened the next time. The records
+ * are protected by a CRC32 checksum.
+ * </p>
+ * <p>
+ * Once more than half of the log consists of outdated records, the log is compacted by writing the current entries to a
+ * new file, which then atomically replaces the old one. {@link #resetEntries(Collection, String)} writes a new file
+ * right away.
+ * </p>
+ */
+public final class LogRosterStore implements RosterStore {
+
+    private static final Logger LOGGER = Logger.getLogger(LogRosterStore.class.getName());
+
+    /**
+     * The magic number at the beginning of the log, 'SMRL'.
+     */
+    private static final int MAGIC = 0x534d524c;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_LENGTH = 8;
+
+    /**
+     * A record consists of the length of the payload, the type, the payload and the CRC32 of type and payload.
+     */
+    private static final int RECORD_OVERHEAD = 4 + 1 + 4;
+
+    private static final byte TYPE_ENTRY = 1;
+    private static final byte TYPE_REMOVE = 2;
+    private static final byte TYPE_VERSION = 3;
+
+    private static final int MIN_MAPPED_SIZE = 64 * 1024;
+
+    private static final int COMPACTION_MIN_GARBAGE = 64 * 1024;
+
+    private static final ItemType[] ITEM_TYPES = ItemType.values();
+
+    private final File file;
+
+    /**
+     * Maps the bare JIDs of the entries to the positions of their records in the log.
+     */
+    private final Map<String, RecordPosition> index = new HashMap<>();
+
+    private RandomAccessFile randomAccessFile;
+
+    private MappedByteBuffer log;
+
+    /**
+     * The end of the committed records in the log, new records are appended here.
+     */
+    private int end;
+
+    /**
+     * The number of bytes of the entry records referenced by the index.
+     */
+    private int liveBytes;
+
+    private String version;
+
+    private LogRosterStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Creates a new roster store on disk. An existing file will be overwritten.
+     *
+     * @param file the file of the roster store.
+     * @return a {@link LogRosterStore} instance if successful, <code>null</code> else.
+     */
+    public static LogRosterStore init(File file) {
+        LogRosterStore store = new LogRosterStore(file);
+        try {
+            store.rewrite(Collections.<byte[]>emptyList(), "");
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not initialize roster store " + file, e);
+            store.closeFile();
+            return null;
+        }
+        return store;
+    }
+
+    /**
+     * Opens a roster store.
+     *
+     * @param file the file of the roster store.
+     * @return a {@link LogRosterStore} instance if successful, <code>null</code> else.
+     */
+    public static LogRosterStore open(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        LogRosterStore store = new LogRosterStore(file);
+        try {
+            if (store.load()) {
+                return store;
+            }
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not open roster store " + file, e);
+        }
+        store.closeFile();
+        return null;
+    }
+
+    @Override
+    public synchronized List<Item> getEntries() {
+        List<Item> entries = new ArrayList<>(index.size());
+        for (RecordPosition record : index.values()) {
+            Item item = readItem(record);
+            if (item == null) {
+                // Roster store corrupt. Abort and signal this by returning null.
+                return null;
+            }
+            entries.add(item);
+        }
+        return entries;
+    }
+
+    @Override
+    public synchronized Item getEntry(Jid bareJid) {
+        RecordPosition record = index.get(bareJid.toString());
+        if (record == null) {
+            return null;
+        }
+        return readItem(record);
+    }
+
+    @Override
+    public synchronized String getRosterVersion() {
+        return version;
+    }
+
+    @Override
+    public synchronized boolean addEntry(Item item, String version) {
+        final int start = end;
+        try {
+            RecordPosition record = append(TYPE_ENTRY, encodeItem(item));
+            commit(version);
+            RecordPosition previous = index.put(item.getJid().toString(), record);
+            liveBytes += record.length;
+            if (previous != null) {
+                liveBytes -= previous.length;
+            }
+        }
+        catch (IOException e) {
+            end = start;
+            LOGGER.log(Level.SEVERE, "Could not add roster entry " + item.getJid(), e);
+            return false;
+        }
+        maybeCompact();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean removeEntry(Jid bareJid, String version) {
+        String key = bareJid.toString();
+        if (!index.containsKey(key)) {
+            return false;
+        }
+        final int start = end;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream payload = new DataOutputStream(bytes);
+            writeString(payload, key);
+            append(TYPE_REMOVE, bytes.toByteArray());
+            commit(version);
+        }
+        catch (IOException e) {
+            end = start;
+            LOGGER.log(Level.SEVERE, "Could not remove roster entry " + bareJid, e);
+            return false;
+        }
+        liveBytes -= index.remove(key).length;
+        maybeCompact();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean resetEntries(Collection<Item> items, String version) {
+        List<byte[]> payloads = new ArrayList<>(items.size());
+        try {
+            for (Item item : items) {
+                payloads.add(encodeItem(item));
+            }
+            rewrite(payloads, version);
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not reset roster entries", e);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void resetStore() {
+        resetEntries(Collections.<Item>emptyList(), "");
+    }
+
+    private void commit(String version) throws IOException {
+        append(TYPE_VERSION, version.getBytes(StringUtils.UTF8));
+        log.force();
+        this.version = version;
+    }
+
+    private void maybeCompact() {
+        int garbage = end - HEADER_LENGTH - liveBytes;
+        if (garbage < COMPACTION_MIN_GARBAGE || garbage < liveBytes) {
+            return;
+        }
+        List<byte[]> payloads = new ArrayList<>(index.size());
+        for (RecordPosition record : index.values()) {
+            byte[] payload = new byte[record.length - RECORD_OVERHEAD];
+            ByteBuffer buffer = log.duplicate();
+            buffer.position(record.offset + 5);
+            buffer.get(payload);
+            payloads.add(payload);
+        }
+        try {
+            rewrite(payloads, version);
+        }
+        catch (IOException e) {
+            // Not fatal, the current log is still valid.
+            LOGGER.log(Level.WARNING, "Could not compact roster store " + file, e);
+        }
+    }
+
+    /**
+     * Write a new log with the given entry payloads and version to a temporary file, which then replaces the current
+     * log. Afterwards the new log is loaded.
+     */
+    private void rewrite(Collection<byte[]> entryPayloads, String version) throws IOException {
+        byte[] versionPayload = version.getBytes(StringUtils.UTF8);
+        int size = HEADER_LENGTH + RECORD_OVERHEAD + versionPayload.length;
+        for (byte[] payload : entryPayloads) {
+            size += RECORD_OVERHEAD + payload.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putInt(FORMAT_VERSION);
+        for (byte[] payload : entryPayloads) {
+            putRecord(buffer, TYPE_ENTRY, payload);
+        }
+        putRecord(buffer, TYPE_VERSION, versionPayload);
+        buffer.flip();
+
+        File tmpFile = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmpFile);
+        try {
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            out.getFD().sync();
+        }
+        finally {
+            out.close();
+        }
+
+        closeFile();
+        if (!tmpFile.renameTo(file)) {
+            // Some platforms, e.g. Windows, can not rename over an existing file.
+            if (!file.delete() || !tmpFile.renameTo(file)) {
+                throw new IOException("Could not replace " + file + " with " + tmpFile);
+            }
+        }
+        if (!load()) {
+            throw new IOException("Could not load the rewritten roster store " + file);
+        }
+    }
+
+    /**
+     * Map the log and build the index by replaying the committed records.
+     *
+     * @return true if the file is a valid roster store.
+     */
+    private boolean load() throws IOException {
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        long fileLength = randomAccessFile.length();
+        if (fileLength < HEADER_LENGTH || fileLength > Integer.MAX_VALUE) {
+            return false;
+        }
+        log = map(Math.max((int) fileLength, MIN_MAPPED_SIZE));
+        if (log.getInt(0) != MAGIC || log.getInt(4) != FORMAT_VERSION) {
+            return false;
+        }
+
+        index.clear();
+        liveBytes = 0;
+        version = null;
+        end = HEADER_LENGTH;
+
+        // Changes become only visible once the version record following them was read.
+        Map<String, RecordPosition> uncommitted = new LinkedHashMap<>();
+        byte[] scratch = new byte[256];
+        int position = HEADER_LENGTH;
+        while (true) {
+            int payloadLength = readValidRecord(position, scratch);
+            if (payloadLength < 0) {
+                break;
+            }
+            if (payloadLength > scratch.length) {
+                scratch = new byte[Math.max(payloadLength, 2 * scratch.length)];
+                payloadLength = readValidRecord(position, scratch);
+                if (payloadLength < 0) {
+                    break;
+                }
+            }
+            RecordPosition record = new RecordPosition(position, RECORD_OVERHEAD + payloadLength);
+            byte type = log.get(position + 4);
+            switch (type) {
+            case TYPE_ENTRY:
+                uncommitted.put(readString(ByteBuffer.wrap(scratch, 0, payloadLength)), record);
+                break;
+            case TYPE_REMOVE:
+                uncommitted.put(readString(ByteBuffer.wrap(scratch, 0, payloadLength)), null);
+                break;
+            case TYPE_VERSION:
+                for (Map.Entry<String, RecordPosition> change : uncommitted.entrySet()) {
+                    RecordPosition previous;
+                    if (change.getValue() != null) {
+                        previous = index.put(change.getKey(), change.getValue());
+                        liveBytes += change.getValue().length;
+                    }
+                    else {
+                        previous = index.remove(change.getKey());
+                    }
+                    if (previous != null) {
+                        liveBytes -= previous.length;
+                    }
+                }
+                uncommitted.clear();
+                version = new String(scratch, 0, payloadLength, StringUtils.UTF8);
+                end = position + record.length;
+                break;
+            default:
+                throw new AssertionError();
+            }
+            position += record.length;
+        }
+
+        if (version == null) {
+            return false;
+        }
+        if (position != end || (end < log.limit() && log.get(end) != 0)) {
+            // Discard the remains of an incomplete change, so that they are not mistaken as records later on.
+            LOGGER.warning("Discarding " + (position - end) + " bytes of uncommitted records in " + file);
+            for (int i = end; i < log.limit(); i++) {
+                log.put(i, (byte) 0);
+            }
+            log.force();
+        }
+        return true;
+    }
+
+    /**
+     * Check whether a valid record starts at the given position and copy its payload into the scratch array if it
+     * fits.
+     *
+     * @return the length of the payload or -1 if there is no valid record at the given position.
+     */
+    private int readValidRecord(int position, byte[] scratch) {
+        if (position + RECORD_OVERHEAD > log.limit()) {
+            return -1;
+        }
+        int payloadLength = log.getInt(position);
+        byte type = log.get(position + 4);
+        if (type < TYPE_ENTRY || type > TYPE_VERSION || payloadLength < 0
+                        || payloadLength > log.limit() - position - RECORD_OVERHEAD) {
+            return -1;
+        }
+        if (payloadLength > scratch.length) {
+            return payloadLength;
+        }
+        ByteBuffer buffer = log.duplicate();
+        buffer.position(position + 5);
+        buffer.get(scratch, 0, payloadLength);
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(scratch, 0, payloadLength);
+        if ((int) crc.getValue() != buffer.getInt()) {
+            return -1;
+        }
+        return payloadLength;
+    }
+
+    private RecordPosition append(byte type, byte[] payload) throws IOException {
+        int length = RECORD_OVERHEAD + payload.length;
+        if (end + length > log.limit()) {
+            long newSize = Math.max(2L * log.limit(), (long) end + length);
+            if (newSize > Integer.MAX_VALUE) {
+                throw new IOException("Roster store " + file + " is too large");
+            }
+            log = map((int) newSize);
+        }
+        ByteBuffer buffer = log.duplicate();
+        buffer.position(end);
+        putRecord(buffer, type, payload);
+        RecordPosition record = new RecordPosition(end, length);
+        end += length;
+        return record;
+    }
+
+    private MappedByteBuffer map(int size) throws IOException {
+        return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private void closeFile() {
+        if (randomAccessFile == null) {
+            return;
+        }
+        try {
+            // The mapped buffer stays valid until it is garbage collected.
+            randomAccessFile.close();
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.FINE, "Could not close " + file, e);
+        }
+        randomAccessFile = null;
+    }
+
+    private static void putRecord(ByteBuffer buffer, byte type, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+        buffer.putInt(payload.length);
+        buffer.put(type);
+        buffer.put(payload);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    private Item readItem(RecordPosition record) {
+        ByteBuffer buffer = log.duplicate();
+        buffer.position(record.offset + 5);
+        try {
+            Item item = new Item(JidCreate.bareFrom(readString(buffer)), readString(buffer));
+            item.setItemType(ITEM_TYPES[buffer.get()]);
+            item.setApproved(buffer.get() != 0);
+            item.setSubscriptionPending(buffer.get() != 0);
+            int groupCount = buffer.getInt();
+            for (int i = 0; i < groupCount; i++) {
+                item.addGroupName(readString(buffer));
+            }
+            return item;
+        }
+        catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Exception while decoding roster entry", e);
+            return null;
+        }
+    }
+
+    private static byte[] encodeItem(Item item) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream payload = new DataOutputStream(bytes);
+        // The JID must be the first field, it is read when the index is built.
+        writeString(payload, item.getJid().toString());
+        writeString(payload, item.getName());
+        payload.writeByte(item.getItemType().ordinal());
+        payload.writeBoolean(item.isApproved());
+        payload.writeBoolean(item.isSubscriptionPending());
+        payload.writeInt(item.getGroupNames().size());
+        for (String groupName : item.getGroupNames()) {
+            writeString(payload, groupName);
+        }
+        payload.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = string.getBytes(StringUtils.UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) throws UnsupportedEncodingException {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StringUtils.UTF8);
+    }
+
+    private static final class RecordPosition {
+        private final int offset;
+        private final int length;
+
+        private RecordPosition(int offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -25,15 +25,19 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.jivesoftware.smack.DummyConnection;
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.im.InitSmackIm;
 import org.jivesoftware.smack.packet.ErrorIQ;
+import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smack.packet.Presence;
@@ -49,6 +53,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.jxmpp.jid.BareJid;
+import org.jxmpp.jid.FullJid;
 import org.jxmpp.jid.Jid;
 import org.jxmpp.jid.impl.JidCreate;
 import org.jxmpp.stringprep.XmppStringprepException;
@@ -508,6 +513,207 @@ public class RosterTest extends InitSmackIm {
         assertSame("Wrong number of roster entries.", 4, roster.getEntries().size());
     }
 
+    /**
+     * Test that the presences received within the presence coalescing window are delivered as one batch, which only
+     * contains the latest presence of every address.
+     */
+    @Test
+    public void testPresenceCoalescing() throws Throwable {
+        initRoster();
+
+        final List<Presence> batch = new CopyOnWriteArrayList<>();
+        // Counted down by the batch listener and by the presence event listener after the last presence.
+        final CountDownLatch batchDelivered = new CountDownLatch(2);
+        roster.addRosterListener(new BatchListener(batch, batchDelivered));
+        final List<Presence> availablePresences = new CopyOnWriteArrayList<>();
+        roster.addPresenceEventListener(new AbstractPresenceEventListener() {
+            @Override
+            public void presenceAvailable(FullJid address, Presence availablePresence) {
+                availablePresences.add(availablePresence);
+                if (address.toString().startsWith("stranger")) {
+                    batchDelivered.countDown();
+                }
+            }
+        });
+        roster.setPresenceCoalescingWindow(200, TimeUnit.MILLISECONDS);
+
+        final FullJid romeoOrchard = JidCreate.fullFrom("romeo@example.net/orchard");
+        final Presence available = new Presence(Presence.Type.available);
+        available.setFrom(romeoOrchard);
+        final Presence away = new Presence(Presence.Type.available, null, 0, Presence.Mode.away);
+        away.setFrom(romeoOrchard);
+        final Presence garden = new Presence(Presence.Type.available);
+        garden.setFrom(JidCreate.fullFrom("romeo@example.net/garden"));
+        final Presence stranger = new Presence(Presence.Type.available);
+        stranger.setFrom(JidCreate.fullFrom("stranger@example.org/street"));
+
+        connection.processStanza(available);
+        connection.processStanza(away);
+        connection.processStanza(garden);
+        connection.processStanza(stranger);
+
+        assertTrue("Coalesced presences were not delivered", batchDelivered.await(5, TimeUnit.SECONDS));
+        // Only the contacts in the roster are reported to roster listeners.
+        assertEquals(Arrays.asList(away, garden), batch);
+        assertEquals(Arrays.asList(away, garden, stranger), availablePresences);
+        assertEquals(Presence.Mode.away, roster.getPresenceResource(romeoOrchard).getMode());
+    }
+
+    @Test
+    public void testDisablingPresenceCoalescingDeliversPendingPresences() throws Throwable {
+        initRoster();
+
+        final List<Presence> availablePresences = new CopyOnWriteArrayList<>();
+        roster.addPresenceEventListener(new AbstractPresenceEventListener() {
+            @Override
+            public void presenceAvailable(FullJid address, Presence availablePresence) {
+                availablePresences.add(availablePresence);
+            }
+        });
+        roster.setPresenceCoalescingWindow(1, TimeUnit.HOURS);
+
+        final FullJid romeoOrchard = JidCreate.fullFrom("romeo@example.net/orchard");
+        final Presence away = new Presence(Presence.Type.available, null, 0, Presence.Mode.away);
+        away.setFrom(romeoOrchard);
+        connection.processStanza(away);
+        // The roster's presences are updated right away, only the listeners are notified once the window ends.
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (roster.getPresenceResource(romeoOrchard).getMode() != Presence.Mode.away) {
+            assertTrue("Presence was not processed", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertTrue(availablePresences.isEmpty());
+
+        // A window below the granularity of milliseconds disables presence coalescing, too.
+        roster.setPresenceCoalescingWindow(500, TimeUnit.MICROSECONDS);
+        assertEquals(0, roster.getPresenceCoalescingWindow());
+        assertEquals(Arrays.asList(away), availablePresences);
+
+        final Presence available = new Presence(Presence.Type.available);
+        available.setFrom(romeoOrchard);
+        processPresences(available);
+        assertEquals(Arrays.asList(away, available), availablePresences);
+    }
+
+    @Test
+    public void testCompactPresenceStorage() throws Throwable {
+        initRoster();
+
+        final BareJid romeo = JidCreate.entityBareFrom("romeo@example.net");
+        final BareJid mercutio = JidCreate.entityBareFrom("mercutio@example.com");
+        // The full presence stanzas are retained by default.
+        assertTrue(roster.isRetainPresenceStanzas());
+        processPresences(newCapsPresence("romeo@example.net/orchard"));
+        assertNotNull(roster.getPresence(romeo).getExtension("x", "urn:example:presence"));
+
+        roster.setRetainPresenceStanzas(false);
+        processPresences(newCapsPresence("romeo@example.net/orchard"), newCapsPresence("mercutio@example.com/street"));
+
+        Presence presence = roster.getPresence(romeo);
+        assertTrue(presence.isAvailable());
+        assertEquals(Presence.Mode.away, presence.getMode());
+        assertEquals(5, presence.getPriority());
+        assertEquals("In the orchard", presence.getStatus());
+        // Only the entity capabilities are kept, other extension elements are dropped.
+        assertNull(presence.getExtension("x", "urn:example:presence"));
+        ExtensionElement caps = presence.getExtension("c", "http://jabber.org/protocol/caps");
+        assertNotNull(caps);
+        // Equal entity capabilities are shared between the contacts.
+        assertSame(caps, roster.getPresence(mercutio).getExtension("c", "http://jabber.org/protocol/caps"));
+
+        roster.setRetainPresenceStanzas(true);
+        processPresences(newCapsPresence("romeo@example.net/orchard"));
+        assertNotNull(roster.getPresence(romeo).getExtension("x", "urn:example:presence"));
+    }
+
+    @Test
+    public void testMultipleResourcePresences() throws Throwable {
+        initRoster();
+
+        final BareJid romeo = JidCreate.entityBareFrom("romeo@example.net");
+        final FullJid romeoOrchard = JidCreate.fullFrom("romeo@example.net/orchard");
+        final FullJid romeoGarden = JidCreate.fullFrom("romeo@example.net/garden");
+        final Presence orchard = new Presence(Presence.Type.available, null, 1, Presence.Mode.available);
+        orchard.setFrom(romeoOrchard);
+        final Presence garden = new Presence(Presence.Type.available, null, 2, Presence.Mode.dnd);
+        garden.setFrom(romeoGarden);
+        processPresences(orchard, garden);
+
+        assertEquals(2, roster.getPresences(romeo).size());
+        assertEquals(romeoGarden, roster.getPresence(romeo).getFrom());
+        assertEquals(Presence.Mode.dnd, roster.getPresenceResource(romeoGarden).getMode());
+
+        final Presence gardenUnavailable = new Presence(Presence.Type.unavailable);
+        gardenUnavailable.setFrom(romeoGarden);
+        processPresences(gardenUnavailable);
+
+        assertEquals(2, roster.getAllPresences(romeo).size());
+        assertEquals(1, roster.getAvailablePresences(romeo).size());
+        assertEquals(romeoOrchard, roster.getPresence(romeo).getFrom());
+        assertFalse(roster.getPresenceResource(romeoGarden).isAvailable());
+    }
+
+    private static Presence newCapsPresence(String from) throws Exception {
+        return PacketParserUtils.parseStanza("<presence from='" + from + "'>"
+                        + "<show>away</show><status>In the orchard</status><priority>5</priority>"
+                        + "<c xmlns='http://jabber.org/protocol/caps' hash='sha-1' node='http://code.google.com/p/exodus'"
+                        + " ver='QgayPKawpkPSDYmwT/WM94uAlu0='/>"
+                        + "<x xmlns='urn:example:presence'/>"
+                        + "</presence>");
+    }
+
+    /**
+     * Process the given presences and wait until the roster has handled them.
+     *
+     * @param presences the presences.
+     * @throws InterruptedException
+     */
+    private void processPresences(Presence... presences) throws InterruptedException {
+        final CountDownLatch processed = new CountDownLatch(presences.length);
+        PresenceEventListener presenceEventListener = new AbstractPresenceEventListener() {
+            @Override
+            public void presenceAvailable(FullJid address, Presence availablePresence) {
+                processed.countDown();
+            }
+
+            @Override
+            public void presenceUnavailable(FullJid address, Presence presence) {
+                processed.countDown();
+            }
+        };
+        roster.addPresenceEventListener(presenceEventListener);
+        try {
+            for (Presence presence : presences) {
+                connection.processStanza(presence);
+            }
+            assertTrue("Presences were not processed", processed.await(5, TimeUnit.SECONDS));
+        }
+        finally {
+            roster.removePresenceEventListener(presenceEventListener);
+        }
+    }
+
+    private static final class BatchListener extends AbstractRosterListener implements RosterBatchListener {
+        private final List<Presence> batch;
+        private final CountDownLatch batchDelivered;
+
+        private BatchListener(List<Presence> batch, CountDownLatch batchDelivered) {
+            this.batch = batch;
+            this.batchDelivered = batchDelivered;
+        }
+
+        @Override
+        public void presenceChanged(Presence presence) {
+            fail("Presences must be delivered in batches");
+        }
+
+        @Override
+        public void presencesChanged(Collection<Presence> presences) {
+            batch.addAll(presences);
+            batchDelivered.countDown();
+        }
+    }
+
     /**
      * Remove all roster entries by iterating trough {@link Roster#getEntries()}
      * and simulating receiving roster pushes from the server.
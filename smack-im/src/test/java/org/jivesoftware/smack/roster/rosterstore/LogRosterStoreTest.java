@@ -0,0 +1,228 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.roster.rosterstore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jivesoftware.smack.roster.packet.RosterPacket.Item;
+import org.jivesoftware.smack.roster.packet.RosterPacket.ItemType;
+import org.jivesoftware.smack.util.FileUtils;
+import org.jivesoftware.smack.util.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jxmpp.jid.BareJid;
+import org.jxmpp.jid.JidTestUtil;
+import org.jxmpp.jid.impl.JidCreate;
+
+/**
+ * Tests the implementation of {@link LogRosterStore}.
+ */
+public class LogRosterStoreTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testStoreUninitialized() throws IOException {
+        File storeFile = new File(tmpFolder.getRoot(), "roster.log");
+        assertNull(LogRosterStore.open(storeFile));
+
+        FileUtils.writeFile(storeFile, "no roster store");
+        assertNull(LogRosterStore.open(storeFile));
+    }
+
+    @Test
+    public void testStoreInitializedEmpty() throws IOException {
+        File storeFile = tmpFolder.newFile();
+        LogRosterStore store = LogRosterStore.init(storeFile);
+        assertNotNull("Initialization returns store", store);
+        assertEquals("Freshly initialized store must have empty version", "", store.getRosterVersion());
+        assertEquals("Freshly initialized store must have no entries", 0, store.getEntries().size());
+
+        store = LogRosterStore.open(storeFile);
+        assertNotNull(store);
+        assertEquals("", store.getRosterVersion());
+        assertEquals(0, store.getEntries().size());
+    }
+
+    @Test
+    public void testStoreAddRemove() throws IOException {
+        File storeFile = tmpFolder.newFile();
+        LogRosterStore store = LogRosterStore.init(storeFile);
+
+        Item item1 = new Item(JidTestUtil.DUMMY_AT_EXAMPLE_ORG, null);
+        assertTrue(store.addEntry(item1, "1"));
+        assertEquals("1", store.getRosterVersion());
+        assertItemEquals(item1, store.getEntry(JidTestUtil.DUMMY_AT_EXAMPLE_ORG));
+
+        Item item2 = new Item(JidTestUtil.DUMMY_AT_EXAMPLE_ORG, "Ursula Example – Ünïcödé");
+        item2.addGroupName("users");
+        item2.addGroupName("examples");
+        item2.setSubscriptionPending(true);
+        item2.setItemType(ItemType.none);
+        item2.setApproved(true);
+        assertTrue(store.addEntry(item2, "2"));
+        assertItemEquals(item2, store.getEntry(JidTestUtil.DUMMY_AT_EXAMPLE_ORG));
+        assertEquals(1, store.getEntries().size());
+
+        Item item3 = new Item(JidTestUtil.BARE_JID_1, "Foo Bar");
+        item3.setItemType(ItemType.both);
+        assertTrue(store.addEntry(item3, "3"));
+        assertEquals(2, store.getEntries().size());
+
+        assertTrue(store.removeEntry(JidTestUtil.DUMMY_AT_EXAMPLE_ORG, "4"));
+        assertEquals("4", store.getRosterVersion());
+        assertNull(store.getEntry(JidTestUtil.DUMMY_AT_EXAMPLE_ORG));
+        assertEquals(1, store.getEntries().size());
+
+        // Removing an entry which does not exist fails and keeps the version.
+        assertTrue(!store.removeEntry(JidTestUtil.BARE_JID_2, "5"));
+        assertEquals("4", store.getRosterVersion());
+
+        store = LogRosterStore.open(storeFile);
+        assertEquals("4", store.getRosterVersion());
+        assertNull(store.getEntry(JidTestUtil.DUMMY_AT_EXAMPLE_ORG));
+        assertItemEquals(item3, store.getEntry(JidTestUtil.BARE_JID_1));
+        assertEquals(1, store.getEntries().size());
+    }
+
+    @Test
+    public void testResetEntries() throws IOException {
+        File storeFile = tmpFolder.newFile();
+        LogRosterStore store = LogRosterStore.init(storeFile);
+        store.addEntry(new Item(JidTestUtil.DUMMY_AT_EXAMPLE_ORG, null), "1");
+
+        List<Item> items = createItems(10000);
+        assertTrue(store.resetEntries(items, "2"));
+        assertNull(store.getEntry(JidTestUtil.DUMMY_AT_EXAMPLE_ORG));
+        assertEquals(items.size(), store.getEntries().size());
+
+        store = LogRosterStore.open(storeFile);
+        assertEquals("2", store.getRosterVersion());
+        assertEquals(items.size(), store.getEntries().size());
+        for (Item item : items) {
+            assertItemEquals(item, store.getEntry(item.getJid()));
+        }
+
+        store.resetStore();
+        assertEquals("", store.getRosterVersion());
+        assertEquals(0, store.getEntries().size());
+    }
+
+    @Test
+    public void testUncommittedChangeIsDiscarded() throws IOException {
+        File storeFile = tmpFolder.newFile();
+        LogRosterStore store = LogRosterStore.init(storeFile);
+        Item item1 = new Item(JidTestUtil.BARE_JID_1, "Foo Bar");
+        store.addEntry(item1, "version-one");
+        store.addEntry(new Item(JidTestUtil.BARE_JID_2, "Baba Baz"), "version-two");
+
+        // Corrupt the record committing the second entry, like a crash while it was written would.
+        corrupt(storeFile, "version-two");
+
+        store = LogRosterStore.open(storeFile);
+        assertNotNull(store);
+        assertEquals("version-one", store.getRosterVersion());
+        assertItemEquals(item1, store.getEntry(JidTestUtil.BARE_JID_1));
+        assertNull(store.getEntry(JidTestUtil.BARE_JID_2));
+
+        // The remains of the discarded change do not affect new changes.
+        Item item3 = new Item(JidTestUtil.DUMMY_AT_EXAMPLE_ORG, null);
+        assertTrue(store.addEntry(item3, "3"));
+        store = LogRosterStore.open(storeFile);
+        assertEquals("3", store.getRosterVersion());
+        assertEquals(2, store.getEntries().size());
+        assertItemEquals(item3, store.getEntry(JidTestUtil.DUMMY_AT_EXAMPLE_ORG));
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        File storeFile = tmpFolder.newFile();
+        LogRosterStore store = LogRosterStore.init(storeFile);
+        List<Item> items = createItems(10);
+        for (int i = 0; i < 10000; i++) {
+            Item item = items.get(i % items.size());
+            item.setName("Contact " + i);
+            assertTrue(store.addEntry(item, Integer.toString(i)));
+        }
+        // Without compaction, the log would contain 10000 entry and version records.
+        assertTrue("Log was not compacted", storeFile.length() < 256 * 1024);
+
+        store = LogRosterStore.open(storeFile);
+        assertEquals("9999", store.getRosterVersion());
+        assertEquals(items.size(), store.getEntries().size());
+        for (Item item : items) {
+            assertItemEquals(item, store.getEntry(item.getJid()));
+        }
+    }
+
+    private static List<Item> createItems(int count) throws IOException {
+        List<Item> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            BareJid jid = JidCreate.bareFrom("contact" + i + "@example.org");
+            Item item = new Item(jid, "Contact " + i);
+            item.setItemType(ItemType.both);
+            item.addGroupName("Group " + (i % 10));
+            items.add(item);
+        }
+        return items;
+    }
+
+    private static void corrupt(File file, String marker) throws IOException {
+        byte[] markerBytes = marker.getBytes(StringUtils.UTF8);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            byte[] content = new byte[(int) randomAccessFile.length()];
+            randomAccessFile.readFully(content);
+            for (int i = 0; i <= content.length - markerBytes.length; i++) {
+                boolean found = true;
+                for (int j = 0; j < markerBytes.length && found; j++) {
+                    found = content[i + j] == markerBytes[j];
+                }
+                if (found) {
+                    randomAccessFile.seek(i);
+                    randomAccessFile.write('X');
+                    return;
+                }
+            }
+        }
+        finally {
+            randomAccessFile.close();
+        }
+        throw new AssertionError("Marker not found");
+    }
+
+    private static void assertItemEquals(Item expected, Item actual) {
+        assertNotNull("Entry not found", actual);
+        assertEquals(expected.getJid(), actual.getJid());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getGroupNames(), actual.getGroupNames());
+        assertEquals(expected.getItemType(), actual.getItemType());
+        assertEquals(expected.isSubscriptionPending(), actual.isSubscriptionPending());
+        assertEquals(expected.isApproved(), actual.isApproved());
+    }
+}
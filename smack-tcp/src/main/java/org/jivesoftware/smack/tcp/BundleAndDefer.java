@@ -16,15 +16,42 @@
  */
 package org.jivesoftware.smack.tcp;
 
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 public class BundleAndDefer {
 
-    private final AtomicBoolean isStopped;
+    // Use a Lock instead of a monitor, as waiting on a monitor would pin the carrier thread if the writer thread is a
+    // virtual thread.
+    private final Lock lock = new ReentrantLock();
 
-    BundleAndDefer(AtomicBoolean isStopped) {
-        this.isStopped = isStopped;
+    private final Condition stoppedCondition = lock.newCondition();
+
+    private boolean isStopped;
+
+    BundleAndDefer() {
+    }
+
+    /**
+     * Wait until either the bundle and defer mechanism got stopped or the given time elapsed.
+     *
+     * @param millis the maximum time to wait in milliseconds.
+     * @throws InterruptedException if the thread got interrupted while waiting.
+     */
+    void awaitStopped(long millis) throws InterruptedException {
+        long remainingNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+        lock.lock();
+        try {
+            while (!isStopped && remainingNanos > 0) {
+                remainingNanos = stoppedCondition.awaitNanos(remainingNanos);
+            }
+        }
+        finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -36,12 +63,16 @@ public class BundleAndDefer {
      * </p>
      */
     public void stopCurrentBundleAndDefer() {
-        synchronized (isStopped) {
-            if (isStopped.get()) {
+        lock.lock();
+        try {
+            if (isStopped) {
                 return;
             }
-            isStopped.set(true);
-            isStopped.notify();
+            isStopped = true;
+            stoppedCondition.signal();
+        }
+        finally {
+            lock.unlock();
         }
     }
 }
@@ -0,0 +1,778 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.tcp;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLSession;
+
+import org.jivesoftware.smack.ChannelSelectedCallback;
+import org.jivesoftware.smack.ConnectionMetrics;
+import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.SmackReactor;
+import org.jivesoftware.smack.util.Async;
+import org.jivesoftware.smack.util.ByteBufferPool;
+import org.jivesoftware.smack.util.Utf8ByteBufferWriter;
+import org.jivesoftware.smack.util.Utf8ByteXmppXmlSplitter;
+import org.jivesoftware.smack.util.XmppXmlSplitter.XmppElementCallback;
+
+/**
+ * The transport of a non-blocking {@link XMPPTCPConnection}. Its socket channel is served by the {@link SmackReactor},
+ * which invokes the transport once the channel is ready. Incoming bytes are split into top-level stream elements by a
+ * {@link Utf8ByteXmppXmlSplitter}, outgoing elements are encoded by a {@link Utf8ByteBufferWriter}. TLS is performed by
+ * a {@link SSLEngine}.
+ * <p>
+ * All I/O is done by the reactor thread owning the channel. Other threads only request that the transport writes the
+ * queued elements, suspends or resumes reading, secures the connection or shuts the output down, which the reactor
+ * thread then performs. The {@link Listener} is invoked by the reactor thread, hence it must not block.
+ * </p>
+ */
+final class NonBlockingTransport implements ChannelSelectedCallback {
+
+    private static final Logger LOGGER = Logger.getLogger(NonBlockingTransport.class.getName());
+
+    /**
+     * The number of encoded bytes which may be pending to be written to the channel, before no further elements are
+     * encoded.
+     */
+    private static final int MAX_PENDING_OUTGOING_BYTES = 64 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    private enum OutputState {
+        OPEN,
+        SHUTDOWN_REQUESTED,
+        FLUSHING,
+        SHUT_DOWN,
+    }
+
+    private final SmackReactor reactor = SmackReactor.getInstance();
+
+    private final SocketChannel channel;
+
+    private final Listener listener;
+
+    private final ConnectionMetrics metrics;
+
+    private final OutgoingBytes outgoingBytes = new OutgoingBytes();
+
+    private final Utf8ByteBufferWriter writer;
+
+    private final AtomicBoolean streamResetRequested = new AtomicBoolean();
+
+    private final XmppElementCallback splitterCallback = new XmppElementCallback() {
+        @Override
+        public void onCompleteElement(String completeElement) {
+            listener.onElement(completeElement);
+        }
+
+        @Override
+        public void onStreamOpen(String prefix, Map<String, String> attributes) {
+            listener.onStreamOpen(attributes);
+        }
+
+        @Override
+        public void onStreamClosed() {
+            streamClosed = true;
+            listener.onStreamClosed();
+        }
+    };
+
+    // The following fields are guarded by 'this'.
+
+    private SelectionKey selectionKey;
+
+    private int interestOps;
+
+    private boolean reading = true;
+
+    private boolean readingSuspended;
+
+    private boolean writeRequested;
+
+    private boolean pendingOutgoingBytes;
+
+    private boolean delegatedTasksRunning;
+
+    private boolean failed;
+
+    private OutputState outputState = OutputState.OPEN;
+
+    private boolean flushOnShutdown;
+
+    private SSLEngine pendingSslEngine;
+
+    private boolean tlsHandshakeFinished;
+
+    private Exception failure;
+
+    // The following fields are only accessed by the reactor thread.
+
+    private Utf8ByteXmppXmlSplitter splitter = new Utf8ByteXmppXmlSplitter(splitterCallback);
+
+    private boolean streamClosed;
+
+    private ByteBuffer incomingNet = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    private SSLEngine sslEngine;
+
+    private ByteBuffer incomingApp;
+
+    private ByteBuffer outgoingNet;
+
+    NonBlockingTransport(SocketChannel channel, Listener listener, ConnectionMetrics metrics, ByteBufferPool pool) {
+        this.channel = channel;
+        this.listener = listener;
+        this.metrics = metrics;
+        this.writer = new Utf8ByteBufferWriter(outgoingBytes, pool);
+    }
+
+    /**
+     * Get the writer the listener has to encode the outgoing elements with.
+     *
+     * @return the writer.
+     */
+    Writer getWriter() {
+        return writer;
+    }
+
+    /**
+     * Switch the channel into non-blocking mode and register it with the reactor.
+     *
+     * @throws IOException if the channel could not be registered.
+     */
+    void register() throws IOException {
+        channel.configureBlocking(false);
+        SelectionKey key = reactor.registerWithSelector(channel, 0, this);
+        synchronized (this) {
+            selectionKey = key;
+            updateInterestOps();
+        }
+    }
+
+    /**
+     * Request that the transport writes the elements queued by the listener.
+     */
+    synchronized void requestWrite() {
+        if (writeRequested) {
+            return;
+        }
+        writeRequested = true;
+        updateInterestOps();
+    }
+
+    /**
+     * Suspend or resume reading from the channel. Used to apply back pressure if the incoming elements are processed
+     * slower than they arrive.
+     *
+     * @param suspended true to suspend reading, false to resume it.
+     */
+    synchronized void setReadingSuspended(boolean suspended) {
+        readingSuspended = suspended;
+        updateInterestOps();
+    }
+
+    /**
+     * Request that a new stream is expected from the remote end-point. Must be invoked before the opening stream
+     * element is sent, which causes the remote end-point to open a new stream.
+     */
+    void resetStream() {
+        streamResetRequested.set(true);
+    }
+
+    /**
+     * Secure the channel with the given SSLEngine and wait until the TLS handshake finished.
+     *
+     * @param sslEngine the SSLEngine in client mode.
+     * @param timeout the timeout in milliseconds.
+     * @throws IOException if the TLS handshake failed.
+     * @throws SmackException if the TLS handshake did not finish in time.
+     * @throws InterruptedException if the calling thread was interrupted.
+     */
+    synchronized void performTlsHandshake(SSLEngine sslEngine, long timeout) throws IOException, SmackException,
+                    InterruptedException {
+        pendingSslEngine = sslEngine;
+        tlsHandshakeFinished = false;
+        // Causes the reactor thread to install the SSLEngine and start the handshake.
+        writeRequested = true;
+        updateInterestOps();
+
+        final long deadline = System.currentTimeMillis() + timeout;
+        while (!tlsHandshakeFinished && failure == null) {
+            final long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new SmackException("TLS handshake did not finish within " + timeout + "ms");
+            }
+            wait(remaining);
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure != null) {
+            throw new SmackException(failure);
+        }
+    }
+
+    /**
+     * Shut the output down. Once the output is shut down, {@link Listener#onOutputShutdown()} is invoked.
+     *
+     * @param flush true if {@link Listener#writeFinalElements()} should be invoked and all pending bytes should
+     *        be written to the channel before the output is shut down.
+     */
+    void shutdownOutput(boolean flush) {
+        synchronized (this) {
+            switch (outputState) {
+            case OPEN:
+                if (!failed && selectionKey != null) {
+                    outputState = OutputState.SHUTDOWN_REQUESTED;
+                    flushOnShutdown = flush;
+                    writeRequested = true;
+                    updateInterestOps();
+                    return;
+                }
+                break;
+            case SHUTDOWN_REQUESTED:
+            case FLUSHING:
+                // The reactor thread will invoke the listener once done.
+                return;
+            case SHUT_DOWN:
+                break;
+            }
+            outputState = OutputState.SHUT_DOWN;
+        }
+        listener.onOutputShutdown();
+    }
+
+    @Override
+    public void onChannelSelected(SelectableChannel selectedChannel, SelectionKey selectedKey) {
+        try {
+            installPendingSslEngine();
+            if (!delegatedTasksRunning()) {
+                if (selectedKey.isReadable()) {
+                    read();
+                }
+                if (sslEngine == null) {
+                    writeElements();
+                    writePlain();
+                } else {
+                    processTls();
+                }
+                maybeFinishOutputShutdown();
+            }
+        }
+        catch (Exception e) {
+            fail(e);
+            return;
+        }
+
+        boolean pendingOutgoingBytes = outgoingBytes.size() > 0 || (outgoingNet != null && outgoingNet.position() > 0)
+                        || (sslEngine != null && sslEngine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP);
+        synchronized (this) {
+            this.pendingOutgoingBytes = pendingOutgoingBytes;
+            updateInterestOps();
+        }
+    }
+
+    private void updateInterestOps() {
+        assert Thread.holdsLock(this);
+        if (selectionKey == null || failed) {
+            return;
+        }
+        int ops = 0;
+        if (!delegatedTasksRunning) {
+            if (reading && !readingSuspended) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (writeRequested || pendingOutgoingBytes) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+        }
+        if (ops == interestOps) {
+            return;
+        }
+        interestOps = ops;
+        // The reactor applies the changes in the order they were requested, as the lock is held.
+        reactor.setInterestOps(selectionKey, ops);
+    }
+
+    private synchronized boolean delegatedTasksRunning() {
+        return delegatedTasksRunning;
+    }
+
+    private void read() throws IOException {
+        final int read = channel.read(incomingNet);
+        if (read < 0) {
+            synchronized (this) {
+                reading = false;
+            }
+            if (!streamClosed) {
+                listener.onInputClosed();
+            }
+            return;
+        }
+        if (read == 0 || sslEngine != null) {
+            // With TLS, the bytes are unwrapped by processTls().
+            return;
+        }
+        incomingNet.flip();
+        metrics.countBytesReceived(read);
+        split(incomingNet);
+        incomingNet.clear();
+    }
+
+    private void split(ByteBuffer bytes) throws IOException {
+        if (streamResetRequested.compareAndSet(true, false)) {
+            splitter = new Utf8ByteXmppXmlSplitter(splitterCallback);
+        }
+        splitter.write(bytes);
+    }
+
+    private void writeElements() throws IOException {
+        final boolean writeFinalElements;
+        synchronized (this) {
+            switch (outputState) {
+            case OPEN:
+                if (!writeRequested) {
+                    return;
+                }
+                // Reset the flag before the queue is drained, so that an element queued meanwhile is not missed.
+                writeRequested = false;
+                writeFinalElements = false;
+                break;
+            case SHUTDOWN_REQUESTED:
+                outputState = OutputState.FLUSHING;
+                if (!flushOnShutdown) {
+                    return;
+                }
+                writeFinalElements = true;
+                break;
+            default:
+                return;
+            }
+        }
+
+        if (writeFinalElements) {
+            listener.writeFinalElements();
+            writer.flush();
+            return;
+        }
+
+        while (outgoingBytes.size() < MAX_PENDING_OUTGOING_BYTES) {
+            if (!listener.writeNextElement()) {
+                writer.flush();
+                return;
+            }
+        }
+        writer.flush();
+        // Continue once the pending bytes have been written.
+        synchronized (this) {
+            writeRequested = true;
+        }
+    }
+
+    private void writePlain() throws IOException {
+        ByteBuffer bytes = outgoingBytes.flip();
+        try {
+            final int written = channel.write(bytes);
+            metrics.countBytesSent(written);
+        }
+        finally {
+            outgoingBytes.compact();
+        }
+    }
+
+    private void maybeFinishOutputShutdown() {
+        synchronized (this) {
+            if (outputState != OutputState.FLUSHING) {
+                return;
+            }
+            if (flushOnShutdown && (outgoingBytes.size() > 0 || (outgoingNet != null && outgoingNet.position() > 0))) {
+                return;
+            }
+            outputState = OutputState.SHUT_DOWN;
+        }
+        writer.release();
+        listener.onOutputShutdown();
+    }
+
+    private void fail(Exception exception) {
+        final boolean outputShutdownPending;
+        synchronized (this) {
+            if (failed) {
+                return;
+            }
+            failed = true;
+            failure = exception;
+            // Wake up a thread waiting for the TLS handshake.
+            notifyAll();
+            outputShutdownPending = outputState == OutputState.SHUTDOWN_REQUESTED
+                            || outputState == OutputState.FLUSHING;
+            outputState = OutputState.SHUT_DOWN;
+        }
+        if (selectionKey != null) {
+            selectionKey.cancel();
+        }
+        try {
+            channel.close();
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.FINE, "Exception while closing channel", e);
+        }
+        writer.release();
+        if (outputShutdownPending) {
+            listener.onOutputShutdown();
+        }
+        listener.onException(exception);
+    }
+
+    private void installPendingSslEngine() throws IOException {
+        final SSLEngine newSslEngine;
+        synchronized (this) {
+            newSslEngine = pendingSslEngine;
+            pendingSslEngine = null;
+        }
+        if (newSslEngine == null) {
+            return;
+        }
+        SSLSession session = newSslEngine.getSession();
+        incomingApp = ByteBuffer.allocate(session.getApplicationBufferSize());
+        outgoingNet = ByteBuffer.allocate(session.getPacketBufferSize());
+        if (incomingNet.capacity() < session.getPacketBufferSize()) {
+            incomingNet.flip();
+            incomingNet = ByteBuffer.allocate(session.getPacketBufferSize()).put(incomingNet);
+        }
+        newSslEngine.beginHandshake();
+        sslEngine = newSslEngine;
+    }
+
+    private void processTls() throws IOException {
+        synchronized (this) {
+            if (!tlsHandshakeFinished) {
+                // Only the handshake data is written until the handshake finished, which is not driven by this flag.
+                // Elements are not queued while the handshake is in progress.
+                writeRequested = false;
+            }
+        }
+        boolean progress;
+        do {
+            progress = unwrap();
+            if (delegatedTasksRunning()) {
+                return;
+            }
+            if (isTlsHandshakeFinished()) {
+                writeElements();
+            }
+            progress |= wrap();
+        } while (progress && !delegatedTasksRunning());
+
+        if (!isTlsHandshakeFinished() && !delegatedTasksRunning()
+                        && sslEngine.getHandshakeStatus() == HandshakeStatus.NOT_HANDSHAKING) {
+            // Not every SSLEngine reports the FINISHED status.
+            handleHandshakeStatus(HandshakeStatus.FINISHED);
+        }
+    }
+
+    private synchronized boolean isTlsHandshakeFinished() {
+        return tlsHandshakeFinished;
+    }
+
+    /**
+     * Unwrap the bytes received from the channel and split the decrypted bytes.
+     *
+     * @return true if the SSLEngine consumed or produced bytes.
+     * @throws IOException
+     */
+    private boolean unwrap() throws IOException {
+        boolean progress = false;
+        incomingNet.flip();
+        try {
+            while (incomingNet.hasRemaining()) {
+                SSLEngineResult result = sslEngine.unwrap(incomingNet, incomingApp);
+                switch (result.getStatus()) {
+                case BUFFER_OVERFLOW:
+                    if (incomingApp.position() > 0) {
+                        splitIncomingApp();
+                    } else {
+                        incomingApp = ByteBuffer.allocate(2 * incomingApp.capacity());
+                    }
+                    continue;
+                case BUFFER_UNDERFLOW:
+                    // Wait until the rest of the TLS record was received. The buffer is large enough to hold it.
+                    return progress;
+                default:
+                    break;
+                }
+                if (result.bytesProduced() > 0) {
+                    splitIncomingApp();
+                }
+                if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                    return progress;
+                }
+                progress = true;
+                if (handleHandshakeStatus(result.getHandshakeStatus())
+                                || result.getStatus() == SSLEngineResult.Status.CLOSED
+                                || sslEngine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) {
+                    return progress;
+                }
+            }
+            return progress;
+        }
+        finally {
+            incomingNet.compact();
+        }
+    }
+
+    private void splitIncomingApp() throws IOException {
+        incomingApp.flip();
+        metrics.countBytesReceived(incomingApp.remaining());
+        split(incomingApp);
+        incomingApp.clear();
+    }
+
+    /**
+     * Wrap the pending outgoing bytes, or the handshake data, and write the encrypted bytes to the channel.
+     *
+     * @return true if the SSLEngine consumed or produced bytes.
+     * @throws IOException
+     */
+    private boolean wrap() throws IOException {
+        boolean progress = false;
+        ByteBuffer appBytes = outgoingBytes.flip();
+        try {
+            while (true) {
+                if (outgoingNet.position() > 0) {
+                    outgoingNet.flip();
+                    try {
+                        channel.write(outgoingNet);
+                    }
+                    finally {
+                        outgoingNet.compact();
+                    }
+                    if (outgoingNet.position() > 0) {
+                        // The channel's send buffer is full.
+                        return progress;
+                    }
+                }
+                if (!appBytes.hasRemaining() && sslEngine.getHandshakeStatus() != HandshakeStatus.NEED_WRAP) {
+                    return progress;
+                }
+
+                SSLEngineResult result = sslEngine.wrap(appBytes, outgoingNet);
+                metrics.countBytesSent(result.bytesConsumed());
+                switch (result.getStatus()) {
+                case BUFFER_OVERFLOW:
+                    if (outgoingNet.position() == 0) {
+                        outgoingNet = ByteBuffer.allocate(2 * outgoingNet.capacity());
+                    }
+                    // Write out the encrypted bytes first.
+                    continue;
+                case CLOSED:
+                    // No further data can be sent, drop what is left.
+                    appBytes.position(appBytes.limit());
+                    break;
+                default:
+                    break;
+                }
+                if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                    return progress;
+                }
+                progress = true;
+                if (handleHandshakeStatus(result.getHandshakeStatus())) {
+                    return progress;
+                }
+            }
+        }
+        finally {
+            outgoingBytes.compact();
+        }
+    }
+
+    /**
+     * Handle the handshake status returned by the SSLEngine.
+     *
+     * @param handshakeStatus the handshake status.
+     * @return true if delegated tasks where started and the processing has to pause until they are finished.
+     */
+    private boolean handleHandshakeStatus(HandshakeStatus handshakeStatus) {
+        switch (handshakeStatus) {
+        case NEED_TASK:
+            runDelegatedTasks();
+            return true;
+        case FINISHED:
+            synchronized (this) {
+                tlsHandshakeFinished = true;
+                notifyAll();
+            }
+            return false;
+        default:
+            return false;
+        }
+    }
+
+    private void runDelegatedTasks() {
+        final List<Runnable> tasks = new ArrayList<>();
+        Runnable task;
+        while ((task = sslEngine.getDelegatedTask()) != null) {
+            tasks.add(task);
+        }
+        synchronized (this) {
+            delegatedTasksRunning = true;
+            updateInterestOps();
+        }
+        // The tasks may take long, e.g. verifying the server's certificate chain, do not block the reactor thread.
+        Async.go(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (Runnable task : tasks) {
+                        task.run();
+                    }
+                }
+                finally {
+                    synchronized (NonBlockingTransport.this) {
+                        delegatedTasksRunning = false;
+                        // Causes the reactor thread to continue the handshake.
+                        writeRequested = true;
+                        updateInterestOps();
+                    }
+                }
+            }
+        }, "Smack TLS Delegated Tasks");
+    }
+
+    /**
+     * The listener of a non-blocking transport. All methods are invoked by the reactor thread.
+     */
+    interface Listener {
+
+        /**
+         * Invoked once the opening stream element was received.
+         *
+         * @param attributes the attributes of the opening stream element.
+         */
+        void onStreamOpen(Map<String, String> attributes);
+
+        /**
+         * Invoked with every complete top-level stream element received.
+         *
+         * @param element the element.
+         */
+        void onElement(String element);
+
+        /**
+         * Invoked once the closing stream element was received.
+         */
+        void onStreamClosed();
+
+        /**
+         * Invoked if the remote end-point closed the connection without closing the stream.
+         */
+        void onInputClosed();
+
+        /**
+         * Write the next queued element, if any, without blocking. The element has to be written with the writer
+         * returned by {@link NonBlockingTransport#getWriter()}.
+         *
+         * @return true if an element was written, false if there is none to write right now.
+         * @throws IOException
+         */
+        boolean writeNextElement() throws IOException;
+
+        /**
+         * Write the elements which need to be sent before the output is shut down, e.g. the closing stream element.
+         *
+         * @throws IOException
+         */
+        void writeFinalElements() throws IOException;
+
+        /**
+         * Invoked once the output was shut down. May also be invoked by the thread requesting the shutdown.
+         */
+        void onOutputShutdown();
+
+        /**
+         * Invoked if the transport failed. The channel is closed afterwards.
+         *
+         * @param exception the exception causing the failure.
+         */
+        void onException(Exception exception);
+    }
+
+    /**
+     * Collects the bytes encoded by the writer until they are written to the channel, or wrapped by the SSLEngine.
+     */
+    private static final class OutgoingBytes implements WritableByteChannel {
+
+        /**
+         * The collected bytes, the buffer is in write mode except between {@link #flip()} and {@link #compact()}.
+         */
+        private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+        @Override
+        public int write(ByteBuffer src) {
+            final int count = src.remaining();
+            if (buffer.remaining() < count) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + count));
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+            buffer.put(src);
+            return count;
+        }
+
+        private int size() {
+            return buffer.position();
+        }
+
+        private ByteBuffer flip() {
+            buffer.flip();
+            return buffer;
+        }
+
+        private void compact() {
+            buffer.compact();
+            if (buffer.position() == 0 && buffer.capacity() > MAX_PENDING_OUTGOING_BYTES) {
+                // Do not keep a buffer enlarged by a huge element around.
+                buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
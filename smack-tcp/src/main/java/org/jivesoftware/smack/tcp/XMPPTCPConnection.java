@@ -71,10 +71,12 @@ import org.jivesoftware.smack.packet.Nonza;
 import org.jivesoftware.smack.proxy.ProxyInfo;
 import org.jivesoftware.smack.util.ArrayBlockingQueueWithShutdown;
 import org.jivesoftware.smack.util.Async;
+import org.jivesoftware.smack.util.ByteBufferPool;
 import org.jivesoftware.smack.util.DNSUtil;
 import org.jivesoftware.smack.util.PacketParserUtils;
 import org.jivesoftware.smack.util.StringUtils;
 import org.jivesoftware.smack.util.TLSUtils;
+import org.jivesoftware.smack.util.Utf8ByteBufferWriter;
 import org.jivesoftware.smack.util.XmlStringBuilder;
 import org.jivesoftware.smack.util.dns.HostAddress;
 import org.jivesoftware.smack.util.dns.SmackDaneProvider;
@@ -91,6 +93,7 @@ import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLSession;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.TrustManager;
@@ -106,12 +109,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.lang.reflect.Constructor;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
@@ -134,8 +137,8 @@ import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -151,11 +154,23 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
     private static final int QUEUE_SIZE = 500;
     private static final Logger LOGGER = Logger.getLogger(XMPPTCPConnection.class.getName());
 
+    /**
+     * The pool of the buffers used to encode outgoing stream elements, shared by all connections. Heap buffers are
+     * used, as the bytes are written to the socket's OutputStream.
+     */
+    private static final ByteBufferPool OUTGOING_BYTE_BUFFER_POOL = new ByteBufferPool(8 * 1024, 32, false);
+
     /**
      * The socket which is used for this connection.
      */
     private Socket socket;
 
+    /**
+     * The writer encoding into buffers of {@link #OUTGOING_BYTE_BUFFER_POOL}, which have to be returned once the
+     * writer is replaced or the connection is shut down.
+     */
+    private Utf8ByteBufferWriter byteBufferWriter;
+
     /**
      * 
      */
@@ -163,6 +178,18 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
 
     private SSLSocket secureSocket;
 
+    /**
+     * The SSLEngine securing a non-blocking connection.
+     */
+    private SSLEngine sslEngine;
+
+    /**
+     * The transport of a non-blocking connection, or null if the connection is blocking.
+     */
+    private NonBlockingTransport nonBlockingTransport;
+
+    private NonBlockingTransportListener nonBlockingTransportListener;
+
     /**
      * Protected access level because of unit test purposes
      */
@@ -381,7 +408,12 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
     protected synchronized void loginInternal(String username, String password, Resourcepart resource) throws XMPPException,
                     SmackException, IOException, InterruptedException {
         // Authenticate using SASL
-        SSLSession sslSession = secureSocket != null ? secureSocket.getSession() : null;
+        SSLSession sslSession = null;
+        if (secureSocket != null) {
+            sslSession = secureSocket.getSession();
+        } else if (sslEngine != null) {
+            sslSession = sslEngine.getSession();
+        }
         saslAuthentication.authenticate(username, password, config.getAuthzid(), sslSession);
 
         // If compression is enabled then request the server to use stream compression. XEP-170
@@ -444,7 +476,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
 
     @Override
     public boolean isSecureConnection() {
-        return secureSocket != null;
+        return secureSocket != null || sslEngine != null;
     }
 
     /**
@@ -524,8 +556,10 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         authenticated = false;
         connected = false;
         secureSocket = null;
+        sslEngine = null;
         reader = null;
         writer = null;
+        releaseByteBufferWriter();
 
         maybeCompressFeaturesReceived.init();
         compressSyncPoint.init();
@@ -571,7 +605,12 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                 innerloop: while (inetAddresses.hasNext()) {
                     // Create a *new* Socket before every connection attempt, i.e. connect() call, since Sockets are not
                     // re-usable after a failed connection attempt. See also SMACK-724.
-                    socket = socketFactory.createSocket();
+                    if (config.isNonBlocking()) {
+                        // The socket of a channel, which is switched to non-blocking mode once connected.
+                        socket = SocketChannel.open().socket();
+                    } else {
+                        socket = socketFactory.createSocket();
+                    }
 
                     final InetAddress inetAddress = inetAddresses.next();
                     final String inetAddressAndPort = inetAddress + " at port " + port;
@@ -624,13 +663,26 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
      * @throws XMPPException if establishing a connection to the server fails.
      * @throws SmackException if the server failes to respond back or if there is anther error.
      * @throws IOException 
+     * @throws InterruptedException 
      */
-    private void initConnection() throws IOException {
+    private void initConnection() throws IOException, SmackException, InterruptedException {
         boolean isFirstInitialization = packetReader == null || packetWriter == null;
         compressionHandler = null;
 
-        // Set the reader and writer instance variables
-        initReaderAndWriter();
+        if (config.isNonBlocking()) {
+            nonBlockingTransportListener = new NonBlockingTransportListener();
+            nonBlockingTransport = new NonBlockingTransport(socket.getChannel(), nonBlockingTransportListener,
+                            getMetrics(), OUTGOING_BYTE_BUFFER_POOL);
+            nonBlockingTransportListener.transport = nonBlockingTransport;
+            writer = nonBlockingTransport.getWriter();
+            reader = null;
+            if (config.isDebuggerEnabled()) {
+                LOGGER.info("The Smack debugger is not supported by non-blocking connections");
+            }
+        } else {
+            // Set the reader and writer instance variables
+            initReaderAndWriter();
+        }
 
         if (isFirstInitialization) {
             packetWriter = new PacketWriter();
@@ -638,7 +690,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
 
             // If debugging is enabled, we should start the thread that will listen for
             // all packets and then log them.
-            if (config.isDebuggerEnabled()) {
+            if (config.isDebuggerEnabled() && debugger != null) {
                 addAsyncStanzaListener(debugger.getReaderListener(), null);
                 if (debugger.getWriterListener() != null) {
                     addPacketSendingListener(debugger.getWriterListener(), null);
@@ -650,23 +702,42 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         // Start the packet reader. The startup() method will block until we
         // get an opening stream packet back from server
         packetReader.init();
+
+        if (nonBlockingTransport != null) {
+            // There is no writer thread opening the stream. The opening stream element is written once the channel
+            // is registered with the reactor.
+            openStream();
+            initalOpenStreamSend.reportSuccess();
+            nonBlockingTransport.register();
+        }
     }
 
     private void initReaderAndWriter() throws IOException {
-        InputStream is = socket.getInputStream();
-        OutputStream os = socket.getOutputStream();
+        InputStream is = getMetrics().countBytesReceived(socket.getInputStream());
+        OutputStream os = getMetrics().countBytesSent(socket.getOutputStream());
         if (compressionHandler != null) {
             is = compressionHandler.getInputStream(is);
             os = compressionHandler.getOutputStream(os);
         }
-        // OutputStreamWriter is already buffered, no need to wrap it into a BufferedWriter
-        writer = new OutputStreamWriter(os, "UTF-8");
+        // The previous writer, if any, is replaced because of TLS or compression. Its pending bytes have already
+        // been flushed, but its buffers need to be returned to the pool.
+        releaseByteBufferWriter();
+        // Utf8ByteBufferWriter is already buffered, no need to wrap it into a BufferedWriter
+        byteBufferWriter = new Utf8ByteBufferWriter(os, OUTGOING_BYTE_BUFFER_POOL);
+        writer = byteBufferWriter;
         reader = new BufferedReader(new InputStreamReader(is, "UTF-8"));
 
         // If debugging is enabled, we open a window and write out all network traffic.
         initDebugger();
     }
 
+    private void releaseByteBufferWriter() {
+        if (byteBufferWriter != null) {
+            byteBufferWriter.release();
+            byteBufferWriter = null;
+        }
+    }
+
     /**
      * The server has indicated that TLS negotiation can start. We now need to secure the
      * existing plain connection and perform a handshake. This method won't return until the
@@ -682,7 +753,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
      * @throws Exception if an exception occurs.
      */
     @SuppressWarnings("LiteralClassName")
-    private void proceedTLSReceived() throws NoSuchAlgorithmException, CertificateException, IOException, KeyStoreException, NoSuchProviderException, UnrecoverableKeyException, KeyManagementException, SmackException {
+    private void proceedTLSReceived() throws NoSuchAlgorithmException, CertificateException, IOException, KeyStoreException, NoSuchProviderException, UnrecoverableKeyException, KeyManagementException, SmackException, InterruptedException {
         SSLContext context = this.config.getCustomSSLContext();
         KeyStore ks = null;
         KeyManager[] kms = null;
@@ -779,6 +850,11 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
             }
         }
 
+        if (nonBlockingTransport != null) {
+            proceedTlsNonBlocking(context);
+            return;
+        }
+
         Socket plain = socket;
         // Secure the plain connection
         socket = context.getSocketFactory().createSocket(plain,
@@ -800,15 +876,43 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
             daneVerifier.finish(sslSocket);
         }
 
+        verifyHostname(sslSocket.getSession());
+
+        // Set that TLS was successful
+        secureSocket = sslSocket;
+    }
+
+    /**
+     * Secure the channel of a non-blocking connection with a SSLEngine. This method won't return until the handshake
+     * finished or an error occurred.
+     *
+     * @param context the SSLContext.
+     * @throws CertificateException if the certificate does not authenticate the XMPP service domain.
+     * @throws IOException if the handshake failed.
+     * @throws SmackException if the handshake did not finish in time.
+     * @throws InterruptedException
+     */
+    private void proceedTlsNonBlocking(SSLContext context) throws CertificateException, IOException, SmackException,
+                    InterruptedException {
+        SSLEngine engine = context.createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        TLSUtils.setEnabledProtocolsAndCiphers(engine, config.getEnabledSSLProtocols(), config.getEnabledSSLCiphers());
+
+        nonBlockingTransport.performTlsHandshake(engine, getReplyTimeout());
+
+        verifyHostname(engine.getSession());
+
+        // Set that TLS was successful
+        sslEngine = engine;
+    }
+
+    private void verifyHostname(SSLSession session) throws CertificateException {
         final HostnameVerifier verifier = getConfiguration().getHostnameVerifier();
         if (verifier == null) {
                 throw new IllegalStateException("No HostnameVerifier set. Use connectionConfiguration.setHostnameVerifier() to configure.");
-        } else if (!verifier.verify(getXMPPServiceDomain().toString(), sslSocket.getSession())) {
+        } else if (!verifier.verify(getXMPPServiceDomain().toString(), session)) {
             throw new CertificateException("Hostname verification of certificate failed. Certificate does not authenticate " + getXMPPServiceDomain());
         }
-
-        // Set that TLS was successful
-        secureSocket = sslSocket;
     }
 
     /**
@@ -969,6 +1073,12 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
             from = XmppStringUtils.completeJidFrom(localpart, to);
         }
         String id = getStreamId();
+        if (nonBlockingTransport != null) {
+            // The server's new stream may arrive as soon as the opening stream element was sent.
+            nonBlockingTransport.resetStream();
+            sendNonza(new StreamOpen(to, from, id));
+            return;
+        }
         sendNonza(new StreamOpen(to, from, id));
         try {
             packetReader.parser = PacketParserUtils.newXmppParser(reader);
@@ -982,6 +1092,11 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
 
         XmlPullParser parser;
 
+        /**
+         * The parser used to parse the elements received by the non-blocking transport.
+         */
+        private XmlPullParser nonBlockingParser;
+
         private volatile boolean done;
 
         /**
@@ -991,6 +1106,12 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         void init() {
             done = false;
 
+            if (nonBlockingTransportListener != null) {
+                // The elements are read by the reactor and handed to the listener's thread.
+                nonBlockingTransportListener.start();
+                return;
+            }
+
             Async.go(new Runnable() {
                 @Override
                 public void run() {
@@ -1004,6 +1125,9 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
          */
         void shutdown() {
             done = true;
+            if (nonBlockingTransportListener != null) {
+                nonBlockingTransportListener.stop();
+            }
         }
 
         /**
@@ -1018,176 +1142,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                 while (!done) {
                     switch (eventType) {
                     case XmlPullParser.START_TAG:
-                        final String name = parser.getName();
-                        switch (name) {
-                        case Message.ELEMENT:
-                        case IQ.IQ_ELEMENT:
-                        case Presence.ELEMENT:
-                            try {
-                                parseAndProcessStanza(parser);
-                            } finally {
-                                clientHandledStanzasCount = SMUtils.incrementHeight(clientHandledStanzasCount);
-                            }
-                            break;
-                        case "stream":
-                            // We found an opening stream.
-                            if ("jabber:client".equals(parser.getNamespace(null))) {
-                                streamId = parser.getAttributeValue("", "id");
-                                String reportedServerDomain = parser.getAttributeValue("", "from");
-                                assert(config.getXMPPServiceDomain().equals(reportedServerDomain));
-                            }
-                            break;
-                        case "error":
-                            StreamError streamError = PacketParserUtils.parseStreamError(parser);
-                            saslFeatureReceived.reportFailure(new StreamErrorException(streamError));
-                            // Mark the tlsHandled sync point as success, we will use the saslFeatureReceived sync
-                            // point to report the error, which is checked immediately after tlsHandled in
-                            // connectInternal().
-                            tlsHandled.reportSuccess();
-                            throw new StreamErrorException(streamError);
-                        case "features":
-                            parseFeatures(parser);
-                            break;
-                        case "proceed":
-                            try {
-                                // Secure the connection by negotiating TLS
-                                proceedTLSReceived();
-                                // Send a new opening stream to the server
-                                openStream();
-                            }
-                            catch (Exception e) {
-                                SmackException smackException = new SmackException(e);
-                                tlsHandled.reportFailure(smackException);
-                                throw e;
-                            }
-                            break;
-                        case "failure":
-                            String namespace = parser.getNamespace(null);
-                            switch (namespace) {
-                            case "urn:ietf:params:xml:ns:xmpp-tls":
-                                // TLS negotiation has failed. The server will close the connection
-                                // TODO Parse failure stanza
-                                throw new SmackException("TLS negotiation has failed");
-                            case "http://jabber.org/protocol/compress":
-                                // Stream compression has been denied. This is a recoverable
-                                // situation. It is still possible to authenticate and
-                                // use the connection but using an uncompressed connection
-                                // TODO Parse failure stanza
-                                compressSyncPoint.reportFailure(new SmackException(
-                                                "Could not establish compression"));
-                                break;
-                            case SaslStreamElements.NAMESPACE:
-                                // SASL authentication has failed. The server may close the connection
-                                // depending on the number of retries
-                                final SASLFailure failure = PacketParserUtils.parseSASLFailure(parser);
-                                getSASLAuthentication().authenticationFailed(failure);
-                                break;
-                            }
-                            break;
-                        case Challenge.ELEMENT:
-                            // The server is challenging the SASL authentication made by the client
-                            String challengeData = parser.nextText();
-                            getSASLAuthentication().challengeReceived(challengeData);
-                            break;
-                        case Success.ELEMENT:
-                            Success success = new Success(parser.nextText());
-                            // We now need to bind a resource for the connection
-                            // Open a new stream and wait for the response
-                            openStream();
-                            // The SASL authentication with the server was successful. The next step
-                            // will be to bind the resource
-                            getSASLAuthentication().authenticated(success);
-                            break;
-                        case Compressed.ELEMENT:
-                            // Server confirmed that it's possible to use stream compression. Start
-                            // stream compression
-                            // Initialize the reader and writer with the new compressed version
-                            initReaderAndWriter();
-                            // Send a new opening stream to the server
-                            openStream();
-                            // Notify that compression is being used
-                            compressSyncPoint.reportSuccess();
-                            break;
-                        case Enabled.ELEMENT:
-                            Enabled enabled = ParseStreamManagement.enabled(parser);
-                            if (enabled.isResumeSet()) {
-                                smSessionId = enabled.getId();
-                                if (StringUtils.isNullOrEmpty(smSessionId)) {
-                                    SmackException xmppException = new SmackException("Stream Management 'enabled' element with resume attribute but without session id received");
-                                    smEnabledSyncPoint.reportFailure(xmppException);
-                                    throw xmppException;
-                                }
-                                smServerMaxResumptimTime = enabled.getMaxResumptionTime();
-                            } else {
-                                // Mark this a non-resumable stream by setting smSessionId to null
-                                smSessionId = null;
-                            }
-                            clientHandledStanzasCount = 0;
-                            smWasEnabledAtLeastOnce = true;
-                            smEnabledSyncPoint.reportSuccess();
-                            LOGGER.fine("Stream Management (XEP-198): succesfully enabled");
-                            break;
-                        case Failed.ELEMENT:
-                            Failed failed = ParseStreamManagement.failed(parser);
-                            FailedNonzaException xmppException = new FailedNonzaException(failed, failed.getXMPPErrorCondition());
-                            // If only XEP-198 would specify different failure elements for the SM
-                            // enable and SM resume failure case. But this is not the case, so we
-                            // need to determine if this is a 'Failed' response for either 'Enable'
-                            // or 'Resume'.
-                            if (smResumedSyncPoint.requestSent()) {
-                                smResumedSyncPoint.reportFailure(xmppException);
-                            }
-                            else {
-                                if (!smEnabledSyncPoint.requestSent()) {
-                                    throw new IllegalStateException("Failed element received but SM was not previously enabled");
-                                }
-                                smEnabledSyncPoint.reportFailure(new SmackException(xmppException));
-                                // Report success for last lastFeaturesReceived so that in case a
-                                // failed resumption, we can continue with normal resource binding.
-                                // See text of XEP-198 5. below Example 11.
-                                lastFeaturesReceived.reportSuccess();
-                            }
-                            break;
-                        case Resumed.ELEMENT:
-                            Resumed resumed = ParseStreamManagement.resumed(parser);
-                            if (!smSessionId.equals(resumed.getPrevId())) {
-                                throw new StreamIdDoesNotMatchException(smSessionId, resumed.getPrevId());
-                            }
-                            // Mark SM as enabled and resumption as successful.
-                            smResumedSyncPoint.reportSuccess();
-                            smEnabledSyncPoint.reportSuccess();
-                            // First, drop the stanzas already handled by the server
-                            processHandledCount(resumed.getHandledCount());
-                            // Then re-send what is left in the unacknowledged queue
-                            List<Stanza> stanzasToResend = new ArrayList<>(unacknowledgedStanzas.size());
-                            unacknowledgedStanzas.drainTo(stanzasToResend);
-                            for (Stanza stanza : stanzasToResend) {
-                                sendStanzaInternal(stanza);
-                            }
-                            // If there where stanzas resent, then request a SM ack for them.
-                            // Writer's sendStreamElement() won't do it automatically based on
-                            // predicates.
-                            if (!stanzasToResend.isEmpty()) {
-                                requestSmAcknowledgementInternal();
-                            }
-                            LOGGER.fine("Stream Management (XEP-198): Stream resumed");
-                            break;
-                        case AckAnswer.ELEMENT:
-                            AckAnswer ackAnswer = ParseStreamManagement.ackAnswer(parser);
-                            processHandledCount(ackAnswer.getHandledCount());
-                            break;
-                        case AckRequest.ELEMENT:
-                            ParseStreamManagement.ackRequest(parser);
-                            if (smEnabledSyncPoint.wasSuccessful()) {
-                                sendSmAcknowledgementInternal();
-                            } else {
-                                LOGGER.warning("SM Ack Request received while SM is not enabled");
-                            }
-                            break;
-                         default:
-                             LOGGER.warning("Unknown top level stream element: " + name);
-                             break;
-                        }
+                        parseTopLevelElement(parser);
                         break;
                     case XmlPullParser.END_TAG:
                         if (parser.getName().equals("stream")) {
@@ -1196,27 +1151,8 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                                 break;
                             }
 
-                            // Check if the queue was already shut down before reporting success on closing stream tag
-                            // received. This avoids a race if there is a disconnect(), followed by a connect(), which
-                            // did re-start the queue again, causing this writer to assume that the queue is not
-                            // shutdown, which results in a call to disconnect().
-                            final boolean queueWasShutdown = packetWriter.queue.isShutdown();
-                            closingStreamReceived.reportSuccess();
-
-                            if (queueWasShutdown) {
-                                // We received a closing stream element *after* we initiated the
-                                // termination of the session by sending a closing stream element to
-                                // the server first
+                            if (processClosingStream()) {
                                 return;
-                            } else {
-                                // We received a closing stream element from the server without us
-                                // sending a closing stream element first. This means that the
-                                // server wants to terminate the session, therefore disconnect
-                                // the connection
-                                LOGGER.info(XMPPTCPConnection.this
-                                                + " received closing </stream> element."
-                                                + " Server wants to terminate the connection, calling disconnect()");
-                                disconnect();
                             }
                         }
                         break;
@@ -1230,22 +1166,310 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                 }
             }
             catch (Exception e) {
-                closingStreamReceived.reportFailure(e);
-                // The exception can be ignored if the the connection is 'done'
-                // or if the it was caused because the socket got closed
-                if (!(done || packetWriter.queue.isShutdown())) {
-                    // Close the connection and notify connection listeners of the
-                    // error.
-                    notifyConnectionError(e);
+                readerFailed(e);
+            }
+        }
+
+        /**
+         * Parse and process the top-level element the given parser is positioned at.
+         *
+         * @param parser the parser positioned at the start tag of the element.
+         * @throws Exception
+         */
+        private void parseTopLevelElement(XmlPullParser parser) throws Exception {
+            final String name = parser.getName();
+                switch (name) {
+                case Message.ELEMENT:
+                case IQ.IQ_ELEMENT:
+                case Presence.ELEMENT:
+                    try {
+                        parseAndProcessStanza(parser);
+                    } finally {
+                        clientHandledStanzasCount = SMUtils.incrementHeight(clientHandledStanzasCount);
+                    }
+                    break;
+                case "stream":
+                    // We found an opening stream.
+                    if ("jabber:client".equals(parser.getNamespace(null))) {
+                        streamId = parser.getAttributeValue("", "id");
+                        String reportedServerDomain = parser.getAttributeValue("", "from");
+                        assert(config.getXMPPServiceDomain().equals(reportedServerDomain));
+                    }
+                    break;
+                case "error":
+                    StreamError streamError = PacketParserUtils.parseStreamError(parser);
+                    saslFeatureReceived.reportFailure(new StreamErrorException(streamError));
+                    // Mark the tlsHandled sync point as success, we will use the saslFeatureReceived sync
+                    // point to report the error, which is checked immediately after tlsHandled in
+                    // connectInternal().
+                    tlsHandled.reportSuccess();
+                    throw new StreamErrorException(streamError);
+                case "features":
+                    parseFeatures(parser);
+                    break;
+                case "proceed":
+                    try {
+                        // Secure the connection by negotiating TLS
+                        proceedTLSReceived();
+                        // Send a new opening stream to the server
+                        openStream();
+                    }
+                    catch (Exception e) {
+                        SmackException smackException = new SmackException(e);
+                        tlsHandled.reportFailure(smackException);
+                        throw e;
+                    }
+                    break;
+                case "failure":
+                    String namespace = parser.getNamespace(null);
+                    switch (namespace) {
+                    case "urn:ietf:params:xml:ns:xmpp-tls":
+                        // TLS negotiation has failed. The server will close the connection
+                        // TODO Parse failure stanza
+                        throw new SmackException("TLS negotiation has failed");
+                    case "http://jabber.org/protocol/compress":
+                        // Stream compression has been denied. This is a recoverable
+                        // situation. It is still possible to authenticate and
+                        // use the connection but using an uncompressed connection
+                        // TODO Parse failure stanza
+                        compressSyncPoint.reportFailure(new SmackException(
+                                        "Could not establish compression"));
+                        break;
+                    case SaslStreamElements.NAMESPACE:
+                        // SASL authentication has failed. The server may close the connection
+                        // depending on the number of retries
+                        final SASLFailure failure = PacketParserUtils.parseSASLFailure(parser);
+                        getSASLAuthentication().authenticationFailed(failure);
+                        break;
+                    }
+                    break;
+                case Challenge.ELEMENT:
+                    // The server is challenging the SASL authentication made by the client
+                    String challengeData = parser.nextText();
+                    getSASLAuthentication().challengeReceived(challengeData);
+                    break;
+                case Success.ELEMENT:
+                    Success success = new Success(parser.nextText());
+                    // We now need to bind a resource for the connection
+                    // Open a new stream and wait for the response
+                    openStream();
+                    // The SASL authentication with the server was successful. The next step
+                    // will be to bind the resource
+                    getSASLAuthentication().authenticated(success);
+                    break;
+                case Compressed.ELEMENT:
+                    // Server confirmed that it's possible to use stream compression. Start
+                    // stream compression
+                    // Initialize the reader and writer with the new compressed version
+                    initReaderAndWriter();
+                    // Send a new opening stream to the server
+                    openStream();
+                    // Notify that compression is being used
+                    compressSyncPoint.reportSuccess();
+                    break;
+                case Enabled.ELEMENT:
+                    Enabled enabled = ParseStreamManagement.enabled(parser);
+                    if (enabled.isResumeSet()) {
+                        smSessionId = enabled.getId();
+                        if (StringUtils.isNullOrEmpty(smSessionId)) {
+                            SmackException xmppException = new SmackException("Stream Management 'enabled' element with resume attribute but without session id received");
+                            smEnabledSyncPoint.reportFailure(xmppException);
+                            throw xmppException;
+                        }
+                        smServerMaxResumptimTime = enabled.getMaxResumptionTime();
+                    } else {
+                        // Mark this a non-resumable stream by setting smSessionId to null
+                        smSessionId = null;
+                    }
+                    clientHandledStanzasCount = 0;
+                    smWasEnabledAtLeastOnce = true;
+                    smEnabledSyncPoint.reportSuccess();
+                    LOGGER.fine("Stream Management (XEP-198): succesfully enabled");
+                    break;
+                case Failed.ELEMENT:
+                    Failed failed = ParseStreamManagement.failed(parser);
+                    FailedNonzaException xmppException = new FailedNonzaException(failed, failed.getXMPPErrorCondition());
+                    // If only XEP-198 would specify different failure elements for the SM
+                    // enable and SM resume failure case. But this is not the case, so we
+                    // need to determine if this is a 'Failed' response for either 'Enable'
+                    // or 'Resume'.
+                    if (smResumedSyncPoint.requestSent()) {
+                        smResumedSyncPoint.reportFailure(xmppException);
+                    }
+                    else {
+                        if (!smEnabledSyncPoint.requestSent()) {
+                            throw new IllegalStateException("Failed element received but SM was not previously enabled");
+                        }
+                        smEnabledSyncPoint.reportFailure(new SmackException(xmppException));
+                        // Report success for last lastFeaturesReceived so that in case a
+                        // failed resumption, we can continue with normal resource binding.
+                        // See text of XEP-198 5. below Example 11.
+                        lastFeaturesReceived.reportSuccess();
+                    }
+                    break;
+                case Resumed.ELEMENT:
+                    Resumed resumed = ParseStreamManagement.resumed(parser);
+                    if (!smSessionId.equals(resumed.getPrevId())) {
+                        throw new StreamIdDoesNotMatchException(smSessionId, resumed.getPrevId());
+                    }
+                    // Mark SM as enabled and resumption as successful.
+                    smResumedSyncPoint.reportSuccess();
+                    smEnabledSyncPoint.reportSuccess();
+                    // First, drop the stanzas already handled by the server
+                    processHandledCount(resumed.getHandledCount());
+                    // Then re-send what is left in the unacknowledged queue
+                    List<Stanza> stanzasToResend = new ArrayList<>(unacknowledgedStanzas.size());
+                    unacknowledgedStanzas.drainTo(stanzasToResend);
+                    for (Stanza stanza : stanzasToResend) {
+                        sendStanzaInternal(stanza);
+                    }
+                    // If there where stanzas resent, then request a SM ack for them.
+                    // Writer's sendStreamElement() won't do it automatically based on
+                    // predicates.
+                    if (!stanzasToResend.isEmpty()) {
+                        requestSmAcknowledgementInternal();
+                    }
+                    LOGGER.fine("Stream Management (XEP-198): Stream resumed");
+                    break;
+                case AckAnswer.ELEMENT:
+                    AckAnswer ackAnswer = ParseStreamManagement.ackAnswer(parser);
+                    final long ackRequestedNanos = smAckRequestedNanos;
+                    if (ackRequestedNanos != 0) {
+                        smAckRequestedNanos = 0;
+                        getMetrics().streamManagementAckReceived(ackRequestedNanos);
+                    }
+                    processHandledCount(ackAnswer.getHandledCount());
+                    break;
+                case AckRequest.ELEMENT:
+                    ParseStreamManagement.ackRequest(parser);
+                    if (smEnabledSyncPoint.wasSuccessful()) {
+                        sendSmAcknowledgementInternal();
+                    } else {
+                        LOGGER.warning("SM Ack Request received while SM is not enabled");
+                    }
+                    break;
+                default:
+                    LOGGER.warning("Unknown top level stream element: " + name);
+                    break;
                 }
+        }
+
+        /**
+         * Process the closing stream element received from the server.
+         *
+         * @return true if we closed the stream first, i.e. if no further elements are expected.
+         */
+        private boolean processClosingStream() {
+            // Check if the queue was already shut down before reporting success on closing stream tag
+            // received. This avoids a race if there is a disconnect(), followed by a connect(), which
+            // did re-start the queue again, causing this writer to assume that the queue is not
+            // shutdown, which results in a call to disconnect().
+            final boolean queueWasShutdown = packetWriter.queue.isShutdown();
+            closingStreamReceived.reportSuccess();
+
+            if (queueWasShutdown) {
+                // We received a closing stream element *after* we initiated the
+                // termination of the session by sending a closing stream element to
+                // the server first
+                return true;
+            } else {
+                // We received a closing stream element from the server without us
+                // sending a closing stream element first. This means that the
+                // server wants to terminate the session, therefore disconnect
+                // the connection
+                LOGGER.info(XMPPTCPConnection.this
+                                + " received closing </stream> element."
+                                + " Server wants to terminate the connection, calling disconnect()");
+                disconnect();
+                return false;
+            }
+        }
+
+        private void readerFailed(Exception e) {
+            closingStreamReceived.reportFailure(e);
+            // The exception can be ignored if the the connection is 'done'
+            // or if the it was caused because the socket got closed
+            if (!(done || packetWriter.queue.isShutdown())) {
+                // Close the connection and notify connection listeners of the
+                // error.
+                notifyConnectionError(e);
+            }
+        }
+
+        /**
+         * Process the opening stream element received by the non-blocking transport.
+         *
+         * @param attributes the attributes of the opening stream element.
+         */
+        private void streamOpened(Map<String, String> attributes) {
+            if ("jabber:client".equals(attributes.get("xmlns"))) {
+                streamId = attributes.get("id");
+                String reportedServerDomain = attributes.get("from");
+                assert(config.getXMPPServiceDomain().equals(reportedServerDomain));
+            }
+        }
+
+        /**
+         * Parse and process a top-level element received by the non-blocking transport. The elements are processed
+         * one after another, in the order they where received.
+         *
+         * @param element the element.
+         */
+        private void parseElement(String element) {
+            if (done) {
+                return;
+            }
+            try {
+                if (nonBlockingParser == null) {
+                    nonBlockingParser = PacketParserUtils.newXmppParser();
+                }
+                parseTopLevelElement(PacketParserUtils.getParserFor(nonBlockingParser, element));
+            }
+            catch (Exception e) {
+                readerFailed(e);
             }
         }
     }
 
+    /**
+     * An element in the queue of the {@link PacketWriter}, together with the time it was put into the queue.
+     */
+    private static final class QueuedElement {
+        private final Element element;
+        private final long enqueuedNanos = System.nanoTime();
+
+        private QueuedElement(Element element) {
+            this.element = element;
+        }
+    }
+
+    /**
+     * The time, as returned by {@link System#nanoTime()}, the oldest not yet answered Stream Management acknowledgement
+     * request was sent, or zero if there is none. Used to measure the acknowledgement lag.
+     */
+    private volatile long smAckRequestedNanos;
+
+    private void smAckRequested() {
+        if (smAckRequestedNanos == 0) {
+            smAckRequestedNanos = System.nanoTime();
+        }
+    }
+
+    @Override
+    protected int getWriterQueueSize() {
+        return packetWriter == null ? 0 : packetWriter.queue.size();
+    }
+
+    @Override
+    protected int getUnacknowledgedStanzaCount() {
+        BlockingQueue<Stanza> unacknowledgedStanzas = this.unacknowledgedStanzas;
+        return unacknowledgedStanzas == null ? 0 : unacknowledgedStanzas.size();
+    }
+
     protected class PacketWriter {
         public static final int QUEUE_SIZE = XMPPTCPConnection.QUEUE_SIZE;
 
-        private final ArrayBlockingQueueWithShutdown<Element> queue = new ArrayBlockingQueueWithShutdown<Element>(
+        private final ArrayBlockingQueueWithShutdown<QueuedElement> queue = new ArrayBlockingQueueWithShutdown<QueuedElement>(
                         QUEUE_SIZE, true);
 
         /**
@@ -1287,6 +1511,12 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
             }
 
             queue.start();
+
+            if (nonBlockingTransport != null) {
+                // The queued elements are written by the reactor, see writeNextElement().
+                return;
+            }
+
             Async.go(new Runnable() {
                 @Override
                 public void run() {
@@ -1321,7 +1551,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         protected void sendStreamElement(Element element) throws NotConnectedException, InterruptedException {
             throwNotConnectedExceptionIfDoneAndResumptionNotPossible();
             try {
-                queue.put(element);
+                queue.put(new QueuedElement(element));
             }
             catch (InterruptedException e) {
                 // put() may throw an InterruptedException for two reasons:
@@ -1332,6 +1562,10 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                 // If the method above did not throw, then the sending thread was interrupted
                 throw e;
             }
+            final NonBlockingTransport transport = nonBlockingTransport;
+            if (transport != null) {
+                transport.requestWrite();
+            }
         }
 
         /**
@@ -1343,12 +1577,21 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
             instantShutdown = instant;
             queue.shutdown();
             shutdownTimestamp = System.currentTimeMillis();
+            final NonBlockingTransport transport = nonBlockingTransport;
+            if (transport != null) {
+                // Reports shutdownDone once the closing stream element was written, or right away if instant.
+                transport.shutdownOutput(!instant);
+            }
             try {
                 shutdownDone.checkIfSuccessOrWait();
             }
             catch (NoResponseException | InterruptedException e) {
                 LOGGER.log(Level.WARNING, "shutdownDone was not marked as successful by the writer thread", e);
             }
+            if (transport != null && instant && isSmEnabled()) {
+                // There is no writer thread draining the remaining stanzas into the unacknowledgedStanzas queue.
+                drainWriterQueueToUnacknowledgedStanzas();
+            }
         }
 
         /**
@@ -1365,7 +1608,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
             }
             Element packet = null;
             try {
-                packet = queue.take();
+                packet = takeFromQueue(queue.take());
             }
             catch (InterruptedException e) {
                 if (!queue.isShutdown()) {
@@ -1376,6 +1619,16 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
             return packet;
         }
 
+        private void writeElement(Element element) throws IOException {
+            CharSequence elementXml = element.toXML();
+            if (elementXml instanceof XmlStringBuilder) {
+                ((XmlStringBuilder) elementXml).write(writer);
+            }
+            else {
+                writer.append(elementXml);
+            }
+        }
+
         private void writePackets() {
             Exception writerException = null;
             try {
@@ -1398,41 +1651,15 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                         // Reset shouldBundleAndDefer to false, nextStreamElement() will set it to true once the
                         // queue is empty again.
                         shouldBundleAndDefer = false;
-                        final AtomicBoolean bundlingAndDeferringStopped = new AtomicBoolean();
-                        final int bundleAndDeferMillis = localBundleAndDeferCallback.getBundleAndDeferMillis(new BundleAndDefer(
-                                        bundlingAndDeferringStopped));
+                        final BundleAndDefer bundleAndDefer = new BundleAndDefer();
+                        final int bundleAndDeferMillis = localBundleAndDeferCallback.getBundleAndDeferMillis(
+                                        bundleAndDefer);
                         if (bundleAndDeferMillis > 0) {
-                            long remainingWait = bundleAndDeferMillis;
-                            final long waitStart = System.currentTimeMillis();
-                            synchronized (bundlingAndDeferringStopped) {
-                                while (!bundlingAndDeferringStopped.get() && remainingWait > 0) {
-                                    bundlingAndDeferringStopped.wait(remainingWait);
-                                    remainingWait = bundleAndDeferMillis
-                                                    - (System.currentTimeMillis() - waitStart);
-                                }
-                            }
+                            bundleAndDefer.awaitStopped(bundleAndDeferMillis);
                         }
                     }
 
-                    Stanza packet = null;
-                    if (element instanceof Stanza) {
-                        packet = (Stanza) element;
-                    }
-                    else if (element instanceof Enable) {
-                        // The client needs to add messages to the unacknowledged stanzas queue
-                        // right after it sent 'enabled'. Stanza will be added once
-                        // unacknowledgedStanzas is not null.
-                        unacknowledgedStanzas = new ArrayBlockingQueue<>(QUEUE_SIZE);
-                    }
-                    maybeAddToUnacknowledgedStanzas(packet);
-
-                    CharSequence elementXml = element.toXML();
-                    if (elementXml instanceof XmlStringBuilder) {
-                        ((XmlStringBuilder) elementXml).write(writer);
-                    }
-                    else {
-                        writer.write(elementXml.toString());
-                    }
+                    Stanza packet = writeStreamElement(element);
 
                     if (queue.isEmpty()) {
                         writer.flush();
@@ -1445,12 +1672,12 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                     // Flush out the rest of the queue.
                     try {
                         while (!queue.isEmpty()) {
-                            Element packet = queue.remove();
+                            Element packet = takeFromQueue(queue.remove());
                             if (packet instanceof Stanza) {
                                 Stanza stanza = (Stanza) packet;
                                 maybeAddToUnacknowledgedStanzas(stanza);
                             }
-                            writer.write(packet.toXML().toString());
+                            writeElement(packet);
                         }
                         writer.flush();
                     }
@@ -1499,16 +1726,97 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
             }
         }
 
+        /**
+         * Write the given element, after adding it to the unacknowledged stanzas if required.
+         *
+         * @param element the element to write.
+         * @return the element if it is a stanza, null otherwise.
+         * @throws IOException
+         */
+        private Stanza writeStreamElement(Element element) throws IOException {
+            Stanza packet = null;
+            if (element instanceof Stanza) {
+                packet = (Stanza) element;
+            }
+            else if (element instanceof Enable) {
+                // The client needs to add messages to the unacknowledged stanzas queue
+                // right after it sent 'enabled'. Stanza will be added once
+                // unacknowledgedStanzas is not null.
+                unacknowledgedStanzas = new ArrayBlockingQueue<>(QUEUE_SIZE);
+            }
+            maybeAddToUnacknowledgedStanzas(packet);
+
+            writeElement(element);
+            if (element instanceof AckRequest) {
+                smAckRequested();
+            }
+            return packet;
+        }
+
+        /**
+         * Write the next element of the queue without blocking. Invoked by the reactor thread of a non-blocking
+         * connection.
+         *
+         * @return true if an element was written, false if the queue is empty or the unacknowledged stanzas queue is
+         *         full.
+         * @throws IOException
+         */
+        private boolean writeNextElement() throws IOException {
+            final QueuedElement queuedElement = queue.peek();
+            if (queuedElement == null) {
+                return false;
+            }
+            final BlockingQueue<Stanza> unacknowledgedStanzas = XMPPTCPConnection.this.unacknowledgedStanzas;
+            if (queuedElement.element instanceof Stanza && unacknowledgedStanzas != null
+                            && unacknowledgedStanzas.remainingCapacity() == 0) {
+                // Putting the stanza into the unacknowledged stanzas queue would block. Continue once the server
+                // acknowledged stanzas, see processHandledCount().
+                return false;
+            }
+            // The reactor thread is the only one removing elements while the connection is connected.
+            Element element = takeFromQueue(queue.poll());
+            Stanza packet = writeStreamElement(element);
+            if (packet != null) {
+                firePacketSendingListeners(packet);
+            }
+            return true;
+        }
+
+        /**
+         * Write the rest of the queue and the closing stream element. Invoked by the reactor thread of a non-blocking
+         * connection on shutdown.
+         *
+         * @throws IOException
+         */
+        private void writeFinalElements() throws IOException {
+            // Flush out the rest of the queue.
+            boolean written;
+            do {
+                written = writeNextElement();
+            } while (written);
+
+            // Close the stream.
+            writer.write("</stream:stream>");
+
+            // Delete the queue contents (hopefully nothing is left).
+            queue.clear();
+        }
+
         private void drainWriterQueueToUnacknowledgedStanzas() {
-            List<Element> elements = new ArrayList<Element>(queue.size());
+            List<QueuedElement> elements = new ArrayList<QueuedElement>(queue.size());
             queue.drainTo(elements);
-            for (Element element : elements) {
-                if (element instanceof Stanza) {
-                    unacknowledgedStanzas.add((Stanza) element);
+            for (QueuedElement queuedElement : elements) {
+                if (queuedElement.element instanceof Stanza) {
+                    unacknowledgedStanzas.add((Stanza) queuedElement.element);
                 }
             }
         }
 
+        private Element takeFromQueue(QueuedElement queuedElement) {
+            getMetrics().writerQueueWaited(queuedElement.enqueuedNanos);
+            return queuedElement.element;
+        }
+
         private void maybeAddToUnacknowledgedStanzas(Stanza stanza) throws IOException {
             // Check if the stream element should be put to the unacknowledgedStanza
             // queue. Note that we can not do the put() in sendStanzaInternal() and the
@@ -1520,6 +1828,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                 if (unacknowledgedStanzas.size() == 0.8 * XMPPTCPConnection.QUEUE_SIZE) {
                     writer.write(AckRequest.INSTANCE.toXML().toString());
                     writer.flush();
+                    smAckRequested();
                 }
                 try {
                     // It is important the we put the stanza in the unacknowledged stanza
@@ -1533,6 +1842,152 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         }
     }
 
+    /**
+     * Connects the {@link NonBlockingTransport} with the {@link PacketReader} and the {@link PacketWriter}. The elements
+     * received by the transport are processed by a dedicated thread, as processing them may block, which the reactor
+     * thread must not. Like the reader thread of a blocking connection, this thread never waits for a thread of the
+     * shared executor. If too many received elements are waiting to be processed, reading is suspended.
+     */
+    private final class NonBlockingTransportListener implements NonBlockingTransport.Listener {
+
+        /**
+         * The number of received elements waiting to be processed, at which reading is suspended.
+         */
+        private static final int MAX_QUEUED_ELEMENTS = 100;
+
+        private final BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+
+        private NonBlockingTransport transport;
+
+        private volatile boolean stopped;
+
+        // Guarded by 'this'.
+        private int queuedElements;
+
+        // Guarded by 'this'.
+        private boolean readingSuspended;
+
+        private void start() {
+            Async.go(new Runnable() {
+                @Override
+                public void run() {
+                    processTasks();
+                }
+            }, "Smack Packet Reader (" + getConnectionCounter() + ")");
+        }
+
+        private void stop() {
+            stopped = true;
+            // Wake up the thread.
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+        }
+
+        private void processTasks() {
+            while (true) {
+                Runnable task;
+                try {
+                    task = tasks.take();
+                }
+                catch (InterruptedException e) {
+                    LOGGER.log(Level.WARNING, "Packet reader thread was interrupted. Don't do that. Use disconnect() instead.", e);
+                    continue;
+                }
+                if (stopped) {
+                    return;
+                }
+                try {
+                    task.run();
+                }
+                finally {
+                    taskProcessed();
+                }
+            }
+        }
+
+        private void queue(Runnable task) {
+            synchronized (this) {
+                if (++queuedElements >= MAX_QUEUED_ELEMENTS && !readingSuspended) {
+                    readingSuspended = true;
+                    transport.setReadingSuspended(true);
+                }
+            }
+            tasks.add(task);
+        }
+
+        private synchronized void taskProcessed() {
+            if (--queuedElements <= MAX_QUEUED_ELEMENTS / 2 && readingSuspended) {
+                readingSuspended = false;
+                transport.setReadingSuspended(false);
+            }
+        }
+
+        @Override
+        public void onStreamOpen(final Map<String, String> attributes) {
+            queue(new Runnable() {
+                @Override
+                public void run() {
+                    packetReader.streamOpened(attributes);
+                }
+            });
+        }
+
+        @Override
+        public void onElement(final String element) {
+            queue(new Runnable() {
+                @Override
+                public void run() {
+                    packetReader.parseElement(element);
+                }
+            });
+        }
+
+        @Override
+        public void onStreamClosed() {
+            queue(new Runnable() {
+                @Override
+                public void run() {
+                    packetReader.processClosingStream();
+                }
+            });
+        }
+
+        @Override
+        public void onInputClosed() {
+            onException(new SmackException(
+                            "The server closed the connection without sending a closing stream element"));
+        }
+
+        @Override
+        public void onException(final Exception exception) {
+            queue(new Runnable() {
+                @Override
+                public void run() {
+                    packetReader.readerFailed(exception);
+                }
+            });
+        }
+
+        @Override
+        public boolean writeNextElement() throws IOException {
+            return packetWriter.writeNextElement();
+        }
+
+        @Override
+        public void writeFinalElements() throws IOException {
+            packetWriter.writeFinalElements();
+        }
+
+        @Override
+        public void onOutputShutdown() {
+            LOGGER.fine("Reporting shutdownDone success of the non-blocking transport");
+            packetWriter.shutdownDone.reportSuccess();
+        }
+    }
+
     /**
      * Set if Stream Management should be used by default for new connections.
      * 
@@ -1860,6 +2315,11 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
             ackedStanzas.add(ackedStanza);
         }
 
+        if (nonBlockingTransport != null) {
+            // The non-blocking transport stops writing stanzas while the unacknowledged stanzas queue is full.
+            nonBlockingTransport.requestWrite();
+        }
+
         boolean atLeastOneStanzaAcknowledgedListener = false;
         if (!stanzaAcknowledgedListeners.isEmpty()) {
             // If stanzaAcknowledgedListeners is not empty, the we have at least one
@@ -48,10 +48,28 @@ public final class XMPPTCPConnectionConfiguration extends ConnectionConfiguratio
      */
     private final int connectTimeout;
 
+    private final boolean nonBlocking;
+
     private XMPPTCPConnectionConfiguration(Builder builder) {
         super(builder);
         compressionEnabled = builder.compressionEnabled;
         connectTimeout = builder.connectTimeout;
+        nonBlocking = builder.nonBlocking;
+
+        if (nonBlocking) {
+            if (compressionEnabled) {
+                throw new IllegalStateException("Stream compression is not supported by non-blocking connections");
+            }
+            if (getProxyInfo() != null) {
+                throw new IllegalStateException("Proxies are not supported by non-blocking connections");
+            }
+            if (getSocketFactory() != null) {
+                throw new IllegalStateException("Custom socket factories are not supported by non-blocking connections");
+            }
+            if (getDnssecMode() == DnssecMode.needsDnssecAndDane) {
+                throw new IllegalStateException("DANE is not supported by non-blocking connections");
+            }
+        }
     }
 
     /**
@@ -76,6 +94,16 @@ public final class XMPPTCPConnectionConfiguration extends ConnectionConfiguratio
         return connectTimeout;
     }
 
+    /**
+     * Returns true if the connection is non-blocking. See {@link Builder#setNonBlocking(boolean)}.
+     *
+     * @return true if the connection is non-blocking.
+     * @since 4.3
+     */
+    public boolean isNonBlocking() {
+        return nonBlocking;
+    }
+
     public static Builder builder() {
         return new Builder();
     }
@@ -87,6 +115,7 @@ public final class XMPPTCPConnectionConfiguration extends ConnectionConfiguratio
     public static final class Builder extends ConnectionConfiguration.Builder<Builder, XMPPTCPConnectionConfiguration> {
         private boolean compressionEnabled = false;
         private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+        private boolean nonBlocking = false;
 
         private Builder() {
         }
@@ -116,6 +145,24 @@ public final class XMPPTCPConnectionConfiguration extends ConnectionConfiguratio
             return this;
         }
 
+        /**
+         * Sets if the connection is non-blocking. A non-blocking connection does not use a reader and a writer thread,
+         * instead its socket channel is served by the {@link org.jivesoftware.smack.SmackReactor}, which multiplexes
+         * many connections on a few threads. TLS is then performed by a {@link javax.net.ssl.SSLEngine}.
+         * <p>
+         * Non-blocking connections do not support stream compression, proxies, custom socket factories, DANE, the
+         * bundle and defer mechanism and the Smack debugger. By default connections are blocking.
+         * </p>
+         *
+         * @param nonBlocking if the connection is non-blocking.
+         * @return a reference to this object.
+         * @since 4.3
+         */
+        public Builder setNonBlocking(boolean nonBlocking) {
+            this.nonBlocking = nonBlocking;
+            return this;
+        }
+
         @Override
         protected Builder getThis() {
             return this;
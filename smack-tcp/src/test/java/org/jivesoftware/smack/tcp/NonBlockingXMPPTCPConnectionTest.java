@@ -0,0 +1,240 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.tcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.ConnectionConfiguration.SecurityMode;
+import org.jivesoftware.smack.StanzaListener;
+import org.jivesoftware.smack.filter.StanzaTypeFilter;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.test.util.SmackTestSuite;
+import org.jivesoftware.smack.util.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.jxmpp.jid.impl.JidCreate;
+
+public class NonBlockingXMPPTCPConnectionTest extends SmackTestSuite {
+
+    private static final String STREAM_OPEN = "<?xml version='1.0'?><stream:stream xmlns='jabber:client'"
+                    + " xmlns:stream='http://etherx.jabber.org/streams' id='stream-1' from='example.org' version='1.0'>";
+
+    private static final String FEATURES = "<stream:features><mechanisms xmlns='urn:ietf:params:xml:ns:xmpp-sasl'>"
+                    + "<mechanism>PLAIN</mechanism></mechanisms></stream:features>";
+
+    private TestServer server;
+
+    private XMPPTCPConnection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TestServer();
+        XMPPTCPConnectionConfiguration config = XMPPTCPConnectionConfiguration.builder()
+                        .setXmppDomain("example.org")
+                        .setHostAddress(InetAddress.getLoopbackAddress())
+                        .setPort(server.serverSocket.getLocalPort())
+                        .setSecurityMode(SecurityMode.disabled)
+                        .setNonBlocking(true)
+                        .build();
+        connection = new XMPPTCPConnection(config);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        connection.instantShutdown();
+        server.close();
+    }
+
+    @Test
+    public void connectExchangeMessagesAndDisconnectTest() throws Exception {
+        final List<String> receivedBodies = Collections.synchronizedList(new ArrayList<String>());
+        final int messageCount = 500;
+        final CountDownLatch allReceived = new CountDownLatch(messageCount);
+        connection.addSyncStanzaListener(new StanzaListener() {
+            @Override
+            public void processStanza(Stanza packet) {
+                receivedBodies.add(((Message) packet).getBody());
+                allReceived.countDown();
+            }
+        }, StanzaTypeFilter.MESSAGE);
+
+        connection.connect();
+        assertTrue(connection.isConnected());
+        assertEquals("stream-1", connection.getStreamId());
+        assertFalse(connection.isSecureConnection());
+
+        // More messages than the transport queues before it suspends reading.
+        StringBuilder messages = new StringBuilder();
+        for (int i = 0; i < messageCount; i++) {
+            messages.append("<message from='juliet@example.org' to='romeo@example.org'><body>")
+                            .append(i).append("</body></message>");
+        }
+        server.send(messages.toString());
+        assertTrue(allReceived.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < messageCount; i++) {
+            assertEquals(Integer.toString(i), receivedBodies.get(i));
+        }
+
+        for (int i = 0; i < messageCount; i++) {
+            Message message = new Message(JidCreate.from("juliet@example.org"), Integer.toString(i));
+            connection.sendStanza(message);
+        }
+        server.awaitReceived("<body>" + (messageCount - 1) + "</body>");
+        String received = server.getReceived();
+        for (int i = 1; i < messageCount; i++) {
+            assertTrue(received.indexOf("<body>" + (i - 1) + "</body>") < received.indexOf("<body>" + i + "</body>"));
+        }
+
+        assertTrue(connection.getMetrics().getBytesReceived() > messages.length());
+        assertTrue(connection.getMetrics().getBytesSent() > 0);
+
+        connection.disconnect();
+        assertFalse(connection.isConnected());
+        server.awaitReceived("</stream:stream>");
+    }
+
+    @Test
+    public void connectionClosedByServerTest() throws Exception {
+        final CountDownLatch closedOnError = new CountDownLatch(1);
+        connection.addConnectionListener(new org.jivesoftware.smack.AbstractConnectionListener() {
+            @Override
+            public void connectionClosedOnError(Exception e) {
+                closedOnError.countDown();
+            }
+        });
+        connection.connect();
+
+        server.closeClientSocket();
+
+        assertTrue(closedOnError.await(10, TimeUnit.SECONDS));
+        assertFalse(connection.isConnected());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void compressionIsNotSupportedTest() throws Exception {
+        XMPPTCPConnectionConfiguration.builder()
+                        .setXmppDomain("example.org")
+                        .setCompressionEnabled(true)
+                        .setNonBlocking(true)
+                        .build();
+    }
+
+    /**
+     * A minimal server which opens the stream and announces its features once the client opened the stream, and which
+     * closes the stream once the client closed it.
+     */
+    private static final class TestServer implements Runnable {
+
+        private final ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+
+        private final StringBuilder received = new StringBuilder();
+
+        private Socket socket;
+
+        private TestServer() throws IOException {
+            Thread thread = new Thread(this, "Test XMPP Server");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                Socket socket = serverSocket.accept();
+                synchronized (this) {
+                    this.socket = socket;
+                }
+                InputStream inputStream = socket.getInputStream();
+                byte[] buffer = new byte[4096];
+                boolean streamOpened = false;
+                boolean streamClosed = false;
+                int read;
+                while ((read = inputStream.read(buffer)) >= 0) {
+                    String receivedSoFar;
+                    synchronized (this) {
+                        received.append(new String(buffer, 0, read, StringUtils.UTF8));
+                        receivedSoFar = received.toString();
+                        notifyAll();
+                    }
+                    int streamOpenIndex = receivedSoFar.indexOf("<stream:stream");
+                    if (!streamOpened && streamOpenIndex >= 0 && receivedSoFar.indexOf('>', streamOpenIndex) > 0) {
+                        streamOpened = true;
+                        send(STREAM_OPEN + FEATURES);
+                    }
+                    if (!streamClosed && receivedSoFar.contains("</stream:stream>")) {
+                        streamClosed = true;
+                        send("</stream:stream>");
+                        socket.close();
+                        return;
+                    }
+                }
+            }
+            catch (IOException e) {
+                // The test closed the socket.
+            }
+        }
+
+        private synchronized void send(String string) throws IOException {
+            socket.getOutputStream().write(string.getBytes(StringUtils.UTF8));
+            socket.getOutputStream().flush();
+        }
+
+        private synchronized String getReceived() {
+            return received.toString();
+        }
+
+        private synchronized void awaitReceived(String string) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (received.indexOf(string) < 0) {
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    fail("Did not receive '" + string + "', received: " + received);
+                }
+                wait(remaining);
+            }
+        }
+
+        private synchronized void closeClientSocket() throws IOException {
+            socket.close();
+        }
+
+        private void close() throws IOException {
+            serverSocket.close();
+            synchronized (this) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+        }
+    }
+}